@@ -0,0 +1,69 @@
+package Balancer;
+
+import Health.HealthChecker;
+import Health.HealthSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Choice of service instance for POST request, including filtering of ejected instances
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectionBenchmark {
+    @Param({"1", "10", "100"})
+    int instances;
+
+    @Param({"least-mailbox", "p2c", "peak-ewma", "weighted-round-robin", "least-outstanding"})
+    String strategy;
+
+    private List<String> addresses;
+    private LoadBalancer balancer;
+    private HealthChecker healthChecker;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        Map<String, Long> mailboxSizes = new HashMap<>();
+        addresses = new ArrayList<>();
+        for(int i = 0; i < instances; i++) {
+            String address = "http://localhost:" + (9000 + i) + "/";
+            addresses.add(address);
+            mailboxSizes.put(address, (long) random.nextInt(1000));
+        }
+        balancer = new LoadBalancers(new UpstreamStats(mailboxSizes::get), BalancerType.fromName(strategy))
+                .forFunction("sum");
+        healthChecker = new HealthChecker(HealthSettings.fromSystemProperties());
+    }
+
+    @TearDown
+    public void tearDown() {
+        healthChecker.close();
+    }
+
+    @Benchmark
+    public String choose() {
+        return balancer.choose(healthChecker.available(addresses));
+    }
+}
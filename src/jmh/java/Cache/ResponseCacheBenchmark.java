@@ -0,0 +1,78 @@
+package Cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local cache of completed GET responses read and written by several threads at once, keys are skewed
+ * so that small part of processes is polled most often
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseCacheBenchmark {
+    //  amount of distinct keys, twice the capacity of cache
+    private static final int KEYS = 20_000;
+
+    private ResponseCache cache;
+    private String[] keys;
+    private String response;
+
+    @Setup
+    public void setUp() {
+        cache = new ResponseCache(KEYS / 2, false, 0);
+        keys = new String[KEYS];
+        for(int i = 0; i < KEYS; i++) {
+            keys[i] = "cached:" + i;
+        }
+        response = "{\"cached\":true,\"id\":\"42\",\"response\":\"done\"}";
+        for(int i = 0; i < KEYS / 2; i++) {
+            cache.put(keys[i], response);
+        }
+    }
+
+    /**
+     * @return index of key, squared uniform value makes low indexes much more frequent
+     */
+    private int nextKey() {
+        double uniform = ThreadLocalRandom.current().nextDouble();
+        return (int) (uniform * uniform * KEYS);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String get() {
+        return cache.get(keys[nextKey()]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(7)
+    public String mixedGet() {
+        return cache.get(keys[nextKey()]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedPut() {
+        cache.put(keys[nextKey()], response);
+    }
+}
@@ -0,0 +1,153 @@
+package Http;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.lambdaworks.redis.KeyScanCursor;
+import com.lambdaworks.redis.RedisConnection;
+import com.lambdaworks.redis.RedisFuture;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process stand-in of Redis for benchmarks: string commands used by gateway are kept in map, other
+ * commands do nothing. Async commands return already completed futures
+ */
+public class FakeRedis {
+    //  stored strings by key
+    private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<>();
+
+    /**
+     * @return async connection backed by this stand-in
+     */
+    @SuppressWarnings("unchecked")
+    public RedisCommands<String> async() {
+        return (RedisCommands<String>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{RedisCommands.class},
+                (proxy, method, args) -> new CompletedFuture<>(execute(method, args)));
+    }
+
+    /**
+     * @return async connection for binary values, its commands do nothing and reply with null
+     */
+    @SuppressWarnings("unchecked")
+    public RedisCommands<byte[]> binaryAsync() {
+        return (RedisCommands<byte[]>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{RedisCommands.class}, (proxy, method, args) -> new CompletedFuture<>(null));
+    }
+
+    /**
+     * @return sync connection backed by this stand-in
+     */
+    @SuppressWarnings("unchecked")
+    public RedisConnection<String, String> sync() {
+        return (RedisConnection<String, String>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{RedisConnection.class}, (proxy, method, args) -> execute(method, args));
+    }
+
+    /**
+     * execute command on map
+     * @param method called command
+     * @param args arguments of command
+     * @return reply of command
+     */
+    private Object execute(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "get":
+                return values.get((String) args[0]);
+            case "set":
+                values.put((String) args[0], (String) args[1]);
+                return "OK";
+            case "del":
+                long deleted = 0;
+                for(Object key : (Object[]) args[0]) {
+                    deleted += values.remove((String) key) != null ? 1 : 0;
+                }
+                return deleted;
+            case "exists":
+                return values.containsKey((String) args[0]);
+            case "pttl":
+                return values.containsKey((String) args[0]) ? -1L : -2L;
+            case "incrby":
+                return Long.parseLong(values.merge((String) args[0], String.valueOf(args[1]),
+                        (current, delta) -> String.valueOf(Long.parseLong(current) + Long.parseLong(delta))));
+            case "mget":
+                List<String> replies = new ArrayList<>();
+                for(Object key : (Object[]) args[0]) {
+                    replies.add(values.get((String) key));
+                }
+                return replies;
+            case "scan":
+                KeyScanCursor<String> cursor = new KeyScanCursor<>();
+                cursor.setCursor("0");
+                cursor.setFinished(true);
+                return cursor;
+            case "eval":
+                return 0L;
+            case "lrange":
+            case "smembers":
+            case "zrangebyscore":
+                return method.getReturnType() == List.class ? Collections.emptyList() : Collections.emptySet();
+            default:
+                return method.getReturnType() == long.class || method.getReturnType() == Long.class ? 0L : null;
+        }
+    }
+
+    /**
+     * Future of command that is already replied
+     */
+    private static class CompletedFuture<V> implements RedisFuture<V> {
+        private final ListenableFuture<V> future;
+
+        CompletedFuture(V value) {
+            this.future = Futures.immediateFuture(value);
+        }
+
+        @Override
+        public String getError() {
+            return null;
+        }
+
+        @Override
+        public boolean await(long timeout, TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public void addListener(Runnable listener, Executor executor) {
+            future.addListener(listener, executor);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            return future.get();
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException {
+            return future.get();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package Http;
+
+import Admission.Bulkheads;
+import Balancer.BalancerType;
+import Balancer.LoadBalancers;
+import Balancer.UpstreamStats;
+import Cache.ResponseCache;
+import Cache.ResultTier;
+import Health.HealthChecker;
+import Health.HealthSettings;
+import Metrics.GatewayMetrics;
+import Upstream.UpstreamCalls;
+import Upstream.UpstreamSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading of request bodies and encoding of responses by gateway handler, with Redis and exchanges faked
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandlerBenchmark {
+    @Param({"64", "4096", "65536"})
+    int bodySize;
+
+    private HttpGatewayContextHandler handler;
+    private byte[] body;
+    private String response;
+
+    @Setup
+    public void setUp() {
+        FakeRedis redis = new FakeRedis();
+        HttpUtility httpUtility = new HttpUtility();
+        ServiceRegistry serviceRegistry = new ServiceRegistry(redis.sync());
+        MailboxCounters mailboxCounters = new MailboxCounters(redis.async(), 100, true);
+        GatewayMetrics metrics = new GatewayMetrics();
+        handler = new HttpGatewayContextHandler(redis.async(), httpUtility, serviceRegistry, mailboxCounters,
+                new ProcessRoutes(redis.async(), 65_536, 3600, 10_000),
+                new LoadBalancers(new UpstreamStats(mailboxCounters::size), BalancerType.LEAST_MAILBOX),
+                new HealthChecker(HealthSettings.fromSystemProperties()), new ResponseCache(10_000, false, 0),
+                new ResultTier(redis.binaryAsync(), redis.async(), 3600, Map.of(), 0, 60_000),
+                new Broadcaster(httpUtility, serviceRegistry, 5000, true), new CompletionNotifier(redis.async()),
+                metrics, Bulkheads.fromSystemProperties(serviceRegistry, 0, metrics),
+                new UpstreamCalls(UpstreamSettings.fromSystemProperties()), null, false);
+        body = Payloads.request(bodySize);
+        response = new String(body, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] getRequestPayload() throws IOException {
+        return handler.getRequestPayload(new FakeExchange("POST", "/", body));
+    }
+
+    @Benchmark
+    public int sendResponse() throws IOException {
+        FakeExchange exchange = new FakeExchange("GET", "/?id=42", new byte[0]);
+        handler.sendResponse(exchange, response);
+        return exchange.getResponseCode();
+    }
+}
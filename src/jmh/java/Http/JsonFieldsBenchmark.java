@@ -0,0 +1,47 @@
+package Http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of routing fields from request bodies of different size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonFieldsBenchmark {
+    @Param({"64", "4096", "65536"})
+    int bodySize;
+
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = Payloads.request(bodySize);
+    }
+
+    @Benchmark
+    public String[] routingFields() throws IOException {
+        return JsonFields.read(body, "functionName", "address");
+    }
+
+    @Benchmark
+    public String[] processId() throws IOException {
+        return JsonFields.read(body, "id");
+    }
+}
@@ -0,0 +1,24 @@
+package Http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request bodies of given size for benchmarks
+ */
+final class Payloads {
+    private Payloads() {
+    }
+
+    /**
+     * @param size approximate size of body in bytes
+     * @return POST body with routing fields first and argument of function padded to given size
+     */
+    static byte[] request(int size) {
+        StringBuilder json = new StringBuilder(size + 64)
+                .append("{\"functionName\":\"sum\",\"address\":\"http://localhost:9000/\",\"id\":\"42\",\"args\":\"");
+        while(json.length() < size - 2) {
+            json.append('x');
+        }
+        return json.append("\"}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,220 @@
+package LoadTest;
+
+import Metrics.LatencyHistogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Open-loop load generator: workflows are started at fixed rate whether earlier ones are finished or not,
+ * and latency of first request of workflow is measured from its planned start, so stalls of gateway are
+ * not hidden by generator waiting for them (coordinated omission)
+ */
+public class LoadGenerator {
+    /**
+     * Measured kinds of requests
+     */
+    public enum Step {
+        POST, PUT, GET, BROADCAST, WORKFLOW
+    }
+
+    //  ID of process in response of service
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*\"?(\\d+)");
+
+    private final HttpClient client;
+    private final URI gateway;
+    private final String functionName;
+
+    //  latencies, requests and errors by step
+    private final Map<Step, LatencyHistogram> latencies = new EnumMap<>(Step.class);
+    private final Map<Step, AtomicLong> requests = new EnumMap<>(Step.class);
+    private final Map<Step, AtomicLong> errors = new EnumMap<>(Step.class);
+
+    //  workflows started and not yet finished
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param client client sending requests
+     * @param gateway address of gateway
+     * @param functionName function called by workflows
+     */
+    public LoadGenerator(HttpClient client, String gateway, String functionName) {
+        this.client = client;
+        this.gateway = URI.create(gateway);
+        this.functionName = functionName;
+        for(Step step : Step.values()) {
+            latencies.put(step, new LatencyHistogram());
+            requests.put(step, new AtomicLong());
+            errors.put(step, new AtomicLong());
+        }
+    }
+
+    /**
+     * start workflows at fixed rate for given time and wait until started ones are finished
+     * @param ratePerSecond workflows started each second
+     * @param durationSeconds time of sending
+     * @param broadcastShare share of started workflows that are single broadcasts instead of POST, PUT and GET
+     * @return time from first start until last workflow finished, in nanoseconds
+     */
+    public long run(double ratePerSecond, long durationSeconds, double broadcastShare) {
+        long intervalNanos = (long) (1_000_000_000 / ratePerSecond);
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for(long planned = startNanos; planned < endNanos; planned += intervalNanos) {
+            long delay = planned - System.nanoTime();
+            if(delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            inFlight.incrementAndGet();
+            CompletableFuture<?> workflow = ThreadLocalRandom.current().nextDouble() < broadcastShare
+                    ? broadcast(planned) : workflow(planned);
+            workflow.whenComplete((ignored, throwable) -> inFlight.decrementAndGet());
+        }
+
+        //  wait for started workflows, but not forever
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while(inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * create process with POST, continue it with PUT and take its result with GET
+     * @param plannedNanos planned start of workflow
+     * @return future completed when workflow is finished
+     */
+    private CompletableFuture<Boolean> workflow(long plannedNanos) {
+        HttpRequest post = json(gateway).POST(HttpRequest.BodyPublishers.ofString(
+                "{\"functionName\":\"" + functionName + "\",\"address\":\"http://localhost:0/\",\"amount\":\"1\"}"))
+                .build();
+        return send(Step.POST, post, plannedNanos).thenCompose(postResponse -> {
+            String id = processId(postResponse);
+            if(id == null) {
+                return finishWorkflow(plannedNanos, false);
+            }
+            HttpRequest put = json(gateway).PUT(HttpRequest.BodyPublishers.ofString(
+                    "{\"id\":" + id + ",\"amount\":\"2\"}")).build();
+            return send(Step.PUT, put, System.nanoTime()).thenCompose(putResponse -> {
+                if(putResponse == null) {
+                    return finishWorkflow(plannedNanos, false);
+                }
+                HttpRequest get = json(gateway.resolve("/?id=" + id)).GET().build();
+                return send(Step.GET, get, System.nanoTime())
+                        .thenCompose(getResponse -> finishWorkflow(plannedNanos, getResponse != null));
+            });
+        });
+    }
+
+    /**
+     * send broadcast to all services of function as service would do
+     * @param plannedNanos planned start of broadcast
+     * @return future completed when broadcast is answered
+     */
+    private CompletableFuture<Boolean> broadcast(long plannedNanos) {
+        HttpRequest request = json(gateway)
+                .header("Service-Call", "broadcast:" + functionName)
+                .header("ServicePort", "0")
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"functionName\":\"" + functionName + "\",\"message\":\"ping\"}"))
+                .build();
+        return send(Step.BROADCAST, request, plannedNanos).thenApply(response -> response != null);
+    }
+
+    /**
+     * record end of workflow
+     * @param plannedNanos planned start of workflow
+     * @param success true if all requests of workflow succeeded
+     * @return completed future
+     */
+    private CompletableFuture<Boolean> finishWorkflow(long plannedNanos, boolean success) {
+        record(Step.WORKFLOW, plannedNanos, success);
+        return CompletableFuture.completedFuture(success);
+    }
+
+    /**
+     * send request and record its latency and result
+     * @param step kind of request
+     * @param request request to gateway
+     * @param startNanos time from which latency is counted
+     * @return future completed with body of successful response or with null
+     */
+    private CompletableFuture<String> send(Step step, HttpRequest request, long startNanos) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).handle((response, throwable) -> {
+            boolean success = throwable == null && response.statusCode() == 200
+                    && !response.body().contains("\"error\"");
+            record(step, startNanos, success);
+            return success ? response.body() : null;
+        });
+    }
+
+    /**
+     * record latency and result of request
+     */
+    private void record(Step step, long startNanos, boolean success) {
+        latencies.get(step).record(System.nanoTime() - startNanos);
+        requests.get(step).incrementAndGet();
+        if(!success) {
+            errors.get(step).incrementAndGet();
+        }
+    }
+
+    /**
+     * @param uri address of request
+     * @return builder of JSON request
+     */
+    private static HttpRequest.Builder json(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(30)).header("Content-Type", "application/json");
+    }
+
+    /**
+     * @param response body of response to POST, null if request failed
+     * @return ID of created process, null if there is none
+     */
+    private static String processId(String response) {
+        if(response == null) {
+            return null;
+        }
+        Matcher matcher = ID.matcher(response);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * @param elapsedNanos time returned by {@link #run(double, long, double)}
+     * @return report with throughput, latency percentiles and error rates of each step
+     */
+    public String report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder report = new StringBuilder(String.format("%-10s %10s %10s %8s %10s %10s %10s %10s%n",
+                "step", "requests", "per sec", "errors", "error %", "p50 ms", "p99 ms", "p999 ms"));
+        for(Step step : Step.values()) {
+            long count = requests.get(step).get();
+            if(count == 0) {
+                continue;
+            }
+            LatencyHistogram histogram = latencies.get(step);
+            long failed = errors.get(step).get();
+            report.append(String.format("%-10s %10d %10.1f %8d %10.2f %10.2f %10.2f %10.2f%n",
+                    step, count, count / seconds, failed, 100.0 * failed / count,
+                    histogram.quantileNanos(0.5) / 1e6, histogram.quantileNanos(0.99) / 1e6,
+                    histogram.quantileNanos(0.999) / 1e6));
+        }
+        if(inFlight.get() > 0) {
+            report.append(inFlight.get()).append(" workflows did not finish\n");
+        }
+        return report.toString();
+    }
+}
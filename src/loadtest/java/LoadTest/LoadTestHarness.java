@@ -0,0 +1,67 @@
+package LoadTest;
+
+import Main.GatewayInstance;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * End-to-end load test without external infrastructure: starts Redis stand-in, gateway with executor
+ * chosen by -Dgateway.executor and stub services, then drives workflows and broadcasts through gateway
+ * with open-loop generator and prints throughput, latency percentiles and error rates.
+ * <p>
+ * Settings are read from system properties:
+ * load.rate (workflows per second), load.durationSeconds, load.broadcastShare, load.services,
+ * load.serviceLatencyMillis, load.failureRate, load.redisPort, load.servicePort, gateway.port and
+ * gateway.executor.threads
+ */
+public class LoadTestHarness {
+    public static void main(String[] args) throws Exception {
+        int redisPort = Integer.getInteger("load.redisPort", 6390);
+        int gatewayPort = Integer.getInteger("gateway.port", 8013);
+        int gatewayThreads = Integer.getInteger("gateway.executor.threads", 32);
+        int servicePort = Integer.getInteger("load.servicePort", 9100);
+        int services = Integer.getInteger("load.services", 4);
+        long serviceLatencyMillis = Long.getLong("load.serviceLatencyMillis", 5);
+        double failureRate = Double.parseDouble(System.getProperty("load.failureRate", "0"));
+        double rate = Double.parseDouble(System.getProperty("load.rate", "200"));
+        long durationSeconds = Long.getLong("load.durationSeconds", 30);
+        double broadcastShare = Double.parseDouble(System.getProperty("load.broadcastShare", "0.05"));
+        String functionName = "sum";
+
+        //  gateway is started in this JVM and talks to stand-in instead of Redis
+        RedisStandIn redis = new RedisStandIn(redisPort);
+        System.setProperty("gateway.redis.uri", "redis://localhost:" + redisPort);
+        System.setProperty("gateway.port", String.valueOf(gatewayPort));
+        System.setProperty("gateway.executor.threads", String.valueOf(gatewayThreads));
+        GatewayInstance.main(new String[0]);
+        String gateway = "http://localhost:" + gatewayPort + "/";
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newFixedThreadPool(4))
+                .build();
+
+        List<StubService> stubs = new ArrayList<>();
+        for(int i = 0; i < services; i++) {
+            StubService stub = new StubService(functionName, servicePort + i, serviceLatencyMillis, failureRate);
+            stub.register(client, gateway);
+            stubs.add(stub);
+        }
+
+        System.out.printf("load test: %.0f workflows/s for %d s, %d services with %d ms latency and %.1f%% failures, "
+                        + "%s executor%n", rate, durationSeconds, services, serviceLatencyMillis, failureRate * 100,
+                System.getProperty("gateway.executor", "bounded"));
+        LoadGenerator generator = new LoadGenerator(client, gateway, functionName);
+        long elapsedNanos = generator.run(rate, durationSeconds, broadcastShare);
+        System.out.print(generator.report(elapsedNanos));
+
+        stubs.forEach(StubService::close);
+        redis.close();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,609 @@
+package LoadTest;
+
+import Server.NioHttpServer;
+import Server.NioSettings;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Protocol test of NIO front end over raw sockets, without gateway behind it: pipelined HTTP/1.1 responses
+ * larger than limit of pending bytes, client that stops reading, ambiguous framing of HTTP/1.1 request body,
+ * HTTP/2 header blocks split into CONTINUATION
+ * frames and over limits, and flow control in both directions. Each scenario prints ok or FAILED, process exits
+ * with 1 if any scenario failed.
+ * <p>
+ * Settings are read from system properties: protocol.port, protocol.writeTimeoutMillis
+ */
+public class ProtocolHarness {
+    //  HTTP/2 frame types, flags and error codes used by scenarios
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int ENHANCE_YOUR_CALM = 0xb;
+
+    //  limits of front end under test, small so scenarios exceed them quickly
+    private static final int MAX_HEADER_BYTES = 4096;
+    private static final int MAX_REQUEST_BYTES = 128 * 1024;
+    private static final int MAX_PENDING_BYTES = 64 * 1024;
+    private static final int MAX_BUFFERED_BYTES = 256 * 1024;
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final int port;
+    private final long writeTimeoutMillis;
+    private int failures;
+
+    private ProtocolHarness(int port, long writeTimeoutMillis) {
+        this.port = port;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = Integer.getInteger("protocol.port", 8033);
+        long writeTimeoutMillis = Long.getLong("protocol.writeTimeoutMillis", 1000);
+
+        NioSettings settings = new NioSettings(1, 30_000, MAX_HEADER_BYTES, MAX_REQUEST_BYTES, 16, MAX_PENDING_BYTES,
+                writeTimeoutMillis, true, 16, MAX_BUFFERED_BYTES);
+        NioHttpServer server = new NioHttpServer(new InetSocketAddress("localhost", port), 0, settings);
+        server.createContext("/", ProtocolHarness::handle);
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "protocol-handler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+
+        ProtocolHarness harness = new ProtocolHarness(port, writeTimeoutMillis);
+        harness.run("pipelined responses over pending limit", harness::pipelining);
+        harness.run("HTTP/1.1 client that stops reading", harness::stalledReader);
+        harness.run("ambiguous framing of request body", harness::bodyFraming);
+        harness.run("header block in CONTINUATION frames", harness::continuation);
+        harness.run("header block over limit", harness::largeHeaderBlock);
+        harness.run("decoded header list over limit", harness::largeHeaderList);
+        harness.run("stream without window of peer", harness::blockedStream);
+        harness.run("window of connection held by request body", harness::heldRequestWindow);
+        harness.run("request bodies over window of connection", harness::receiveWindowOverflow);
+
+        server.stop(0);
+        System.out.println(harness.failures == 0 ? "all scenarios passed" : harness.failures + " scenarios failed");
+        System.exit(harness.failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * handler of test server: /bytes?size=N&delayMillis=D answers with N bytes written in 16 KiB parts after
+     * delay, /echo?delayMillis=D answers with size of request body after delay
+     */
+    private static void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        if(rawQuery != null) {
+            for(String pair : rawQuery.split("&")) {
+                int equals = pair.indexOf('=');
+                query.put(pair.substring(0, equals), pair.substring(equals + 1));
+            }
+        }
+        byte[] request;
+        try (InputStream body = exchange.getRequestBody()) {
+            request = body.readAllBytes();
+        }
+        try {
+            Thread.sleep(Long.parseLong(query.getOrDefault("delayMillis", "0")));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try (OutputStream output = exchange.getResponseBody()) {
+            if(exchange.getRequestURI().getPath().startsWith("/echo")) {
+                byte[] answer = String.valueOf(request.length).getBytes(StandardCharsets.US_ASCII);
+                exchange.sendResponseHeaders(200, answer.length);
+                output.write(answer);
+                return;
+            }
+            int size = Integer.parseInt(query.getOrDefault("size", "0"));
+            exchange.sendResponseHeaders(200, size == 0 ? -1 : size);
+            byte[] part = new byte[16 * 1024];
+            for(int written = 0; written < size; written += part.length) {
+                output.write(part, 0, Math.min(part.length, size - written));
+                output.flush();
+            }
+        }
+    }
+
+    private interface Scenario {
+        String run() throws Exception;
+    }
+
+    /**
+     * run scenario and print its outcome
+     * @param name name of scenario
+     * @param scenario scenario returning null on success or description of failure
+     */
+    private void run(String name, Scenario scenario) {
+        String failure;
+        long started = System.nanoTime();
+        try {
+            failure = scenario.run();
+        } catch (Exception e) {
+            failure = e.toString();
+        }
+        long millis = (System.nanoTime() - started) / 1_000_000;
+        if(failure == null) {
+            System.out.printf("ok      %-45s %6d ms%n", name, millis);
+        } else {
+            failures++;
+            System.out.printf("FAILED  %-45s %6d ms: %s%n", name, millis, failure);
+        }
+    }
+
+    /**
+     * slow first response is written in parts while later responses, each larger than limit of pending bytes,
+     * already wait behind it; writer of the first one must not wait for them
+     */
+    private String pipelining() throws IOException {
+        try (Socket socket = connect()) {
+            int[] sizes = {300_000, 300_000, 10};
+            socket.getOutputStream().write(ascii("GET /bytes?size=" + sizes[0] + "&delayMillis=300 HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n"
+                    + "GET /bytes?size=" + sizes[1] + " HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /bytes?size=" + sizes[2] + " HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            for(int i = 0; i < sizes.length; i++) {
+                long length = readHttp1Response(input);
+                if(length != sizes[i]) {
+                    return "response " + (i + 1) + " has " + length + " bytes instead of " + sizes[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * client asks for large response and reads nothing, connection must be closed after write timeout
+     */
+    private String stalledReader() throws Exception {
+        int size = 64 * 1024 * 1024;
+        try (Socket socket = connect()) {
+            socket.setReceiveBufferSize(64 * 1024);
+            socket.getOutputStream().write(ascii("GET /bytes?size=" + size + " HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+            Thread.sleep(writeTimeoutMillis * 3);
+            InputStream input = socket.getInputStream();
+            byte[] buffer = new byte[64 * 1024];
+            long read = 0;
+            int count;
+            while((count = input.read(buffer)) > 0) {
+                read += count;
+            }
+            return read < size ? null : "whole response was written";
+        }
+    }
+
+    /**
+     * request head split over HEADERS and two CONTINUATION frames is answered normally
+     */
+    private String continuation() throws IOException {
+        try (Http2Client client = new Http2Client()) {
+            byte[] block = requestBlock("GET", "/bytes?size=10", List.of("x-filler", "a".repeat(600)));
+            int third = block.length / 3;
+            client.frame(HEADERS, END_STREAM, 1, block, 0, third);
+            client.frame(CONTINUATION, 0, 1, block, third, third);
+            client.frame(CONTINUATION, END_HEADERS, 1, block, 2 * third, block.length - 2 * third);
+            int status = client.awaitStatus(1);
+            return status == 200 ? null : "status " + status;
+        }
+    }
+
+    /**
+     * header block larger than limit ends connection before it is decoded
+     */
+    private String largeHeaderBlock() throws IOException {
+        try (Http2Client client = new Http2Client()) {
+            Long announced = client.serverSettings.get(SETTINGS_MAX_HEADER_LIST_SIZE);
+            if(announced == null || announced != MAX_HEADER_BYTES) {
+                return "SETTINGS_MAX_HEADER_LIST_SIZE is " + announced;
+            }
+            byte[] block = requestBlock("GET", "/bytes?size=10", List.of("x-filler", "a".repeat(MAX_HEADER_BYTES)));
+            int half = block.length / 2;
+            client.frame(HEADERS, END_STREAM, 1, block, 0, half);
+            client.frame(CONTINUATION, END_HEADERS, 1, block, half, block.length - half);
+            int error = client.awaitGoAway();
+            return error == ENHANCE_YOUR_CALM ? null : "GOAWAY with error " + error;
+        }
+    }
+
+    /**
+     * small header block repeating large field of dynamic table is answered with 431, and the next request on
+     * the same connection still decodes, so dynamic table stayed in sync
+     */
+    private String largeHeaderList() throws IOException {
+        try (Http2Client client = new Http2Client()) {
+            ByteArrayOutputStream first = new ByteArrayOutputStream();
+            first.writeBytes(requestBlock("GET", "/bytes?size=10", List.of()));
+            //  literal with incremental indexing and new name, it becomes entry 62 of dynamic table
+            first.write(0x40);
+            writeString(first, "x-large");
+            writeString(first, "a".repeat(3000));
+            client.headers(1, first.toByteArray());
+            if(client.awaitStatus(1) != 200) {
+                return "first request failed";
+            }
+
+            ByteArrayOutputStream second = new ByteArrayOutputStream();
+            second.writeBytes(requestBlock("GET", "/bytes?size=10", List.of()));
+            for(int i = 0; i < 20; i++) {
+                writeInteger(second, 0x80, 7, 62);
+            }
+            client.headers(3, second.toByteArray());
+            int status = client.awaitStatus(3);
+            if(status != 431) {
+                return "oversized list got status " + status;
+            }
+
+            client.headers(5, requestBlock("GET", "/bytes?size=10", List.of()));
+            status = client.awaitStatus(5);
+            return status == 200 ? null : "request after oversized list got status " + status;
+        }
+    }
+
+    /**
+     * stream without window of peer holds more than limit of pending bytes, another stream that gets window
+     * must still complete, and the blocked one is reset after write timeout
+     */
+    private String blockedStream() throws IOException {
+        int size = 200_000;
+        try (Http2Client client = new Http2Client(0)) {
+            client.headers(1, requestBlock("GET", "/bytes?size=" + size, List.of()));
+            client.headers(3, requestBlock("GET", "/bytes?size=" + size, List.of()));
+            client.windowUpdate(0, size);
+            client.windowUpdate(3, size);
+            long received = client.awaitBody(3);
+            if(received != size) {
+                return "open stream got " + received + " bytes";
+            }
+            Frame reset = client.await(frame -> frame.type == RST_STREAM && frame.streamId == 1,
+                    writeTimeoutMillis * 5);
+            return reset != null ? null : "blocked stream was not reset";
+        }
+    }
+
+    /**
+     * window of connection taken by body of request comes back only after its stream is done
+     */
+    private String heldRequestWindow() throws IOException {
+        int size = 100_000;
+        try (Http2Client client = new Http2Client()) {
+            client.headersAndBody(1, requestBlock("POST", "/echo?delayMillis=300", List.of()), new byte[size]);
+            Frame update = client.await(frame -> frame.type == WINDOW_UPDATE && frame.streamId == 0
+                    || frame.type == HEADERS && frame.streamId == 1, 5000);
+            if(update == null || update.type != HEADERS) {
+                return "window of connection came back before response";
+            }
+            update = client.await(frame -> frame.type == WINDOW_UPDATE && frame.streamId == 0, 5000);
+            if(update == null) {
+                return "window of connection never came back";
+            }
+            int increment = readInt(update.payload, 0);
+            return increment == size ? null : "window came back by " + increment;
+        }
+    }
+
+    /**
+     * peer sending more request bytes than window of connection while earlier body is held is a flow-control
+     * error of connection
+     */
+    private String receiveWindowOverflow() throws IOException {
+        try (Http2Client client = new Http2Client()) {
+            client.headersAndBody(1, requestBlock("POST", "/echo?delayMillis=2000", List.of()), new byte[120_000]);
+            client.headersAndBody(3, requestBlock("POST", "/echo?delayMillis=2000", List.of()), new byte[120_000]);
+            client.headersAndBody(5, requestBlock("POST", "/echo?delayMillis=2000", List.of()), new byte[120_000]);
+            int error = client.awaitGoAway();
+            return error == FLOW_CONTROL_ERROR ? null : "GOAWAY with error " + error;
+        }
+    }
+
+    /**
+     * request body whose end is not certain must be rejected, only single clear framing is accepted
+     */
+    private String bodyFraming() throws IOException {
+        String[][] cases = {
+                {"Transfer-Encoding: chunked\r\nContent-Length: 5", "5\r\nhello\r\n0\r\n\r\n", "400"},
+                {"Transfer-Encoding: chunked, gzip", "5\r\nhello\r\n0\r\n\r\n", "400"},
+                {"Transfer-Encoding: xchunked", "5\r\nhello\r\n0\r\n\r\n", "400"},
+                {"Transfer-Encoding: gzip, chunked", "5\r\nhello\r\n0\r\n\r\n", "501"},
+                {"Content-Length: 5\r\nContent-Length: 6", "hello!", "400"},
+                {"Content-Length: 5, 6", "hello!", "400"},
+                {"Content-Length: 5\r\nContent-Length: 5", "hello", "200"},
+                {"Transfer-Encoding: chunked", "5\r\nhello\r\n0\r\n\r\n", "200"},
+        };
+        for(String[] framing : cases) {
+            try (Socket socket = connect()) {
+                socket.getOutputStream().write(ascii("POST /echo HTTP/1.1\r\nHost: localhost\r\n" + framing[0]
+                        + "\r\n\r\n" + framing[1]));
+                InputStream input = socket.getInputStream();
+                StringBuilder statusLine = new StringBuilder();
+                int next;
+                while((next = input.read()) >= 0 && next != '\r') {
+                    statusLine.append((char) next);
+                }
+                if(!statusLine.toString().startsWith("HTTP/1.1 " + framing[2] + " ")) {
+                    return framing[0].replace("\r\n", "; ") + " answered with " + statusLine;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(10_000);
+        return socket;
+    }
+
+    /**
+     * read one HTTP/1.1 response with Content-Length
+     * @return length of its body
+     */
+    private static long readHttp1Response(DataInputStream input) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while(!head.toString().endsWith("\r\n\r\n")) {
+            int next = input.read();
+            if(next < 0) {
+                throw new EOFException("connection closed in response head");
+            }
+            head.append((char) next);
+        }
+        long length = 0;
+        for(String line : head.toString().split("\r\n")) {
+            if(line.toLowerCase().startsWith("content-length:")) {
+                length = Long.parseLong(line.substring(15).trim());
+            }
+        }
+        input.readFully(new byte[(int) length]);
+        return length;
+    }
+
+    /**
+     * encode request head as literals without indexing
+     * @param fields names and values of extra headers, one pair after another
+     */
+    private static byte[] requestBlock(String method, String path, List<String> fields) {
+        List<String> all = new ArrayList<>(List.of(":method", method, ":scheme", "http", ":path", path,
+                ":authority", "localhost"));
+        all.addAll(fields);
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        for(int i = 0; i + 1 < all.size(); i += 2) {
+            block.write(0x00);
+            writeString(block, all.get(i));
+            writeString(block, all.get(i + 1));
+        }
+        return block.toByteArray();
+    }
+
+    private static void writeString(ByteArrayOutputStream block, String value) {
+        byte[] bytes = ascii(value);
+        writeInteger(block, 0x00, 7, bytes.length);
+        block.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeInteger(ByteArrayOutputStream block, int flags, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if(value < max) {
+            block.write(flags | value);
+            return;
+        }
+        block.write(flags | max);
+        value -= max;
+        while(value >= 0x80) {
+            block.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        block.write(value);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8
+                | bytes[offset + 3] & 0xff;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * received HTTP/2 frame
+     */
+    private static final class Frame {
+        final int type;
+        final int flags;
+        final int streamId;
+        final byte[] payload;
+
+        Frame(int type, int flags, int streamId, byte[] payload) {
+            this.type = type;
+            this.flags = flags;
+            this.streamId = streamId;
+            this.payload = payload;
+        }
+    }
+
+    private interface FrameMatcher {
+        boolean matches(Frame frame);
+    }
+
+    /**
+     * HTTP/2 client by prior knowledge that writes frames as given and reads them one by one, acknowledging
+     * SETTINGS of server
+     */
+    private final class Http2Client implements AutoCloseable {
+        private final Socket socket;
+        private final OutputStream output;
+        private final DataInputStream input;
+
+        //  settings announced by server, bytes of DATA received by stream and streams that ended
+        private final Map<Integer, Long> serverSettings = new HashMap<>();
+        private final Map<Integer, Long> received = new HashMap<>();
+        private final Map<Integer, Boolean> ended = new HashMap<>();
+
+        Http2Client() throws IOException {
+            this(-1);
+        }
+
+        /**
+         * @param initialWindow window of streams announced to server, -1 to keep default
+         */
+        Http2Client(int initialWindow) throws IOException {
+            socket = connect();
+            output = socket.getOutputStream();
+            input = new DataInputStream(socket.getInputStream());
+            output.write(PREFACE);
+            byte[] settings = new byte[initialWindow < 0 ? 0 : 6];
+            if(initialWindow >= 0) {
+                settings[1] = 0x4;
+                settings[5] = (byte) initialWindow;
+                settings[4] = (byte) (initialWindow >>> 8);
+                settings[3] = (byte) (initialWindow >>> 16);
+                settings[2] = (byte) (initialWindow >>> 24);
+            }
+            frame(SETTINGS, 0, 0, settings, 0, settings.length);
+
+            //  server opens window of connection right after its SETTINGS
+            if(await(frame -> frame.type == WINDOW_UPDATE && frame.streamId == 0, 5000) == null) {
+                throw new IOException("server did not open window of connection");
+            }
+        }
+
+        void frame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException {
+            byte[] frame = new byte[9 + length];
+            frame[0] = (byte) (length >>> 16);
+            frame[1] = (byte) (length >>> 8);
+            frame[2] = (byte) length;
+            frame[3] = (byte) type;
+            frame[4] = (byte) flags;
+            frame[5] = (byte) (streamId >>> 24);
+            frame[6] = (byte) (streamId >>> 16);
+            frame[7] = (byte) (streamId >>> 8);
+            frame[8] = (byte) streamId;
+            System.arraycopy(payload, offset, frame, 9, length);
+            output.write(frame);
+        }
+
+        void headers(int streamId, byte[] block) throws IOException {
+            frame(HEADERS, END_STREAM | END_HEADERS, streamId, block, 0, block.length);
+        }
+
+        void headersAndBody(int streamId, byte[] block, byte[] body) throws IOException {
+            frame(HEADERS, END_HEADERS, streamId, block, 0, block.length);
+            for(int position = 0; position < body.length; position += 16_384) {
+                int size = Math.min(16_384, body.length - position);
+                frame(DATA, position + size == body.length ? END_STREAM : 0, streamId, body, position, size);
+            }
+        }
+
+        void windowUpdate(int streamId, int increment) throws IOException {
+            byte[] payload = {(byte) (increment >>> 24), (byte) (increment >>> 16), (byte) (increment >>> 8),
+                    (byte) increment};
+            frame(WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+        }
+
+        /**
+         * read frames until one matches or time runs out
+         * @return matching frame, null if there was none in time or connection was closed
+         */
+        Frame await(FrameMatcher matcher, long timeoutMillis) throws IOException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while(System.currentTimeMillis() < deadline) {
+                socket.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+                Frame frame;
+                try {
+                    frame = read();
+                } catch (SocketTimeoutException | EOFException e) {
+                    return null;
+                }
+                if(matcher.matches(frame)) {
+                    return frame;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return status of response of stream, -1 if there was none
+         */
+        int awaitStatus(int streamId) throws IOException {
+            Frame frame = await(candidate -> candidate.type == HEADERS && candidate.streamId == streamId, 5000);
+            if(frame == null) {
+                return -1;
+            }
+            //  server writes status first, as literal with indexed name :status
+            return Integer.parseInt(new String(frame.payload, 2, frame.payload[1] & 0x7f, StandardCharsets.US_ASCII));
+        }
+
+        /**
+         * @return amount of body bytes of stream when it ended, -1 if it did not end in time
+         */
+        long awaitBody(int streamId) throws IOException {
+            Frame frame = await(candidate -> ended.getOrDefault(streamId, false), 5000);
+            return frame == null ? -1 : received.getOrDefault(streamId, 0L);
+        }
+
+        /**
+         * @return error code of GOAWAY, -1 if there was none
+         */
+        int awaitGoAway() throws IOException {
+            Frame frame = await(candidate -> candidate.type == GOAWAY, 5000);
+            return frame == null ? -1 : readInt(frame.payload, 4);
+        }
+
+        private Frame read() throws IOException {
+            byte[] header = new byte[9];
+            input.readFully(header);
+            int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+            byte[] payload = new byte[length];
+            input.readFully(payload);
+            Frame frame = new Frame(header[3] & 0xff, header[4] & 0xff, readInt(header, 5) & 0x7fffffff, payload);
+            if(frame.type == SETTINGS && (frame.flags & ACK) == 0) {
+                for(int position = 0; position + 6 <= length; position += 6) {
+                    serverSettings.put((payload[position] & 0xff) << 8 | payload[position + 1] & 0xff,
+                            readInt(payload, position + 2) & 0xffffffffL);
+                }
+                frame(SETTINGS, ACK, 0, new byte[0], 0, 0);
+            }
+            if(frame.type == DATA) {
+                received.merge(frame.streamId, (long) length, Long::sum);
+            }
+            if((frame.type == DATA || frame.type == HEADERS) && (frame.flags & END_STREAM) != 0) {
+                ended.put(frame.streamId, true);
+            }
+            return frame;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
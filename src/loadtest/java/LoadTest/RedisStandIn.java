@@ -0,0 +1,550 @@
+package LoadTest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Local stand-in of Redis speaking RESP over TCP. It supports only commands used by gateway: strings,
+ * lists, sets, sorted sets, scan, pub/sub and scripts of result tier. Like Redis it executes one command at
+ * a time, every client has its own thread
+ */
+public class RedisStandIn implements Closeable {
+    //  socket accepting clients
+    private final ServerSocket serverSocket;
+
+    //  stored values by key: strings, lists or sets
+    private final Map<String, Object> values = new HashMap<>();
+
+    //  expiry times of keys set with TTL, checked when key is used
+    private final Map<String, Long> expiries = new HashMap<>();
+
+    //  connections subscribed to channels
+    private final List<Client> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * start stand-in
+     * @param port port to listen on
+     * @throws IOException if port cannot be bound
+     */
+    public RedisStandIn(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "redis-stand-in");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * accept clients until socket is closed
+     */
+    private void accept() {
+        while(!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread thread = new Thread(() -> serve(new Client(socket)), "redis-stand-in-client");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * read commands of client and answer them until client disconnects
+     * @param client connected client
+     */
+    private void serve(Client client) {
+        try {
+            List<String> command;
+            while((command = client.readCommand()) != null) {
+                Object reply;
+                synchronized (values) {
+                    reply = execute(client, command);
+                }
+                client.write(reply);
+            }
+        } catch (IOException ignored) {
+            //  client disconnected
+        } finally {
+            subscribers.remove(client);
+            client.close();
+        }
+    }
+
+    /**
+     * parse score of sorted set
+     * @param value number or -inf, +inf
+     * @return score
+     */
+    private static double score(String value) {
+        switch (value) {
+            case "-inf":
+                return Double.NEGATIVE_INFINITY;
+            case "+inf":
+            case "inf":
+                return Double.POSITIVE_INFINITY;
+            default:
+                return Double.parseDouble(value);
+        }
+    }
+
+    /**
+     * execute one command
+     * @param client client that sent command
+     * @param command name and arguments of command
+     * @return reply: String for status, byte[] or null for bulk, Long for integer, List for array, Error for error
+     */
+    @SuppressWarnings("unchecked")
+    private Object execute(Client client, List<String> command) {
+        String name = command.get(0).toUpperCase();
+        if(command.size() > 1) {
+            Long expiry = expiries.get(command.get(1));
+            if(expiry != null && expiry <= System.currentTimeMillis()) {
+                expiries.remove(command.get(1));
+                values.remove(command.get(1));
+            }
+        }
+        switch (name) {
+            case "PING":
+                return "PONG";
+            case "SELECT":
+            case "AUTH":
+                return "OK";
+            case "GET": {
+                Object value = values.get(command.get(1));
+                return value instanceof String ? bytes((String) value) : null;
+            }
+            case "SET":
+                values.put(command.get(1), command.get(2));
+                expiries.remove(command.get(1));
+                return "OK";
+            case "SETEX":
+                values.put(command.get(1), command.get(3));
+                expiries.put(command.get(1), System.currentTimeMillis() + Long.parseLong(command.get(2)) * 1000);
+                return "OK";
+            case "EXPIRE":
+                if(!values.containsKey(command.get(1))) {
+                    return 0L;
+                }
+                expiries.put(command.get(1), System.currentTimeMillis() + Long.parseLong(command.get(2)) * 1000);
+                return 1L;
+            case "PTTL": {
+                if(!values.containsKey(command.get(1))) {
+                    return -2L;
+                }
+                Long expiry = expiries.get(command.get(1));
+                return expiry == null ? -1L : Math.max(0, expiry - System.currentTimeMillis());
+            }
+            case "DEL": {
+                long deleted = 0;
+                for(String key : command.subList(1, command.size())) {
+                    deleted += values.remove(key) != null ? 1 : 0;
+                }
+                return deleted;
+            }
+            case "EXISTS":
+                return values.containsKey(command.get(1)) ? 1L : 0L;
+            case "INCR":
+            case "INCRBY":
+            case "DECRBY": {
+                long delta = name.equals("INCR") ? 1 : Long.parseLong(command.get(2));
+                Object current = values.get(command.get(1));
+                long value = (current == null ? 0 : Long.parseLong((String) current))
+                        + (name.equals("DECRBY") ? -delta : delta);
+                values.put(command.get(1), String.valueOf(value));
+                return value;
+            }
+            case "MGET": {
+                List<Object> replies = new ArrayList<>();
+                for(String key : command.subList(1, command.size())) {
+                    Object value = values.get(key);
+                    replies.add(value instanceof String ? bytes((String) value) : null);
+                }
+                return replies;
+            }
+            case "LPUSH": {
+                LinkedList<String> list = (LinkedList<String>) values.computeIfAbsent(
+                        command.get(1), key -> new LinkedList<String>());
+                for(String value : command.subList(2, command.size())) {
+                    list.addFirst(value);
+                }
+                return (long) list.size();
+            }
+            case "LRANGE": {
+                List<String> list = (List<String>) values.getOrDefault(command.get(1), new LinkedList<String>());
+                int size = list.size();
+                int start = index(Integer.parseInt(command.get(2)), size);
+                int stop = Math.min(index(Integer.parseInt(command.get(3)), size), size - 1);
+                List<Object> replies = new ArrayList<>();
+                for(int i = start; i <= stop; i++) {
+                    replies.add(bytes(list.get(i)));
+                }
+                return replies;
+            }
+            case "LREM": {
+                List<String> list = (List<String>) values.get(command.get(1));
+                long removed = 0;
+                while(list != null && list.remove(command.get(3))) {
+                    removed++;
+                }
+                return removed;
+            }
+            case "SADD": {
+                Set<String> set = (Set<String>) values.computeIfAbsent(
+                        command.get(1), key -> new LinkedHashSet<String>());
+                long added = 0;
+                for(String value : command.subList(2, command.size())) {
+                    added += set.add(value) ? 1 : 0;
+                }
+                return added;
+            }
+            case "SMEMBERS": {
+                List<Object> replies = new ArrayList<>();
+                for(String value : (Set<String>) values.getOrDefault(command.get(1), new LinkedHashSet<String>())) {
+                    replies.add(bytes(value));
+                }
+                return replies;
+            }
+            case "ZADD": {
+                Map<String, Double> set = (Map<String, Double>) values.computeIfAbsent(
+                        command.get(1), key -> new HashMap<String, Double>());
+                long added = 0;
+                for(int i = 2; i + 1 < command.size(); i += 2) {
+                    added += set.put(command.get(i + 1), score(command.get(i))) == null ? 1 : 0;
+                }
+                return added;
+            }
+            case "ZREM": {
+                Map<String, Double> set = (Map<String, Double>) values.getOrDefault(command.get(1), new HashMap<>());
+                long removed = 0;
+                for(String member : command.subList(2, command.size())) {
+                    removed += set.remove(member) != null ? 1 : 0;
+                }
+                return removed;
+            }
+            case "ZREMRANGEBYSCORE": {
+                Map<String, Double> set = (Map<String, Double>) values.getOrDefault(command.get(1), new HashMap<>());
+                double min = score(command.get(2));
+                double max = score(command.get(3));
+                int size = set.size();
+                set.values().removeIf(score -> score >= min && score <= max);
+                return (long) (size - set.size());
+            }
+            case "ZRANGEBYSCORE": {
+                Map<String, Double> set = (Map<String, Double>) values.getOrDefault(command.get(1), new HashMap<>());
+                double min = score(command.get(2));
+                double max = score(command.get(3));
+                boolean limited = command.size() > 6 && command.get(4).equalsIgnoreCase("LIMIT");
+                long offset = limited ? Long.parseLong(command.get(5)) : 0;
+                long count = limited ? Long.parseLong(command.get(6)) : Long.MAX_VALUE;
+                List<Object> replies = new ArrayList<>();
+                set.entrySet().stream()
+                        .filter(member -> member.getValue() >= min && member.getValue() <= max)
+                        .sorted(Map.Entry.comparingByValue())
+                        .skip(offset)
+                        .limit(count < 0 ? Long.MAX_VALUE : count)
+                        .forEach(member -> replies.add(bytes(member.getKey())));
+                return replies;
+            }
+            case "SCAN": {
+                //  cursor is position in sorted keys, keys changed between calls may be skipped or repeated
+                List<String> keys = new ArrayList<>(values.keySet());
+                Collections.sort(keys);
+                String pattern = ".*";
+                long count = 10;
+                for(int i = 2; i + 1 < command.size(); i += 2) {
+                    if(command.get(i).equalsIgnoreCase("MATCH")) {
+                        pattern = "\\Q" + command.get(i + 1).replace("*", "\\E.*\\Q") + "\\E";
+                    } else if(command.get(i).equalsIgnoreCase("COUNT")) {
+                        count = Long.parseLong(command.get(i + 1));
+                    }
+                }
+                int start = Math.min(Integer.parseInt(command.get(1)), keys.size());
+                int end = (int) Math.min(keys.size(), start + count);
+                List<Object> page = new ArrayList<>();
+                for(String key : keys.subList(start, end)) {
+                    if(key.matches(pattern)) {
+                        page.add(bytes(key));
+                    }
+                }
+                return List.of(bytes(String.valueOf(end == keys.size() ? 0 : end)), page);
+            }
+            case "EVAL": {
+                int keyCount = Integer.parseInt(command.get(2));
+                return eval(command.get(1), command.subList(3, 3 + keyCount), command.subList(3 + keyCount,
+                        command.size()));
+            }
+            case "ZCARD":
+                return (long) ((Map<String, Double>) values.getOrDefault(command.get(1), new HashMap<>())).size();
+            case "SUBSCRIBE": {
+                if(!subscribers.contains(client)) {
+                    subscribers.add(client);
+                }
+                //  confirmation of each channel is a separate reply, the last one is returned as usual
+                List<Object> confirmation = null;
+                for(int i = 1; i < command.size(); i++) {
+                    if(confirmation != null) {
+                        client.writeQuietly(confirmation);
+                    }
+                    client.channels.add(command.get(i));
+                    confirmation = List.of(bytes("subscribe"), bytes(command.get(i)), (long) client.channels.size());
+                }
+                return confirmation;
+            }
+            case "PUBLISH": {
+                long receivers = 0;
+                for(Client subscriber : subscribers) {
+                    if(subscriber.channels.contains(command.get(1))) {
+                        subscriber.writeQuietly(List.of(bytes("message"), bytes(command.get(1)), bytes(command.get(2))));
+                        receivers++;
+                    }
+                }
+                return receivers;
+            }
+            default:
+                return new Error("ERR unknown command '" + name + "'");
+        }
+    }
+
+    /**
+     * execute script of result tier natively, stand-in has no Lua so script is recognised by command that
+     * only it calls
+     * @param script text of script
+     * @param keys index, sizes and counter of bytes of tier
+     * @param args arguments of script
+     * @return reply of script
+     */
+    @SuppressWarnings("unchecked")
+    private Object eval(String script, List<String> keys, List<String> args) {
+        Map<String, Double> index = (Map<String, Double>) values.computeIfAbsent(
+                keys.get(0), key -> new HashMap<String, Double>());
+        Map<String, String> sizes = (Map<String, String>) values.computeIfAbsent(
+                keys.get(1), key -> new HashMap<String, String>());
+        if(script.contains("'incrby'")) {
+            long previous = Long.parseLong(sizes.getOrDefault(args.get(1), "0"));
+            index.put(args.get(1), score(args.get(0)));
+            sizes.put(args.get(1), args.get(2));
+            return add(keys.get(2), Long.parseLong(args.get(2)) - previous);
+        }
+        if(script.contains("'zrangebyscore'")) {
+            double max = score(args.get(0));
+            List<String> ids = new ArrayList<>();
+            index.entrySet().stream()
+                    .filter(member -> member.getValue() <= max)
+                    .sorted(Map.Entry.comparingByValue())
+                    .limit(Long.parseLong(args.get(1)))
+                    .forEach(member -> ids.add(member.getKey()));
+            long freed = 0;
+            for(String id : ids) {
+                index.remove(id);
+                String size = sizes.remove(id);
+                freed += size == null ? 0 : Long.parseLong(size);
+            }
+            add(keys.get(2), -freed);
+            return (long) ids.size();
+        }
+        if(script.contains("'zrange'")) {
+            long total = add(keys.get(2), 0);
+            long evicted = 0;
+            while(total > Long.parseLong(args.get(0)) && evicted < Long.parseLong(args.get(1)) && !index.isEmpty()) {
+                String id = Collections.min(index.entrySet(), Map.Entry.comparingByValue()).getKey();
+                index.remove(id);
+                String size = sizes.remove(id);
+                values.remove(args.get(2) + id);
+                expiries.remove(args.get(2) + id);
+                total = add(keys.get(2), -(size == null ? 0 : Long.parseLong(size)));
+                evicted++;
+            }
+            return evicted;
+        }
+        return new Error("ERR only scripts of result tier are supported");
+    }
+
+    /**
+     * add to counter
+     * @param key key of counter
+     * @param delta amount to add
+     * @return new value of counter
+     */
+    private long add(String key, long delta) {
+        Object current = values.get(key);
+        long value = (current == null ? 0 : Long.parseLong((String) current)) + delta;
+        values.put(key, String.valueOf(value));
+        return value;
+    }
+
+    /**
+     * @param index index that may count from end of list
+     * @param size size of list
+     * @return index counted from start of list
+     */
+    private static int index(int index, int size) {
+        return Math.max(0, index < 0 ? size + index : index);
+    }
+
+    /**
+     * @param value string value holding one char per byte
+     * @return value as bulk reply
+     */
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * stop accepting clients
+     * @throws IOException i/o error
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    /**
+     * Error reply
+     */
+    private static class Error {
+        final String message;
+
+        Error(String message) {
+            this.message = message;
+        }
+    }
+
+    /**
+     * Connected client
+     */
+    private static class Client {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+
+        //  channels client is subscribed to
+        final Set<String> channels = ConcurrentHashMap.newKeySet();
+
+        Client(Socket socket) {
+            this.socket = socket;
+            try {
+                this.in = new BufferedInputStream(socket.getInputStream());
+                this.out = new BufferedOutputStream(socket.getOutputStream());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * @return name and arguments of next command, null if client disconnected
+         * @throws IOException i/o error
+         */
+        List<String> readCommand() throws IOException {
+            String header = readLine();
+            if(header == null) {
+                return null;
+            }
+            //  clients send commands as arrays of bulk strings
+            int count = Integer.parseInt(header.substring(1));
+            List<String> command = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                int length = Integer.parseInt(readLine().substring(1));
+                byte[] value = in.readNBytes(length);
+                in.readNBytes(2);
+                //  one char per byte keeps binary values intact, text is sent back with the same bytes
+                command.add(new String(value, StandardCharsets.ISO_8859_1));
+            }
+            return command;
+        }
+
+        /**
+         * @return line without CRLF, null at end of stream
+         * @throws IOException i/o error
+         */
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int next;
+            while((next = in.read()) != -1) {
+                if(next == '\r') {
+                    in.read();
+                    return line.toString();
+                }
+                line.append((char) next);
+            }
+            return null;
+        }
+
+        /**
+         * write reply and flush it
+         * @param reply reply of command
+         * @throws IOException i/o error
+         */
+        synchronized void write(Object reply) throws IOException {
+            encode(reply);
+            out.flush();
+        }
+
+        /**
+         * write pushed message, dropping it if client is gone
+         * @param reply pushed message
+         */
+        void writeQuietly(Object reply) {
+            try {
+                write(reply);
+            } catch (IOException ignored) {
+                //  client disconnected, it is removed by its own thread
+            }
+        }
+
+        /**
+         * encode reply in RESP
+         * @param reply reply of command
+         * @throws IOException i/o error
+         */
+        private void encode(Object reply) throws IOException {
+            if(reply == null) {
+                out.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+            } else if(reply instanceof String) {
+                out.write(("+" + reply + "\r\n").getBytes(StandardCharsets.UTF_8));
+            } else if(reply instanceof Error) {
+                out.write(("-" + ((Error) reply).message + "\r\n").getBytes(StandardCharsets.UTF_8));
+            } else if(reply instanceof Long) {
+                out.write((":" + reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            } else if(reply instanceof byte[]) {
+                byte[] value = (byte[]) reply;
+                out.write(("$" + value.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(value);
+                out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            } else {
+                List<?> values = (List<?>) reply;
+                out.write(("*" + values.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                for(Object value : values) {
+                    encode(value);
+                }
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                //  already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package LoadTest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Service with one function for load tests. It registers itself in gateway as real services do, creates
+ * process on POST, continues it on PUT and finishes it on GET, answering after configurable delay and
+ * failing configurable share of requests
+ */
+public class StubService implements Closeable {
+    //  IDs of processes, shared by all stubs so they never repeat
+    private static final AtomicLong PROCESS_IDS = new AtomicLong(1);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String functionName;
+    private final int port;
+    private final long latencyMillis;
+    private final double failureRate;
+
+    /**
+     * start service
+     * @param functionName name of function of service
+     * @param port port to listen on
+     * @param latencyMillis mean delay of answer, actual delays are exponentially distributed
+     * @param failureRate share of requests answered with 500
+     * @throws IOException if port cannot be bound
+     */
+    public StubService(String functionName, int port, long latencyMillis, double failureRate) throws IOException {
+        this.functionName = functionName;
+        this.port = port;
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/", this::handle);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stub-" + port);
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return address of service as it is registered in gateway
+     */
+    public String address() {
+        return "http://localhost:" + port + "/";
+    }
+
+    /**
+     * register service in gateway with Service-Call header
+     * @param client client sending registration
+     * @param gateway address of gateway
+     * @throws IOException if gateway did not accept registration
+     * @throws InterruptedException if registration was interrupted
+     */
+    public void register(HttpClient client, String gateway) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(gateway))
+                .header("Content-Type", "application/json")
+                .header("Service-Call", "true")
+                .header("ServicePort", String.valueOf(port))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"functionName\":\"" + functionName + "\",\"address\":\"" + address() + "\"}"))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if(response.statusCode() != 200 || response.body().contains("error")) {
+            throw new IOException("registration of " + address() + " failed: " + response.body());
+        }
+    }
+
+    /**
+     * answer request of gateway
+     * @param exchange request of gateway
+     * @throws IOException i/o error
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        try {
+            if(latencyMillis > 0) {
+                Thread.sleep((long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * latencyMillis));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(ThreadLocalRandom.current().nextDouble() < failureRate) {
+            send(exchange, 500, "{\"error\":\"simulated failure\"}");
+            return;
+        }
+
+        switch (exchange.getRequestMethod()) {
+            case "POST":
+                if(exchange.getRequestHeaders().containsKey("Service-Call")) {
+                    send(exchange, 200, "{\"status\":\"broadcast received\",\"port\":" + port + "}");
+                } else {
+                    send(exchange, 200, "{\"id\":\"" + PROCESS_IDS.getAndIncrement() + "\",\"status\":\"created\"}");
+                }
+                return;
+            case "PUT":
+                send(exchange, 200, "{\"status\":\"continued\"," + body.substring(body.indexOf('{') + 1));
+                return;
+            case "GET":
+                String query = exchange.getRequestURI().getQuery();
+                String id = query == null ? "0" : query.substring(query.indexOf('=') + 1);
+                send(exchange, 200, "{\"id\":\"" + id + "\",\"response\":\"done\"}");
+                return;
+            default:
+                send(exchange, 405, "{\"error\":\"method not allowed\"}");
+        }
+    }
+
+    /**
+     * send JSON answer
+     */
+    private static void send(HttpExchange exchange, int status, String response) throws IOException {
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * stop service
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
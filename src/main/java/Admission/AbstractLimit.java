@@ -0,0 +1,45 @@
+package Admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base of concurrency limits: admitted requests are counted with CAS against current limit, subclasses
+ * only decide how limit changes with samples of latency
+ */
+abstract class AbstractLimit implements ConcurrencyLimit {
+    //  admitted requests without response yet
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @Override
+    public boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if(current >= limit()) {
+                return false;
+            }
+        } while(!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    @Override
+    public void release(long latencyNanos, boolean failed) {
+        int before = inFlight.getAndDecrement();
+        if(latencyNanos >= 0 || failed) {
+            onSample(latencyNanos, before, failed);
+        }
+    }
+
+    @Override
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * adjust limit after request is finished
+     * @param latencyNanos latency of request, negative if there is no sample
+     * @param inFlight amount of requests in flight when it was finished, including it
+     * @param failed true if request failed because of overload
+     */
+    protected abstract void onSample(long latencyNanos, int inFlight, boolean failed);
+}
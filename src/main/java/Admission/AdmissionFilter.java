@@ -0,0 +1,220 @@
+package Admission;
+
+import Cluster.ClusterMembership;
+import Http.ForwardingExchange;
+import Http.HttpGatewayContextHandler;
+import Http.HttpUtility;
+import Http.JsonFields;
+import Logging.Log;
+import Metrics.GatewayMetrics;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control in front of gateway handler. Requests over rate limit of their client are rejected with
+ * 429, requests over concurrency limit of gateway are rejected with 503, both at once and with Retry-After,
+ * so under overload gateway keeps serving admitted requests fast instead of slowing down all of them.
+ * Registrations and completion reports of services pass rate limits and concurrency limit of clients and are
+ * held only by their own small limit, and in cluster mode requests forwarded
+ * by other gateways are not counted again against rate limit of client. Forwarded header is trusted only on
+ * requests coming from address of live cluster node and is stripped from all other requests
+ */
+public class AdmissionFilter extends Filter {
+    //  admitted requests left without response
+    private static final Log LOG = Log.get("admission");
+
+    //  limit of requests handled at once, null if there is none
+    private final ConcurrencyLimit limit;
+
+    //  limit of control requests of services handled at once, null if there is none
+    private final ConcurrencyLimit controlLimit;
+
+    //  rate limits of clients, null if there are none
+    private final ClientRateLimiter rateLimiter;
+
+    //  live gateway nodes whose forwarded requests already passed rate limit there, null out of cluster mode
+    private final ClusterMembership cluster;
+
+    //  value of Retry-After header of 503 responses
+    private final long retryAfterSeconds;
+
+    //  rejected requests by reason
+    private final LongAdder rejectedByLimit = new LongAdder();
+    private final LongAdder rejectedByRate = new LongAdder();
+    private final LongAdder rejectedControl = new LongAdder();
+
+    /**
+     * @param limit limit of requests handled at once, null if there is none
+     * @param controlLimit limit of control requests of services handled at once, null if there is none
+     * @param rateLimiter rate limits of clients, null if there are none
+     * @param cluster live gateway nodes whose forwarded requests are not rate limited again, null if there are none
+     * @param retryAfterSeconds value of Retry-After header of 503 responses
+     * @param metrics registry receiving limit, requests in flight and rejections
+     */
+    public AdmissionFilter(ConcurrencyLimit limit, ConcurrencyLimit controlLimit, ClientRateLimiter rateLimiter, ClusterMembership cluster,
+                           long retryAfterSeconds, GatewayMetrics metrics) {
+        this.limit = limit;
+        this.controlLimit = controlLimit;
+        this.rateLimiter = rateLimiter;
+        this.cluster = cluster;
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        metrics.counter("gateway_admission_rejected_total", "Requests rejected by admission control",
+                "reason=\"concurrency\"", rejectedByLimit::sum);
+        metrics.counter("gateway_admission_rejected_total", "Requests rejected by admission control",
+                "reason=\"rate\"", rejectedByRate::sum);
+        metrics.counter("gateway_admission_rejected_total", "Requests rejected by admission control",
+                "reason=\"control\"", rejectedControl::sum);
+        if(limit != null) {
+            metrics.gauge("gateway_admission_limit", "Current limit of requests handled at once", "", limit::limit);
+            metrics.gauge("gateway_admission_in_flight", "Admitted requests without response yet", "",
+                    limit::inFlight);
+        }
+    }
+
+    @Override
+    public void doFilter(HttpExchange httpExchange, Chain chain) throws IOException {
+        //  forwarded header of client would skip its rate limit and affinity routing, so only the one sent by
+        // other gateway is kept
+        boolean forwarded = httpExchange.getRequestHeaders().containsKey(HttpUtility.FORWARDED_HEADER);
+        if(forwarded && (cluster == null || !cluster.isPeer(httpExchange.getRemoteAddress().getAddress()))) {
+            LOG.debug("forwarded header from {} was stripped", httpExchange.getRemoteAddress());
+            httpExchange = new UntrustedExchange(httpExchange);
+            forwarded = false;
+        }
+
+        //  control requests of services must pass even when gateway is overloaded by clients, so they have their
+        // own limit, small enough that the header sent by client does not open way around limits of clients
+        String serviceCall = httpExchange.getRequestHeaders().getFirst("Service-Call");
+        if("true".equals(serviceCall) || "completed".equals(serviceCall)) {
+            if(controlLimit == null) {
+                chain.doFilter(httpExchange);
+            } else if(controlLimit.tryAcquire()) {
+                chain.doFilter(new AdmittedExchange(httpExchange, controlLimit));
+            } else {
+                rejectedControl.increment();
+                reject(httpExchange, 503, retryAfterSeconds, "gateway is overloaded by control requests");
+            }
+            return;
+        }
+
+        //  forwarded request comes from address of gateway and was already counted for its client there
+        if(rateLimiter != null && !forwarded) {
+            long waitNanos = rateLimiter.tryAcquire(httpExchange);
+            if(waitNanos > 0) {
+                rejectedByRate.increment();
+                reject(httpExchange, 429, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999)),
+                        "rate limit of client is exceeded");
+                return;
+            }
+        }
+
+        //  long-poll requests wait for completion without thread and are slow on purpose, holding place in
+        // limit while waiting would let them lock out all other requests
+        boolean longPoll = isLongPoll(httpExchange);
+        if(limit == null || longPoll) {
+            chain.doFilter(httpExchange);
+            return;
+        }
+        if(!limit.tryAcquire()) {
+            rejectedByLimit.increment();
+            reject(httpExchange, 503, retryAfterSeconds, "gateway is overloaded");
+            return;
+        }
+        chain.doFilter(new AdmittedExchange(httpExchange, limit));
+    }
+
+    /**
+     * @param httpExchange request
+     * @return true if request is GET with positive wait parameter, that is long-poll request
+     */
+    private static boolean isLongPoll(HttpExchange httpExchange) {
+        if(!"GET".equals(httpExchange.getRequestMethod())) {
+            return false;
+        }
+        String wait = HttpGatewayContextHandler.queryParameter(httpExchange, "wait");
+        try {
+            return wait != null && Long.parseLong(wait) > 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * answer request with error at once
+     * @param httpExchange rejected request
+     * @param status status of response
+     * @param retryAfterSeconds value of Retry-After header
+     * @param message error message
+     * @throws IOException i/o exception
+     */
+    public static void reject(HttpExchange httpExchange, int status, long retryAfterSeconds, String message)
+            throws IOException {
+        byte[] responseBytes = JsonFields.object("error", message).getBytes(StandardCharsets.UTF_8);
+        httpExchange.getResponseHeaders().set("Content-Type", "application/json");
+        httpExchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+        httpExchange.sendResponseHeaders(status, responseBytes.length);
+        try (OutputStream outputStream = httpExchange.getResponseBody()) {
+            outputStream.write(responseBytes);
+        }
+    }
+
+    @Override
+    public String description() {
+        return "admission control";
+    }
+
+    /**
+     * Request of client carrying forwarded header, it is passed on without that header
+     */
+    private static class UntrustedExchange extends ForwardingExchange {
+        private final Headers requestHeaders = new Headers();
+
+        UntrustedExchange(HttpExchange exchange) {
+            super(exchange);
+            //  request headers of exchange are read-only, so the rest of them is copied
+            requestHeaders.putAll(exchange.getRequestHeaders());
+            requestHeaders.remove(HttpUtility.FORWARDED_HEADER);
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        @Override
+        protected void onResponse(int responseCode) {
+        }
+    }
+
+    /**
+     * Admitted request, its place in limit is freed when response is started
+     */
+    private static class AdmittedExchange extends ForwardingExchange {
+        private final long startNanos = System.nanoTime();
+
+        //  limit holding place of request
+        private final ConcurrencyLimit limit;
+
+        AdmittedExchange(HttpExchange exchange, ConcurrencyLimit limit) {
+            super(exchange);
+            this.limit = limit;
+        }
+
+        @Override
+        protected void onResponse(int responseCode) {
+            if(responseCode == -1) {
+                LOG.debug("request {} was closed without response", getRequestURI());
+            }
+            //  503 of saturated function is not failure of gateway and must not shrink its limit
+            limit.release(System.nanoTime() - startNanos, responseCode >= 500 && responseCode != 503);
+        }
+    }
+}
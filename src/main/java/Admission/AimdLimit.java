@@ -0,0 +1,49 @@
+package Admission;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive-increase/multiplicative-decrease limit: grows by about one per round of requests while they are
+ * fast and the limit is actually used, and is cut by backoff ratio when request is slower than threshold
+ * or fails because of overload
+ */
+public class AimdLimit extends AbstractLimit {
+    //  share of limit kept after slow or failed request
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+
+    //  current limit, fractional so that additive increase can be spread over requests
+    private volatile double limit;
+
+    /**
+     * @param initialLimit limit at start
+     * @param minLimit the lowest limit
+     * @param maxLimit the highest limit
+     * @param latencyThresholdMillis requests slower than this decrease limit
+     */
+    public AimdLimit(int initialLimit, int minLimit, int maxLimit, long latencyThresholdMillis) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    @Override
+    public int limit() {
+        return (int) limit;
+    }
+
+    @Override
+    protected synchronized void onSample(long latencyNanos, int inFlight, boolean failed) {
+        double current = limit;
+        if(failed || latencyNanos > latencyThresholdNanos) {
+            limit = Math.max(minLimit, current * BACKOFF_RATIO);
+        } else if(inFlight * 2 >= current) {
+            //  limit grows only while it is used, so idle gateway does not collect huge limit
+            limit = Math.min(maxLimit, current + 1 / current);
+        }
+    }
+}
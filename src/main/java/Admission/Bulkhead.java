@@ -0,0 +1,152 @@
+package Admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Concurrency budget of one function: calls to its services over the budget wait in small bounded queue
+ * for limited time and are rejected after it, so slow function holds at most its own budget of gateway
+ * threads and connections and cannot starve other functions
+ */
+public class Bulkhead {
+    //  name of function
+    private final String name;
+
+    //  current budget, may follow amount of registered instances
+    private final IntSupplier limit;
+
+    //  max amount of calls waiting for place and max time of waiting
+    private final int maxQueue;
+    private final long maxWaitNanos;
+
+    //  calls holding place and calls waiting for it
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    //  calls rejected because budget and queue were full
+    private final LongAdder rejected = new LongAdder();
+
+    //  waiting calls are woken when place is freed
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    /**
+     * @param name name of function
+     * @param limit supplier of current budget
+     * @param maxQueue max amount of calls waiting for place, 0 to reject at once
+     * @param maxWaitMillis max time of waiting for place
+     */
+    public Bulkhead(String name, IntSupplier limit, int maxQueue, long maxWaitMillis) {
+        this.name = name;
+        this.limit = limit;
+        this.maxQueue = maxQueue;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * take place for call, waiting for it if queue is not full
+     * @return true if call can be made, then {@link #exit()} must be called after it
+     */
+    public boolean tryEnter() {
+        if(tryAcquire()) {
+            return true;
+        }
+        if(maxQueue <= 0 || maxWaitNanos <= 0) {
+            rejected.increment();
+            return false;
+        }
+        if(waiting.incrementAndGet() > maxQueue) {
+            waiting.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+
+        lock.lock();
+        try {
+            long remaining = maxWaitNanos;
+            while(!tryAcquire()) {
+                if(remaining <= 0) {
+                    rejected.increment();
+                    return false;
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.increment();
+            return false;
+        } finally {
+            waiting.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * free place of finished call and wake one waiting call
+     */
+    public void exit() {
+        active.decrementAndGet();
+        if(waiting.get() > 0) {
+            lock.lock();
+            try {
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return true if place was taken
+     */
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = active.get();
+            if(current >= limit.getAsInt()) {
+                return false;
+            }
+        } while(!active.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * @return name of function
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return current budget
+     */
+    public int limit() {
+        return limit.getAsInt();
+    }
+
+    /**
+     * @return calls holding place
+     */
+    public int active() {
+        return active.get();
+    }
+
+    /**
+     * @return calls waiting for place
+     */
+    public int waiting() {
+        return waiting.get();
+    }
+
+    /**
+     * @return calls rejected because budget and queue were full
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,26 @@
+package Admission;
+
+/**
+ * Call to service was not made because budget of its function was full
+ */
+public class BulkheadFullException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    //  name of saturated function
+    private final String functionName;
+
+    /**
+     * @param functionName name of saturated function
+     */
+    public BulkheadFullException(String functionName) {
+        super("function " + functionName + " is saturated", null, false, false);
+        this.functionName = functionName;
+    }
+
+    /**
+     * @return name of saturated function
+     */
+    public String functionName() {
+        return functionName;
+    }
+}
@@ -0,0 +1,124 @@
+package Admission;
+
+import Http.ServiceRegistry;
+import Metrics.GatewayMetrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bulkheads of all functions. Budget of function is taken from -Dgateway.bulkhead.&lt;functionName&gt;.maxConcurrent,
+ * otherwise from common budget, otherwise it is worked out from amount of registered instances of function and
+ * capped by share of gateway threads, so one function cannot take all threads however many instances it has
+ */
+public class Bulkheads {
+    //  bulkheads by function name
+    private final ConcurrentHashMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    //  source of amount of instances of function
+    private final ServiceRegistry serviceRegistry;
+
+    //  common budget of function, 0 to derive it from instances
+    private final int maxConcurrent;
+
+    //  budget given by each instance when budget is derived from instances
+    private final int perInstance;
+
+    //  the highest budget derived from instances, part of gateway threads but never all of them
+    private final int derivedCap;
+
+    //  queue of calls waiting for place
+    private final int maxQueue;
+    private final long maxWaitMillis;
+
+    //  value of Retry-After header of responses to rejected calls
+    private final long retryAfterSeconds;
+
+    //  registry receiving saturation of bulkheads
+    private final GatewayMetrics metrics;
+
+    /**
+     * @param serviceRegistry source of amount of instances of function
+     * @param maxConcurrent common budget of function, 0 to derive it from instances
+     * @param perInstance budget given by each instance when budget is derived from instances
+     * @param executorThreads amount of gateway threads, 0 if it is not limited
+     * @param threadShare share of gateway threads that budget derived from instances can take
+     * @param maxQueue max amount of calls waiting for place
+     * @param maxWaitMillis max time of waiting for place
+     * @param retryAfterSeconds value of Retry-After header of responses to rejected calls
+     * @param metrics registry receiving saturation of bulkheads
+     */
+    public Bulkheads(ServiceRegistry serviceRegistry, int maxConcurrent, int perInstance, int executorThreads,
+                     double threadShare, int maxQueue, long maxWaitMillis, long retryAfterSeconds,
+                     GatewayMetrics metrics) {
+        this.serviceRegistry = serviceRegistry;
+        this.maxConcurrent = maxConcurrent;
+        this.perInstance = perInstance;
+        this.derivedCap = executorThreads <= 0 ? Integer.MAX_VALUE
+                : Math.max(1, Math.min(executorThreads - 1, (int) (executorThreads * threadShare)));
+        this.maxQueue = maxQueue;
+        this.maxWaitMillis = maxWaitMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.metrics = metrics;
+    }
+
+    /**
+     * create bulkheads with settings given by -Dgateway.bulkhead.* properties
+     * @param serviceRegistry source of amount of instances of function
+     * @param executorThreads amount of gateway threads, 0 if it is not limited
+     * @param metrics registry receiving saturation of bulkheads
+     * @return bulkheads of all functions
+     */
+    public static Bulkheads fromSystemProperties(ServiceRegistry serviceRegistry, int executorThreads,
+                                                 GatewayMetrics metrics) {
+        return new Bulkheads(serviceRegistry,
+                Integer.getInteger("gateway.bulkhead.maxConcurrent", 0),
+                Integer.getInteger("gateway.bulkhead.perInstance", 8), executorThreads,
+                Double.parseDouble(System.getProperty("gateway.bulkhead.threadShare", "0.75")),
+                Integer.getInteger("gateway.bulkhead.maxQueue", 0),
+                Long.getLong("gateway.bulkhead.maxWaitMillis", 0),
+                Long.getLong("gateway.bulkhead.retryAfterSeconds", 1), metrics);
+    }
+
+    /**
+     * @return value of Retry-After header of responses to rejected calls
+     */
+    public long retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * get bulkhead of function, creating it if there is none yet
+     * @param functionName name of function
+     * @return bulkhead of function
+     */
+    public Bulkhead forFunction(String functionName) {
+        Bulkhead bulkhead = bulkheads.get(functionName);
+        if(bulkhead == null) {
+            bulkhead = bulkheads.computeIfAbsent(functionName, this::create);
+        }
+        return bulkhead;
+    }
+
+    /**
+     * create bulkhead of function and register its metrics
+     * @param functionName name of function
+     * @return bulkhead
+     */
+    private Bulkhead create(String functionName) {
+        int configured = Integer.getInteger("gateway.bulkhead." + functionName + ".maxConcurrent", maxConcurrent);
+        Bulkhead bulkhead = new Bulkhead(functionName, configured > 0 ? () -> configured
+                : () -> Math.max(1, Math.min(derivedCap, perInstance * serviceRegistry.instances(functionName).size())),
+                maxQueue, maxWaitMillis);
+
+        String labels = "function=\"" + functionName.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        metrics.gauge("gateway_bulkhead_limit", "Budget of calls to services of function", labels, bulkhead::limit);
+        metrics.gauge("gateway_bulkhead_active", "Calls to services of function in flight", labels, bulkhead::active);
+        metrics.gauge("gateway_bulkhead_waiting", "Calls waiting for place in budget of function", labels,
+                bulkhead::waiting);
+        metrics.gauge("gateway_bulkhead_saturation", "Share of budget of function in use", labels,
+                () -> (double) bulkhead.active() / Math.max(1, bulkhead.limit()));
+        metrics.counter("gateway_bulkhead_rejected_total", "Calls rejected because budget of function was full",
+                labels, bulkhead::rejected);
+        return bulkhead;
+    }
+}
@@ -0,0 +1,100 @@
+package Admission;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limits of clients: each client has own token bucket, client is identified by its remote address or, if
+ * API-key header is configured, by known key sent in it. Keys are chosen by clients, so unknown keys are
+ * ignored instead of giving each of them new bucket. Buckets of idle clients are dropped in background and
+ * amount of buckets is limited, clients over that limit share one bucket
+ */
+public class ClientRateLimiter implements Closeable {
+    //  interval of dropping buckets of idle clients
+    private static final long CLEANUP_SECONDS = 60;
+
+    private final double ratePerSecond;
+    private final double burst;
+
+    //  header identifying client and keys accepted in it, null to identify clients only by address
+    private final String keyHeader;
+    private final Set<String> knownKeys;
+
+    //  max amount of buckets of separate clients
+    private final int maxClients;
+
+    //  buckets by client and bucket shared by clients over limit
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final TokenBucket overflow;
+
+    private final ScheduledExecutorService cleaner;
+
+    /**
+     * @param ratePerSecond requests each client can send per second
+     * @param burst requests each client can send at once after being idle
+     * @param keyHeader header identifying client, null to identify clients only by address
+     * @param knownKeys keys accepted in header, requests with other keys are identified by address
+     * @param maxClients max amount of buckets of separate clients
+     */
+    public ClientRateLimiter(double ratePerSecond, double burst, String keyHeader, Set<String> knownKeys,
+                             int maxClients) {
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.keyHeader = knownKeys.isEmpty() ? null : keyHeader;
+        this.knownKeys = Set.copyOf(knownKeys);
+        this.maxClients = Math.max(1, maxClients);
+        this.overflow = new TokenBucket(ratePerSecond, burst);
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limit-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleaner.scheduleWithFixedDelay(() -> buckets.values().removeIf(TokenBucket::isFull),
+                CLEANUP_SECONDS, CLEANUP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * take token of client that sent request
+     * @param httpExchange received request
+     * @return 0 if request is allowed, otherwise nanoseconds until client can send next one
+     */
+    public long tryAcquire(HttpExchange httpExchange) {
+        String client = keyHeader == null ? null : httpExchange.getRequestHeaders().getFirst(keyHeader);
+        if(client == null || !knownKeys.contains(client)) {
+            client = httpExchange.getRemoteAddress().getAddress().getHostAddress();
+        }
+        return bucketOf(client).tryConsume();
+    }
+
+    /**
+     * @param client key or address of client
+     * @return bucket of client, shared bucket if there are too many clients
+     */
+    private TokenBucket bucketOf(String client) {
+        TokenBucket bucket = buckets.get(client);
+        if(bucket != null) {
+            return bucket;
+        }
+        if(buckets.size() >= maxClients) {
+            buckets.values().removeIf(TokenBucket::isFull);
+            if(buckets.size() >= maxClients) {
+                return overflow;
+            }
+        }
+        return buckets.computeIfAbsent(client, key -> new TokenBucket(ratePerSecond, burst));
+    }
+
+    /**
+     * stop dropping of idle buckets
+     */
+    @Override
+    public void close() {
+        cleaner.shutdownNow();
+    }
+}
@@ -0,0 +1,29 @@
+package Admission;
+
+/**
+ * Limit of requests handled by gateway at once
+ */
+public interface ConcurrencyLimit {
+    /**
+     * take place for request if limit is not reached
+     * @return true if request is admitted, then {@link #release(long, boolean)} must be called for it
+     */
+    boolean tryAcquire();
+
+    /**
+     * free place of finished request
+     * @param latencyNanos time from admission until response, negative if it must not be used as sample
+     * @param failed true if request failed because gateway or service was overloaded
+     */
+    void release(long latencyNanos, boolean failed);
+
+    /**
+     * @return amount of requests that can be handled at once at moment
+     */
+    int limit();
+
+    /**
+     * @return amount of admitted requests without response yet
+     */
+    int inFlight();
+}
@@ -0,0 +1,24 @@
+package Admission;
+
+/**
+ * Limit that never changes
+ */
+public class FixedLimit extends AbstractLimit {
+    private final int limit;
+
+    /**
+     * @param limit max amount of requests handled at once
+     */
+    public FixedLimit(int limit) {
+        this.limit = Math.max(1, limit);
+    }
+
+    @Override
+    public int limit() {
+        return limit;
+    }
+
+    @Override
+    protected void onSample(long latencyNanos, int inFlight, boolean failed) {
+    }
+}
@@ -0,0 +1,78 @@
+package Admission;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limit following gradient of latency: long-term average of latency is compared with short-term one, and
+ * when requests become slower than usual, that is queues grow somewhere, limit is reduced in proportion.
+ * Small headroom of square root of limit is always added, so limit can grow back while latency is stable
+ */
+public class GradientLimit extends AbstractLimit {
+    //  weights of new sample in short-term and long-term averages of latency
+    private static final double SHORT_WEIGHT = 0.1;
+    private static final double LONG_WEIGHT = 0.002;
+
+    //  weight of new limit against current one
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    //  samples are skipped while other thread updates limit, so requests never wait for each other here
+    private final ReentrantLock lock = new ReentrantLock();
+
+    //  averages of latency in nanoseconds, 0 until the first sample
+    private double shortLatency;
+    private double longLatency;
+
+    //  current limit
+    private volatile double limit;
+
+    /**
+     * @param initialLimit limit at start
+     * @param minLimit the lowest limit
+     * @param maxLimit the highest limit
+     */
+    public GradientLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    @Override
+    public int limit() {
+        return (int) limit;
+    }
+
+    @Override
+    protected void onSample(long latencyNanos, int inFlight, boolean failed) {
+        if(!lock.tryLock()) {
+            return;
+        }
+        try {
+            double current = limit;
+            if(failed) {
+                limit = Math.max(minLimit, current * 0.9);
+                return;
+            }
+            if(longLatency == 0) {
+                shortLatency = latencyNanos;
+                longLatency = latencyNanos;
+                return;
+            }
+            shortLatency += (latencyNanos - shortLatency) * SHORT_WEIGHT;
+            longLatency += (latencyNanos - longLatency) * LONG_WEIGHT;
+
+            //  limit that is not used is not grown
+            if(inFlight * 2 < current && shortLatency <= longLatency) {
+                return;
+            }
+
+            double gradient = Math.max(0.5, Math.min(1.0, longLatency / shortLatency));
+            double target = current * gradient + Math.sqrt(current);
+            limit = Math.min(maxLimit, Math.max(minLimit, current * (1 - SMOOTHING) + target * SMOOTHING));
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package Admission;
+
+/**
+ * Kinds of concurrency limit of gateway
+ */
+public enum LimitType {
+    //  constant limit
+    FIXED,
+
+    //  additive increase, multiplicative decrease on slow or failed requests
+    AIMD,
+
+    //  limit following ratio of long-term and short-term latency
+    GRADIENT;
+
+    /**
+     * find limit type by its name, ignoring case and dashes
+     * @param name name of type, like "fixed" or "gradient"
+     * @return limit type
+     */
+    public static LimitType fromName(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    /**
+     * create limit of this type
+     * @param maxLimit limit at start and the highest limit
+     * @param minLimit the lowest limit of adaptive types
+     * @param latencyThresholdMillis requests slower than this decrease AIMD limit
+     * @return limit
+     */
+    public ConcurrencyLimit create(int maxLimit, int minLimit, long latencyThresholdMillis) {
+        switch (this) {
+            case AIMD:
+                return new AimdLimit(maxLimit, minLimit, maxLimit, latencyThresholdMillis);
+            case GRADIENT:
+                return new GradientLimit(maxLimit, minLimit, maxLimit);
+            default:
+                return new FixedLimit(maxLimit);
+        }
+    }
+}
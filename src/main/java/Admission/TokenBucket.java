@@ -0,0 +1,54 @@
+package Admission;
+
+/**
+ * Token bucket of one client: tokens are added at constant rate up to capacity, each request takes one
+ */
+class TokenBucket {
+    private final double ratePerNano;
+    private final double capacity;
+
+    //  tokens at moment of last refill
+    private double tokens;
+    private long refilledAtNanos;
+
+    /**
+     * @param ratePerSecond tokens added each second
+     * @param capacity max amount of tokens, that is max burst of requests
+     */
+    TokenBucket(double ratePerSecond, double capacity) {
+        this.ratePerNano = ratePerSecond / 1e9;
+        this.capacity = Math.max(1, capacity);
+        this.tokens = this.capacity;
+        this.refilledAtNanos = System.nanoTime();
+    }
+
+    /**
+     * take one token if there is one
+     * @return 0 if token was taken, otherwise nanoseconds until next token appears
+     */
+    synchronized long tryConsume() {
+        refill(System.nanoTime());
+        if(tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / ratePerNano);
+    }
+
+    /**
+     * @return true if bucket is full, so client was idle for a while and its bucket can be dropped
+     */
+    synchronized boolean isFull() {
+        refill(System.nanoTime());
+        return tokens >= capacity;
+    }
+
+    /**
+     * add tokens collected since last refill
+     * @param now current time
+     */
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilledAtNanos) * ratePerNano);
+        refilledAtNanos = now;
+    }
+}
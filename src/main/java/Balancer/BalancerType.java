@@ -0,0 +1,50 @@
+package Balancer;
+
+/**
+ * Available strategies of load balancing
+ */
+public enum BalancerType {
+    //  instance with the least processes in mailbox, old behaviour of gateway
+    LEAST_MAILBOX,
+
+    //  better of two random instances by calls in flight and mailbox size
+    P2C,
+
+    //  better of two random instances by latency moving average and calls in flight
+    PEAK_EWMA,
+
+    //  instances in turn according to their weights
+    WEIGHTED_ROUND_ROBIN,
+
+    //  instance with the least calls in flight
+    LEAST_OUTSTANDING;
+
+    /**
+     * find strategy by its name, ignoring case and dashes
+     * @param name name of strategy, like "p2c" or "peak-ewma"
+     * @return strategy type
+     */
+    public static BalancerType fromName(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    /**
+     * create balancer of this type
+     * @param stats statistics of instances used by balancer
+     * @return new balancer
+     */
+    public LoadBalancer create(UpstreamStats stats) {
+        switch (this) {
+            case P2C:
+                return new PowerOfTwoChoicesBalancer(stats);
+            case PEAK_EWMA:
+                return new PeakEwmaBalancer(stats);
+            case WEIGHTED_ROUND_ROBIN:
+                return new WeightedRoundRobinBalancer(stats);
+            case LEAST_OUTSTANDING:
+                return new LeastOutstandingBalancer(stats);
+            default:
+                return new LeastMailboxBalancer(stats);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package Balancer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of calls proxied to one service instance: amount of calls in flight and peak-sensitive
+ * exponentially weighted moving average of latency. All updates are lock-free
+ */
+public class InstanceStats {
+    //  time in which weight of old latency samples decays to 1/e
+    private static final double DECAY_NANOS = 10_000_000_000d;
+
+    //  amount of calls sent to instance and not yet answered
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    //  bits of double value of moving average of latency in nanoseconds
+    private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToRawLongBits(0d));
+
+    //  time of last latency sample
+    private final AtomicLong lastSampleNanos = new AtomicLong(System.nanoTime());
+
+    //  relative capacity of instance used by weighted strategies
+    private volatile int weight;
+
+    /**
+     * create statistics of instance
+     * @param weight relative capacity of instance
+     */
+    public InstanceStats(int weight) {
+        this.weight = Math.max(1, weight);
+    }
+
+    /**
+     * register start of call to instance
+     * @return start time of call that must be passed to {@link #finish(long)}
+     */
+    public long start() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * register end of call to instance and add its latency to moving average
+     * @param startNanos start time of call returned by {@link #start()}
+     * @return latency of call in nanoseconds
+     */
+    public long finish(long startNanos) {
+        inFlight.decrementAndGet();
+        long now = System.nanoTime();
+        double latency = now - startNanos;
+        double decay = Math.exp(-(now - lastSampleNanos.getAndSet(now)) / DECAY_NANOS);
+
+        long current;
+        long updated;
+        do {
+            current = ewmaBits.get();
+            double ewma = Double.longBitsToDouble(current);
+            //  peaks are taken at once, improvements are taken gradually
+            double next = latency > ewma ? latency : ewma * decay + latency * (1 - decay);
+            updated = Double.doubleToRawLongBits(next);
+        } while(!ewmaBits.compareAndSet(current, updated));
+        return now - startNanos;
+    }
+
+    /**
+     * @return amount of calls sent to instance and not yet answered
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return moving average of latency in nanoseconds, 0 if instance was not called yet
+     */
+    public double latencyNanos() {
+        return Double.longBitsToDouble(ewmaBits.get());
+    }
+
+    /**
+     * @return relative capacity of instance
+     */
+    public int weight() {
+        return weight;
+    }
+
+    /**
+     * @param weight new relative capacity of instance
+     */
+    public void setWeight(int weight) {
+        this.weight = Math.max(1, weight);
+    }
+}
@@ -0,0 +1,30 @@
+package Balancer;
+
+import java.util.List;
+
+/**
+ * Chooses instance with the least amount of processes in its mailbox
+ */
+public class LeastMailboxBalancer implements LoadBalancer {
+    private final UpstreamStats stats;
+
+    public LeastMailboxBalancer(UpstreamStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public String choose(List<String> instances) {
+        String leastOccupiedService = instances.get(0);
+        long leastMailboxSize = stats.mailboxSize(leastOccupiedService);
+
+        //  find least occupied service at moment
+        for(int i = 1; i < instances.size(); i++) {
+            long mailboxSize = stats.mailboxSize(instances.get(i));
+            if(mailboxSize < leastMailboxSize) {
+                leastMailboxSize = mailboxSize;
+                leastOccupiedService = instances.get(i);
+            }
+        }
+        return leastOccupiedService;
+    }
+}
@@ -0,0 +1,35 @@
+package Balancer;
+
+import java.util.List;
+
+/**
+ * Chooses instance with the least amount of calls in flight, mailbox size breaks ties
+ */
+public class LeastOutstandingBalancer implements LoadBalancer {
+    private final UpstreamStats stats;
+
+    public LeastOutstandingBalancer(UpstreamStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public String choose(List<String> instances) {
+        String chosen = null;
+        int leastInFlight = Integer.MAX_VALUE;
+        long leastMailboxSize = Long.MAX_VALUE;
+
+        for(String instance : instances) {
+            int inFlight = stats.get(instance).inFlight();
+            if(inFlight > leastInFlight) {
+                continue;
+            }
+            long mailboxSize = stats.mailboxSize(instance);
+            if(inFlight < leastInFlight || mailboxSize < leastMailboxSize) {
+                chosen = instance;
+                leastInFlight = inFlight;
+                leastMailboxSize = mailboxSize;
+            }
+        }
+        return chosen;
+    }
+}
@@ -0,0 +1,15 @@
+package Balancer;
+
+import java.util.List;
+
+/**
+ * Strategy of choosing service instance that will receive new process
+ */
+public interface LoadBalancer {
+    /**
+     * choose instance for next call
+     * @param instances addresses of available instances, not empty
+     * @return address of chosen instance
+     */
+    String choose(List<String> instances);
+}
@@ -0,0 +1,47 @@
+package Balancer;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Balancers of all functions. Strategy of function is given with -Dgateway.balancer.&lt;functionName&gt;,
+ * functions without own strategy use default one
+ */
+public class LoadBalancers {
+    //  statistics of instances shared by all balancers
+    private final UpstreamStats stats;
+
+    //  strategy used by functions without own configuration
+    private final BalancerType defaultType;
+
+    //  function name mapped to its balancer, so stateful strategies keep separate state per function
+    private final ConcurrentHashMap<String, LoadBalancer> balancers = new ConcurrentHashMap<>();
+
+    /**
+     * create balancers
+     * @param stats statistics of instances
+     * @param defaultType strategy used by functions without own configuration
+     */
+    public LoadBalancers(UpstreamStats stats, BalancerType defaultType) {
+        this.stats = stats;
+        this.defaultType = defaultType;
+    }
+
+    /**
+     * get balancer of function
+     * @param functionName name of function
+     * @return balancer of function
+     */
+    public LoadBalancer forFunction(String functionName) {
+        return balancers.computeIfAbsent(functionName, name -> {
+            String configured = System.getProperty("gateway.balancer." + name);
+            return (configured == null ? defaultType : BalancerType.fromName(configured)).create(stats);
+        });
+    }
+
+    /**
+     * @return statistics of instances shared by all balancers
+     */
+    public UpstreamStats stats() {
+        return stats;
+    }
+}
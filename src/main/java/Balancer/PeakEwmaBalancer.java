@@ -0,0 +1,51 @@
+package Balancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Power of two choices over latency-aware cost: moving average of latency multiplied by amount of calls
+ * in flight. Instance that was not called yet is assumed to be as slow as the other instance of the pair, so
+ * new or newly registered instance does not take every call until its first response arrives
+ */
+public class PeakEwmaBalancer implements LoadBalancer {
+    private final UpstreamStats stats;
+
+    public PeakEwmaBalancer(UpstreamStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public String choose(List<String> instances) {
+        int size = instances.size();
+        if(size == 1) {
+            return instances.get(0);
+        }
+
+        //  pick two different instances
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if(second >= first) {
+            second++;
+        }
+
+        //  only the pair is scored, so choice costs the same for any amount of instances; starting penalty of
+        // instance without samples is latency of the other one, 1 if neither has any so calls in flight decide
+        InstanceStats firstStats = stats.get(instances.get(first));
+        InstanceStats secondStats = stats.get(instances.get(second));
+        double penalty = Math.max(1, Math.max(firstStats.latencyNanos(), secondStats.latencyNanos()));
+
+        return cost(firstStats, penalty) <= cost(secondStats, penalty) ? instances.get(first) : instances.get(second);
+    }
+
+    /**
+     * @param instanceStats statistics of instance
+     * @param penalty latency assumed for instance that was not called yet
+     * @return expected latency of next call to instance
+     */
+    private static double cost(InstanceStats instanceStats, double penalty) {
+        double latency = instanceStats.latencyNanos();
+        return (latency > 0 ? latency : penalty) * (instanceStats.inFlight() + 1);
+    }
+}
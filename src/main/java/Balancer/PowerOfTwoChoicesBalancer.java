@@ -0,0 +1,42 @@
+package Balancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks two random instances and chooses the one with fewer calls in flight and processes in mailbox,
+ * which costs O(1) regardless of amount of instances
+ */
+public class PowerOfTwoChoicesBalancer implements LoadBalancer {
+    private final UpstreamStats stats;
+
+    public PowerOfTwoChoicesBalancer(UpstreamStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public String choose(List<String> instances) {
+        int size = instances.size();
+        if(size == 1) {
+            return instances.get(0);
+        }
+
+        //  pick two different instances
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if(second >= first) {
+            second++;
+        }
+
+        return load(instances.get(first)) <= load(instances.get(second)) ? instances.get(first) : instances.get(second);
+    }
+
+    /**
+     * @param instance address of instance
+     * @return load of instance as sum of calls in flight and processes in mailbox
+     */
+    private long load(String instance) {
+        return stats.get(instance).inFlight() + stats.mailboxSize(instance);
+    }
+}
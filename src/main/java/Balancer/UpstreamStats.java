@@ -0,0 +1,47 @@
+package Balancer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Table of statistics of all service instances the gateway proxies calls to
+ */
+public class UpstreamStats {
+    //  address of service instance mapped to its statistics
+    private final ConcurrentHashMap<String, InstanceStats> stats = new ConcurrentHashMap<>();
+
+    //  source of amount of processes handled by instance
+    private final ToLongFunction<String> mailboxSizes;
+
+    /**
+     * create table of statistics
+     * @param mailboxSizes function returning mailbox size of instance by its address
+     */
+    public UpstreamStats(ToLongFunction<String> mailboxSizes) {
+        this.mailboxSizes = mailboxSizes;
+    }
+
+    /**
+     * get statistics of instance, creating them if there are none yet
+     * @param address address of service instance
+     * @return statistics of instance
+     */
+    public InstanceStats get(String address) {
+        InstanceStats instanceStats = stats.get(address);
+        if(instanceStats == null) {
+            //  weight of instance can be given with -Dgateway.balancer.weight.<address>=<weight>
+            instanceStats = stats.computeIfAbsent(address,
+                    key -> new InstanceStats(Integer.getInteger("gateway.balancer.weight." + key, 1)));
+        }
+        return instanceStats;
+    }
+
+    /**
+     * get amount of processes handled by instance at moment
+     * @param address address of service instance
+     * @return mailbox size of instance
+     */
+    public long mailboxSize(String address) {
+        return mailboxSizes.applyAsLong(address);
+    }
+}
@@ -0,0 +1,36 @@
+package Balancer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Goes through instances in turn, giving each amount of turns equal to its weight
+ */
+public class WeightedRoundRobinBalancer implements LoadBalancer {
+    private final UpstreamStats stats;
+
+    //  number of next turn
+    private final AtomicLong turn = new AtomicLong();
+
+    public WeightedRoundRobinBalancer(UpstreamStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public String choose(List<String> instances) {
+        long totalWeight = 0;
+        for(String instance : instances) {
+            totalWeight += stats.get(instance).weight();
+        }
+
+        //  find instance which range of turns contains current turn
+        long position = Math.floorMod(turn.getAndIncrement(), totalWeight);
+        for(String instance : instances) {
+            position -= stats.get(instance).weight();
+            if(position < 0) {
+                return instance;
+            }
+        }
+        return instances.get(instances.size() - 1);
+    }
+}
@@ -0,0 +1,35 @@
+package Cache;
+
+import com.lambdaworks.redis.codec.RedisCodec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec of Redis connection with UTF-8 keys and raw byte values, for values that are not text
+ */
+public class BinaryValueCodec extends RedisCodec<String, byte[]> {
+    private static final byte[] EMPTY = new byte[0];
+
+    @Override
+    public String decodeKey(ByteBuffer bytes) {
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    @Override
+    public byte[] decodeValue(ByteBuffer bytes) {
+        byte[] value = new byte[bytes.remaining()];
+        bytes.get(value);
+        return value;
+    }
+
+    @Override
+    public byte[] encodeKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] encodeValue(byte[] value) {
+        return value == null ? EMPTY : value;
+    }
+}
@@ -0,0 +1,93 @@
+package Cache;
+
+/**
+ * Count-min sketch of 4-bit counters estimating how often keys were requested. Counters are halved
+ * periodically, so the sketch reflects recent popularity of keys. Not thread-safe, must be guarded by caller
+ */
+class FrequencySketch {
+    //  seeds of four hash functions
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    //  mask that leaves lower 3 bits of every 4-bit counter after shift by one
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    //  16 counters packed into each element
+    private final long[] table;
+
+    //  mask of counter index
+    private final int counterMask;
+
+    //  amount of increments after which all counters are halved
+    private final int sampleSize;
+
+    //  amount of increments since last halving
+    private int size;
+
+    /**
+     * create sketch
+     * @param expectedEntries expected amount of entries in cache
+     */
+    FrequencySketch(int expectedEntries) {
+        int length = Integer.highestOneBit(Math.max(16, Math.min(expectedEntries, 1 << 24)) - 1) << 1;
+        table = new long[length];
+        counterMask = length * 16 - 1;
+        sampleSize = 10 * Math.max(16, expectedEntries);
+    }
+
+    /**
+     * increase frequency of key
+     * @param hash hash code of key
+     */
+    void increment(int hash) {
+        boolean added = false;
+        for(int i = 0; i < SEEDS.length; i++) {
+            int counter = counterIndex(hash, i);
+            int index = counter >>> 4;
+            int shift = (counter & 15) << 2;
+            if(((table[index] >>> shift) & 0xfL) < 15) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if(added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * estimate frequency of key
+     * @param hash hash code of key
+     * @return estimated frequency, from 0 to 15
+     */
+    int frequency(int hash) {
+        int frequency = 15;
+        for(int i = 0; i < SEEDS.length; i++) {
+            int counter = counterIndex(hash, i);
+            frequency = Math.min(frequency, (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & 0xfL));
+        }
+        return frequency;
+    }
+
+    /**
+     * halve all counters, so old popularity of keys fades away
+     */
+    private void reset() {
+        for(int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size /= 2;
+    }
+
+    /**
+     * @param hash hash code of key
+     * @param depth number of hash function
+     * @return index of counter of key for given hash function
+     */
+    private int counterIndex(int hash, int depth) {
+        long mixed = (hash + SEEDS[depth]) * SEEDS[depth];
+        mixed += mixed >>> 32;
+        return (int) mixed & counterMask;
+    }
+}
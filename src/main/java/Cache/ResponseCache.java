@@ -0,0 +1,306 @@
+package Cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded thread-safe cache of completed responses with W-TinyLFU admission and TTL expiry.
+ * New entries land in small LRU window, entries leaving window compete with victims of main segmented LRU
+ * and are admitted only if they were requested more often according to frequency sketch.
+ * Reads are served from concurrent map without locking, policy is updated only if its lock is free
+ */
+public class ResponseCache {
+    //  queues in which entry can be placed
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    /**
+     * cached value with its bookkeeping
+     */
+    private static final class Node {
+        final String key;
+        final String value;
+        final long weight;
+        final long expiresAtNanos;
+        int queue;
+
+        Node(String key, String value, long weight, long expiresAtNanos) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    //  all cached entries, read without locking
+    private final ConcurrentHashMap<String, Node> data = new ConcurrentHashMap<>();
+
+    //  queues of eviction policy in order from eldest to newest, guarded by lock
+    private final LinkedHashMap<String, Node> window = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Node> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Node> protectedQueue = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    //  popularity of keys used for admission, guarded by lock
+    private final FrequencySketch sketch;
+
+    //  limits of whole cache, window and protected segment
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+
+    //  if true, weight of entry is size of its value in bytes, otherwise each entry weighs 1
+    private final boolean weighByBytes;
+
+    //  time to live of entry
+    private final long ttlNanos;
+
+    //  current weights of queues, guarded by lock
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+
+    //  statistics of cache
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * create cache
+     * @param maximumWeight max amount of entries, or max amount of bytes if entries are weighed by bytes
+     * @param weighByBytes if true, limit is applied to size of values in bytes
+     * @param ttlMillis time to live of entry, 0 or less for no expiry
+     */
+    public ResponseCache(long maximumWeight, boolean weighByBytes, long ttlMillis) {
+        this.maximumWeight = Math.max(1, maximumWeight);
+        this.weighByBytes = weighByBytes;
+        this.ttlNanos = ttlMillis > 0 ? ttlMillis * 1_000_000L : 0;
+        this.windowMaximum = Math.max(1, this.maximumWeight / 100);
+        this.protectedMaximum = (this.maximumWeight - windowMaximum) * 8 / 10;
+
+        //  when weighing by bytes, expect entries of about one kilobyte
+        long expectedEntries = weighByBytes ? this.maximumWeight / 1024 : this.maximumWeight;
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, expectedEntries));
+    }
+
+    /**
+     * get cached value
+     * @param key key of entry
+     * @return value or null if there is no such entry or it has expired
+     */
+    public String get(String key) {
+        Node node = data.get(key);
+        if(node != null && ttlNanos > 0 && System.nanoTime() - node.expiresAtNanos > 0) {
+            remove(node);
+            node = null;
+        }
+
+        if(node == null) {
+            misses.increment();
+            recordAccess(key, null);
+            return null;
+        }
+        hits.increment();
+        recordAccess(key, node);
+        return node.value;
+    }
+
+    /**
+     * put value in cache, it can be rejected right away if it is less popular than current entries
+     * @param key key of entry
+     * @param value value of entry
+     */
+    public void put(String key, String value) {
+        long weight = weighByBytes ? value.getBytes(StandardCharsets.UTF_8).length : 1;
+        Node node = new Node(key, value, weight, System.nanoTime() + ttlNanos);
+
+        lock.lock();
+        try {
+            Node previous = data.put(key, node);
+            if(previous != null) {
+                unlink(previous);
+            }
+            node.queue = WINDOW;
+            window.put(key, node);
+            windowWeight += weight;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * update policy on access to key, skipped when another thread holds policy lock
+     * @param key accessed key
+     * @param node accessed entry, null on miss
+     */
+    private void recordAccess(String key, Node node) {
+        if(!lock.tryLock()) {
+            return;
+        }
+        try {
+            sketch.increment(key.hashCode());
+            if(node == null || data.get(key) != node) {
+                return;
+            }
+            switch (node.queue) {
+                case WINDOW:
+                    window.remove(key);
+                    window.put(key, node);
+                    break;
+                case PROBATION:
+                    //  entry requested again while in probation becomes protected
+                    probation.remove(key);
+                    probationWeight -= node.weight;
+                    node.queue = PROTECTED;
+                    protectedQueue.put(key, node);
+                    protectedWeight += node.weight;
+                    demoteProtected();
+                    break;
+                default:
+                    protectedQueue.remove(key);
+                    protectedQueue.put(key, node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * move eldest protected entries back to probation while protected segment is over its limit
+     */
+    private void demoteProtected() {
+        Iterator<Node> iterator = protectedQueue.values().iterator();
+        while(protectedWeight > protectedMaximum && iterator.hasNext()) {
+            Node demoted = iterator.next();
+            iterator.remove();
+            protectedWeight -= demoted.weight;
+            demoted.queue = PROBATION;
+            probation.put(demoted.key, demoted);
+            probationWeight += demoted.weight;
+        }
+    }
+
+    /**
+     * move entries out of window and evict entries from main segment until cache fits its limits
+     */
+    private void evict() {
+        while(windowWeight > windowMaximum && !window.isEmpty()) {
+            Iterator<Node> iterator = window.values().iterator();
+            Node candidate = iterator.next();
+            iterator.remove();
+            windowWeight -= candidate.weight;
+            candidate.queue = PROBATION;
+            probation.put(candidate.key, candidate);
+            probationWeight += candidate.weight;
+
+            //  candidate from window competes with eldest entry of main segment
+            while(probationWeight + protectedWeight > maximumWeight - windowMaximum) {
+                Node victim = eldestVictim(candidate);
+                if(victim == null || candidate.weight > maximumWeight
+                        || sketch.frequency(candidate.key.hashCode()) <= sketch.frequency(victim.key.hashCode())) {
+                    evictNode(candidate);
+                    break;
+                }
+                evictNode(victim);
+            }
+        }
+    }
+
+    /**
+     * @param candidate entry that is being admitted to main segment
+     * @return eldest entry of main segment other than candidate, null if there is none
+     */
+    private Node eldestVictim(Node candidate) {
+        for(Node node : probation.values()) {
+            if(node != candidate) {
+                return node;
+            }
+        }
+        for(Node node : protectedQueue.values()) {
+            return node;
+        }
+        return null;
+    }
+
+    /**
+     * remove entry from cache because of lack of space
+     * @param node evicted entry
+     */
+    private void evictNode(Node node) {
+        unlink(node);
+        data.remove(node.key, node);
+        evictions.increment();
+    }
+
+    /**
+     * remove expired entry from cache
+     * @param node expired entry
+     */
+    private void remove(Node node) {
+        lock.lock();
+        try {
+            if(data.remove(node.key, node)) {
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * remove entry from its policy queue, must be called under lock
+     * @param node entry to be removed
+     */
+    private void unlink(Node node) {
+        switch (node.queue) {
+            case WINDOW:
+                if(window.remove(node.key, node)) {
+                    windowWeight -= node.weight;
+                }
+                break;
+            case PROBATION:
+                if(probation.remove(node.key, node)) {
+                    probationWeight -= node.weight;
+                }
+                break;
+            default:
+                if(protectedQueue.remove(node.key, node)) {
+                    protectedWeight -= node.weight;
+                }
+        }
+    }
+
+    /**
+     * @return amount of requests that found value in cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return amount of requests that did not find value in cache
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return amount of entries evicted because of lack of space
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return amount of entries in cache
+     */
+    public int size() {
+        return data.size();
+    }
+}
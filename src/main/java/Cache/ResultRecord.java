@@ -0,0 +1,132 @@
+package Cache;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Result of process kept in result tier. It is stored as binary record with length-prefixed fields, so body
+ * stays exactly as service returned it and flags travel next to it instead of being spliced into its JSON:
+ * version (1 byte), flags (1 byte), time of storing in epoch millis (8 bytes), length of function name
+ * (2 bytes) with UTF-8 name and length of body (4 bytes) with UTF-8 body
+ */
+public final class ResultRecord {
+    //  result was cached by gateway, clients see it as "cached":true field of response
+    public static final int FLAG_CACHED = 1;
+
+    //  version of encoding, records of unknown version are treated as missing
+    private static final byte VERSION = 1;
+
+    //  size of fixed part of record
+    private static final int HEADER_BYTES = 1 + 1 + 8 + 2 + 4;
+
+    private final int flags;
+    private final String function;
+    private final long storedAtMillis;
+    private final String body;
+
+    /**
+     * @param flags flags of result
+     * @param function name of function whose service returned result, empty if it is not known
+     * @param storedAtMillis time of storing in epoch millis
+     * @param body response of service
+     */
+    public ResultRecord(int flags, String function, long storedAtMillis, String body) {
+        this.flags = flags;
+        this.function = function == null ? "" : function;
+        this.storedAtMillis = storedAtMillis;
+        this.body = body;
+    }
+
+    /**
+     * @param function name of function whose service returned result
+     * @param body response of service
+     * @return record of result cached now
+     */
+    public static ResultRecord cached(String function, String body) {
+        return new ResultRecord(FLAG_CACHED, function, System.currentTimeMillis(), body);
+    }
+
+    /**
+     * @return binary record
+     */
+    public byte[] encode() {
+        byte[] functionBytes = function.getBytes(StandardCharsets.UTF_8);
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + functionBytes.length + bodyBytes.length);
+        record.put(VERSION);
+        record.put((byte) flags);
+        record.putLong(storedAtMillis);
+        record.putShort((short) functionBytes.length);
+        record.put(functionBytes);
+        record.putInt(bodyBytes.length);
+        record.put(bodyBytes);
+        return record.array();
+    }
+
+    /**
+     * @param record binary record, may be null
+     * @return decoded record, null if record is missing, of unknown version or malformed
+     */
+    public static ResultRecord decode(byte[] record) {
+        if(record == null || record.length < HEADER_BYTES || record[0] != VERSION) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(record, 1, record.length - 1);
+            int flags = buffer.get() & 0xff;
+            long storedAtMillis = buffer.getLong();
+            String function = readString(buffer, buffer.getShort() & 0xffff);
+            String body = readString(buffer, buffer.getInt());
+            return new ResultRecord(flags, function, storedAtMillis, body);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param record binary record, may be null
+     * @return response to client, null if record is missing or malformed
+     */
+    public static String render(byte[] record) {
+        ResultRecord decoded = decode(record);
+        return decoded == null ? null : decoded.render();
+    }
+
+    /**
+     * @return response to client: body with "cached":true as its first field when result is cached
+     */
+    public String render() {
+        if((flags & FLAG_CACHED) == 0 || !body.startsWith("{")) {
+            return body;
+        }
+        String fields = body.substring(1);
+        return fields.trim().startsWith("}") ? "{\"cached\":true}" : "{\"cached\":true," + fields;
+    }
+
+    public boolean isCached() {
+        return (flags & FLAG_CACHED) != 0;
+    }
+
+    public String function() {
+        return function;
+    }
+
+    public long storedAtMillis() {
+        return storedAtMillis;
+    }
+
+    public String body() {
+        return body;
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        if(length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("field is longer than record");
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
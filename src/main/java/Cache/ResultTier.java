@@ -0,0 +1,356 @@
+package Cache;
+
+import Http.RedisCommands;
+import Logging.Log;
+import com.lambdaworks.redis.KeyScanCursor;
+import com.lambdaworks.redis.RedisFuture;
+import com.lambdaworks.redis.ScanArgs;
+import com.lambdaworks.redis.ScanCursor;
+import com.lambdaworks.redis.ScriptOutputType;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Results of processes shared by gateways through Redis. Every result is binary {@link ResultRecord} under
+ * {@code result:<id>} with TTL of its function. Stored results are indexed by ID in sorted set by their expiry,
+ * with their sizes in hash and total size in counter, so all gateways share one memory budget: when it is
+ * exceeded results closest to expiry are evicted first. Index, sizes and counter are changed only by Lua
+ * scripts, so result stored again replaces its size instead of counting it twice and eviction cannot delete
+ * result stored again meanwhile. Background sweeper drops index entries of expired results, enforces budget,
+ * gives TTL to results written without it by older gateways under {@code cached:<id>} and reports size of tier
+ */
+public class ResultTier implements Closeable {
+    //  failures of sweeping
+    private static final Log LOG = Log.get("results");
+
+    //  prefix of keys of results, index of results by expiry, sizes of results by ID and counter of their bytes
+    public static final String KEY_PREFIX = "result:";
+    static final String INDEX_KEY = "results:index";
+    static final String SIZES_KEY = "results:sizes";
+    static final String BYTES_KEY = "results:bytes";
+
+    //  prefix of keys of JSON responses written without TTL by older gateways
+    static final String LEGACY_PREFIX = "cached:";
+
+    //  keys changed by scripts of tier
+    private static final String[] TIER_KEYS = {INDEX_KEY, SIZES_KEY, BYTES_KEY};
+
+    //  add result to index or move it, replacing its size, and reply with total size of tier
+    private static final String PUT_SCRIPT =
+            "local previous = tonumber(redis.call('hget', KEYS[2], ARGV[2]) or 0)\n"
+            + "redis.call('zadd', KEYS[1], ARGV[1], ARGV[2])\n"
+            + "redis.call('hset', KEYS[2], ARGV[2], ARGV[3])\n"
+            + "return redis.call('incrby', KEYS[3], tonumber(ARGV[3]) - previous)";
+
+    //  drop batch of index entries expired before given time and reply with their amount
+    private static final String EXPIRE_SCRIPT =
+            "local ids = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])\n"
+            + "if #ids == 0 then return 0 end\n"
+            + "local freed = 0\n"
+            + "for _, id in ipairs(ids) do freed = freed + tonumber(redis.call('hget', KEYS[2], id) or 0) end\n"
+            + "redis.call('zrem', KEYS[1], unpack(ids))\n"
+            + "redis.call('hdel', KEYS[2], unpack(ids))\n"
+            + "redis.call('decrby', KEYS[3], freed)\n"
+            + "return #ids";
+
+    //  evict batch of results closest to expiry while tier is over budget and reply with their amount, keys of
+    // records are built from ID inside script since records and index live in one Redis
+    private static final String EVICT_SCRIPT =
+            "local total = tonumber(redis.call('get', KEYS[3]) or 0)\n"
+            + "local evicted = 0\n"
+            + "while total > tonumber(ARGV[1]) and evicted < tonumber(ARGV[2]) do\n"
+            + "  local first = redis.call('zrange', KEYS[1], 0, 0)\n"
+            + "  if #first == 0 then break end\n"
+            + "  local size = tonumber(redis.call('hget', KEYS[2], first[1]) or 0)\n"
+            + "  redis.call('zrem', KEYS[1], first[1])\n"
+            + "  redis.call('hdel', KEYS[2], first[1])\n"
+            + "  redis.call('del', ARGV[3] .. first[1])\n"
+            + "  redis.call('decrby', KEYS[3], size)\n"
+            + "  total = total - size\n"
+            + "  evicted = evicted + 1\n"
+            + "end\n"
+            + "return evicted";
+
+    //  amount of index entries handled by one Redis call of sweeper, pages of legacy keys scanned by one sweep
+    private static final int BATCH = 256;
+    private static final int LEGACY_PAGES = 16;
+
+    //  max time of waiting for Redis in sweeper
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    //  connection for records and connection for index
+    private final RedisCommands<byte[]> records;
+    private final RedisCommands<String> index;
+
+    //  TTL of results of functions without their own TTL, TTLs of functions by name
+    private final long ttlSeconds;
+    private final Map<String, Long> functionTtlSeconds;
+
+    //  max total size of results in Redis, 0 for no budget
+    private final long maxBytes;
+
+    //  size of tier seen by the last sweep
+    private volatile long bytes;
+    private volatile long entries;
+
+    //  results dropped by sweeper of this gateway
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    //  position of scan of legacy keys and time when next full scan starts, used only by sweeper
+    private ScanCursor legacyCursor = ScanCursor.of("0");
+    private long nextLegacyScanMillis;
+
+    //  thread that sweeps index, sweep is also requested at once when write exceeds budget
+    private final ScheduledExecutorService sweeper;
+    private final AtomicBoolean sweepRequested = new AtomicBoolean();
+
+    /**
+     * create tier and start sweeping
+     * @param records connection to Redis for binary records
+     * @param index connection to Redis for index of records
+     * @param ttlSeconds TTL of results of functions without their own TTL
+     * @param functionTtlSeconds TTLs of results of functions by function name
+     * @param maxBytes max total size of results, 0 for no budget
+     * @param sweepIntervalMillis interval of sweeping
+     */
+    public ResultTier(RedisCommands<byte[]> records, RedisCommands<String> index,
+                      long ttlSeconds, Map<String, Long> functionTtlSeconds, long maxBytes, long sweepIntervalMillis) {
+        this.records = records;
+        this.index = index;
+        this.ttlSeconds = Math.max(1, ttlSeconds);
+        this.functionTtlSeconds = Map.copyOf(functionTtlSeconds);
+        this.maxBytes = maxBytes;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "result-tier-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, 0, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * create tier from -Dgateway.results.* properties: ttlSeconds (default 3600), maxBytes (default 256 MB,
+     * 0 for no budget), sweepMillis (default 5000) and &lt;functionName&gt;.ttlSeconds for TTL of one function
+     * @param records connection to Redis for binary records
+     * @param index connection to Redis for index of records
+     * @return result tier
+     */
+    public static ResultTier fromSystemProperties(RedisCommands<byte[]> records,
+                                                  RedisCommands<String> index) {
+        Map<String, Long> functionTtlSeconds = new HashMap<>();
+        Properties properties = System.getProperties();
+        for(String name : properties.stringPropertyNames()) {
+            if(name.startsWith("gateway.results.") && name.endsWith(".ttlSeconds")
+                    && name.length() > "gateway.results..ttlSeconds".length()) {
+                functionTtlSeconds.put(name.substring("gateway.results.".length(), name.length() - ".ttlSeconds".length()),
+                        Long.parseLong(properties.getProperty(name)));
+            }
+        }
+        return new ResultTier(records, index, Long.getLong("gateway.results.ttlSeconds", 3600), functionTtlSeconds,
+                Long.getLong("gateway.results.maxBytes", 256L * 1024 * 1024),
+                Long.getLong("gateway.results.sweepMillis", 5000));
+    }
+
+    /**
+     * @param function name of function
+     * @return TTL of its results in seconds
+     */
+    public long ttlSecondsOf(String function) {
+        return function == null ? ttlSeconds : functionTtlSeconds.getOrDefault(function, ttlSeconds);
+    }
+
+    /**
+     * ask Redis for stored result
+     * @param id ID of process
+     * @return future of binary record, completed with null if there is none; see {@link ResultRecord#render(byte[])}
+     */
+    public RedisFuture<byte[]> fetch(long id) {
+        return records.get(KEY_PREFIX + id);
+    }
+
+    /**
+     * ask Redis for response written by older gateway under legacy key, found response is moved into tier
+     * @param id ID of process
+     * @return future of response to client, completed with null if there is none
+     */
+    public RedisFuture<String> fetchLegacy(long id) {
+        RedisFuture<String> legacy = index.get(LEGACY_PREFIX + id);
+        legacy.addListener(() -> {
+            String response = valueOf(legacy);
+            if(response == null) {
+                return;
+            }
+            //  legacy response already carries "cached":true, and its key is deleted only when record is written
+            RedisFuture<String> written = put(id, new ResultRecord(0, null, System.currentTimeMillis(), response));
+            written.addListener(() -> {
+                if(valueOf(written) != null) {
+                    index.del(LEGACY_PREFIX + id);
+                }
+            }, Runnable::run);
+        }, Runnable::run);
+        return legacy;
+    }
+
+    /**
+     * store result with TTL of its function and add it to index, result stored again replaces its old size
+     * @param id ID of process
+     * @param record result
+     * @return future of write of record
+     */
+    public RedisFuture<String> put(long id, ResultRecord record) {
+        String key = KEY_PREFIX + id;
+        byte[] encoded = record.encode();
+        long ttl = ttlSecondsOf(record.function());
+        long size = key.length() + encoded.length;
+        RedisFuture<String> written = records.setex(key, ttl, encoded);
+
+        RedisFuture<Long> total = index.eval(PUT_SCRIPT, ScriptOutputType.INTEGER, TIER_KEYS, new String[]{
+                String.valueOf(System.currentTimeMillis() + ttl * 1000), String.valueOf(id), String.valueOf(size)});
+        total.addListener(() -> {
+            Long bytesNow = valueOf(total);
+            if(maxBytes > 0 && bytesNow != null && bytesNow > maxBytes && sweepRequested.compareAndSet(false, true)) {
+                sweeper.execute(this::sweep);
+            }
+        }, Runnable::run);
+        return written;
+    }
+
+    /**
+     * @return total size of results in Redis seen by the last sweep
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return amount of results in Redis seen by the last sweep
+     */
+    public long entries() {
+        return entries;
+    }
+
+    /**
+     * @return index entries of results expired by TTL dropped by this gateway
+     */
+    public long expired() {
+        return expired.sum();
+    }
+
+    /**
+     * @return results evicted by this gateway to keep tier within budget
+     */
+    public long evicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * drop index entries of expired results, evict results closest to expiry while tier is over budget, give
+     * TTL to legacy keys and read size of tier. Every batch is removed by one script, so gateways sweeping at
+     * once never subtract size of the same entry twice
+     */
+    void sweep() {
+        sweepRequested.set(false);
+        try {
+            String now = String.valueOf(System.currentTimeMillis());
+            long removed;
+            do {
+                removed = await(index.<Long>eval(EXPIRE_SCRIPT, ScriptOutputType.INTEGER, TIER_KEYS,
+                        new String[]{now, String.valueOf(BATCH)}));
+                expired.add(removed);
+            } while(removed == BATCH);
+
+            if(maxBytes > 0) {
+                do {
+                    removed = await(index.<Long>eval(EVICT_SCRIPT, ScriptOutputType.INTEGER, TIER_KEYS,
+                            new String[]{String.valueOf(maxBytes), String.valueOf(BATCH), KEY_PREFIX}));
+                    evicted.add(removed);
+                } while(removed == BATCH);
+            }
+
+            expireLegacy();
+            bytes = Math.max(0, parse(await(index.get(BYTES_KEY))));
+            entries = await(index.zcard(INDEX_KEY));
+        } catch (Exception e) {
+            LOG.error("result tier was not swept", e);
+        }
+    }
+
+    /**
+     * scan next pages of legacy keys and give TTL to ones written without it, so they expire instead of
+     * staying in Redis forever. After full scan the next one starts only after TTL of results, which catches
+     * keys still written by older gateways during upgrade
+     */
+    private void expireLegacy() throws Exception {
+        if(System.currentTimeMillis() < nextLegacyScanMillis) {
+            return;
+        }
+        ScanArgs args = new ScanArgs().match(LEGACY_PREFIX + "*").limit(BATCH);
+        for(int page = 0; page < LEGACY_PAGES; page++) {
+            KeyScanCursor<String> cursor = await(index.scan(legacyCursor, args));
+            List<String> keys = cursor.getKeys();
+            List<RedisFuture<Long>> ttls = new ArrayList<>(keys.size());
+            for(String key : keys) {
+                ttls.add(index.pttl(key));
+            }
+            List<RedisFuture<Boolean>> expiries = new ArrayList<>();
+            for(int i = 0; i < keys.size(); i++) {
+                if(await(ttls.get(i)) == -1) {
+                    expiries.add(index.expire(keys.get(i), ttlSeconds));
+                }
+            }
+            for(RedisFuture<Boolean> expiry : expiries) {
+                await(expiry);
+            }
+            if(!expiries.isEmpty()) {
+                LOG.info("{} legacy results got TTL of {} s", expiries.size(), ttlSeconds);
+            }
+            if(cursor.isFinished()) {
+                legacyCursor = ScanCursor.of("0");
+                nextLegacyScanMillis = System.currentTimeMillis() + ttlSeconds * 1000;
+                return;
+            }
+            legacyCursor = cursor;
+        }
+    }
+
+    private static long parse(String value) {
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    private static <T> T await(RedisFuture<T> future) throws InterruptedException, ExecutionException,
+            TimeoutException {
+        return future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return value of completed future, null if it failed
+     */
+    private static <T> T valueOf(RedisFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * stop sweeping
+     */
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
@@ -0,0 +1,168 @@
+package Cluster;
+
+import Logging.Log;
+import com.lambdaworks.redis.RedisConnection;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gateway nodes working with the same Redis. Every node refreshes its heartbeat in sorted set of nodes,
+ * nodes whose heartbeat is older than TTL are dropped, and ring of live nodes decides which node owns
+ * each process, so requests for one process meet in local cache of one gateway
+ */
+public class ClusterMembership implements Closeable {
+    //  joins and leaves of nodes
+    private static final Log LOG = Log.get("cluster");
+
+    //  sorted set of node addresses scored by time of their last heartbeat
+    public static final String NODES_KEY = "cluster:nodes";
+
+    //  redis connection used only by heartbeat thread
+    private final RedisConnection<String, String> redisConnection;
+
+    //  address under which other nodes reach this one
+    private final String self;
+
+    //  time after which silent node is dropped
+    private final long nodeTtlMillis;
+
+    //  amount of points of each node on ring
+    private final int virtualNodes;
+
+    //  ring of live nodes, replaced as a whole when nodes change
+    private volatile HashRing ring;
+
+    //  addresses of live nodes, resolved when nodes change, requests from them are trusted as forwarded
+    private volatile Set<InetAddress> peerAddresses = Set.of();
+
+    //  thread that sends heartbeats and reads nodes
+    private final ScheduledExecutorService heartbeat;
+
+    /**
+     * join cluster and start heartbeats
+     * @param redisConnection connection to Redis used only by heartbeats
+     * @param self address under which other nodes reach this one
+     * @param heartbeatMillis interval of heartbeats
+     * @param nodeTtlMillis time after which silent node is dropped
+     * @param virtualNodes amount of points of each node on ring
+     */
+    public ClusterMembership(RedisConnection<String, String> redisConnection, String self, long heartbeatMillis,
+                             long nodeTtlMillis, int virtualNodes) {
+        this.redisConnection = redisConnection;
+        this.self = self;
+        this.nodeTtlMillis = nodeTtlMillis;
+        this.virtualNodes = virtualNodes;
+        this.ring = new HashRing(List.of(self), virtualNodes);
+        this.peerAddresses = resolve(ring.nodes());
+
+        //  the first heartbeat is sent at once, so node owns its share before it receives requests
+        beat();
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(this::beat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * refresh heartbeat of this node, drop silent nodes and rebuild ring if nodes changed
+     */
+    private void beat() {
+        try {
+            long now = System.currentTimeMillis();
+            redisConnection.zadd(NODES_KEY, now, self);
+            redisConnection.zremrangebyscore(NODES_KEY, 0, now - nodeTtlMillis);
+            List<String> nodes = new ArrayList<>(redisConnection.zrangebyscore(NODES_KEY, "-inf", "+inf"));
+            if(!nodes.contains(self)) {
+                nodes.add(self);
+            }
+
+            HashRing current = ring;
+            if(nodes.size() != current.nodes().size() || !current.nodes().containsAll(nodes)) {
+                ring = new HashRing(nodes, virtualNodes);
+                peerAddresses = resolve(ring.nodes());
+                LOG.info("cluster nodes changed: {}", ring.nodes());
+            }
+        } catch (RuntimeException e) {
+            //  without Redis the last known ring is kept, requests still work through fallback to local handling
+            LOG.warn("cluster heartbeat failed", e);
+        }
+    }
+
+    /**
+     * resolve hosts of nodes, nodes whose host is not resolved are left out until the next change of nodes
+     * @param nodes addresses of nodes
+     * @return IP addresses of nodes
+     */
+    private static Set<InetAddress> resolve(List<String> nodes) {
+        Set<InetAddress> addresses = new HashSet<>();
+        for(String node : nodes) {
+            try {
+                String host = URI.create(node).getHost();
+                if(host != null) {
+                    addresses.addAll(Arrays.asList(InetAddress.getAllByName(host)));
+                }
+            } catch (IllegalArgumentException | UnknownHostException e) {
+                LOG.warn("address of cluster node {} was not resolved", node);
+            }
+        }
+        return Set.copyOf(addresses);
+    }
+
+    /**
+     * find node owning process
+     * @param id ID of process
+     * @return address of node
+     */
+    public String owner(long id) {
+        return ring.owner(id);
+    }
+
+    /**
+     * @param node address of node
+     * @return true if node is this gateway
+     */
+    public boolean isSelf(String node) {
+        return self.equals(node);
+    }
+
+    /**
+     * @param address remote address of request
+     * @return true if request comes from address of live node
+     */
+    public boolean isPeer(InetAddress address) {
+        return address != null && peerAddresses.contains(address);
+    }
+
+    /**
+     * @return amount of live nodes
+     */
+    public int size() {
+        return ring.nodes().size();
+    }
+
+    /**
+     * leave cluster, so other nodes take share of this one at their next heartbeat instead of after TTL
+     */
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        try {
+            redisConnection.zrem(NODES_KEY, self);
+        } catch (RuntimeException e) {
+            LOG.warn("node was not removed from cluster", e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package Cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable consistent hash ring of gateway nodes. Every node has many virtual points on ring, process ID
+ * belongs to node of the first point after its hash, so when node joins or leaves only its share of IDs moves
+ */
+public final class HashRing {
+    //  sorted hashes of virtual points and nodes owning them, index by index
+    private final long[] points;
+    private final String[] owners;
+
+    //  nodes of ring in sorted order
+    private final List<String> nodes;
+
+    /**
+     * build ring of nodes
+     * @param nodes addresses of nodes
+     * @param virtualNodes amount of points of each node on ring
+     */
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        //  points with the same hash keep node with the smaller address, so all gateways build equal rings
+        TreeMap<Long, String> ring = new TreeMap<>();
+        String[] sortedNodes = nodes.toArray(new String[0]);
+        Arrays.sort(sortedNodes);
+        for(String node : sortedNodes) {
+            for(int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+
+        this.points = new long[ring.size()];
+        this.owners = new String[ring.size()];
+        int index = 0;
+        for(Map.Entry<Long, String> point : ring.entrySet()) {
+            points[index] = point.getKey();
+            owners[index] = point.getValue();
+            index++;
+        }
+        this.nodes = Collections.unmodifiableList(Arrays.asList(sortedNodes));
+    }
+
+    /**
+     * find node owning process
+     * @param id ID of process
+     * @return address of node, null if ring is empty
+     */
+    public String owner(long id) {
+        if(points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(points, mix(id));
+        if(index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * @return addresses of nodes in sorted order
+     */
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    /**
+     * hash address of virtual point, FNV-1a spread by the same mix as IDs
+     * @param key address of node with number of point
+     * @return hash of point
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for(byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * spread bits of value over whole long, IDs of processes are often sequential
+     * @param value value to spread
+     * @return mixed value
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
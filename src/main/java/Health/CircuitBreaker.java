@@ -0,0 +1,156 @@
+package Health;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker of one service instance. Closed breaker passes all calls and opens when share of failed
+ * or too slow calls in current window is too high. Open breaker passes no calls until it is half-opened by
+ * successful probe or by end of open period. Half-open breaker passes limited amount of trial calls, closes
+ * after successful one and opens again after failed one
+ */
+public class CircuitBreaker {
+    /**
+     * states of breaker
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    //  settings shared by breakers of all instances
+    private final HealthSettings settings;
+
+    //  current state
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+    //  time when breaker was opened
+    private volatile long openedAtNanos;
+
+    //  start of current window of counted calls
+    private volatile long windowStartNanos = System.nanoTime();
+
+    //  calls and failures in current window
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    //  trial calls in flight while breaker is half-open
+    private final AtomicInteger trials = new AtomicInteger();
+
+    public CircuitBreaker(HealthSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * @return current state, open breaker becomes half-open when its open period is over
+     */
+    public State state() {
+        State current = state.get();
+        if(current == State.OPEN && System.nanoTime() - openedAtNanos >= settings.openNanos) {
+            halfOpen();
+            return state.get();
+        }
+        return current;
+    }
+
+    /**
+     * @return true if new call can be sent to instance
+     */
+    public boolean isAvailable() {
+        State current = state();
+        return current == State.CLOSED || (current == State.HALF_OPEN && trials.get() < settings.halfOpenTrials);
+    }
+
+    /**
+     * register that call was sent to instance
+     */
+    public void onCall() {
+        if(state.get() == State.HALF_OPEN) {
+            trials.incrementAndGet();
+        }
+    }
+
+    /**
+     * register result of call
+     * @param latencyNanos latency of call
+     * @param success true if instance answered
+     */
+    public void onResult(long latencyNanos, boolean success) {
+        boolean failed = !success || latencyNanos > settings.slowCallNanos;
+        State current = state.get();
+
+        if(current == State.HALF_OPEN) {
+            trials.updateAndGet(value -> Math.max(0, value - 1));
+            if(failed) {
+                open(State.HALF_OPEN);
+            } else if(state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                resetWindow(System.nanoTime());
+            }
+            return;
+        }
+        if(current != State.CLOSED) {
+            return;
+        }
+
+        //  start new window when current one is over
+        long now = System.nanoTime();
+        if(now - windowStartNanos > settings.windowNanos) {
+            resetWindow(now);
+        }
+
+        int callsInWindow = calls.incrementAndGet();
+        int failuresInWindow = failed ? failures.incrementAndGet() : failures.get();
+        if(callsInWindow >= settings.minimumCalls
+                && failuresInWindow >= callsInWindow * settings.failureRateThreshold) {
+            open(State.CLOSED);
+        }
+    }
+
+    /**
+     * open breaker at once, used when instance cannot be reached at all
+     */
+    public void forceOpen() {
+        State current = state.get();
+        if(current != State.OPEN) {
+            open(current);
+        }
+    }
+
+    /**
+     * half-open breaker after successful probe of opened instance
+     */
+    public void onProbeSuccess() {
+        if(state.get() == State.OPEN) {
+            halfOpen();
+        }
+    }
+
+    /**
+     * move breaker to open state
+     * @param expected state from which breaker is opened
+     */
+    private void open(State expected) {
+        if(state.compareAndSet(expected, State.OPEN)) {
+            openedAtNanos = System.nanoTime();
+            trials.set(0);
+        }
+    }
+
+    /**
+     * move open breaker to half-open state
+     */
+    private void halfOpen() {
+        if(state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            trials.set(0);
+        }
+    }
+
+    /**
+     * start new window of counted calls
+     * @param now current time
+     */
+    private void resetWindow(long now) {
+        windowStartNanos = now;
+        calls.set(0);
+        failures.set(0);
+    }
+}
@@ -0,0 +1,147 @@
+package Health;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Health of service instances: circuit breaker of every instance fed by results of proxied calls, and
+ * periodic lightweight probes (TCP connect) that eject unreachable instances and re-admit recovered ones
+ */
+public class HealthChecker implements Closeable {
+    //  settings of breakers and probes
+    private final HealthSettings settings;
+
+    //  breakers by address of instance
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    //  thread that probes instances
+    private final ScheduledExecutorService prober;
+
+    /**
+     * create health checker and start periodic probes
+     * @param settings settings of breakers and probes
+     */
+    public HealthChecker(HealthSettings settings) {
+        this.settings = settings;
+        this.prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "health-prober");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probeAll, settings.probeIntervalMillis, settings.probeIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * leave only instances that can receive calls
+     * @param instances addresses of instances
+     * @return available instances, or all instances if none is available, so function is not cut off completely
+     */
+    public List<String> available(List<String> instances) {
+        List<String> available = null;
+        for(int i = 0; i < instances.size(); i++) {
+            boolean isAvailable = breaker(instances.get(i)).isAvailable();
+            if(!isAvailable && available == null) {
+                available = new ArrayList<>(instances.subList(0, i));
+            } else if(isAvailable && available != null) {
+                available.add(instances.get(i));
+            }
+        }
+        if(available == null) {
+            return instances;
+        }
+        return available.isEmpty() ? instances : available;
+    }
+
+    /**
+     * register that call was sent to instance
+     * @param address address of instance
+     */
+    public void onCall(String address) {
+        breaker(address).onCall();
+    }
+
+    /**
+     * register result of call to instance
+     * @param address address of instance
+     * @param latencyNanos latency of call
+     * @param success true if instance answered
+     */
+    public void onResult(String address, long latencyNanos, boolean success) {
+        breaker(address).onResult(latencyNanos, success);
+    }
+
+    /**
+     * eject instance that could not be reached at all
+     * @param address address of instance
+     */
+    public void onConnectionFailure(String address) {
+        breaker(address).forceOpen();
+    }
+
+    /**
+     * @param address address of instance
+     * @return state of breaker of instance
+     */
+    public CircuitBreaker.State state(String address) {
+        return breaker(address).state();
+    }
+
+    /**
+     * @param address address of instance
+     * @return breaker of instance, created on first use
+     */
+    private CircuitBreaker breaker(String address) {
+        CircuitBreaker breaker = breakers.get(address);
+        if(breaker == null) {
+            breaker = breakers.computeIfAbsent(address, key -> new CircuitBreaker(settings));
+        }
+        return breaker;
+    }
+
+    /**
+     * probe all known instances: unreachable ones are ejected, reachable opened ones are allowed trial calls
+     */
+    void probeAll() {
+        breakers.forEach((address, breaker) -> {
+            if(probe(address)) {
+                breaker.onProbeSuccess();
+            } else {
+                breaker.forceOpen();
+            }
+        });
+    }
+
+    /**
+     * check that instance accepts TCP connections
+     * @param address address of instance
+     * @return true if connection was established
+     */
+    private boolean probe(String address) {
+        try (Socket socket = new Socket()) {
+            URI uri = URI.create(address);
+            int port = uri.getPort() != -1 ? uri.getPort() : "https".equals(uri.getScheme()) ? 443 : 80;
+            socket.connect(new InetSocketAddress(uri.getHost(), port), settings.probeTimeoutMillis);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * stop probes
+     */
+    @Override
+    public void close() {
+        prober.shutdownNow();
+    }
+}
@@ -0,0 +1,59 @@
+package Health;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of health checking and circuit breakers, read from -Dgateway.health.* system properties
+ */
+public class HealthSettings {
+    //  share of failed calls in window that opens breaker
+    final double failureRateThreshold;
+
+    //  min amount of calls in window before failure rate is considered
+    final int minimumCalls;
+
+    //  length of window of counted calls
+    final long windowNanos;
+
+    //  calls slower than this are counted as failed
+    final long slowCallNanos;
+
+    //  time for which breaker stays open before trial calls are allowed
+    final long openNanos;
+
+    //  amount of trial calls allowed at once while breaker is half-open
+    final int halfOpenTrials;
+
+    //  interval of probes of instances
+    final long probeIntervalMillis;
+
+    //  timeout of connection of probe
+    final int probeTimeoutMillis;
+
+    public HealthSettings(double failureRateThreshold, int minimumCalls, long windowMillis, long slowCallMillis,
+                          long openMillis, int halfOpenTrials, long probeIntervalMillis, int probeTimeoutMillis) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = minimumCalls;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.halfOpenTrials = halfOpenTrials;
+        this.probeIntervalMillis = probeIntervalMillis;
+        this.probeTimeoutMillis = probeTimeoutMillis;
+    }
+
+    /**
+     * @return settings taken from system properties, with defaults for missing ones
+     */
+    public static HealthSettings fromSystemProperties() {
+        return new HealthSettings(
+                Double.parseDouble(System.getProperty("gateway.health.failureRate", "0.5")),
+                Integer.getInteger("gateway.health.minimumCalls", 10),
+                Long.getLong("gateway.health.windowMillis", 10_000),
+                Long.getLong("gateway.health.slowCallMillis", 5_000),
+                Long.getLong("gateway.health.openMillis", 15_000),
+                Integer.getInteger("gateway.health.halfOpenTrials", 1),
+                Long.getLong("gateway.health.probeIntervalMillis", 5_000),
+                Integer.getInteger("gateway.health.probeTimeoutMillis", 500));
+    }
+}
@@ -0,0 +1,94 @@
+package Http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Results of one broadcast, collected in order of arrival until all services answered or deadline passed
+ */
+public class BroadcastCollector {
+    //  marker of call that failed
+    private static final String FAILED = new String("failed");
+
+    //  results in order of arrival
+    private final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+
+    //  calls sent to services
+    private final List<CompletableFuture<String>> calls = new ArrayList<>();
+
+    //  time after which results are not awaited anymore
+    private final long deadlineNanos;
+
+    //  amount of calls that already answered, taken by reader
+    private int taken;
+
+    //  amount of calls that failed
+    private int failed;
+
+    /**
+     * create collector
+     * @param deadlineNanos time after which results are not awaited anymore, in terms of System.nanoTime()
+     */
+    public BroadcastCollector(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * add call to service whose result must be collected
+     * @param call call to service
+     */
+    void add(CompletableFuture<String> call) {
+        calls.add(call);
+        call.whenComplete((response, throwable) ->
+                results.add(throwable == null && response != null ? response : FAILED));
+    }
+
+    /**
+     * wait for next successful result
+     * @return response of service, null if all calls answered or deadline passed
+     * @throws InterruptedException if waiting thread was interrupted
+     */
+    public String next() throws InterruptedException {
+        while(taken < calls.size()) {
+            long remaining = deadlineNanos - System.nanoTime();
+            String result = remaining > 0 ? results.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            if(result == null) {
+                return null;
+            }
+            taken++;
+            if(result == FAILED) {
+                failed++;
+                continue;
+            }
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if every call answered successfully
+     */
+    public boolean isComplete() {
+        return taken == calls.size() && failed == 0;
+    }
+
+    /**
+     * @return amount of calls that failed or did not answer before deadline
+     */
+    public int missing() {
+        return calls.size() - taken + failed;
+    }
+
+    /**
+     * cancel calls that did not answer yet
+     */
+    public void cancelRemaining() {
+        for(CompletableFuture<String> call : calls) {
+            call.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package Http;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Sends broadcast of service to all instances of requested functions in parallel
+ */
+public class Broadcaster {
+    //  utility for requests to services
+    private final HttpUtility httpUtility;
+
+    //  local routing table of services
+    private final ServiceRegistry serviceRegistry;
+
+    //  max time of waiting for all services to answer
+    private final long deadlineMillis;
+
+    //  if true, results are streamed as they arrive and those that missed deadline are dropped,
+    // otherwise broadcast fails unless all services answered in time
+    private final boolean partialResults;
+
+    /**
+     * create broadcaster
+     * @param httpUtility utility for requests to services
+     * @param serviceRegistry local routing table of services
+     * @param deadlineMillis max time of waiting for all services to answer
+     * @param partialResults if true, results that arrived before deadline are sent even if some are missing
+     */
+    public Broadcaster(HttpUtility httpUtility, ServiceRegistry serviceRegistry, long deadlineMillis,
+                       boolean partialResults) {
+        this.httpUtility = httpUtility;
+        this.serviceRegistry = serviceRegistry;
+        this.deadlineMillis = deadlineMillis;
+        this.partialResults = partialResults;
+    }
+
+    /**
+     * send broadcast message to all instances of functions at once
+     * @param requestPayload UTF-8 encoded message that must be transmitted
+     * @param functionNames functions whose instances receive message
+     * @param requesterPort port of service that requested broadcast, it does not receive its own message
+     * @return collector of results of this broadcast
+     */
+    public BroadcastCollector scatter(byte[] requestPayload, Collection<String> functionNames, int requesterPort) {
+        BroadcastCollector collector = new BroadcastCollector(System.nanoTime() + deadlineMillis * 1_000_000L);
+        for(String functionName : functionNames) {
+            List<String> instances = serviceRegistry.instances(functionName);
+            for(String service : instances) {
+                //  send broadcast message only if it is not the same port as requester
+                if(requesterPort != Integer.parseInt(service.split(":")[2].split("/")[0])) {
+                    collector.add(httpUtility.sendServiceBroadcastJsonPostAsync(service, requestPayload));
+                }
+            }
+        }
+        return collector;
+    }
+
+    /**
+     * @return true if results that arrived before deadline are sent even if some are missing
+     */
+    public boolean partialResults() {
+        return partialResults;
+    }
+}
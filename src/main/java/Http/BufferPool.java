@@ -0,0 +1,77 @@
+package Http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of reusable copy buffers for moving request and response bodies between streams
+ */
+public final class BufferPool {
+    //  size of single buffer
+    public static final int BUFFER_SIZE = 16 * 1024;
+
+    //  max amount of idle buffers kept in pool
+    private static final int MAX_POOLED = 256;
+
+    //  idle buffers
+    private static final ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private BufferPool() {
+    }
+
+    /**
+     * take buffer from pool or create new one if pool is empty
+     * @return buffer of {@link #BUFFER_SIZE} bytes
+     */
+    public static byte[] acquire() {
+        byte[] buffer = POOL.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * return buffer to pool, it is dropped if pool is full
+     * @param buffer buffer taken with {@link #acquire()}
+     */
+    public static void release(byte[] buffer) {
+        POOL.offer(buffer);
+    }
+
+    /**
+     * copy all bytes from input stream to output stream using pooled buffer
+     * @param inputStream source of bytes
+     * @param outputStream destination of bytes
+     * @return amount of copied bytes
+     * @throws IOException i/o error
+     */
+    public static long copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long copied = 0;
+            int read;
+            while((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+                copied += read;
+            }
+            return copied;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * read all bytes of input stream using pooled buffer
+     * @param inputStream source of bytes
+     * @param expectedLength expected amount of bytes, 0 or less if unknown
+     * @return read bytes
+     * @throws IOException i/o error
+     */
+    public static byte[] readAll(InputStream inputStream, long expectedLength) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(
+                expectedLength > 0 && expectedLength < Integer.MAX_VALUE ? (int) expectedLength : 512);
+        copy(inputStream, outputStream);
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,190 @@
+package Http;
+
+import Cache.ResultRecord;
+import Cache.ResultTier;
+import com.lambdaworks.redis.RedisFuture;
+import com.lambdaworks.redis.pubsub.RedisPubSubAdapter;
+import com.lambdaworks.redis.pubsub.RedisPubSubConnection;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Long-poll waiters for results of processes. Waiters are woken when result of process is cached by any
+ * gateway: directly when it happens on this gateway, and through Redis pub/sub when it happens on another one.
+ * Long-poll requests are not held by admission limit, so amount of waiters and time of waiting have own caps
+ */
+public class CompletionNotifier {
+    //  channel on which gateways publish IDs of completed processes
+    public static final String CHANNEL = "gateway:completed";
+
+    //  caps used when they are not given
+    public static final int DEFAULT_MAX_WAITERS = 10_000;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 60_000;
+
+    /**
+     * result of one process shared by all its waiters
+     */
+    private static final class Waiting {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        //  amount of waiters, changed only inside compute of waiters map
+        int waiters;
+    }
+
+    //  redis connection for publishing completions
+    private final RedisCommands<String> redisConnection;
+
+    //  results cached by other gateways, null if notifier is woken only by this gateway
+    private final ResultTier results;
+
+    //  waiters by process ID
+    private final ConcurrentHashMap<Long, Waiting> waiting = new ConcurrentHashMap<>();
+
+    //  max amount of waiters at once, which also bounds amount of waited processes
+    private final int maxWaiters;
+
+    //  max time of waiting
+    private final long maxWaitMillis;
+
+    //  amount of waiters at once
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    //  listeners told about every completion on any gateway
+    private final List<LongConsumer> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * create notifier that is woken only by completions on this gateway
+     * @param redisConnection async connection to Redis
+     */
+    public CompletionNotifier(RedisCommands<String> redisConnection) {
+        this(redisConnection, null, DEFAULT_MAX_WAITERS, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    private CompletionNotifier(RedisCommands<String> redisConnection, ResultTier results, int maxWaiters,
+                               long maxWaitMillis) {
+        this.redisConnection = redisConnection;
+        this.results = results;
+        this.maxWaiters = maxWaiters;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * create notifier that is also woken by completions on other gateways
+     * @param redisConnection async connection to Redis
+     * @param pubSubConnection separate connection used only for receiving completions
+     * @param results result tier from which results cached by other gateways are taken
+     * @param maxWaiters max amount of waiters at once
+     * @param maxWaitMillis max time of waiting
+     */
+    public CompletionNotifier(RedisCommands<String> redisConnection,
+                              RedisPubSubConnection<String, String> pubSubConnection, ResultTier results,
+                              int maxWaiters, long maxWaitMillis) {
+        this(redisConnection, results, maxWaiters, maxWaitMillis);
+        pubSubConnection.addListener(new RedisPubSubAdapter<String, String>() {
+            @Override
+            public void message(String channel, String message) {
+                completedElsewhere(Long.parseLong(message));
+            }
+        });
+        pubSubConnection.subscribe(CHANNEL);
+    }
+
+    /**
+     * tell listener about IDs of processes completed on this or any other gateway
+     * @param listener consumer of IDs of completed processes
+     */
+    public void addListener(LongConsumer listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * wait for result of process
+     * @param id ID of process
+     * @param timeoutMillis max time of waiting, cut to max time of notifier
+     * @return future completed with cached result of process, or with null if timeout passed; null if there
+     * are already max waiters
+     */
+    public CompletableFuture<String> await(long id, long timeoutMillis) {
+        if(waiters.incrementAndGet() > maxWaiters) {
+            waiters.decrementAndGet();
+            return null;
+        }
+        Waiting joined = waiting.compute(id, (key, current) -> {
+            Waiting entry = current != null ? current : new Waiting();
+            entry.waiters++;
+            return entry;
+        });
+
+        CompletableFuture<String> result = joined.result.copy()
+                .completeOnTimeout(null, Math.min(timeoutMillis, maxWaitMillis), TimeUnit.MILLISECONDS);
+        result.whenComplete((value, throwable) -> {
+            //  last waiter that leaves removes entry, so abandoned processes do not stay in map
+            waiting.computeIfPresent(id, (key, current) -> current == joined && --current.waiters == 0 ? null : current);
+            waiters.decrementAndGet();
+        });
+        return result;
+    }
+
+    /**
+     * @return amount of waiters at once
+     */
+    public int waiters() {
+        return waiters.get();
+    }
+
+    /**
+     * wake waiters of process whose result was cached by this gateway and notify other gateways
+     * @param id ID of process
+     * @param cachedResponse cached result of process
+     */
+    public void completed(long id, String cachedResponse) {
+        notifyListeners(id);
+        Waiting entry = waiting.remove(id);
+        if(entry != null) {
+            entry.result.complete(cachedResponse);
+        }
+        redisConnection.publish(CHANNEL, String.valueOf(id));
+    }
+
+    /**
+     * wake waiters of process whose result was cached by another gateway
+     * @param id ID of process
+     */
+    private void completedElsewhere(long id) {
+        notifyListeners(id);
+        if(!waiting.containsKey(id)) {
+            return;
+        }
+        //  result cached by older gateway under legacy key is not found here, waiter then resolves response
+        // the usual way, which also reads legacy key
+        RedisFuture<byte[]> cachedFuture = results.fetch(id);
+        cachedFuture.addListener(() -> {
+            Waiting entry = waiting.remove(id);
+            if(entry == null) {
+                return;
+            }
+            try {
+                entry.result.complete(ResultRecord.render(cachedFuture.get()));
+            } catch (InterruptedException | ExecutionException e) {
+                entry.result.completeExceptionally(e);
+            }
+        }, Runnable::run);
+    }
+
+    /**
+     * tell listeners about completed process
+     * @param id ID of process
+     */
+    private void notifyListeners(long id) {
+        for(LongConsumer listener : listeners) {
+            listener.accept(id);
+        }
+    }
+}
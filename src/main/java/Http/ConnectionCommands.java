@@ -0,0 +1,103 @@
+package Http;
+
+import com.lambdaworks.redis.KeyScanCursor;
+import com.lambdaworks.redis.RedisAsyncConnection;
+import com.lambdaworks.redis.RedisFuture;
+import com.lambdaworks.redis.ScanArgs;
+import com.lambdaworks.redis.ScanCursor;
+import com.lambdaworks.redis.ScriptOutputType;
+
+import java.util.List;
+
+/**
+ * Commands of gateway sent straight to async Redis connection
+ * @param <V> type of values
+ */
+final class ConnectionCommands<V> implements RedisCommands<V> {
+    private final RedisAsyncConnection<String, V> connection;
+
+    ConnectionCommands(RedisAsyncConnection<String, V> connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    public RedisFuture<V> get(String key) {
+        return connection.get(key);
+    }
+
+    @Override
+    public RedisFuture<List<V>> mget(String... keys) {
+        return connection.mget(keys);
+    }
+
+    @Override
+    public RedisFuture<String> set(String key, V value) {
+        return connection.set(key, value);
+    }
+
+    @Override
+    public RedisFuture<String> setex(String key, long seconds, V value) {
+        return connection.setex(key, seconds, value);
+    }
+
+    @Override
+    public RedisFuture<Long> del(String... keys) {
+        return connection.del(keys);
+    }
+
+    @Override
+    public RedisFuture<Boolean> expire(String key, long seconds) {
+        return connection.expire(key, seconds);
+    }
+
+    @Override
+    public RedisFuture<Long> pttl(String key) {
+        return connection.pttl(key);
+    }
+
+    @Override
+    public RedisFuture<Long> incrby(String key, long amount) {
+        return connection.incrby(key, amount);
+    }
+
+    @Override
+    public RedisFuture<Long> decrby(String key, long amount) {
+        return connection.decrby(key, amount);
+    }
+
+    @Override
+    public RedisFuture<Long> publish(String channel, V message) {
+        return connection.publish(channel, message);
+    }
+
+    @Override
+    public RedisFuture<Long> zadd(String key, double score, V member) {
+        return connection.zadd(key, score, member);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public RedisFuture<Long> zrem(String key, V member) {
+        return connection.zrem(key, member);
+    }
+
+    @Override
+    public RedisFuture<List<V>> zrangebyscore(String key, String min, String max, long offset, long count) {
+        return connection.zrangebyscore(key, min, max, offset, count);
+    }
+
+    @Override
+    public RedisFuture<Long> zcard(String key) {
+        return connection.zcard(key);
+    }
+
+    @Override
+    public RedisFuture<KeyScanCursor<String>> scan(ScanCursor cursor, ScanArgs args) {
+        return connection.scan(cursor, args);
+    }
+
+    @Override
+    public <T> RedisFuture<T> eval(String script, ScriptOutputType type, String[] keys, V[] values) {
+        return connection.eval(script, type, keys, values);
+    }
+}
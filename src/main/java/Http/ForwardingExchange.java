@@ -0,0 +1,136 @@
+package Http;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * Exchange passing all calls to wrapped exchange and reporting once when response to request is started,
+ * that is when its headers are sent or exchange is closed without them, whatever thread does it
+ */
+public abstract class ForwardingExchange extends HttpExchange {
+    //  wrapped exchange
+    private final HttpExchange exchange;
+
+    //  flag showing that start of response is already reported
+    private volatile boolean responded;
+
+    /**
+     * @param exchange exchange to wrap
+     */
+    protected ForwardingExchange(HttpExchange exchange) {
+        this.exchange = exchange;
+    }
+
+    /**
+     * called once when response headers are sent or exchange is closed without response
+     * @param responseCode status of response, -1 if exchange is closed without response
+     */
+    protected abstract void onResponse(int responseCode);
+
+    /**
+     * report start of response once
+     * @param responseCode status of response, -1 if there is none
+     */
+    private void respond(int responseCode) {
+        if(responded) {
+            return;
+        }
+        responded = true;
+        onResponse(responseCode);
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        respond(rCode);
+        exchange.sendResponseHeaders(rCode, responseLength);
+    }
+
+    @Override
+    public void close() {
+        respond(-1);
+        exchange.close();
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return exchange.getRequestHeaders();
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return exchange.getResponseHeaders();
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return exchange.getRequestURI();
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return exchange.getRequestMethod();
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return exchange.getHttpContext();
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return exchange.getRequestBody();
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return exchange.getResponseBody();
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return exchange.getRemoteAddress();
+    }
+
+    @Override
+    public int getResponseCode() {
+        return exchange.getResponseCode();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return exchange.getLocalAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return exchange.getProtocol();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return exchange.getAttribute(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        exchange.setAttribute(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        exchange.setStreams(i, o);
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return exchange.getPrincipal();
+    }
+}
@@ -1,43 +1,205 @@
 package Http;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.lambdaworks.redis.RedisConnection;
+import Admission.AdmissionFilter;
+import Admission.Bulkhead;
+import Admission.BulkheadFullException;
+import Admission.Bulkheads;
+import Balancer.BalancerType;
+import Balancer.InstanceStats;
+import Balancer.LoadBalancers;
+import Balancer.UpstreamStats;
+import Cache.BinaryValueCodec;
+import Cache.ResponseCache;
+import Cache.ResultRecord;
+import Cache.ResultTier;
+import Cluster.ClusterMembership;
+import Health.HealthChecker;
+import Health.HealthSettings;
+import Logging.Level;
+import Logging.Log;
+import Metrics.GatewayMetrics;
+import Metrics.TimedExchange;
+import Upstream.Deadline;
+import Upstream.DeadlineExceededException;
+import Upstream.UpstreamCalls;
+import Upstream.UpstreamSettings;
+import com.lambdaworks.redis.RedisClient;
+import com.lambdaworks.redis.RedisFuture;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
-import org.apache.http.conn.HttpHostConnectException;
-import org.json.JSONObject;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
 
 import java.io.*;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public class HttpGatewayContextHandler implements HttpHandler {
+    //  events of request handling
+    private static final Log LOG = Log.get("handler");
+
+    //  bodies of requests and responses, off unless enabled with -Dgateway.log.bodies=debug
+    private static final Log BODIES = Log.get("bodies", Level.OFF);
+
     //  redis connection entity for performing all actions
-    // note: to make this thing work, launch at docker Redis image
-    RedisConnection<String, String> redisConnection;
+    // note: to make this thing work, launch at docker Redis image. Commands issued one after another on this
+    // connection without waiting are pipelined, so independent commands are sent in groups
+    RedisCommands<String> redisConnection;
 
     //  instance of utility for HTTP operations;
     HttpUtility httpUtility;
 
-    ArrayList<String> availableServiceCommands;
+    //  local routing table of function names to service instances
+    ServiceRegistry serviceRegistry;
+
+    //  atomic counters of processes handled by each service instance
+    MailboxCounters mailboxCounters;
+
+    //  near-cache of service instances owning processes, written through to Redis
+    ProcessRoutes processRoutes;
+
+    //  strategies of choosing service instance for each function, with statistics of instances
+    LoadBalancers loadBalancers;
+
+    //  parallel sender of broadcasts between services
+    Broadcaster broadcaster;
+
+    //  results of processes cached by this gateway, summed over gateways by metrics
+    private final LongAdder cachedResults = new LongAdder();
+
+    //  bounded local cache of completed GET responses, checked before Redis
+    ResponseCache localCacheOfGetResponses;
+
+    //  results of processes shared by gateways through Redis, with TTLs and memory budget
+    ResultTier results;
 
-    ArrayList<String> agregatedServiceResponses;
+    //  GET requests in flight by process ID, so concurrent polls of one process share single request to service
+    final SingleFlight<Long, String> getResponses = new SingleFlight<>();
 
-    private static int redisGetResponsesCounter = 0;
-    HashMap<String, String> localCacheOfGetResponses;
+    //  long-poll waiters for results of processes
+    CompletionNotifier completionNotifier;
 
-    private int broadcastRequesterId;
+    //  circuit breakers and probes of service instances
+    HealthChecker healthChecker;
+
+    //  latency histograms and counters of gateway
+    GatewayMetrics metrics;
+
+    //  budgets of calls to services of each function, so slow function cannot hold all gateway threads
+    Bulkheads bulkheads;
+
+    //  deadlines, retries and hedges of idempotent calls to services
+    UpstreamCalls upstreamCalls;
+
+    //  gateway nodes sharing Redis, GET requests go to node owning process; null if there is no affinity
+    ClusterMembership cluster;
+
+    //  GET requests forwarded to owning gateway and ones handled locally because owner did not answer
+    private final LongAdder forwardedGets = new LongAdder();
+    private final LongAdder forwardFallbacks = new LongAdder();
+
+    //  flag showing that requests to services are sent without holding gateway threads
+    private final boolean asyncMode;
 
     //  constructor to establish connection with db and with redis
-    public HttpGatewayContextHandler(RedisConnection<String, String> redisConnection, HttpUtility httpUtility) {
+    public HttpGatewayContextHandler(RedisClient redisClient, HttpUtility httpUtility) {
+        this(RedisCommands.of(redisClient.connectAsync()), httpUtility, new ServiceRegistry(redisClient.connect()),
+                new MailboxCounters(RedisCommands.of(redisClient.connectAsync()), 100, true),
+                new ResponseCache(10_000, false, 0),
+                new ResultTier(RedisCommands.of(redisClient.connectAsync(new BinaryValueCodec())),
+                        RedisCommands.of(redisClient.connectAsync()), 3600, Map.of(), 0, 5000));
+    }
+
+    //  constructor sharing registry between handler and broadcaster
+    private HttpGatewayContextHandler(RedisCommands<String> redisConnection, HttpUtility httpUtility,
+                                      ServiceRegistry serviceRegistry, MailboxCounters mailboxCounters,
+                                      ResponseCache localCacheOfGetResponses, ResultTier results) {
+        this(redisConnection, httpUtility, serviceRegistry, mailboxCounters, localCacheOfGetResponses, results,
+                new GatewayMetrics());
+    }
+
+    //  constructor sharing metrics between handler and bulkheads
+    private HttpGatewayContextHandler(RedisCommands<String> redisConnection, HttpUtility httpUtility,
+                                      ServiceRegistry serviceRegistry, MailboxCounters mailboxCounters,
+                                      ResponseCache localCacheOfGetResponses, ResultTier results,
+                                      GatewayMetrics metrics) {
+        this(redisConnection, httpUtility, serviceRegistry, mailboxCounters,
+                new ProcessRoutes(redisConnection, 65_536, 3600, 10_000),
+                new LoadBalancers(new UpstreamStats(mailboxCounters::size), BalancerType.LEAST_MAILBOX),
+                new HealthChecker(HealthSettings.fromSystemProperties()), localCacheOfGetResponses, results,
+                new Broadcaster(httpUtility, serviceRegistry, 5000, true),
+                new CompletionNotifier(redisConnection), metrics,
+                Bulkheads.fromSystemProperties(serviceRegistry, 0, metrics),
+                new UpstreamCalls(UpstreamSettings.fromSystemProperties()), null, false);
+    }
+
+    /**
+     * constructor to establish connection with db and with redis
+     * @param redisConnection async connection to Redis
+     * @param httpUtility utility for requests to services
+     * @param serviceRegistry local routing table of services
+     * @param mailboxCounters counters of processes handled by services
+     * @param processRoutes near-cache of service instances owning processes
+     * @param loadBalancers balancers of functions
+     * @param healthChecker circuit breakers and probes of service instances
+     * @param localCacheOfGetResponses local cache of completed GET responses
+     * @param results results of processes shared through Redis
+     * @param broadcaster parallel sender of broadcasts between services
+     * @param completionNotifier long-poll waiters for results of processes
+     * @param metrics latency histograms and counters of gateway
+     * @param bulkheads budgets of calls to services of each function
+     * @param upstreamCalls deadlines, retries and hedges of PUT and GET calls to services
+     * @param cluster gateway nodes owning processes, null to handle all processes locally
+     * @param asyncMode if true, POST, PUT and GET responses are completed from callbacks of non-blocking requests
+     */
+    public HttpGatewayContextHandler(RedisCommands<String> redisConnection, HttpUtility httpUtility,
+                                     ServiceRegistry serviceRegistry, MailboxCounters mailboxCounters,
+                                     ProcessRoutes processRoutes, LoadBalancers loadBalancers,
+                                     HealthChecker healthChecker,
+                                     ResponseCache localCacheOfGetResponses, ResultTier results,
+                                     Broadcaster broadcaster, CompletionNotifier completionNotifier,
+                                     GatewayMetrics metrics, Bulkheads bulkheads, UpstreamCalls upstreamCalls,
+                                     ClusterMembership cluster, boolean asyncMode) {
         this.redisConnection = redisConnection;
         this.httpUtility = httpUtility;
-        this.availableServiceCommands = new ArrayList<>();
-        localCacheOfGetResponses = new HashMap<>();
-        agregatedServiceResponses = new ArrayList<>();
+        this.serviceRegistry = serviceRegistry;
+        this.mailboxCounters = mailboxCounters;
+        this.processRoutes = processRoutes;
+        this.loadBalancers = loadBalancers;
+        this.healthChecker = healthChecker;
+        this.asyncMode = asyncMode;
+        this.localCacheOfGetResponses = localCacheOfGetResponses;
+        this.results = results;
+        this.broadcaster = broadcaster;
+        this.completionNotifier = completionNotifier;
+        this.metrics = metrics;
+        this.bulkheads = bulkheads;
+        this.upstreamCalls = upstreamCalls;
+        this.cluster = cluster;
+
+        //  process finished through another gateway no longer has route
+        completionNotifier.addListener(processRoutes::invalidate);
+
+        metrics.counter("gateway_get_polls_total", "GET requests that went to Redis or service",
+                "outcome=\"started\"", getResponses::started);
+        metrics.counter("gateway_get_polls_total", "GET requests that went to Redis or service",
+                "outcome=\"coalesced\"", getResponses::coalesced);
+        metrics.counter("gateway_results_cached_total", "Results of processes cached by gateway", "",
+                cachedResults::sum);
+        metrics.counter("gateway_affinity_forwards_total", "GET requests forwarded to gateway owning process",
+                "outcome=\"forwarded\"", forwardedGets::sum);
+        metrics.counter("gateway_affinity_forwards_total", "GET requests forwarded to gateway owning process",
+                "outcome=\"fallback\"", forwardFallbacks::sum);
     }
 
     /**
@@ -46,69 +208,63 @@ public class HttpGatewayContextHandler implements HttpHandler {
      */
     @Override
     public void handle(HttpExchange httpExchange) {
+        //  measure request until its response headers are sent, even if they are sent from callback
+        httpExchange = new TimedExchange(httpExchange, metrics);
         try {
+            //  client that has already given up is answered at once, otherwise its deadline goes to services
+            Deadline deadline = upstreamCalls.deadlineOf(httpExchange.getRequestHeaders().getFirst(Deadline.HEADER));
+            if(deadline.isExpired()) {
+                rejectExpired(httpExchange);
+                return;
+            }
+
             //  check if this is GET request
             if("GET".equals(httpExchange.getRequestMethod())) {
-                handleGetResponse(httpExchange);
+                handleGetResponse(httpExchange, deadline);
+                return;
+            }
+            //  other methods are refused before their body is read, so every request gets response
+            if(!"POST".equals(httpExchange.getRequestMethod()) && !"PUT".equals(httpExchange.getRequestMethod())) {
+                rejectMethod(httpExchange);
                 return;
             }
-            broadcastRequesterId = httpExchange.getRemoteAddress().getPort();
-
-
-//            httpExchange.getRequestURI()
             //  otherwise, request must have payload in its body
-            String requestBody;
+            byte[] requestBody;
             //  try to get payload from request body
             if ((requestBody = getRequestPayload(httpExchange)) == null) {
-                System.err.println("Couldn't take content of request");
+                LOG.warn("couldn't take content of request");
                 return;
             }
 
             //  handle request basing on type of request
             if ("POST".equals(httpExchange.getRequestMethod())) {
-                handlePostResponse(httpExchange, requestBody);
-            } else if ("PUT".equals(httpExchange.getRequestMethod())) {
-                handlePutResponse(httpExchange, requestBody);
+                handlePostResponse(httpExchange, requestBody, deadline);
+            } else {
+                handlePutResponse(httpExchange, requestBody, deadline);
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            LOG.error("request was not handled", e);
+            //  client must not wait for response that will never come, admission slot is freed as well
+            httpExchange.close();
         }
     }
 
     /**
-     * get payload from incoming request
+     * get payload from incoming request, package-private so it can be measured by benchmarks
      * @param httpExchange REST service connector
-     * @return string formatted payload of request
+     * @return UTF-8 encoded payload of request
      * @throws IOException error in process of reading request
      */
-    private String getRequestPayload(HttpExchange httpExchange) throws IOException {
+    byte[] getRequestPayload(HttpExchange httpExchange) throws IOException {
         //  check that there is specified content type of request
         if(httpExchange.getRequestHeaders().containsKey("Content-Type")) {
             //  check content to be equal to json formatted data
             if(httpExchange.getRequestHeaders().get("Content-Type").get(0).equals("application/json")){
-                //  open stream for getting UTF-8 formatted characters
-                InputStreamReader inputStreamReader = new InputStreamReader(
-                        httpExchange.getRequestBody(), StandardCharsets.UTF_8
-                );
-
-                //  insert stream to buffer for reading through input stream
-                BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-
-                //  initialize current character and buffer for appending all incoming characters
-                int currentCharacter;
-                StringBuilder buffer = new StringBuilder(512);
-
-                //  while it's not the end of all stream, read char-by-char all incoming data
-                while((currentCharacter = bufferedReader.read()) != -1) {
-                    buffer.append((char) currentCharacter);
+                //  read raw bytes of payload in blocks through pooled buffer, they are forwarded to services as is
+                String contentLength = httpExchange.getRequestHeaders().getFirst("Content-Length");
+                try (InputStream inputStream = httpExchange.getRequestBody()) {
+                    return BufferPool.readAll(inputStream, contentLength == null ? -1 : Long.parseLong(contentLength));
                 }
-
-                //  close buffer and input stream
-                bufferedReader.close();
-                inputStreamReader.close();
-
-                //  return string-formatted data
-                return buffer.toString();
             } else {
                 sendErrorResponse(httpExchange, "Content-Type error: content-type is unknown");
             }
@@ -122,130 +278,156 @@ public class HttpGatewayContextHandler implements HttpHandler {
      * generate response to POST request and send it back to client
      * @param httpExchange REST service connector
      * @param requestPayload payload of received request
+     * @param deadline deadline of client request
      * @throws IOException i/o exception
      */
-    private void handlePostResponse(HttpExchange httpExchange, String requestPayload)  throws  IOException {
-        //  start deserialization of json payload
-        ObjectMapper objectMapper = new ObjectMapper();
-        ObjectNode node = objectMapper.readValue(requestPayload, ObjectNode.class);
-
-
+    private void handlePostResponse(HttpExchange httpExchange, byte[] requestPayload, Deadline deadline)
+            throws  IOException {
+        //  read only routing fields of json payload in one pass
+        String[] routingFields = JsonFields.read(requestPayload, "functionName", "address");
+        String nameOfService = routingFields[0];
+        String addressOfRequester = routingFields[1];
 
         //  check if received request is one for establishing connection between gateway and service
         if(httpExchange.getRequestHeaders().containsKey("Service-Call")) {
-            broadcastRequesterId = Integer.parseInt(httpExchange.getRequestHeaders().get("ServicePort").get(0));
+            //  service reports result of finished process, it does not need to introduce its port
+            if(httpExchange.getRequestHeaders().get("Service-Call").get(0).equals("completed")) {
+                handleCompletionCallback(httpExchange, requestPayload);
+                return;
+            }
+
+            int broadcastRequesterId = Integer.parseInt(httpExchange.getRequestHeaders().get("ServicePort").get(0));
             if(httpExchange.getRequestHeaders().get("Service-Call").get(0).equals("true")) {
 
-                //  get name of requested service and make error response if none
-                String nameOfService = node.get("functionName").asText();
+                //  make error response if there is no name of requested service
                 if(nameOfService == null) {
                     sendErrorResponse(httpExchange, "invalid POST request: function name not found in request");
                     return;
                 }
 
                 //  get address of service
-                String addressOfService = node.get("address").asText();
-
-                //  if there is no mailbox of this service, then it means that there was no such service and gate
-                // needs to register it and create mailbox counter of this service
-                if(!redisConnection.exists(addressOfService + "_mailboxSize")) {
-                    redisConnection.lpush(nameOfService, addressOfService);
-                    redisConnection.set(addressOfService + "_mailboxSize", "0");
-                }
+                String addressOfService = addressOfRequester;
 
-                if (!availableServiceCommands.contains(nameOfService)) {
-                    availableServiceCommands.add(nameOfService);
-                    System.out.println(nameOfService);
+                //  register service and notify all gateways about it, so it is known to broadcasts of every node
+                if(serviceRegistry.register(nameOfService, addressOfService)) {
+                    LOG.info("registered service of function {}: {}", nameOfService, addressOfService);
                 }
 
                 //  make response of successful connection establishment for service
-                JSONObject jsonResponse = new JSONObject();
-                jsonResponse.put("status", "successful connection to gateway");
-                jsonResponse.put("address", addressOfService);
-                sendResponse(httpExchange, jsonResponse.toString());
+                sendResponse(httpExchange, JsonFields.object(
+                        "status", "successful connection to gateway", "address", addressOfService));
                 return;
 
             } else if (httpExchange.getRequestHeaders().get("Service-Call").get(0).startsWith("broadcast:")) {
                 //  get type of broadcast activated
                 String broadcastingCommand = httpExchange.getRequestHeaders().get("Service-Call").get(0).substring(10);
 
-                //  if this broadcast is for all services
-                if(broadcastingCommand.equals("all")) {
-                    for (String availableServiceCommand : availableServiceCommands) {
-                        System.out.println("sending broadcast to services of command: " + availableServiceCommand);
-                        broadcastServiceCallToService(httpExchange ,requestPayload, availableServiceCommand);
-                    }
-
-                //  else this broadcast is required to be sent only to services attached to the broadcast header
-                } else {
-                    System.out.println("sending broadcast to services of command: " + broadcastingCommand);
-                    broadcastServiceCallToService(httpExchange, requestPayload, broadcastingCommand);
-                }
-
-                //  collect all received responses into one
-                String allResponse = "";
-                for(String agregatedResponse : agregatedServiceResponses) {
-                    allResponse += agregatedResponse + "~~~";
-                    System.out.println(allResponse);
-                }
+                //  broadcast is sent either to all services or only to services attached to the broadcast header,
+                // functions are taken from routing table shared by all gateways through Redis
+                List<String> broadcastCommands = broadcastingCommand.equals("all")
+                        ? new ArrayList<>(serviceRegistry.functionNames()) : List.of(broadcastingCommand);
+                LOG.debug("sending broadcast to services of commands: {}", broadcastCommands);
 
-                //  send responses to the client and clear buffer of responses
-                agregatedServiceResponses.clear();
-                sendResponse(httpExchange, "broadcast response: " + allResponse);
+                //  send message to all services at once and send their responses to the client as they arrive
+                BroadcastCollector collector = broadcaster.scatter(requestPayload, broadcastCommands, broadcastRequesterId);
+                sendBroadcastResponse(httpExchange, collector);
                 return;
             }
         }
 
-        //  get name of requested service and make error response if none
-        String nameOfService = node.get("functionName").asText();
+        //  make error response if there is no name of requested service
         if(nameOfService == null) {
             sendErrorResponse(httpExchange, "invalid POST request: function name not found in request");
             return;
         }
 
-        //  find how many services are there with such command and send error if none
-        long amountOfServices = redisConnection.llen(nameOfService);
-        if(amountOfServices == 0) {
+        //  get all services registered for this command from local routing table and send error if none
+        List<String> availableServicesRoutes = serviceRegistry.instances(nameOfService);
+        if(availableServicesRoutes.isEmpty()) {
             sendErrorResponse(
                     httpExchange, "invalid POST request: not found service with such function name"
             );
             return;
         }
 
-        //  get all elements that are registered in Redis for this command
-        List<String> availableServicesRoutes = redisConnection.lrange(nameOfService, 0, amountOfServices - 1);
-
-        //  initialize variables for finding least occupied service
-        Integer leastMailboxSize = null;
-        String leastOccupiedService = null;
-
-        //  find least occupied service at moment
-        for(int i = 0; i < availableServicesRoutes.size(); i++) {
-            //  get service mailbox size
-            int mailboxSize = Integer.parseInt(redisConnection.get(availableServicesRoutes.get(i) + "_mailboxSize"));
-
-            //  initialize local variables if they're not yet
-            if(leastMailboxSize == null || leastOccupiedService == null){
-                leastMailboxSize = mailboxSize;
-                leastOccupiedService = availableServicesRoutes.get(i);
-            }
+        //  calls over budget of function are rejected before any instance is chosen
+        Bulkhead bulkhead = bulkheads.forFunction(nameOfService);
+        if(!bulkhead.tryEnter()) {
+            rejectSaturated(httpExchange, nameOfService);
+            return;
+        }
 
-            //  if mailbox of service is less than current one, then save it
-            if(leastMailboxSize > mailboxSize) {
-                leastOccupiedService = availableServicesRoutes.get(i);
+        //  choose service with strategy of this function among instances not ejected by their circuit breakers
+        String leastOccupiedService = loadBalancers.forFunction(nameOfService)
+                .choose(healthChecker.available(availableServicesRoutes));
+        InstanceStats instanceStats = loadBalancers.stats().get(leastOccupiedService);
+        healthChecker.onCall(leastOccupiedService);
+
+        //  redirect request to service without holding gateway thread, response is sent from callback
+        if(asyncMode) {
+            final String chosenService = leastOccupiedService;
+            long startNanos = instanceStats.start();
+            CompletableFuture<String> call;
+            try {
+                call = httpUtility.sendJsonPostAsync(chosenService, requestPayload, deadline);
+            } catch (RuntimeException e) {
+                //  request that is not even sent, like one to malformed address, still ends call and answers client
+                call = CompletableFuture.failedFuture(e);
             }
+            call.whenComplete((serviceResponse, throwable) -> {
+                finishCall(chosenService, instanceStats, bulkhead, startNanos, throwable == null);
+                try {
+                    //  unreachable service is ejected until probes reach it again, its registration is kept
+                    if(throwable != null && isConnectionFailure(throwable)) {
+                        healthChecker.onConnectionFailure(chosenService);
+                    }
+                    if(throwable != null && deadline.isExpired()) {
+                        rejectExpired(httpExchange);
+                        return;
+                    }
+                    completePostResponse(httpExchange, chosenService, serviceResponse);
+                } catch (Exception e) {
+                    LOG.error("POST response was not sent", e);
+                    httpExchange.close();
+                }
+            });
+            return;
         }
 
         String serviceResponse = null;
 
-        //  redirect request to service
+        //  redirect request to service, POST creates process, so it is neither retried nor hedged
+        long startNanos = instanceStats.start();
+        boolean success = false;
         try {
-            serviceResponse = httpUtility.sendJsonPost(leastOccupiedService, requestPayload);
-        } catch (HttpHostConnectException exception) {
-            redisConnection.lrem(nameOfService, 1, leastOccupiedService);
-            redisConnection.del(node.get("address").asText() + "_mailboxSize", "0");
+            serviceResponse = httpUtility.sendJsonPost(leastOccupiedService, requestPayload, deadline);
+            success = true;
+        } catch (IOException exception) {
+            if(deadline.isExpired()) {
+                rejectExpired(httpExchange);
+                return;
+            }
+            if(!isConnectionFailure(exception)) {
+                throw exception;
+            }
+            //  unreachable service is ejected until probes reach it again, its registration is kept
+            healthChecker.onConnectionFailure(leastOccupiedService);
+        } finally {
+            finishCall(leastOccupiedService, instanceStats, bulkhead, startNanos, success);
         }
 
+        completePostResponse(httpExchange, leastOccupiedService, serviceResponse);
+    }
+
+    /**
+     * register process created by service and redirect service response to client
+     * @param httpExchange REST service connector
+     * @param leastOccupiedService service that received request
+     * @param serviceResponse response of service, null if there is none
+     * @throws IOException i/o exception
+     */
+    private void completePostResponse(HttpExchange httpExchange, String leastOccupiedService, String serviceResponse)
+            throws IOException {
         //  if there is no response then send error
         if(serviceResponse == null) {
             sendErrorResponse(
@@ -255,133 +437,640 @@ public class HttpGatewayContextHandler implements HttpHandler {
         }
 
         //  update service mailbox size increasing it by one
-        redisConnection.set(leastOccupiedService + "_mailboxSize", String.valueOf(++leastMailboxSize));
+        mailboxCounters.increment(leastOccupiedService);
 
-        //  deserialize response, get ID and give error if there is no ID
-        node = objectMapper.readValue(serviceResponse, ObjectNode.class);
-        String id = node.get("id").asText();
+        //  read ID of process from response
+        String id = JsonFields.read(serviceResponse, "id");
         if(id == null) {
             sendResponse(httpExchange, serviceResponse);
             return;
         } else {
-            //  register process in redis
-            redisConnection.set(id, leastOccupiedService);
+            //  register process locally and in redis, route expires if process is abandoned
+            Long processId = processId(id);
+            RedisFutures.await(processId != null ? processRoutes.put(processId, leastOccupiedService)
+                    : redisConnection.set(id, leastOccupiedService));
 
             //  redirect response to client
             sendResponse(httpExchange, serviceResponse);
         }
+    }
 
+    /**
+     * register end of call to service in its statistics, circuit breaker and latency histogram
+     * and free its place in bulkhead of function
+     * @param address address of service instance
+     * @param instanceStats statistics of instance
+     * @param bulkhead bulkhead of function of service
+     * @param startNanos start time of call returned by {@link InstanceStats#start()}
+     * @param success true if service answered
+     */
+    private void finishCall(String address, InstanceStats instanceStats, Bulkhead bulkhead, long startNanos,
+                            boolean success) {
+        bulkhead.exit();
+        long latencyNanos = instanceStats.finish(startNanos);
+        healthChecker.onResult(address, latencyNanos, success);
+        metrics.upstream(address, instanceStats).record(latencyNanos);
+    }
+
+    /**
+     * get bulkhead of function served by instance, instances unknown to local routing table have their own
+     * @param address address of service instance
+     * @return bulkhead of function
+     */
+    private Bulkhead bulkheadOf(String address) {
+        String functionName = serviceRegistry.functionOf(address);
+        return bulkheads.forFunction(functionName != null ? functionName : address);
+    }
+
+    /**
+     * answer request to saturated function with 503 at once, so client retries later and gateway thread is freed
+     * @param httpExchange REST service connector
+     * @param functionName name of saturated function
+     * @throws IOException i/o exception
+     */
+    private void rejectSaturated(HttpExchange httpExchange, String functionName) throws IOException {
+        LOG.debug("call to saturated function {} was rejected", functionName);
+        AdmissionFilter.reject(httpExchange, 503, bulkheads.retryAfterSeconds(),
+                "function " + functionName + " is saturated");
+    }
 
+    /**
+     * answer request with method gateway does not serve with 405
+     * @param httpExchange REST service connector
+     * @throws IOException i/o exception
+     */
+    private void rejectMethod(HttpExchange httpExchange) throws IOException {
+        LOG.debug("request with method {} was rejected", httpExchange.getRequestMethod());
+        httpExchange.getResponseHeaders().set("Allow", "GET, POST, PUT");
+        sendResponse(httpExchange, 405, JsonFields.object("error", "method is not allowed"));
+    }
+
+    /**
+     * answer request whose deadline has passed with 504, client is no longer waiting for result of service
+     * @param httpExchange REST service connector
+     * @throws IOException i/o exception
+     */
+    private void rejectExpired(HttpExchange httpExchange) throws IOException {
+        LOG.debug("request was not answered before its deadline");
+        sendResponse(httpExchange, 504, JsonFields.object("error", "deadline of request has passed"));
+    }
+
+    /**
+     * @param throwable failure of call to service
+     * @return true if call failed because deadline of client request has passed
+     */
+    private static boolean isDeadlineExceeded(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+        return cause instanceof DeadlineExceededException;
+    }
+
+    /**
+     * check if failure of blocking or non-blocking request happened because service could not be reached:
+     * connection was refused or timed out, or service closed it without any response
+     * @param throwable failure of request
+     * @return true if service is unreachable
+     */
+    private static boolean isConnectionFailure(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+        return cause instanceof ConnectException || cause instanceof ConnectTimeoutException
+                || cause instanceof HttpConnectTimeoutException || cause instanceof NoHttpResponseException;
     }
 
     /**
      * generate response to PUT request and send it back to client
      * @param httpExchange REST service connector
      * @param requestPayload payload of received request
+     * @param deadline deadline of client request
      * @throws IOException i/o exception
      */
-    private void handlePutResponse(HttpExchange httpExchange, String requestPayload) throws IOException {
-        //  start deserialization of json payload
-        ObjectMapper objectMapper = new ObjectMapper();
-        ObjectNode node = objectMapper.readValue(requestPayload, ObjectNode.class);
-
+    private void handlePutResponse(HttpExchange httpExchange, byte[] requestPayload, Deadline deadline)
+            throws IOException {
         //  check if there is ID and give error if none
-        String packetIndex = node.get("id").asText();
+        String packetIndex = JsonFields.read(requestPayload, "id")[0];
         if(packetIndex == null) {
             sendErrorResponse(httpExchange, "invalid PUT request: not specified ID of process");
             return;
         }
 
-        //  find how many services are there with such command, send error if none
-        String routeToService = redisConnection.get(packetIndex);
+        //  find service that owns process, send error if none
+        String routeToService = routeOf(packetIndex);
         if(routeToService == null) {
             sendErrorResponse(httpExchange, "invalid PUT request: no service has process with this ID");
             return;
         }
 
-        //  redirect request, get response, send error if there none
-        String serviceResponse = httpUtility.sendJsonPut(routeToService, requestPayload);
-        if(serviceResponse == null) {
-            sendErrorResponse(
-                    httpExchange, "invalid PUT service response: no response to PUT from service"
-            );
+        //  calls over budget of function of service are rejected at once
+        Bulkhead bulkhead = bulkheadOf(routeToService);
+        if(!bulkhead.tryEnter()) {
+            rejectSaturated(httpExchange, bulkhead.name());
+            return;
+        }
+
+        //  only the first attempt that receives response streams it to client, once streaming has started
+        // attempt cannot be retried
+        AtomicBoolean responding = new AtomicBoolean();
+        HttpUtility.ResponseStreamConsumer consumer = (contentLength, body) -> {
+            if(!responding.compareAndSet(false, true)) {
+                throw new IOException("other attempt has already answered");
+            }
+            streamResponse(httpExchange, contentLength, body);
+        };
+
+        //  redirect request without holding gateway thread, response is streamed from callback
+        InstanceStats instanceStats = loadBalancers.stats().get(routeToService);
+        long startNanos = instanceStats.start();
+        if(asyncMode) {
+            upstreamCalls.execute(bulkhead.name(), deadline, metrics.upstream(routeToService, instanceStats),
+                    throwable -> !responding.get() && UpstreamCalls.isRetryable(throwable),
+                    attemptDeadline -> httpUtility.streamJsonPutAsync(routeToService, requestPayload, attemptDeadline,
+                            consumer))
+                    .whenComplete((ignored, throwable) -> {
+                        finishCall(routeToService, instanceStats, bulkhead, startNanos, throwable == null);
+                        if(throwable != null) {
+                            failPutResponse(httpExchange, throwable);
+                        }
+                    });
             return;
         }
 
-        //  redirect response to client
-        sendResponse(httpExchange, serviceResponse);
+        //  redirect request and stream response of service to client as is
+        boolean success = false;
+        try {
+            upstreamCalls.executeBlocking(bulkhead.name(), deadline,
+                    throwable -> !responding.get() && UpstreamCalls.isRetryable(throwable),
+                    attemptDeadline -> {
+                        httpUtility.streamJsonPut(routeToService, requestPayload, attemptDeadline, consumer);
+                        return null;
+                    });
+            success = true;
+        } catch (IOException exception) {
+            failPutResponse(httpExchange, exception);
+        } finally {
+            finishCall(routeToService, instanceStats, bulkhead, startNanos, success);
+        }
+    }
+
+    /**
+     * find service that owns process in local routes, then in Redis
+     * @param id ID of process
+     * @return address of service, null if process has no owner
+     * @throws IOException i/o exception
+     */
+    private String routeOf(String id) throws IOException {
+        Long processId = processId(id);
+        String routeToService = processId != null ? processRoutes.get(processId) : null;
+        if(routeToService == null) {
+            RedisFuture<String> routeFuture = redisConnection.get(id);
+            RedisFuture<Long> ttlFuture = redisConnection.pttl(id);
+            RedisFutures.awaitAll(routeFuture, ttlFuture);
+            routeToService = RedisFutures.await(routeFuture);
+            if(routeToService != null && processId != null) {
+                processRoutes.cache(processId, routeToService, RedisFutures.await(ttlFuture));
+            }
+        }
+        return routeToService;
+    }
+
+    /**
+     * parse ID of process
+     * @param id ID of process as sent by service
+     * @return numeric ID, null if service uses IDs that are not numbers
+     */
+    private static Long processId(String id) {
+        try {
+            return Long.valueOf(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * send error to client if service did not answer to PUT request
+     * @param httpExchange REST service connector
+     * @param failure reason why service did not answer
+     */
+    private void failPutResponse(HttpExchange httpExchange, Throwable failure) {
+        try {
+            //  if streaming of response has already started, the only way to report error is to break connection
+            if(httpExchange.getResponseCode() == -1 && isDeadlineExceeded(failure)) {
+                rejectExpired(httpExchange);
+            } else if(httpExchange.getResponseCode() == -1) {
+                sendErrorResponse(
+                        httpExchange, "invalid PUT service response: no response to PUT from service"
+                );
+            } else {
+                httpExchange.close();
+            }
+        } catch (IOException e) {
+            LOG.error("PUT error response was not sent", e);
+            httpExchange.close();
+        }
+    }
+
+    /**
+     * stream response body of service to client without reading it into memory
+     * @param httpExchange REST service connector
+     * @param contentLength length of body in bytes, -1 if unknown
+     * @param body stream of body bytes
+     * @throws IOException i/o exception
+     */
+    private void streamResponse(HttpExchange httpExchange, long contentLength, InputStream body) throws IOException {
+        httpExchange.getResponseHeaders().set("Content-Type", "application/json");
+
+        //  known length is sent as is, unknown length is sent in chunks, 0 means that there is no body at all
+        httpExchange.sendResponseHeaders(200, contentLength > 0 ? contentLength : contentLength == 0 ? -1 : 0);
+        try (OutputStream outputStream = httpExchange.getResponseBody()) {
+            BufferPool.copy(body, outputStream);
+        }
     }
 
     /**
      * generate response to GET request and send it back to client
      * @param httpExchange REST service connector
+     * @param deadline deadline of client request
      * @throws Exception i/o exception
      */
-    private void handleGetResponse(HttpExchange httpExchange) throws Exception {
+    private void handleGetResponse(HttpExchange httpExchange, Deadline deadline) throws Exception {
         //  get from uri required process ID
-        long requestedIndex = Long.parseLong(httpExchange.getRequestURI().toString().
-                split("\\?")[1].
-                split("=")[1]);
+        long requestedIndex = Long.parseLong(queryParameter(httpExchange, "id"));
 
-        //  check if there is such cached response and send it
-        String cachedResponse = redisConnection.get("cached:" + requestedIndex);
+        //  check if there is such cached response in local cache and send it
+        String cachedResponse = localCacheOfGetResponses.get("cached:" + requestedIndex);
         if(cachedResponse != null) {
             sendResponse(httpExchange, cachedResponse);
             return;
-        } else {
-            cachedResponse = localCacheOfGetResponses.get("cached:" + requestedIndex);
-            if(cachedResponse != null) {
-                sendResponse(httpExchange, cachedResponse);
+        }
+
+        //  long-poll request waits until result of process is cached and only then goes to service
+        String wait = queryParameter(httpExchange, "wait");
+        if(wait != null) {
+            handleLongPollGet(httpExchange, requestedIndex, Math.min(Long.parseLong(wait), deadline.remainingMillis()),
+                    deadline);
+            return;
+        }
+
+        //  in cluster mode every process has its owning gateway, so polls of process meet in its local cache
+        // and single request to service, requests forwarded by other gateway are handled here in any case
+        if(cluster != null && !httpExchange.getRequestHeaders().containsKey(HttpUtility.FORWARDED_HEADER)) {
+            String owner = cluster.owner(requestedIndex);
+            if(!cluster.isSelf(owner)) {
+                forwardGetResponse(httpExchange, owner, requestedIndex, deadline);
                 return;
             }
         }
 
-        //  find how many services are there with such command
-        String routeToService = redisConnection.get(String.valueOf(requestedIndex));
+        sendResolvedGetResponse(httpExchange, requestedIndex, deadline);
+    }
 
-        if(routeToService == null) {
-            sendErrorResponse(httpExchange, "invalid GET request: no service has process with this ID");
+    /**
+     * forward GET request to gateway owning process and send its response to client, if owner does not
+     * answer the request is handled locally
+     * @param httpExchange REST service connector
+     * @param owner address of gateway owning process
+     * @param requestedIndex ID of process
+     * @param deadline deadline of client request, passed to owner
+     * @throws IOException i/o exception
+     */
+    private void forwardGetResponse(HttpExchange httpExchange, String owner, long requestedIndex, Deadline deadline)
+            throws IOException {
+        forwardedGets.increment();
+        String gatewayPage = owner + "/?id=" + requestedIndex;
+        if(asyncMode) {
+            httpUtility.forwardGetAsync(gatewayPage, deadline).whenComplete((response, throwable) -> {
+                if(throwable != null) {
+                    forwardFallbacks.increment();
+                    LOG.debug("gateway {} did not answer forwarded GET, handling it locally", owner);
+                    sendResolvedGetResponse(httpExchange, requestedIndex, deadline);
+                    return;
+                }
+                sendGetResponse(httpExchange, response, null);
+            });
             return;
         }
 
-        //  send get request and if there is no response - send error
-        String serviceResponse = httpUtility.sendJsonGet(routeToService+ "?id=" + requestedIndex);
-        System.out.println(serviceResponse);
-        if(serviceResponse == null) {
-            sendErrorResponse(httpExchange, "invalid GET response: there is no response to GET request");
+        String response;
+        try {
+            response = httpUtility.forwardGet(gatewayPage, deadline);
+        } catch (IOException e) {
+            forwardFallbacks.increment();
+            LOG.debug("gateway {} did not answer forwarded GET, handling it locally", owner);
+            sendResolvedGetResponse(httpExchange, requestedIndex, deadline);
             return;
         }
+        sendResponse(httpExchange, response);
+    }
 
-        //  decrement size of service mailbox
-        int mailboxSize = Integer.parseInt(redisConnection.get(routeToService + "_mailboxSize"));
-        redisConnection.set(routeToService + "_mailboxSize", String.valueOf(--mailboxSize));
+    /**
+     * hold GET request open until result of process is cached or timeout passes. Results are cached when
+     * service reports completion to gateway or when any gateway takes result from service
+     * @param httpExchange REST service connector
+     * @param requestedIndex ID of process
+     * @param waitMillis max time of waiting
+     * @param deadline deadline of client request
+     * @throws Exception i/o exception
+     */
+    private void handleLongPollGet(HttpExchange httpExchange, long requestedIndex, long waitMillis, Deadline deadline)
+            throws Exception {
+        //  start waiting before checking Redis, so completion between check and waiting is not missed
+        CompletableFuture<String> completion = completionNotifier.await(requestedIndex, waitMillis);
+        if(completion == null) {
+            LOG.debug("long-poll GET of process {} was rejected, too many waiters", requestedIndex);
+            AdmissionFilter.reject(httpExchange, 503, 1, "too many long-poll requests are waiting");
+            return;
+        }
+        RedisFuture<byte[]> cachedFuture = results.fetch(requestedIndex);
+        RedisFuture<String> legacyFuture = results.fetchLegacy(requestedIndex);
+        RedisFutures.awaitAll(cachedFuture, legacyFuture);
+        String cachedResponse = ResultRecord.render(RedisFutures.await(cachedFuture));
+        if(cachedResponse == null) {
+            cachedResponse = RedisFutures.await(legacyFuture);
+        }
+        metrics.redisCacheLookup(cachedResponse != null);
+        if(cachedResponse != null) {
+            completion.cancel(false);
+            sendResponse(httpExchange, cachedResponse);
+            return;
+        }
+
+        //  no gateway thread is held while request waits, in both modes response is sent from callback of
+        // notifier on executor of server, and when waiting is over without result service is asked once
+        Executor executor = httpExchange.getHttpContext().getServer().getExecutor();
+        completion.whenComplete((result, throwable) -> {
+            Runnable finish = () -> {
+                try {
+                    if(result != null) {
+                        sendResponse(httpExchange, result);
+                    } else {
+                        sendResolvedGetResponse(httpExchange, requestedIndex, deadline);
+                    }
+                } catch (Exception e) {
+                    LOG.error("long-poll GET response was not sent", e);
+                    httpExchange.close();
+                }
+            };
+            try {
+                if(executor != null) {
+                    executor.execute(finish);
+                } else {
+                    finish.run();
+                }
+            } catch (RejectedExecutionException e) {
+                LOG.warn("long-poll GET of process {} was dropped, executor is full", requestedIndex);
+                httpExchange.close();
+            }
+        });
+    }
+
+    /**
+     * resolve response to GET request, sharing resolution with concurrent requests for the same process,
+     * and send it to client
+     * @param httpExchange REST service connector
+     * @param requestedIndex ID of process
+     * @param deadline deadline of client request, bounds only waiting of this client
+     */
+    private void sendResolvedGetResponse(HttpExchange httpExchange, long requestedIndex, Deadline deadline) {
+        CompletableFuture<String> response = sharedGetResponse(requestedIndex, deadline);
+        if(asyncMode) {
+            response.whenComplete((resolvedResponse, throwable) ->
+                    sendGetResponse(httpExchange, resolvedResponse, throwable));
+            return;
+        }
+        String resolvedResponse = null;
+        Throwable failure = null;
+        while(true) {
+            try {
+                resolvedResponse = response.join();
+                failure = null;
+                break;
+            } catch (CompletionException e) {
+                failure = e;
+
+                //  shared call ran out of deadline of caller that started it, while this one still has time
+                if(!(e.getCause() instanceof DeadlineExceededException) || deadline.isExpired()) {
+                    break;
+                }
+                response = sharedGetResponse(requestedIndex, deadline);
+            }
+        }
+        sendGetResponse(httpExchange, resolvedResponse, failure);
+    }
+
+    /**
+     * start or join resolution of response to GET request, waiting for it no longer than deadline of client
+     * @param requestedIndex ID of process
+     * @param deadline deadline of client request
+     * @return future completed with response to client
+     */
+    private CompletableFuture<String> sharedGetResponse(long requestedIndex, Deadline deadline) {
+
+        //  concurrent requests for the same process share one lookup and one request to service. Callers joining
+        // it later may wait longer than the one that started it, so shared request has no deadline of its own and
+        // each caller stops waiting at its own deadline. In blocking mode the caller starting it runs it on its
+        // own thread, so there it follows deadline of that caller
+        return upstreamCalls.awaitWithin(getResponses.execute(requestedIndex,
+                () -> resolveGetResponse(requestedIndex, asyncMode ? Deadline.NONE : deadline)), deadline);
+    }
+
+    /**
+     * find response to GET request in Redis cache or take it from service owning process
+     * @param requestedIndex ID of process
+     * @param deadline deadline of client request
+     * @return future completed with response to client
+     * @throws IOException i/o exception
+     */
+    private CompletableFuture<String> resolveGetResponse(long requestedIndex, Deadline deadline) throws IOException {
+        //  ask Redis for cached response, also under legacy key of older gateways, and, if route is not known
+        // locally, for service owning process in one round trip
+        String knownRoute = processRoutes.get(requestedIndex);
+        RedisFuture<byte[]> cachedFuture = results.fetch(requestedIndex);
+        RedisFuture<String> legacyFuture = results.fetchLegacy(requestedIndex);
+        RedisFuture<String> routeFuture = null;
+        RedisFuture<Long> ttlFuture = null;
+        if(knownRoute == null) {
+            routeFuture = redisConnection.get(String.valueOf(requestedIndex));
+            ttlFuture = redisConnection.pttl(String.valueOf(requestedIndex));
+            RedisFutures.awaitAll(cachedFuture, legacyFuture, routeFuture, ttlFuture);
+        }
+
+        String cachedResponse = ResultRecord.render(RedisFutures.await(cachedFuture));
+        if(cachedResponse == null) {
+            cachedResponse = RedisFutures.await(legacyFuture);
+        }
+        metrics.redisCacheLookup(cachedResponse != null);
+        if(cachedResponse != null) {
+            localCacheOfGetResponses.put("cached:" + requestedIndex, cachedResponse);
+            return CompletableFuture.completedFuture(cachedResponse);
+        }
+
+        //  find service that owns process
+        String routeToService = routeFuture == null ? knownRoute : RedisFutures.await(routeFuture);
+        if(routeFuture != null && routeToService != null) {
+            processRoutes.cache(requestedIndex, routeToService, RedisFutures.await(ttlFuture));
+        }
+        if(routeToService == null) {
+            return CompletableFuture.completedFuture(
+                    errorResponse("invalid GET request: no service has process with this ID"));
+        }
+
+        //  calls over budget of function of service fail, so all polls sharing this one are rejected
+        Bulkhead bulkhead = bulkheadOf(routeToService);
+        if(!bulkhead.tryEnter()) {
+            throw new BulkheadFullException(bulkhead.name());
+        }
+
+        //  send get request without holding gateway thread, bookkeeping is done from callback, slow request
+        // may be hedged and failed one retried within budget of function
+        InstanceStats instanceStats = loadBalancers.stats().get(routeToService);
+        long startNanos = instanceStats.start();
+        String servicePage = routeToService + "?id=" + requestedIndex;
+        if(asyncMode) {
+            return upstreamCalls.execute(bulkhead.name(), deadline, metrics.upstream(routeToService, instanceStats),
+                            UpstreamCalls::isRetryable,
+                            attemptDeadline -> httpUtility.sendJsonGetAsync(servicePage, attemptDeadline))
+                    .whenComplete((serviceResponse, throwable) ->
+                            finishCall(routeToService, instanceStats, bulkhead, startNanos, throwable == null))
+                    .thenApply(serviceResponse -> {
+                        try {
+                            return completeGetResponse(routeToService, serviceResponse);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    });
+        }
 
-        //  deserialize response
-        ObjectMapper objectMapper = new ObjectMapper();
-        ObjectNode node = objectMapper.readValue(serviceResponse, ObjectNode.class);
+        //  send get request
+        String serviceResponse = null;
+        try {
+            serviceResponse = upstreamCalls.executeBlocking(bulkhead.name(), deadline, UpstreamCalls::isRetryable,
+                    attemptDeadline -> httpUtility.sendJsonGet(servicePage, attemptDeadline));
+        } finally {
+            finishCall(routeToService, instanceStats, bulkhead, startNanos, serviceResponse != null);
+        }
+        return CompletableFuture.completedFuture(completeGetResponse(routeToService, serviceResponse));
+    }
+
+    /**
+     * update process bookkeeping after service answered to GET request
+     * @param routeToService service that owns process
+     * @param serviceResponse response of service, null if there is none
+     * @return response to client
+     * @throws IOException i/o exception
+     */
+    private String completeGetResponse(String routeToService, String serviceResponse) throws IOException {
+        //  if there is no response - send error
+        BODIES.debug("GET response of {}: {}", routeToService, serviceResponse);
+        if(serviceResponse == null) {
+            return errorResponse("invalid GET response: there is no response to GET request");
+        }
+
+        //  decrement size of service mailbox
+        mailboxCounters.decrement(routeToService);
 
         //  get id and send error if there is none
-        String responseId = node.get("id").asText();
+        String responseId = JsonFields.read(serviceResponse, "id");
         if(responseId == null) {
-            sendErrorResponse(httpExchange, "invalid GET response: response does not have ID");
+            return errorResponse("invalid GET response: response does not have ID");
+        }
+
+        //  remove process from redis and, if this response contains result of process, keep it in local cache
+        // and share it through result tier with TTL of its function, both writes are sent in one round trip
+        Long processId = processId(responseId);
+        RedisFuture<Long> deleteFuture = processId != null ? processRoutes.remove(processId)
+                : redisConnection.del(responseId);
+        if(processId != null && serviceResponse.contains("response")){
+            ResultRecord record = ResultRecord.cached(serviceRegistry.functionOf(routeToService), serviceResponse);
+            String cachedResponse = record.render();
+            localCacheOfGetResponses.put("cached:" + responseId, cachedResponse);
+            RedisFutures.awaitAll(deleteFuture, results.put(processId, record));
+            cachedResults.increment();
+
+            //  wake long-poll requests waiting for this result on all gateways
+            completionNotifier.completed(processId, cachedResponse);
+            LOG.debug("result of process {} entered result tier", responseId);
+        } else {
+            RedisFutures.await(deleteFuture);
+        }
+        return serviceResponse;
+    }
+
+    /**
+     * handle report of service that process is finished, its result is cached as if it was taken with GET
+     * @param httpExchange REST service connector
+     * @param requestPayload result of process in the same format as response of service to GET request
+     * @throws IOException i/o exception
+     */
+    private void handleCompletionCallback(HttpExchange httpExchange, byte[] requestPayload) throws IOException {
+        String serviceResponse = new String(requestPayload, StandardCharsets.UTF_8);
+        String id = JsonFields.read(serviceResponse, "id");
+        if(id == null) {
+            sendErrorResponse(httpExchange, "invalid completion report: report does not have ID");
+            return;
+        }
+
+        //  process must still belong to some service, otherwise its result was already taken
+        String routeToService = routeOf(id);
+        if(routeToService == null) {
+            sendErrorResponse(httpExchange, "invalid completion report: no service has process with this ID");
             return;
         }
 
-        //  remove process from redis and redirect response to client
-        redisConnection.del(responseId);
+        String response = completeGetResponse(routeToService, serviceResponse);
+        sendResponse(httpExchange, response == serviceResponse
+                ? JsonFields.object("status", "completion registered", "id", id) : response);
+    }
+
+    /**
+     * get value of parameter from query of request URI
+     * @param httpExchange REST service connector
+     * @param name name of parameter
+     * @return value of parameter, null if there is none
+     */
+    public static String queryParameter(HttpExchange httpExchange, String name) {
+        String query = httpExchange.getRequestURI().getRawQuery();
+        if(query == null) {
+            return null;
+        }
+        for(String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if(separator > 0 && parameter.regionMatches(0, name, 0, separator) && separator == name.length()) {
+                return parameter.substring(separator + 1);
+            }
+        }
+        return null;
+    }
 
-        //  if this response
-        if(serviceResponse.contains("response")){
-            if(localCacheOfGetResponses.size() < redisGetResponsesCounter) {
-                localCacheOfGetResponses.put("cached:" + responseId, "{\"cached\":true," + serviceResponse.substring(1));
-                System.out.println("entered get in local cache: " + localCacheOfGetResponses.get("cached:" + responseId));
+    /**
+     * send resolved response to GET request to the client
+     * @param httpExchange REST service connector
+     * @param response response to client, null if it could not be resolved
+     * @param failure reason why response could not be resolved, null if there is none
+     */
+    private void sendGetResponse(HttpExchange httpExchange, String response, Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+        try {
+            if(cause instanceof BulkheadFullException) {
+                rejectSaturated(httpExchange, ((BulkheadFullException) cause).functionName());
+                return;
+            }
+            if(cause instanceof DeadlineExceededException) {
+                rejectExpired(httpExchange);
+                return;
+            }
+            if(cause != null) {
+                LOG.error("GET response was not resolved", cause);
+            }
+            if(response == null) {
+                sendErrorResponse(httpExchange, "invalid GET response: there is no response to GET request");
             } else {
-                redisConnection.set("cached:" + responseId, "{\"cached\":true," + serviceResponse.substring(1));
-                redisGetResponsesCounter++;
-                System.out.println("entered get in Redis cache: " + redisConnection.get("cached:" + responseId));
+                sendResponse(httpExchange, response);
             }
+        } catch (IOException e) {
+            LOG.error("GET response was not sent", e);
+            httpExchange.close();
         }
-        sendResponse(httpExchange, serviceResponse);
     }
 
     /**
@@ -390,59 +1079,103 @@ public class HttpGatewayContextHandler implements HttpHandler {
      * @param errorMessage simple string-formatted error message
      */
     private void sendErrorResponse(HttpExchange httpExchange, String errorMessage) throws IOException {
-        //  make server print message as if it is error
-        System.err.println(errorMessage);
+        sendResponse(httpExchange, errorResponse(errorMessage));
+    }
 
-        //  form json object from message and send it to the client
-        JSONObject jsonResponse = new JSONObject();
-        jsonResponse.put("error", errorMessage);
-        sendResponse(httpExchange, jsonResponse.toString());
+    /**
+     * form error response for the client
+     * @param errorMessage simple string-formatted error message
+     * @return JSON object with error message
+     */
+    private String errorResponse(String errorMessage) {
+        //  make server log message as warning
+        LOG.warn(errorMessage);
+
+        //  form json object from message
+        return JsonFields.object("error", errorMessage);
     }
 
     /**
-     * send response to client
+     * send response to client, package-private so it can be measured by benchmarks
      * @param httpExchange REST service connector
      * @param response generated response for client in JSON-string format
      * @throws IOException i/o exception
      */
-    private void sendResponse(HttpExchange httpExchange, String response) throws IOException {
+    void sendResponse(HttpExchange httpExchange, String response) throws IOException {
+        sendResponse(httpExchange, 200, response);
+    }
+
+    /**
+     * send response with given status to client
+     * @param httpExchange REST service connector
+     * @param status HTTP status of response
+     * @param response generated response for client in JSON-string format
+     * @throws IOException i/o exception
+     */
+    private void sendResponse(HttpExchange httpExchange, int status, String response) throws IOException {
+        //  encode response once, content length is length of encoded bytes and not of characters
+        byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+
         //  set headers of response
         httpExchange.getResponseHeaders().set("Content-Type", "application/json");
-        httpExchange.sendResponseHeaders(200, response.length());
-        System.out.println(response);
+        httpExchange.sendResponseHeaders(status, responseBytes.length);
+        BODIES.debug("response: {}", response);
 
         //  send response to the client
         OutputStream outputStream = httpExchange.getResponseBody();
-        outputStream.write(response.getBytes());
+        outputStream.write(responseBytes);
         outputStream.flush();
         outputStream.close();
     }
 
     /**
-     * method for broadcasting message to the services that are available to command
-     * @param requestPayload message that must be transmitted
-     * @param availableServiceCommand command availability to which will be checked
-     * @throws IOException
+     * send responses of services collected by broadcast to the client
+     * @param httpExchange REST service connector
+     * @param collector results of broadcast
+     * @throws IOException i/o exception
      */
-    private void broadcastServiceCallToService(HttpExchange httpExchange, String requestPayload, String availableServiceCommand) throws IOException {
-        long amountOfServicesAvailableToThisCommand = redisConnection.llen(availableServiceCommand);
-        List<String> availableServiceToThisCommand = redisConnection.lrange(
-                availableServiceCommand, 0, amountOfServicesAvailableToThisCommand - 1
-        );
-
-        //  find out broadcast requester port
-
-        System.out.println("requester id: "+broadcastRequesterId + "\n\n\n\n\n\n");
+    private void sendBroadcastResponse(HttpExchange httpExchange, BroadcastCollector collector) throws IOException {
+        try {
+            //  without partial results all responses must arrive before anything is sent
+            if(!broadcaster.partialResults()) {
+                StringBuilder allResponse = new StringBuilder("broadcast response: ");
+                String serviceResponse;
+                while((serviceResponse = collector.next()) != null) {
+                    allResponse.append(serviceResponse).append("~~~");
+                }
+                if(!collector.isComplete()) {
+                    collector.cancelRemaining();
+                    sendErrorResponse(httpExchange, "broadcast error: " + collector.missing()
+                            + " services did not answer before deadline");
+                    return;
+                }
+                sendResponse(httpExchange, allResponse.toString());
+                return;
+            }
 
-        for (String service : availableServiceToThisCommand) {
-            System.out.println("where to send: " + service.split(":")[2].split("/")[0]);
+            //  stream responses in chunks as they arrive
+            httpExchange.getResponseHeaders().set("Content-Type", "application/json");
+            httpExchange.sendResponseHeaders(200, 0);
+            OutputStream outputStream = httpExchange.getResponseBody();
+            outputStream.write("broadcast response: ".getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            String serviceResponse;
+            while((serviceResponse = collector.next()) != null) {
+                outputStream.write(serviceResponse.getBytes(StandardCharsets.UTF_8));
+                outputStream.write("~~~".getBytes(StandardCharsets.UTF_8));
+                outputStream.flush();
+            }
+            outputStream.close();
 
-            //  send broadcast message only if it is not the same port as requester
-            if(broadcastRequesterId != Integer.parseInt(service.split(":")[2].split("/")[0])) {
-                String serviceResponse = httpUtility.sendServiceBroadcastJsonPost(service, requestPayload);
-                System.out.println(serviceResponse);
-                agregatedServiceResponses.add(serviceResponse);
+            if(!collector.isComplete()) {
+                collector.cancelRemaining();
+                LOG.warn("broadcast: {} services did not answer before deadline", collector.missing());
             }
+        } catch (InterruptedException e) {
+            collector.cancelRemaining();
+            Thread.currentThread().interrupt();
+            throw new IOException("broadcast was interrupted", e);
         }
     }
-}
\ No newline at end of file
+}
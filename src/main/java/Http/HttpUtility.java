@@ -1,26 +1,126 @@
 package Http;
 
+import Upstream.Deadline;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
-import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicResponseHandler;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
-import org.json.JSONObject;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class for making http requests
  */
-public class HttpUtility {
-    //  setting HttpClient that will make requests
-    private final HttpClient client = HttpClient.newHttpClient();
+public class HttpUtility implements Closeable {
+    /**
+     * Consumer of response body that is streamed from service without being read into memory
+     */
+    public interface ResponseStreamConsumer {
+        /**
+         * @param contentLength length of body in bytes, -1 if unknown
+         * @param body stream of body bytes
+         * @throws IOException i/o error
+         */
+        void accept(long contentLength, InputStream body) throws IOException;
+    }
+
+    //  default limits of upstream connection pool
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 200;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 2000;
+    public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 30000;
+    public static final int DEFAULT_IDLE_EVICTION_SECONDS = 30;
+
+    //  header of GET request forwarded by another gateway, such request is never forwarded again
+    public static final String FORWARDED_HEADER = "Gateway-Forwarded";
+
+    //  setting HttpClient that will make non-blocking requests
+    private final HttpClient client;
+
+    //  timeout of waiting for the whole response from service in non-blocking requests
+    private final Duration requestTimeout;
+
+    //  settings of blocking requests, their socket timeout is shortened by deadline of client request
+    private final RequestConfig requestConfig;
+
+    //  pool of keep-alive connections to services, shared by all sending methods
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    //  upstream client working on top of connection pool
+    private final CloseableHttpClient httpClient;
+
+    //  handler that reads response body and releases connection back to pool
+    private final ResponseHandler<String> responseHandler = new BasicResponseHandler();
+
+    /**
+     * create utility with default limits of connection pool
+     */
+    public HttpUtility() {
+        this(DEFAULT_MAX_TOTAL_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE,
+                DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_SOCKET_TIMEOUT_MILLIS, DEFAULT_IDLE_EVICTION_SECONDS);
+    }
+
+    /**
+     * create utility with pooled keep-alive upstream client
+     * @param maxTotalConnections max amount of open connections to all services
+     * @param maxConnectionsPerRoute max amount of open connections to one service instance
+     * @param connectTimeoutMillis timeout of establishing connection to service
+     * @param socketTimeoutMillis timeout of waiting for data from service
+     * @param idleEvictionSeconds time after which idle connection is closed
+     */
+    public HttpUtility(int maxTotalConnections, int maxConnectionsPerRoute, int connectTimeoutMillis,
+                       int socketTimeoutMillis, int idleEvictionSeconds) {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotalConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        //  check stale connections that were idle for a while before reusing them
+        connectionManager.setValidateAfterInactivity(1000);
+
+        requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setConnectionRequestTimeout(connectTimeoutMillis)
+                .setSocketTimeout(socketTimeoutMillis)
+                .build();
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleEvictionSeconds, TimeUnit.SECONDS)
+                .build();
+
+        //  services talk plain HTTP/1.1, so there is no need in upgrade attempts
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .build();
+        requestTimeout = Duration.ofMillis(socketTimeoutMillis);
+    }
 
     /**
      * send JSON formatted POST request that will start discussion about
@@ -31,10 +131,7 @@ public class HttpUtility {
      * @throws IOException i/o error
      */
     public String sendJsonPost(String destinationPage, String functionName, String firstArgument) throws IOException {
-        JSONObject jsonRequest = new JSONObject();
-        jsonRequest.put("functionName", functionName);
-        jsonRequest.put("amount", firstArgument);
-        return sendJsonPost(destinationPage, jsonRequest.toString());
+        return sendJsonPost(destinationPage, JsonFields.object("functionName", functionName, "amount", firstArgument));
     }
 
     /**
@@ -47,7 +144,7 @@ public class HttpUtility {
      * @throws IOException i/o error
      */
     public String sendJsonPut(String destinationPage, Long id, String nameOfArgument, String argumentValue) throws IOException {
-        JSONObject jsonRequest = new JSONObject();
+        ObjectNode jsonRequest = JsonFields.MAPPER.createObjectNode();
         jsonRequest.put("id", id);
         jsonRequest.put(nameOfArgument, argumentValue);
         return sendJsonPut(destinationPage, jsonRequest.toString());
@@ -60,15 +157,42 @@ public class HttpUtility {
      * @throws IOException i/o error
      */
     public String sendJsonGet(String destinationPageWithId) throws IOException {
-        CloseableHttpClient httpClient = HttpClients.createDefault();
-        HttpGet request = new HttpGet(destinationPageWithId);
+        return sendJsonGet(destinationPageWithId, Deadline.NONE);
+    }
 
-        CloseableHttpResponse response = httpClient.execute(request);
-        ResponseHandler<String> handler = new BasicResponseHandler();
-        String responsePayload = handler.handleResponse(response);
-        httpClient.close();
-        response.close();
-        return responsePayload;
+    /**
+     * send JSON formatted GET request that will finish discussion and get result
+     * @param destinationPageWithId where request will be delivered and index of process
+     * @param deadline deadline of client request, passed to service
+     * @return response to request
+     * @throws IOException i/o error
+     */
+    public String sendJsonGet(String destinationPageWithId, Deadline deadline) throws IOException {
+        return httpClient.execute(withDeadline(new HttpGet(destinationPageWithId), deadline), responseHandler);
+    }
+
+    /**
+     * forward GET request of client to gateway owning process
+     * @param gatewayPageWithId address of gateway and index of process
+     * @return response of gateway
+     * @throws IOException i/o error
+     */
+    public String forwardGet(String gatewayPageWithId) throws IOException {
+        return forwardGet(gatewayPageWithId, Deadline.NONE);
+    }
+
+    /**
+     * forward GET request of client to gateway owning process
+     * @param gatewayPageWithId address of gateway and index of process
+     * @param deadline deadline of client request, passed to gateway
+     * @return response of gateway
+     * @throws IOException i/o error
+     */
+    public String forwardGet(String gatewayPageWithId, Deadline deadline) throws IOException {
+        HttpGet request = withDeadline(new HttpGet(gatewayPageWithId), deadline);
+        request.setHeader(FORWARDED_HEADER, "true");
+
+        return httpClient.execute(request, responseHandler);
     }
 
     /**
@@ -82,37 +206,32 @@ public class HttpUtility {
         StringEntity entity = new StringEntity(jsonRequest,
                 ContentType.APPLICATION_JSON);
 
-        CloseableHttpClient httpClient = HttpClients.createDefault();
         HttpPost request = new HttpPost(destinationPage);
         request.setHeader("Accept", "application/json");
         request.setHeader("Content-Type", "application/json");
         request.setEntity(entity);
 
-        CloseableHttpResponse response = httpClient.execute(request);
-        ResponseHandler<String> handler = new BasicResponseHandler();
-        String responsePayload = handler.handleResponse(response);
-        httpClient.close();
-        response.close();
-        return responsePayload;
+        return httpClient.execute(request, responseHandler);
     }
 
+    /**
+     * send POST request marked as broadcast from one service to another
+     * @param destinationPage where request must be delivered
+     * @param jsonRequest JSON request
+     * @return response to request
+     * @throws IOException i/o error
+     */
     public String sendServiceBroadcastJsonPost(String destinationPage, String jsonRequest) throws IOException {
         StringEntity entity = new StringEntity(jsonRequest,
                 ContentType.APPLICATION_JSON);
 
-        CloseableHttpClient httpClient = HttpClients.createDefault();
         HttpPost request = new HttpPost(destinationPage);
         request.setHeader("Accept", "application/json");
         request.setHeader("Content-Type", "application/json");
         request.setHeader("Service-Call", "broadcast");
         request.setEntity(entity);
 
-        CloseableHttpResponse response = httpClient.execute(request);
-        ResponseHandler<String> handler = new BasicResponseHandler();
-        String responsePayload = handler.handleResponse(response);
-        httpClient.close();
-        response.close();
-        return responsePayload;
+        return httpClient.execute(request, responseHandler);
     }
 
     /**
@@ -126,17 +245,321 @@ public class HttpUtility {
         StringEntity entity = new StringEntity(jsonRequest,
                 ContentType.APPLICATION_JSON);
 
-        CloseableHttpClient httpClient = HttpClients.createDefault();
         HttpPut request = new HttpPut(destinationPage);
         request.setHeader("Accept", "application/json");
         request.setHeader("Content-Type", "application/json");
         request.setEntity(entity);
 
-        CloseableHttpResponse response = httpClient.execute(request);
-        ResponseHandler<String> handler = new BasicResponseHandler();
-        String responsePayload = handler.handleResponse(response);
+        return httpClient.execute(request, responseHandler);
+    }
+
+    /**
+     * send POST request with already encoded JSON body that will start discussion with service
+     * @param destinationPage where request must be delivered
+     * @param jsonRequest UTF-8 encoded JSON request
+     * @return response to request
+     * @throws IOException i/o error
+     */
+    public String sendJsonPost(String destinationPage, byte[] jsonRequest) throws IOException {
+        return sendJsonPost(destinationPage, jsonRequest, Deadline.NONE);
+    }
+
+    /**
+     * send POST request with already encoded JSON body that will start discussion with service
+     * @param destinationPage where request must be delivered
+     * @param jsonRequest UTF-8 encoded JSON request
+     * @param deadline deadline of client request, passed to service
+     * @return response to request
+     * @throws IOException i/o error
+     */
+    public String sendJsonPost(String destinationPage, byte[] jsonRequest, Deadline deadline) throws IOException {
+        return httpClient.execute(withDeadline(jsonEntityRequest(new HttpPost(destinationPage), jsonRequest), deadline),
+                responseHandler);
+    }
+
+    /**
+     * send PUT request with already encoded JSON body and stream response of service to consumer
+     * without reading it into memory
+     * @param destinationPage where request must be delivered
+     * @param jsonRequest UTF-8 encoded JSON request
+     * @param consumer consumer of response body
+     * @throws IOException i/o error
+     */
+    public void streamJsonPut(String destinationPage, byte[] jsonRequest, ResponseStreamConsumer consumer)
+            throws IOException {
+        streamJsonPut(destinationPage, jsonRequest, Deadline.NONE, consumer);
+    }
+
+    /**
+     * send PUT request with already encoded JSON body and stream response of service to consumer
+     * without reading it into memory
+     * @param destinationPage where request must be delivered
+     * @param jsonRequest UTF-8 encoded JSON request
+     * @param deadline deadline of client request, passed to service
+     * @param consumer consumer of response body
+     * @throws IOException i/o error
+     */
+    public void streamJsonPut(String destinationPage, byte[] jsonRequest, Deadline deadline,
+                              ResponseStreamConsumer consumer) throws IOException {
+        httpClient.execute(withDeadline(jsonEntityRequest(new HttpPut(destinationPage), jsonRequest), deadline),
+                response -> {
+                    int status = response.getStatusLine().getStatusCode();
+                    HttpEntity entity = response.getEntity();
+                    if(status >= 300) {
+                        throw new HttpResponseException(status, response.getStatusLine().getReasonPhrase());
+                    }
+                    if(entity == null) {
+                        throw new HttpResponseException(status, "service response has no body");
+                    }
+                    try (InputStream body = entity.getContent()) {
+                        consumer.accept(entity.getContentLength(), body);
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * shorten timeouts of blocking request to deadline of client request and pass time that is left to service
+     * @param request request to be sent
+     * @param deadline deadline of client request
+     * @param <T> type of request
+     * @return the same request
+     */
+    private <T extends HttpRequestBase> T withDeadline(T request, Deadline deadline) {
+        if(deadline.isSet()) {
+            request.setConfig(RequestConfig.copy(requestConfig)
+                    .setConnectTimeout(timeoutWithin(requestConfig.getConnectTimeout(), deadline))
+                    .setConnectionRequestTimeout(timeoutWithin(requestConfig.getConnectionRequestTimeout(), deadline))
+                    .setSocketTimeout(timeoutWithin(requestConfig.getSocketTimeout(), deadline))
+                    .build());
+            request.setHeader(Deadline.HEADER, String.valueOf(deadline.remainingMillis()));
+        }
+        return request;
+    }
+
+    /**
+     * @param timeoutMillis configured timeout, 0 or less if there is none
+     * @param deadline deadline of client request
+     * @return timeout that ends no later than deadline
+     */
+    private static int timeoutWithin(int timeoutMillis, Deadline deadline) {
+        return (int) deadline.timeoutMillis(timeoutMillis > 0 ? timeoutMillis : Integer.MAX_VALUE);
+    }
+
+    /**
+     * set JSON body and headers of request
+     * @param request request to be filled
+     * @param jsonRequest UTF-8 encoded JSON request
+     * @param <T> type of request
+     * @return filled request
+     */
+    private <T extends HttpEntityEnclosingRequestBase> T jsonEntityRequest(T request, byte[] jsonRequest) {
+        request.setHeader("Accept", "application/json");
+        request.setHeader("Content-Type", "application/json");
+        request.setEntity(new ByteArrayEntity(jsonRequest, ContentType.APPLICATION_JSON));
+        return request;
+    }
+
+    /**
+     * send POST request that will start discussion with service without blocking caller
+     * @param destinationPage where request must be delivered
+     * @param jsonRequest UTF-8 encoded JSON request
+     * @return future completed with response to request
+     */
+    public CompletableFuture<String> sendJsonPostAsync(String destinationPage, byte[] jsonRequest) {
+        return sendJsonPostAsync(destinationPage, jsonRequest, Deadline.NONE);
+    }
+
+    /**
+     * send POST request that will start discussion with service without blocking caller
+     * @param destinationPage where request must be delivered
+     * @param jsonRequest UTF-8 encoded JSON request
+     * @param deadline deadline of client request, passed to service
+     * @return future completed with response to request
+     */
+    public CompletableFuture<String> sendJsonPostAsync(String destinationPage, byte[] jsonRequest, Deadline deadline) {
+        HttpRequest request = jsonRequestBuilder(destinationPage, deadline)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(jsonRequest))
+                .build();
+        return sendAsync(request);
+    }
+
+    /**
+     * send POST request marked as broadcast from one service to another without blocking caller
+     * @param destinationPage where request must be delivered
+     * @param jsonRequest UTF-8 encoded JSON request
+     * @return future completed with response to request
+     */
+    public CompletableFuture<String> sendServiceBroadcastJsonPostAsync(String destinationPage, byte[] jsonRequest) {
+        HttpRequest request = jsonRequestBuilder(destinationPage, Deadline.NONE)
+                .header("Service-Call", "broadcast")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(jsonRequest))
+                .build();
+        return sendAsync(request);
+    }
+
+    /**
+     * send PUT request that will continue discussion with service without blocking caller and stream
+     * response of service to consumer without reading it into memory
+     * @param destinationPage where request must be delivered
+     * @param jsonRequest UTF-8 encoded JSON request
+     * @param consumer consumer of response body, called on thread of http client
+     * @return future completed when response was consumed
+     */
+    public CompletableFuture<Void> streamJsonPutAsync(String destinationPage, byte[] jsonRequest,
+                                                      ResponseStreamConsumer consumer) {
+        return streamJsonPutAsync(destinationPage, jsonRequest, Deadline.NONE, consumer);
+    }
+
+    /**
+     * send PUT request that will continue discussion with service without blocking caller and stream
+     * response of service to consumer without reading it into memory
+     * @param destinationPage where request must be delivered
+     * @param jsonRequest UTF-8 encoded JSON request
+     * @param deadline deadline of client request, passed to service
+     * @param consumer consumer of response body, called on thread of http client
+     * @return future completed when response was consumed, cancelling it aborts request
+     */
+    public CompletableFuture<Void> streamJsonPutAsync(String destinationPage, byte[] jsonRequest, Deadline deadline,
+                                                      ResponseStreamConsumer consumer) {
+        HttpRequest request = jsonRequestBuilder(destinationPage, deadline)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(jsonRequest))
+                .build();
+        CompletableFuture<HttpResponse<InputStream>> exchange =
+                client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        CompletableFuture<Void> consumed = exchange.thenAccept(response -> {
+            try (InputStream body = response.body()) {
+                if(response.statusCode() >= 300) {
+                    throw new HttpResponseException(response.statusCode(), "unexpected status of service response");
+                }
+                consumer.accept(response.headers().firstValueAsLong("Content-Length").orElse(-1), body);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        return abortOnCancel(consumed, exchange);
+    }
+
+    /**
+     * send GET request that will finish discussion and get result without blocking caller
+     * @param destinationPageWithId where request will be delivered and index of process
+     * @return future completed with response to request
+     */
+    public CompletableFuture<String> sendJsonGetAsync(String destinationPageWithId) {
+        return sendJsonGetAsync(destinationPageWithId, Deadline.NONE);
+    }
+
+    /**
+     * send GET request that will finish discussion and get result without blocking caller
+     * @param destinationPageWithId where request will be delivered and index of process
+     * @param deadline deadline of client request, passed to service
+     * @return future completed with response to request, cancelling it aborts request
+     */
+    public CompletableFuture<String> sendJsonGetAsync(String destinationPageWithId, Deadline deadline) {
+        HttpRequest request = requestBuilder(destinationPageWithId, deadline)
+                .GET()
+                .build();
+        return sendAsync(request);
+    }
+
+    /**
+     * forward GET request of client to gateway owning process without blocking caller
+     * @param gatewayPageWithId address of gateway and index of process
+     * @return future completed with response of gateway
+     */
+    public CompletableFuture<String> forwardGetAsync(String gatewayPageWithId) {
+        return forwardGetAsync(gatewayPageWithId, Deadline.NONE);
+    }
+
+    /**
+     * forward GET request of client to gateway owning process without blocking caller
+     * @param gatewayPageWithId address of gateway and index of process
+     * @param deadline deadline of client request, passed to gateway
+     * @return future completed with response of gateway
+     */
+    public CompletableFuture<String> forwardGetAsync(String gatewayPageWithId, Deadline deadline) {
+        HttpRequest request = requestBuilder(gatewayPageWithId, deadline)
+                .header(FORWARDED_HEADER, "true")
+                .GET()
+                .build();
+        return sendAsync(request);
+    }
+
+    /**
+     * prepare builder of request with timeout that ends no later than deadline of client request
+     * @param destinationPage where request must be delivered
+     * @param deadline deadline of client request, time that is left is passed in header
+     * @return builder with set timeout
+     */
+    private HttpRequest.Builder requestBuilder(String destinationPage, Deadline deadline) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(destinationPage));
+        if(!deadline.isSet()) {
+            return builder.timeout(requestTimeout);
+        }
+        return builder.timeout(Duration.ofMillis(deadline.timeoutMillis(requestTimeout.toMillis())))
+                .header(Deadline.HEADER, String.valueOf(deadline.remainingMillis()));
+    }
+
+    /**
+     * prepare builder of request carrying JSON payload
+     * @param destinationPage where request must be delivered
+     * @param deadline deadline of client request
+     * @return builder with set headers and timeout
+     */
+    private HttpRequest.Builder jsonRequestBuilder(String destinationPage, Deadline deadline) {
+        return requestBuilder(destinationPage, deadline)
+                .header("Accept", "application/json")
+                .header("Content-Type", "application/json");
+    }
+
+    /**
+     * send request and map unsuccessful status codes to errors the same way as blocking methods do
+     * @param request request to be sent
+     * @return future completed with response body, cancelling it aborts request
+     */
+    private CompletableFuture<String> sendAsync(HttpRequest request) {
+        CompletableFuture<HttpResponse<String>> exchange = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        CompletableFuture<String> body = exchange.thenApply(response -> {
+            if(response.statusCode() >= 300) {
+                throw new CompletionException(
+                        new HttpResponseException(response.statusCode(), "unexpected status of service response"));
+            }
+            return response.body();
+        });
+        return abortOnCancel(body, exchange);
+    }
+
+    /**
+     * make cancelling of future derived from exchange also abort request that is still in flight
+     * @param result future returned to caller
+     * @param exchange future of exchange with service
+     * @param <T> type of result
+     * @return result
+     */
+    private static <T> CompletableFuture<T> abortOnCancel(CompletableFuture<T> result,
+                                                          CompletableFuture<? extends HttpResponse<?>> exchange) {
+        result.whenComplete((response, throwable) -> {
+            if(result.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return amount of leased, idle and pending connections of upstream pool at moment
+     */
+    public PoolStats poolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * close upstream client and all pooled connections
+     * @throws IOException i/o error
+     */
+    @Override
+    public void close() throws IOException {
         httpClient.close();
-        response.close();
-        return responsePayload;
+        connectionManager.close();
     }
 }
@@ -0,0 +1,117 @@
+package Http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Extraction of routing fields from JSON payloads in one streaming pass, without building tree of the whole
+ * payload, and building of small JSON replies. Shared preconfigured mapper is kept here for anything else
+ */
+public final class JsonFields {
+    //  mapper shared by whole gateway, it is thread-safe once configured
+    public static final ObjectMapper MAPPER = new ObjectMapper();
+
+    //  factory of streaming parsers and generators
+    private static final JsonFactory FACTORY = MAPPER.getFactory();
+
+    private JsonFields() {
+    }
+
+    /**
+     * read values of top-level fields from UTF-8 encoded JSON object, stopping as soon as all of them are found
+     * @param json UTF-8 encoded JSON object
+     * @param names names of required fields
+     * @return values of fields as text in order of names, null for fields that are missing or not scalar
+     * @throws IOException if payload is not valid JSON object
+     */
+    public static String[] read(byte[] json, String... names) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            return read(parser, names);
+        }
+    }
+
+    /**
+     * read values of top-level fields from JSON object, stopping as soon as all of them are found
+     * @param json JSON object
+     * @param names names of required fields
+     * @return values of fields as text in order of names, null for fields that are missing or not scalar
+     * @throws IOException if payload is not valid JSON object
+     */
+    public static String[] read(String json, String... names) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            return read(parser, names);
+        }
+    }
+
+    /**
+     * read value of single top-level field from JSON object
+     * @param json JSON object
+     * @param name name of field
+     * @return value of field as text, null if it is missing or not scalar
+     * @throws IOException if payload is not valid JSON object
+     */
+    public static String read(String json, String name) throws IOException {
+        return read(json, new String[]{name})[0];
+    }
+
+    /**
+     * read values of top-level fields with parser
+     * @param parser parser positioned before start of object
+     * @param names names of required fields
+     * @return values of fields
+     * @throws IOException if payload is not valid JSON object
+     */
+    private static String[] read(JsonParser parser, String[] names) throws IOException {
+        String[] values = new String[names.length];
+        if(parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("payload is not JSON object");
+        }
+
+        int found = 0;
+        while(found < names.length && parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            //  nested objects and arrays are skipped without being parsed into values
+            if(value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+
+            for(int i = 0; i < names.length; i++) {
+                if(values[i] == null && names[i].equals(fieldName) && value != JsonToken.VALUE_NULL) {
+                    values[i] = parser.getText();
+                    found++;
+                    break;
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * build JSON object of string fields
+     * @param namesAndValues names and values of fields one after another
+     * @return JSON object
+     */
+    public static String object(String... namesAndValues) {
+        StringWriter writer = new StringWriter(64);
+        try (JsonGenerator generator = FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            for(int i = 0; i + 1 < namesAndValues.length; i += 2) {
+                generator.writeStringField(namesAndValues[i], namesAndValues[i + 1]);
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            //  writer to memory does not fail
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+}
@@ -0,0 +1,194 @@
+package Http;
+
+import Logging.Log;
+import com.lambdaworks.redis.RedisFuture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of processes handled at moment by each service instance. Changes are made atomically in Redis
+ * with INCRBY, either on each change or in batches collected in striped local counters, so several gateways
+ * can update the same mailbox without losing updates. Balancing decisions read local view of counters, which
+ * is periodically refreshed from Redis to include changes made by other gateways. Flushing and refreshing of
+ * all counters is pipelined, so it costs one round trip to Redis
+ */
+public class MailboxCounters implements Closeable {
+    //  failures of synchronization with Redis
+    private static final Log LOG = Log.get("mailbox");
+
+    //  suffix of Redis key that holds mailbox size of service instance
+    public static final String MAILBOX_SUFFIX = "_mailboxSize";
+
+    //  redis connection for flushing and refreshing counters
+    private final RedisCommands<String> redisConnection;
+
+    //  if true, changes are collected locally and flushed to Redis on schedule
+    private final boolean batched;
+
+    //  address of service instance mapped to its counter
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    //  thread that flushes local changes and refreshes counters from Redis
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * mailbox counter of one service instance
+     */
+    private static final class Counter {
+        //  changes made by this gateway that are not yet written to Redis
+        final LongAdder pending = new LongAdder();
+
+        //  last value of mailbox size seen in Redis
+        volatile long lastKnown;
+    }
+
+    /**
+     * create counters and start their periodic synchronization with Redis
+     * @param redisConnection connection to Redis
+     * @param syncIntervalMillis interval of flushing local changes and refreshing values from Redis
+     * @param batched if true, changes are flushed on schedule, otherwise each change is sent to Redis at once
+     */
+    public MailboxCounters(RedisCommands<String> redisConnection, long syncIntervalMillis,
+                           boolean batched) {
+        this.redisConnection = redisConnection;
+        this.batched = batched;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mailbox-counters-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::synchronize, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * get mailbox size of service instance without calling Redis
+     * @param address address of service instance
+     * @return amount of processes handled by instance, as known to this gateway
+     */
+    public long size(String address) {
+        Counter counter = counter(address);
+        return counter.lastKnown + counter.pending.sum();
+    }
+
+    /**
+     * register new process in mailbox of service instance
+     * @param address address of service instance
+     */
+    public void increment(String address) {
+        add(address, 1);
+    }
+
+    /**
+     * remove finished process from mailbox of service instance
+     * @param address address of service instance
+     */
+    public void decrement(String address) {
+        add(address, -1);
+    }
+
+    /**
+     * change mailbox size of service instance
+     * @param address address of service instance
+     * @param delta change of mailbox size
+     */
+    private void add(String address, long delta) {
+        Counter counter = counter(address);
+        if(batched) {
+            counter.pending.add(delta);
+        } else {
+            try {
+                counter.lastKnown = RedisFutures.await(redisConnection.incrby(address + MAILBOX_SUFFIX, delta));
+            } catch (IOException e) {
+                //  keep change locally, it will be flushed on next synchronization
+                counter.pending.add(delta);
+            }
+        }
+    }
+
+    /**
+     * get counter of service instance, creating it if there is none yet
+     * @param address address of service instance
+     * @return counter of instance
+     */
+    private Counter counter(String address) {
+        Counter counter = counters.get(address);
+        if(counter == null) {
+            counter = counters.computeIfAbsent(address, key -> {
+                //  value of instance seen for the first time is taken from Redis once
+                Counter created = new Counter();
+                try {
+                    String value = RedisFutures.await(redisConnection.get(key + MAILBOX_SUFFIX));
+                    created.lastKnown = value == null ? 0 : Long.parseLong(value);
+                } catch (IOException e) {
+                    //  value will be taken on next synchronization
+                    LOG.warn("mailbox size was not read", e);
+                }
+                return created;
+            });
+        }
+        return counter;
+    }
+
+    /**
+     * flush local changes to Redis and refresh counters with changes made by other gateways
+     */
+    void synchronize() {
+        List<String> addresses = new ArrayList<>(counters.keySet());
+        if(addresses.isEmpty()) {
+            return;
+        }
+        long[] deltas = new long[addresses.size()];
+        RedisFuture<?>[] increments = new RedisFuture<?>[addresses.size()];
+        try {
+            //  send all local changes without waiting for each of them
+            String[] keys = new String[addresses.size()];
+            List<RedisFuture<?>> commands = new ArrayList<>(keys.length + 1);
+            for(int i = 0; i < keys.length; i++) {
+                keys[i] = addresses.get(i) + MAILBOX_SUFFIX;
+                deltas[i] = counters.get(addresses.get(i)).pending.sumThenReset();
+                if(deltas[i] != 0) {
+                    increments[i] = redisConnection.incrby(keys[i], deltas[i]);
+                    commands.add(increments[i]);
+                }
+            }
+
+            //  take values of all mailboxes at once to see changes of other gateways
+            RedisFuture<List<String>> mget = redisConnection.mget(keys);
+            commands.add(mget);
+            RedisFutures.awaitAll(commands.toArray(new RedisFuture<?>[0]));
+
+            List<String> values = mget.get();
+            for(int i = 0; i < keys.length; i++) {
+                if(values.get(i) != null) {
+                    counters.get(addresses.get(i)).lastKnown = Long.parseLong(values.get(i));
+                }
+            }
+        } catch (Exception e) {
+            //  changes not confirmed by Redis go back to pending ones and are sent on next synchronization
+            for(int i = 0; i < deltas.length; i++) {
+                if(deltas[i] != 0 && (increments[i] == null || !increments[i].isDone()
+                        || increments[i].getError() != null)) {
+                    counters.get(addresses.get(i)).pending.add(deltas[i]);
+                }
+            }
+            LOG.error("mailbox counters were not synchronized", e);
+        }
+    }
+
+    /**
+     * stop synchronization, flushing changes that were not yet written to Redis
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        synchronize();
+    }
+}
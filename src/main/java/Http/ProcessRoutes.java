@@ -0,0 +1,412 @@
+package Http;
+
+import Logging.Log;
+import com.lambdaworks.redis.RedisFuture;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Near-cache of process ID to service instance that owns process. Routes are kept in open-addressing tables
+ * of primitive arrays split into locked segments, so millions of routes cost 16 bytes each and no objects.
+ * Every route has TTL: it is written through to Redis with SETEX, refreshed while process is used, and
+ * abandoned routes are dropped by background sweeper locally and by expiry in Redis. Route taken from Redis
+ * is kept locally only for TTL it has left there, so it does not outlive its key
+ */
+public class ProcessRoutes implements Closeable {
+    //  failures of sweeping
+    private static final Log LOG = Log.get("routes");
+
+    //  amount of segments, power of two, each one is locked separately
+    private static final int SEGMENTS = 64;
+
+    //  tables are grown when they are filled by more than 3/4
+    private static final int MAX_LOAD_PERCENT = 75;
+
+    //  replies of PTTL for key without TTL and for missing key
+    private static final long NO_TTL = -1;
+    private static final long NO_KEY = -2;
+
+    /**
+     * open-addressing table with linear probing, slot is empty when its expiry is 0
+     */
+    private static final class Segment {
+        long[] keys;
+        int[] instances;
+        int[] expiries;
+        int size;
+
+        Segment(int capacity) {
+            keys = new long[capacity];
+            instances = new int[capacity];
+            expiries = new int[capacity];
+        }
+
+        /**
+         * @param key ID of process
+         * @return slot of key, -1 if there is none
+         */
+        int find(long key) {
+            int mask = keys.length - 1;
+            for(int slot = slot(key, mask); expiries[slot] != 0; slot = (slot + 1) & mask) {
+                if(keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * add route or replace existing one
+         */
+        void put(long key, int instance, int expiry) {
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while(expiries[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if(expiries[slot] == 0) {
+                size++;
+            }
+            keys[slot] = key;
+            instances[slot] = instance;
+            expiries[slot] = expiry;
+            if(size * 100L > (long) keys.length * MAX_LOAD_PERCENT) {
+                grow();
+            }
+        }
+
+        /**
+         * remove route from slot, shifting back following routes of the same cluster so no tombstones are left
+         * @param slot slot of route
+         */
+        void removeAt(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            for(int next = (hole + 1) & mask; expiries[next] != 0; next = (next + 1) & mask) {
+                //  route stays where it is if its home slot lies cyclically between hole and its slot
+                int home = slot(keys[next], mask);
+                boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+                if(!stays) {
+                    keys[hole] = keys[next];
+                    instances[hole] = instances[next];
+                    expiries[hole] = expiries[next];
+                    hole = next;
+                }
+            }
+            expiries[hole] = 0;
+            size--;
+        }
+
+        /**
+         * drop routes whose TTL passed
+         * @param now current time in seconds of table clock
+         * @return amount of dropped routes
+         */
+        int sweep(int now) {
+            int dropped = 0;
+            for(int slot = 0; slot < keys.length; slot++) {
+                //  route shifted into freed slot is checked too
+                while(expiries[slot] != 0 && expiries[slot] <= now) {
+                    removeAt(slot);
+                    dropped++;
+                }
+            }
+            return dropped;
+        }
+
+        /**
+         * double capacity of table
+         */
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldInstances = instances;
+            int[] oldExpiries = expiries;
+            keys = new long[oldKeys.length * 2];
+            instances = new int[oldKeys.length * 2];
+            expiries = new int[oldKeys.length * 2];
+            size = 0;
+            for(int slot = 0; slot < oldKeys.length; slot++) {
+                if(oldExpiries[slot] != 0) {
+                    put(oldKeys[slot], oldInstances[slot], oldExpiries[slot]);
+                }
+            }
+        }
+    }
+
+    //  redis connection receiving routes
+    private final RedisCommands<String> redisConnection;
+
+    //  segments of table, chosen by high bits of hash of ID
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    //  time for which route of unused process is kept
+    private final int ttlSeconds;
+
+    //  start of table clock, expiries are kept as seconds since it
+    private final long originNanos = System.nanoTime();
+
+    //  addresses of instances by their index, routes keep only index
+    private final ConcurrentHashMap<String, Integer> indexes = new ConcurrentHashMap<>();
+    private volatile String[] addresses = new String[16];
+
+    //  lookups that found route, lookups that did not and routes dropped by TTL
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    //  thread that drops abandoned routes
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * create table and start sweeping of abandoned routes
+     * @param redisConnection connection to Redis receiving routes
+     * @param expectedRoutes amount of routes that fit into table before it is grown
+     * @param ttlSeconds time for which route of unused process is kept
+     * @param sweepIntervalMillis interval of dropping abandoned routes
+     */
+    public ProcessRoutes(RedisCommands<String> redisConnection, int expectedRoutes, long ttlSeconds,
+                         long sweepIntervalMillis) {
+        this.redisConnection = redisConnection;
+        this.ttlSeconds = (int) Math.min(Math.max(ttlSeconds, 1), Integer.MAX_VALUE / 2);
+        int perSegment = (int) Math.min(1 << 29, (long) expectedRoutes * 100 / MAX_LOAD_PERCENT / SEGMENTS);
+        int capacity = Integer.highestOneBit(Math.max(16, perSegment) * 2 - 1);
+        for(int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity);
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "process-routes-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * find service instance owning process without calling Redis, route used after half of its TTL is
+     * refreshed locally and in Redis
+     * @param id ID of process
+     * @return address of instance, null if route is not known to this gateway
+     */
+    public String get(long id) {
+        long hash = mix(id);
+        Segment segment = segments[(int) (hash >>> 58)];
+        int now = now();
+        int instance;
+        boolean refresh = false;
+        synchronized (segment) {
+            int slot = segment.find(id);
+            if(slot < 0 || segment.expiries[slot] <= now) {
+                if(slot >= 0) {
+                    segment.removeAt(slot);
+                    expired.increment();
+                }
+                misses.increment();
+                return null;
+            }
+            instance = segment.instances[slot];
+            if(segment.expiries[slot] - now < ttlSeconds / 2) {
+                segment.expiries[slot] = now + ttlSeconds;
+                refresh = true;
+            }
+        }
+        if(refresh) {
+            redisConnection.expire(String.valueOf(id), ttlSeconds);
+        }
+        hits.increment();
+        return addresses[instance];
+    }
+
+    /**
+     * register route of new process locally and in Redis
+     * @param id ID of process
+     * @param address address of instance owning process
+     * @return future of write to Redis
+     */
+    public RedisFuture<String> put(long id, String address) {
+        store(id, address, ttlSeconds);
+        return redisConnection.setex(String.valueOf(id), ttlSeconds, address);
+    }
+
+    /**
+     * keep route taken from Redis locally no longer than it lives in Redis, route written without TTL
+     * gets one so it expires in Redis too
+     * @param id ID of process
+     * @param address address of instance owning process
+     * @param remainingMillis TTL of route in Redis as replied by PTTL sent together with GET of route
+     */
+    public void cache(long id, String address, long remainingMillis) {
+        if(remainingMillis == NO_KEY) {
+            return;
+        }
+        if(remainingMillis == NO_TTL) {
+            redisConnection.expire(String.valueOf(id), ttlSeconds);
+            store(id, address, ttlSeconds);
+            return;
+        }
+        //  table clock counts whole seconds, so route expiring within a second is not kept at all
+        long seconds = Math.min(ttlSeconds, TimeUnit.MILLISECONDS.toSeconds(remainingMillis));
+        if(seconds > 0) {
+            store(id, address, (int) seconds);
+        }
+    }
+
+    /**
+     * keep route locally
+     * @param id ID of process
+     * @param address address of instance owning process
+     * @param seconds time for which route is kept
+     */
+    private void store(long id, String address, int seconds) {
+        int instance = index(address);
+        Segment segment = segments[(int) (mix(id) >>> 58)];
+        int expiry = now() + seconds;
+        synchronized (segment) {
+            segment.put(id, instance, expiry);
+        }
+    }
+
+    /**
+     * remove route of finished process locally and in Redis
+     * @param id ID of process
+     * @return future of deletion in Redis
+     */
+    public RedisFuture<Long> remove(long id) {
+        invalidate(id);
+        return redisConnection.del(String.valueOf(id));
+    }
+
+    /**
+     * remove route only locally, when process was finished through another gateway
+     * @param id ID of process
+     */
+    public void invalidate(long id) {
+        Segment segment = segments[(int) (mix(id) >>> 58)];
+        synchronized (segment) {
+            int slot = segment.find(id);
+            if(slot >= 0) {
+                segment.removeAt(slot);
+            }
+        }
+    }
+
+    /**
+     * @return amount of routes kept locally, including ones whose TTL passed but were not yet swept
+     */
+    public long size() {
+        long size = 0;
+        for(Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return lookups that found route
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return lookups that did not find route
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return routes dropped because their TTL passed
+     */
+    public long expired() {
+        return expired.sum();
+    }
+
+    /**
+     * drop abandoned routes segment by segment, so lookups wait at most for sweep of one segment
+     */
+    void sweep() {
+        try {
+            int now = now();
+            for(Segment segment : segments) {
+                synchronized (segment) {
+                    expired.add(segment.sweep(now));
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.error("process routes were not swept", e);
+        }
+    }
+
+    /**
+     * get index of instance address, adding it if it is seen for the first time
+     * @param address address of instance
+     * @return index of address
+     */
+    private int index(String address) {
+        Integer index = indexes.get(address);
+        if(index != null) {
+            return index;
+        }
+        synchronized (indexes) {
+            index = indexes.get(address);
+            if(index == null) {
+                //  address is published in array before its index, so readers never see index without address
+                index = indexes.size();
+                String[] current = addresses;
+                if(index == current.length) {
+                    current = Arrays.copyOf(current, current.length * 2);
+                }
+                current[index] = address;
+                addresses = current;
+                indexes.put(address, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return seconds since start of table clock, never 0 so 0 can mark empty slot
+     */
+    private int now() {
+        return (int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - originNanos) + 1;
+    }
+
+    /**
+     * @param key ID of process
+     * @param mask capacity of table minus one
+     * @return home slot of key
+     */
+    private static int slot(long key, int mask) {
+        return (int) mix(key) & mask;
+    }
+
+    /**
+     * spread bits of ID over whole long, IDs of processes are often sequential
+     * @param value ID of process
+     * @return mixed value
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * stop sweeping
+     */
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
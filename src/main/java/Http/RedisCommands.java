@@ -0,0 +1,58 @@
+package Http;
+
+import com.lambdaworks.redis.KeyScanCursor;
+import com.lambdaworks.redis.RedisAsyncConnection;
+import com.lambdaworks.redis.RedisFuture;
+import com.lambdaworks.redis.ScanArgs;
+import com.lambdaworks.redis.ScanCursor;
+import com.lambdaworks.redis.ScriptOutputType;
+
+import java.util.List;
+
+/**
+ * Async Redis commands sent by gateway. Components talk to Redis only through this narrow interface, so
+ * wrappers of connection delegate each command explicitly instead of intercepting whole lettuce interface
+ * @param <V> type of values
+ */
+public interface RedisCommands<V> {
+    /**
+     * @param connection async connection to Redis
+     * @param <V> type of values
+     * @return commands sent straight to connection
+     */
+    static <V> RedisCommands<V> of(RedisAsyncConnection<String, V> connection) {
+        return new ConnectionCommands<>(connection);
+    }
+
+    RedisFuture<V> get(String key);
+
+    RedisFuture<List<V>> mget(String... keys);
+
+    RedisFuture<String> set(String key, V value);
+
+    RedisFuture<String> setex(String key, long seconds, V value);
+
+    RedisFuture<Long> del(String... keys);
+
+    RedisFuture<Boolean> expire(String key, long seconds);
+
+    RedisFuture<Long> pttl(String key);
+
+    RedisFuture<Long> incrby(String key, long amount);
+
+    RedisFuture<Long> decrby(String key, long amount);
+
+    RedisFuture<Long> publish(String channel, V message);
+
+    RedisFuture<Long> zadd(String key, double score, V member);
+
+    RedisFuture<Long> zrem(String key, V member);
+
+    RedisFuture<List<V>> zrangebyscore(String key, String min, String max, long offset, long count);
+
+    RedisFuture<Long> zcard(String key);
+
+    RedisFuture<KeyScanCursor<String>> scan(ScanCursor cursor, ScanArgs args);
+
+    <T> RedisFuture<T> eval(String script, ScriptOutputType type, String[] keys, V[] values);
+}
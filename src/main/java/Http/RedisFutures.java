@@ -0,0 +1,52 @@
+package Http;
+
+import com.lambdaworks.redis.LettuceFutures;
+import com.lambdaworks.redis.RedisFuture;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers for waiting on groups of commands sent through async Redis connection. Commands issued one after
+ * another without waiting are pipelined by connection, so the whole group costs one round trip
+ */
+public final class RedisFutures {
+    //  max time of waiting for group of Redis commands
+    public static final long TIMEOUT_MILLIS = 5000;
+
+    private RedisFutures() {
+    }
+
+    /**
+     * wait until all commands are completed
+     * @param futures results of pipelined commands
+     * @throws IOException if commands did not complete in time or failed
+     */
+    public static void awaitAll(RedisFuture<?>... futures) throws IOException {
+        if(!LettuceFutures.awaitAll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS, futures)) {
+            throw new IOException("Redis commands did not complete in " + TIMEOUT_MILLIS + " ms");
+        }
+        for(RedisFuture<?> future : futures) {
+            if(future.getError() != null) {
+                throw new IOException("Redis command failed: " + future.getError());
+            }
+        }
+    }
+
+    /**
+     * wait for single command and take its result
+     * @param future result of command
+     * @param <T> type of result
+     * @return result of command
+     * @throws IOException if command did not complete in time or failed
+     */
+    public static <T> T await(RedisFuture<T> future) throws IOException {
+        awaitAll(future);
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Redis command failed", e);
+        }
+    }
+}
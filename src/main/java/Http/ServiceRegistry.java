@@ -0,0 +1,187 @@
+package Http;
+
+import Logging.Log;
+import com.lambdaworks.redis.RedisConnection;
+import com.lambdaworks.redis.pubsub.RedisPubSubAdapter;
+import com.lambdaworks.redis.pubsub.RedisPubSubConnection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process routing table of function name to addresses of service instances that serve it. Table is
+ * loaded from Redis at startup and kept up to date through change events published over Redis pub/sub,
+ * so finding candidate services for request needs no Redis calls
+ */
+public class ServiceRegistry {
+    //  events of registry that cannot be applied
+    private static final Log LOG = Log.get("registry");
+
+    //  channel on which all gateways publish changes of registered services
+    public static final String CHANNEL = "gateway:registry";
+
+    //  set of all function names ever registered, used to load table at startup
+    private static final String FUNCTIONS_KEY = "registry:functions";
+
+    //  separator of fields inside change event
+    private static final String SEPARATOR = "|";
+
+    //  redis connection for changing registrations and loading them
+    private final RedisConnection<String, String> redisConnection;
+
+    //  function name mapped to immutable snapshot of instances serving it
+    private final ConcurrentHashMap<String, List<String>> routes = new ConcurrentHashMap<>();
+
+    //  address of instance mapped to function it serves, so requests routed by process ID know their function
+    private final ConcurrentHashMap<String, String> functionsByAddress = new ConcurrentHashMap<>();
+
+    /**
+     * create registry that is not notified about registrations made through other gateways
+     * @param redisConnection connection to Redis
+     */
+    public ServiceRegistry(RedisConnection<String, String> redisConnection) {
+        this.redisConnection = redisConnection;
+    }
+
+    /**
+     * create registry that listens for registrations made through any gateway
+     * @param redisConnection connection to Redis
+     * @param pubSubConnection separate connection used only for receiving change events
+     */
+    public ServiceRegistry(RedisConnection<String, String> redisConnection,
+                           RedisPubSubConnection<String, String> pubSubConnection) {
+        this(redisConnection);
+        pubSubConnection.addListener(new RedisPubSubAdapter<String, String>() {
+            @Override
+            public void message(String channel, String message) {
+                applyChange(message);
+            }
+        });
+        pubSubConnection.subscribe(CHANNEL);
+    }
+
+    /**
+     * load routing table of all known functions from Redis
+     */
+    public void load() {
+        for (String functionName : redisConnection.smembers(FUNCTIONS_KEY)) {
+            routes.put(functionName, loadInstances(functionName));
+        }
+    }
+
+    /**
+     * get instances of services serving function
+     * @param functionName name of function
+     * @return immutable list of service addresses, empty if there are none
+     */
+    public List<String> instances(String functionName) {
+        List<String> instances = routes.get(functionName);
+        if(instances != null) {
+            return instances;
+        }
+
+        //  functions registered before registry existed are not in set of functions, so take them once from Redis;
+        // names without instances come from clients and are not kept, so unknown names cannot fill the table
+        instances = loadInstances(functionName);
+        if(instances.isEmpty()) {
+            return instances;
+        }
+        List<String> raced = routes.putIfAbsent(functionName, instances);
+        return raced != null ? raced : instances;
+    }
+
+    /**
+     * get function served by instance
+     * @param address address of instance
+     * @return name of function, null if instance is not in local routing table
+     */
+    public String functionOf(String address) {
+        return functionsByAddress.get(address);
+    }
+
+    /**
+     * get names of all functions that have at least one registered instance
+     * @return set of function names
+     */
+    public Set<String> functionNames() {
+        Set<String> functionNames = ConcurrentHashMap.newKeySet();
+        routes.forEach((functionName, instances) -> {
+            if(!instances.isEmpty()) {
+                functionNames.add(functionName);
+            }
+        });
+        return functionNames;
+    }
+
+    /**
+     * register service instance in Redis and notify all gateways about it
+     * @param functionName name of function served by instance
+     * @param address address of instance
+     * @return true if instance was not registered before
+     */
+    public boolean register(String functionName, String address) {
+        //  if there is no mailbox of this service, then it means that there was no such service and gate
+        // needs to register it and create mailbox counter of this service
+        if(!redisConnection.exists(address + "_mailboxSize")) {
+            redisConnection.lpush(functionName, address);
+            redisConnection.set(address + "_mailboxSize", "0");
+            redisConnection.sadd(FUNCTIONS_KEY, functionName);
+            addInstance(functionName, address);
+            redisConnection.publish(CHANNEL, "add" + SEPARATOR + functionName + SEPARATOR + address);
+            return true;
+        }
+        addInstance(functionName, address);
+        return false;
+    }
+
+    /**
+     * apply change event received from pub/sub channel
+     * @param message event in format action|functionName|address
+     */
+    void applyChange(String message) {
+        String[] fields = message.split("\\" + SEPARATOR, 3);
+        if(fields.length != 3) {
+            LOG.warn("unknown registry event: {}", message);
+            return;
+        }
+        if("add".equals(fields[0])) {
+            addInstance(fields[1], fields[2]);
+        } else {
+            LOG.warn("unknown registry event: {}", message);
+        }
+    }
+
+    /**
+     * take list of instances of function from Redis
+     * @param functionName name of function
+     * @return immutable list of service addresses
+     */
+    private List<String> loadInstances(String functionName) {
+        List<String> instances = Collections.unmodifiableList(
+                new ArrayList<>(redisConnection.lrange(functionName, 0, -1)));
+        for(String address : instances) {
+            functionsByAddress.put(address, functionName);
+        }
+        return instances;
+    }
+
+    /**
+     * add instance to local routing table
+     * @param functionName name of function
+     * @param address address of instance
+     */
+    private void addInstance(String functionName, String address) {
+        routes.compute(functionName, (name, instances) -> {
+            if(instances != null && instances.contains(address)) {
+                return instances;
+            }
+            List<String> updated = instances == null ? new ArrayList<>() : new ArrayList<>(instances);
+            updated.add(address);
+            functionsByAddress.put(address, functionName);
+            return Collections.unmodifiableList(updated);
+        });
+    }
+}
@@ -0,0 +1,76 @@
+package Http;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deduplication of concurrent calls with the same key: while call for key is in flight, all other callers
+ * with this key receive result of that call instead of starting their own
+ * @param <K> type of key
+ * @param <V> type of result
+ */
+public class SingleFlight<K, V> {
+    /**
+     * call that is started only by the first caller of key
+     * @param <V> type of result
+     */
+    public interface Call<V> {
+        CompletableFuture<V> start() throws Exception;
+    }
+
+    //  calls in flight by their keys
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    //  amount of started calls
+    private final LongAdder started = new LongAdder();
+
+    //  amount of callers that joined call started by someone else
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * start call for key or join call that is already in flight
+     * @param key key of call
+     * @param call call started if there is none in flight for key
+     * @return future completed with result of call, shared by all callers of key
+     */
+    public CompletableFuture<V> execute(K key, Call<V> call) {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if(existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+
+        started.increment();
+        try {
+            call.start().whenComplete((result, throwable) -> {
+                //  key is released before completion, so callers coming after result is known start new call
+                inFlight.remove(key, created);
+                if(throwable != null) {
+                    created.completeExceptionally(throwable);
+                } else {
+                    created.complete(result);
+                }
+            });
+        } catch (Exception e) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /**
+     * @return amount of started calls
+     */
+    public long started() {
+        return started.sum();
+    }
+
+    /**
+     * @return amount of callers that received result of call started by someone else
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+}
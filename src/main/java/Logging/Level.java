@@ -0,0 +1,17 @@
+package Logging;
+
+/**
+ * Levels of log events, from the most detailed to disabled logging
+ */
+public enum Level {
+    TRACE, DEBUG, INFO, WARN, ERROR, OFF;
+
+    /**
+     * find level by its name, ignoring case
+     * @param name name of level, like "debug" or "off"
+     * @return level
+     */
+    public static Level fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,128 @@
+package Logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named logger writing to shared ring buffer drained by background thread. Checking of level is a field
+ * comparison and messages are built by drain thread, so disabled events cost neither string building nor
+ * allocation, and enabled ones do not hold request threads on console output.
+ * <p>
+ * Level of logger is set with -Dgateway.log.&lt;name&gt;=&lt;level&gt;, default is -Dgateway.log.level or INFO.
+ * Events below WARN can be sampled with -Dgateway.log.&lt;name&gt;.sampleEvery=&lt;n&gt;, keeping one of n events
+ */
+public class Log {
+    //  name of logger, printed with events
+    private final String name;
+
+    //  the lowest level written by logger
+    private final Level level;
+
+    //  one of how many events below WARN is written
+    private final long sampleEvery;
+
+    //  counter of events below WARN for sampling
+    private final AtomicLong sampled = new AtomicLong();
+
+    //  buffer receiving events
+    private final LogRing ring;
+
+    /**
+     * @param name name of logger
+     * @param level the lowest level written by logger
+     * @param sampleEvery one of how many events below WARN is written, 1 to write all
+     * @param ring buffer receiving events
+     */
+    Log(String name, Level level, long sampleEvery, LogRing ring) {
+        this.name = name;
+        this.level = level;
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.ring = ring;
+    }
+
+    /**
+     * create logger configured by system properties
+     * @param name name of logger
+     * @return logger
+     */
+    public static Log get(String name) {
+        return get(name, Level.fromName(System.getProperty("gateway.log.level", "info")));
+    }
+
+    /**
+     * create logger configured by system properties, with own default level
+     * @param name name of logger
+     * @param defaultLevel level used if there is no property for this logger
+     * @return logger
+     */
+    public static Log get(String name, Level defaultLevel) {
+        String configured = System.getProperty("gateway.log." + name);
+        return new Log(name, configured == null ? defaultLevel : Level.fromName(configured),
+                Long.getLong("gateway.log." + name + ".sampleEvery", 1), LogRing.INSTANCE);
+    }
+
+    /**
+     * @param eventLevel level of event
+     * @return true if events of this level are written
+     */
+    public boolean isEnabled(Level eventLevel) {
+        return eventLevel.compareTo(level) >= 0 && level != Level.OFF;
+    }
+
+    public void trace(String template, Object first) {
+        log(Level.TRACE, template, first, null, null);
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message, null, null, null);
+    }
+
+    public void debug(String template, Object first) {
+        log(Level.DEBUG, template, first, null, null);
+    }
+
+    public void debug(String template, Object first, Object second) {
+        log(Level.DEBUG, template, first, second, null);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message, null, null, null);
+    }
+
+    public void info(String template, Object first) {
+        log(Level.INFO, template, first, null, null);
+    }
+
+    public void info(String template, Object first, Object second) {
+        log(Level.INFO, template, first, second, null);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message, null, null, null);
+    }
+
+    public void warn(String template, Object first) {
+        log(Level.WARN, template, first, null, null);
+    }
+
+    public void warn(String message, Throwable throwable) {
+        log(Level.WARN, message, null, null, throwable);
+    }
+
+    public void error(String message, Throwable throwable) {
+        log(Level.ERROR, message, null, null, throwable);
+    }
+
+    /**
+     * put event into buffer if its level is enabled and it is not skipped by sampling
+     */
+    private void log(Level eventLevel, String template, Object first, Object second, Throwable throwable) {
+        if(!isEnabled(eventLevel)) {
+            return;
+        }
+        if(sampleEvery > 1 && eventLevel.compareTo(Level.WARN) < 0
+                && sampled.getAndIncrement() % sampleEvery != 0) {
+            return;
+        }
+        ring.offer(eventLevel, name, template, first, second, throwable);
+    }
+}
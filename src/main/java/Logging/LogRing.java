@@ -0,0 +1,196 @@
+package Logging;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer of log events written by many threads and drained by one background thread. Slots
+ * are allocated once, writer claims slot with one CAS and fills it, messages are formatted and printed
+ * only by drain thread. When buffer is full events are dropped and counted instead of blocking requests
+ */
+final class LogRing {
+    //  the only ring, drained to standard output and error streams
+    static final LogRing INSTANCE = new LogRing(
+            Integer.getInteger("gateway.log.bufferSize", 8192), System.out, System.err);
+
+    //  pause of drain thread when buffer is empty
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private final int mask;
+
+    //  sequence of each slot: equal to position when slot is free for writer, position + 1 when it is filled
+    private final AtomicLongArray sequences;
+
+    //  fields of events by slot
+    private final long[] times;
+    private final Level[] levels;
+    private final String[] loggers;
+    private final String[] threads;
+    private final String[] templates;
+    private final Object[] firstArguments;
+    private final Object[] secondArguments;
+    private final Throwable[] throwables;
+
+    //  next position to be claimed by writers and next position to be read by drain thread
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    //  events lost because buffer was full
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    /**
+     * @param capacity capacity of buffer, rounded up to power of two
+     * @param out stream of events below WARN
+     * @param err stream of WARN and ERROR events
+     */
+    LogRing(int capacity, PrintStream out, PrintStream err) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for(int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.times = new long[size];
+        this.levels = new Level[size];
+        this.loggers = new String[size];
+        this.threads = new String[size];
+        this.templates = new String[size];
+        this.firstArguments = new Object[size];
+        this.secondArguments = new Object[size];
+        this.throwables = new Throwable[size];
+        this.out = out;
+        this.err = err;
+
+        Thread drain = new Thread(this::drainLoop, "log-drain");
+        drain.setDaemon(true);
+        drain.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "log-flush"));
+    }
+
+    /**
+     * put event into buffer
+     * @return false if buffer is full and event was dropped
+     */
+    boolean offer(Level level, String logger, String template, Object first, Object second, Throwable throwable) {
+        long position;
+        int slot;
+        while(true) {
+            position = tail.get();
+            slot = (int) (position & mask);
+            long difference = sequences.get(slot) - position;
+            if(difference == 0) {
+                if(tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if(difference < 0) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        times[slot] = System.currentTimeMillis();
+        levels[slot] = level;
+        loggers[slot] = logger;
+        threads[slot] = Thread.currentThread().getName();
+        templates[slot] = template;
+        firstArguments[slot] = first;
+        secondArguments[slot] = second;
+        throwables[slot] = throwable;
+
+        //  publish filled slot to drain thread
+        sequences.set(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * drain buffer forever, parking while it is empty
+     */
+    private void drainLoop() {
+        while(true) {
+            if(drain() == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * print all events that are in buffer at moment
+     * @return amount of printed events
+     */
+    synchronized int drain() {
+        int drained = 0;
+        long reportedDrops = dropped.get();
+        while(true) {
+            int slot = (int) (head & mask);
+            if(sequences.get(slot) != head + 1) {
+                break;
+            }
+            try {
+                print(slot);
+            } catch (RuntimeException e) {
+                //  argument whose toString fails must not stop drain thread or keep its slot from writers
+                err.println(Instant.now() + " WARN  [log-drain] Logging - event of " + loggers[slot]
+                        + " was not printed: " + e);
+            }
+            levels[slot] = null;
+            loggers[slot] = null;
+            threads[slot] = null;
+            templates[slot] = null;
+            firstArguments[slot] = null;
+            secondArguments[slot] = null;
+            throwables[slot] = null;
+
+            //  return slot to writers for the next lap of ring
+            sequences.set(slot, head + mask + 1);
+            head++;
+            drained++;
+        }
+        if(drained > 0) {
+            out.flush();
+            err.flush();
+        }
+        if(reportedDrops > 0 && dropped.compareAndSet(reportedDrops, 0)) {
+            err.println(Instant.now() + " WARN  [log-drain] Logging - " + reportedDrops
+                    + " events dropped because log buffer was full");
+        }
+        return drained;
+    }
+
+    /**
+     * format and print event of slot
+     * @param slot slot of event
+     */
+    private void print(int slot) {
+        StringBuilder line = new StringBuilder(128)
+                .append(Instant.ofEpochMilli(times[slot])).append(' ')
+                .append(String.format("%-5s", levels[slot])).append(" [")
+                .append(threads[slot]).append("] ")
+                .append(loggers[slot]).append(" - ");
+        format(line, templates[slot], firstArguments[slot], secondArguments[slot]);
+        PrintStream stream = levels[slot].compareTo(Level.WARN) >= 0 ? err : out;
+        stream.println(line);
+        if(throwables[slot] != null) {
+            throwables[slot].printStackTrace(stream);
+        }
+    }
+
+    /**
+     * put arguments in place of {} placeholders of template
+     */
+    private static void format(StringBuilder line, String template, Object first, Object second) {
+        int argument = 0;
+        int start = 0;
+        int placeholder;
+        while(argument < 2 && (placeholder = template.indexOf("{}", start)) >= 0) {
+            line.append(template, start, placeholder).append(argument == 0 ? first : second);
+            start = placeholder + 2;
+            argument++;
+        }
+        line.append(template, start, template.length());
+    }
+}
@@ -0,0 +1,90 @@
+package Main;
+
+import Logging.Log;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Models of executor on which http server handles incoming requests
+ */
+public enum ExecutorMode {
+    //  new virtual thread for each request, falls back to cached pool of platform threads before Java 21
+    VIRTUAL,
+
+    //  fixed amount of threads with bounded queue of waiting requests
+    BOUNDED,
+
+    //  fork-join pool that lets idle threads steal queued requests of busy ones
+    WORK_STEALING,
+
+    //  fixed amount of threads with unbounded queue, old behaviour of gateway
+    FIXED;
+
+    /**
+     * find executor mode by its name, ignoring case and dashes
+     * @param name name of mode, like "virtual" or "work-stealing"
+     * @return executor mode
+     */
+    public static ExecutorMode fromName(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    /**
+     * create executor of this mode
+     * @param threads amount of threads for pooled modes
+     * @param queueCapacity capacity of queue of waiting requests in bounded mode
+     * @return executor for http server
+     */
+    public ExecutorService create(int threads, int queueCapacity) {
+        switch (this) {
+            case VIRTUAL:
+                return newVirtualThreadPerTaskExecutor();
+            case BOUNDED:
+                //  when queue is full request is rejected at once: nio front end answers it with 503 and jdk one
+                // closes its connection, running it on dispatcher thread would stall accepting and reading of
+                // all other connections behind one slow request
+                return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+            case WORK_STEALING:
+                return Executors.newWorkStealingPool(threads);
+            default:
+                return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    /**
+     * get amount of requests waiting in queue of executor
+     * @param executor executor created by {@link #create(int, int)}
+     * @return size of queue, 0 for executors without queue
+     */
+    public static long queueDepth(ExecutorService executor) {
+        if(executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        if(executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getQueuedSubmissionCount();
+        }
+        return 0;
+    }
+
+    /**
+     * create virtual-thread-per-task executor if runtime supports it
+     * @return executor starting new virtual thread for every request or cached thread pool on older runtimes
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            //  looked up by reflection, so gateway still can be built and launched on Java 17
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException exception) {
+            Log.get("gateway").warn("virtual threads are not supported by runtime, using cached thread pool");
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -1,28 +1,240 @@
 package Main;
 
+import Admission.AdmissionFilter;
+import Admission.Bulkheads;
+import Admission.ClientRateLimiter;
+import Admission.ConcurrencyLimit;
+import Admission.FixedLimit;
+import Admission.LimitType;
+import Balancer.BalancerType;
+import Balancer.LoadBalancers;
+import Balancer.UpstreamStats;
+import Cache.BinaryValueCodec;
+import Cache.ResponseCache;
+import Cache.ResultTier;
+import Cluster.ClusterMembership;
+import Health.HealthChecker;
+import Health.HealthSettings;
+import Http.Broadcaster;
+import Http.CompletionNotifier;
 import Http.HttpGatewayContextHandler;
 import Http.HttpUtility;
+import Http.MailboxCounters;
+import Http.ProcessRoutes;
+import Http.ServiceRegistry;
+import Logging.Log;
+import Metrics.GatewayMetrics;
+import Metrics.MetricsHandler;
+import Metrics.TimedRedisConnection;
+import Server.FrontEndType;
+import Server.NioHttpServer;
+import Upstream.UpstreamCalls;
+import Upstream.UpstreamSettings;
 import com.lambdaworks.redis.RedisClient;
 import com.lambdaworks.redis.RedisURI;
+import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpServer;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
 public class GatewayInstance {
     public static void main (String[] args) throws IOException {
         //  establish communication channel with Redis
         RedisClient redisClient = new RedisClient(
-                RedisURI.create("redis://@localhost:6379"));
+                RedisURI.create(System.getProperty("gateway.redis.uri", "redis://@localhost:6379")));
 
-        //  create http server that will handle all incoming requests and responses
-        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 8003), 0);
-        ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(4);
-        server.createContext("/", new HttpGatewayContextHandler(redisClient.connect(), new HttpUtility()));
-        server.setExecutor(threadPoolExecutor);
+        //  metrics of gateway, served in Prometheus text format on /metrics
+        GatewayMetrics metrics = new GatewayMetrics();
+
+        //  create pooled client for all requests to services, limits can be overridden by system properties
+        HttpUtility httpUtility = new HttpUtility(
+                Integer.getInteger("gateway.upstream.maxTotal", HttpUtility.DEFAULT_MAX_TOTAL_CONNECTIONS),
+                Integer.getInteger("gateway.upstream.maxPerRoute", HttpUtility.DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+                Integer.getInteger("gateway.upstream.connectTimeoutMillis", HttpUtility.DEFAULT_CONNECT_TIMEOUT_MILLIS),
+                Integer.getInteger("gateway.upstream.socketTimeoutMillis", HttpUtility.DEFAULT_SOCKET_TIMEOUT_MILLIS),
+                Integer.getInteger("gateway.upstream.idleEvictionSeconds", HttpUtility.DEFAULT_IDLE_EVICTION_SECONDS));
+
+        //  create http server that will handle all incoming requests and responses, JDK server is the fallback
+        // and NIO front end adds keep-alive with pipelining and h2c
+        String host = System.getProperty("gateway.host", "localhost");
+        int port = Integer.getInteger("gateway.port", 8003);
+        InetSocketAddress bindAddress = new InetSocketAddress(host, port);
+        FrontEndType frontEnd = FrontEndType.fromName(System.getProperty("gateway.frontend", "jdk"));
+        HttpServer server = frontEnd.create(bindAddress, Integer.getInteger("gateway.backlog", 0));
+        if(server instanceof NioHttpServer) {
+            NioHttpServer nioServer = (NioHttpServer) server;
+            metrics.gauge("gateway_frontend_connections", "Open client connections of front end",
+                    "protocol=\"http/1.1\"", () -> nioServer.connections() - nioServer.http2Connections());
+            metrics.gauge("gateway_frontend_connections", "Open client connections of front end",
+                    "protocol=\"h2c\"", nioServer::http2Connections);
+        }
+
+        metrics.gauge("gateway_upstream_pool_connections", "Connections of upstream pool", "state=\"leased\"",
+                () -> httpUtility.poolStats().getLeased());
+        metrics.gauge("gateway_upstream_pool_connections", "Connections of upstream pool", "state=\"available\"",
+                () -> httpUtility.poolStats().getAvailable());
+        metrics.gauge("gateway_upstream_pool_connections", "Connections of upstream pool", "state=\"pending\"",
+                () -> httpUtility.poolStats().getPending());
+
+        //  choose executor model at startup: virtual, bounded, work-stealing or fixed
+        ExecutorMode executorMode = ExecutorMode.fromName(System.getProperty("gateway.executor", "bounded"));
+        int executorThreads = Integer.getInteger("gateway.executor.threads",
+                Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        ExecutorService executor = executorMode.create(executorThreads,
+                Integer.getInteger("gateway.executor.queue", 1024));
+        metrics.gauge("gateway_executor_queue_depth", "Requests waiting for gateway thread", "",
+                () -> ExecutorMode.queueDepth(executor));
+
+        //  load routing table of services and listen for registrations made through other gateways
+        ServiceRegistry serviceRegistry = new ServiceRegistry(redisClient.connect(), redisClient.connectPubSub());
+        serviceRegistry.load();
+
+        //  mailbox counters are changed locally and flushed to Redis in batches unless batching is turned off
+        MailboxCounters mailboxCounters = new MailboxCounters(
+                TimedRedisConnection.wrap(redisClient.connectAsync(), metrics),
+                Long.getLong("gateway.mailbox.syncMillis", 100),
+                Boolean.parseBoolean(System.getProperty("gateway.mailbox.batched", "true")));
+
+        //  routes of processes are kept locally and in Redis, routes of abandoned processes expire after TTL
+        ProcessRoutes processRoutes = new ProcessRoutes(TimedRedisConnection.wrap(redisClient.connectAsync(), metrics),
+                Integer.getInteger("gateway.routes.expectedRoutes", 65_536),
+                Long.getLong("gateway.routes.ttlSeconds", 3600),
+                Long.getLong("gateway.routes.sweepMillis", 10_000));
+        metrics.gauge("gateway_process_routes", "Routes of processes kept by gateway", "", processRoutes::size);
+        metrics.counter("gateway_process_route_lookups_total", "Lookups of routes of processes", "result=\"hit\"",
+                processRoutes::hits);
+        metrics.counter("gateway_process_route_lookups_total", "Lookups of routes of processes", "result=\"miss\"",
+                processRoutes::misses);
+        metrics.counter("gateway_process_routes_expired_total", "Routes of abandoned processes dropped by TTL", "",
+                processRoutes::expired);
+
+        //  default strategy of load balancing, each function can override it with -Dgateway.balancer.<functionName>
+        LoadBalancers loadBalancers = new LoadBalancers(new UpstreamStats(mailboxCounters::size),
+                BalancerType.fromName(System.getProperty("gateway.balancer", "least-mailbox")));
+
+        //  failing services are ejected by circuit breakers and re-admitted after successful probes
+        HealthChecker healthChecker = new HealthChecker(HealthSettings.fromSystemProperties());
+
+        //  local cache of completed GET responses limited by amount of entries, or by bytes if maxBytes is set
+        long cacheMaxBytes = Long.getLong("gateway.cache.maxBytes", 0);
+        ResponseCache responseCache = new ResponseCache(
+                cacheMaxBytes > 0 ? cacheMaxBytes : Long.getLong("gateway.cache.maxEntries", 10_000),
+                cacheMaxBytes > 0, Long.getLong("gateway.cache.ttlSeconds", 300) * 1000);
+        metrics.counter("gateway_cache_hits_total", "Hits of cache of completed GET responses", "tier=\"local\"",
+                responseCache::hits);
+        metrics.counter("gateway_cache_misses_total", "Misses of cache of completed GET responses", "tier=\"local\"",
+                responseCache::misses);
+        metrics.gauge("gateway_cache_hit_ratio", "Share of hits among lookups of completed GET responses",
+                "tier=\"local\"", () -> GatewayMetrics.ratio(responseCache.hits(), responseCache.misses()));
+        metrics.counter("gateway_cache_evictions_total", "Evictions from local cache of completed GET responses", "",
+                responseCache::evictions);
+
+        //  broadcasts are sent to all services at once and wait for them until deadline
+        Broadcaster broadcaster = new Broadcaster(httpUtility, serviceRegistry,
+                Long.getLong("gateway.broadcast.deadlineMillis", 5000),
+                Boolean.parseBoolean(System.getProperty("gateway.broadcast.partialResults", "true")));
+
+        //  results of processes are shared through Redis as binary records with TTL of their function and
+        // common memory budget of all gateways, set with -Dgateway.results.*
+        ResultTier resultTier = ResultTier.fromSystemProperties(
+                TimedRedisConnection.wrap(redisClient.connectAsync(new BinaryValueCodec()), metrics),
+                TimedRedisConnection.wrap(redisClient.connectAsync(), metrics));
+        metrics.gauge("gateway_result_tier_bytes", "Size of results of processes kept in Redis", "",
+                resultTier::bytes);
+        metrics.gauge("gateway_result_tier_entries", "Results of processes kept in Redis", "", resultTier::entries);
+        metrics.counter("gateway_result_tier_removed_total", "Results removed from Redis by this gateway",
+                "reason=\"expired\"", resultTier::expired);
+        metrics.counter("gateway_result_tier_removed_total", "Results removed from Redis by this gateway",
+                "reason=\"evicted\"", resultTier::evicted);
+
+        //  long-poll GET requests are woken by completions on this gateway and, through pub/sub, on other ones
+        // with own caps on amount of waiters and time of waiting, as they are not held by admission limit
+        CompletionNotifier completionNotifier = new CompletionNotifier(
+                TimedRedisConnection.wrap(redisClient.connectAsync(), metrics), redisClient.connectPubSub(),
+                resultTier, Integer.getInteger("gateway.longpoll.maxWaiters", CompletionNotifier.DEFAULT_MAX_WAITERS),
+                Long.getLong("gateway.longpoll.maxWaitMillis", CompletionNotifier.DEFAULT_MAX_WAIT_MILLIS));
+        metrics.gauge("gateway_longpoll_waiters", "Long-poll GET requests waiting for results", "",
+                completionNotifier::waiters);
+
+        //  each function has its own budget of calls to its services, set with -Dgateway.bulkhead.<functionName>
+        // .maxConcurrent or common maxConcurrent, otherwise given by perInstance for each registered instance up to
+        // share of gateway threads, which is not needed with virtual threads or in async mode where calls in flight
+        // do not hold threads
+        boolean async = Boolean.getBoolean("gateway.async");
+        Bulkheads bulkheads = Bulkheads.fromSystemProperties(serviceRegistry,
+                executorMode == ExecutorMode.VIRTUAL || async ? 0 : executorThreads, metrics);
+
+        //  deadlines of clients are passed to services, PUT and GET calls are retried and, with
+        // -Dgateway.hedge.enabled=true, hedged within retry budget of each function
+        UpstreamCalls upstreamCalls = new UpstreamCalls(UpstreamSettings.fromSystemProperties());
+        metrics.counter("gateway_upstream_retries_total", "Attempts of calls to services repeated after failure", "",
+                upstreamCalls::retries);
+        metrics.counter("gateway_upstream_hedges_total", "Hedged attempts of slow calls to services",
+                "outcome=\"sent\"", upstreamCalls::hedges);
+        metrics.counter("gateway_upstream_hedges_total", "Hedged attempts of slow calls to services",
+                "outcome=\"won\"", upstreamCalls::hedgeWins);
+        metrics.counter("gateway_retry_budget_exhausted_total", "Retries and hedges refused by retry budget", "",
+                upstreamCalls::budgetExhausted);
+        metrics.counter("gateway_deadline_exceeded_total", "Calls to services failed by deadline of client", "",
+                upstreamCalls::deadlineExceeded);
+
+        //  with affinity gateways sharing Redis form ring and GET requests are forwarded to gateway owning process
+        ClusterMembership cluster = null;
+        if(Boolean.getBoolean("gateway.cluster.affinity")) {
+            cluster = new ClusterMembership(redisClient.connect(),
+                    System.getProperty("gateway.cluster.advertise", "http://" + advertisedHost(bindAddress) + ":" + port),
+                    Long.getLong("gateway.cluster.heartbeatMillis", 1000),
+                    Long.getLong("gateway.cluster.nodeTtlMillis", 5000),
+                    Integer.getInteger("gateway.cluster.virtualNodes", 128));
+            metrics.gauge("gateway_cluster_nodes", "Live gateway nodes", "", cluster::size);
+            Runtime.getRuntime().addShutdownHook(new Thread(cluster::close, "cluster-leave"));
+        }
+
+        //  in async mode gateway threads are released while requests to services are in flight
+        HttpContext gatewayContext = server.createContext("/", new HttpGatewayContextHandler(
+                TimedRedisConnection.wrap(redisClient.connectAsync(), metrics), httpUtility, serviceRegistry,
+                mailboxCounters, processRoutes, loadBalancers, healthChecker, responseCache, resultTier, broadcaster,
+                completionNotifier, metrics, bulkheads, upstreamCalls, cluster, async));
+
+        //  overload is answered with fast 503 over concurrency limit and 429 over rate limit of client,
+        // limit is off with maxInFlight=0 and rate limits are off unless perSecond is set
+        int maxInFlight = Integer.getInteger("gateway.admission.maxInFlight", 256);
+        ConcurrencyLimit concurrencyLimit = maxInFlight <= 0 ? null
+                : LimitType.fromName(System.getProperty("gateway.admission.limit", "fixed")).create(maxInFlight,
+                        Integer.getInteger("gateway.admission.minLimit", 8),
+                        Long.getLong("gateway.admission.latencyThresholdMillis", 1000));
+        int maxControlInFlight = Integer.getInteger("gateway.admission.maxControlInFlight", 32);
+        ConcurrencyLimit controlLimit = maxControlInFlight <= 0 ? null : new FixedLimit(maxControlInFlight);
+        double clientRate = Double.parseDouble(System.getProperty("gateway.ratelimit.perSecond", "0"));
+        ClientRateLimiter rateLimiter = clientRate <= 0 ? null : new ClientRateLimiter(clientRate,
+                Double.parseDouble(System.getProperty("gateway.ratelimit.burst", String.valueOf(clientRate))),
+                System.getProperty("gateway.ratelimit.keyHeader"),
+                Arrays.stream(System.getProperty("gateway.ratelimit.apiKeys", "").split(","))
+                        .map(String::trim).filter(key -> !key.isEmpty()).collect(Collectors.toSet()),
+                Integer.getInteger("gateway.ratelimit.maxClients", 100_000));
+        gatewayContext.getFilters().add(new AdmissionFilter(concurrencyLimit, controlLimit, rateLimiter, cluster,
+                Long.getLong("gateway.admission.retryAfterSeconds", 1), metrics));
+        server.createContext("/metrics", new MetricsHandler(metrics));
+        server.setExecutor(executor);
         server.start();
-        System.out.println(" Server started on port 8003");
+        Log.get("gateway").info("server started on port {} with {} executor", port, executorMode);
+        Log.get("gateway").info("front end: {}", frontEnd);
+    }
+
+    /**
+     * @param bindAddress address server listens on
+     * @return host under which other gateways reach this one, name of machine if server listens on all addresses
+     * @throws UnknownHostException name of machine cannot be resolved
+     */
+    private static String advertisedHost(InetSocketAddress bindAddress) throws UnknownHostException {
+        InetAddress address = bindAddress.getAddress();
+        return address != null && address.isAnyLocalAddress() ? InetAddress.getLocalHost().getHostName()
+                : bindAddress.getHostString();
     }
 }
@@ -0,0 +1,240 @@
+package Metrics;
+
+import Balancer.InstanceStats;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of metrics of the gateway: latency histograms of requests, calls to services and Redis commands,
+ * hits of Redis cache, requests in flight and gauges read at moment of scrape. Series are created once and
+ * later looked up without allocation, all metrics are written in Prometheus text format
+ */
+public class GatewayMetrics {
+    //  quantiles written for every histogram
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    /**
+     * All series of one metric
+     */
+    private static class Family {
+        final String help;
+        final String type;
+
+        //  preformatted labels mapped to histogram or to supplier of gauge value
+        final Map<String, Object> series = new ConcurrentSkipListMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    //  metrics by name, written in order of names
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    //  histograms of requests to gateway by route and method
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, LatencyHistogram>> requests =
+            new ConcurrentHashMap<>();
+
+    //  histograms of calls to services by address of instance
+    private final ConcurrentHashMap<String, LatencyHistogram> upstreams = new ConcurrentHashMap<>();
+
+    //  histograms of Redis commands by name of command
+    private final ConcurrentHashMap<String, LatencyHistogram> redisCommands = new ConcurrentHashMap<>();
+
+    //  lookups of cached responses in Redis
+    private final LongAdder redisCacheHits = new LongAdder();
+    private final LongAdder redisCacheMisses = new LongAdder();
+
+    //  requests to gateway that are not answered yet
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public GatewayMetrics() {
+        gauge("gateway_requests_in_flight", "Requests to gateway without response yet", "", inFlight::get);
+        counter("gateway_cache_hits_total", "Hits of cache of completed GET responses", "tier=\"redis\"",
+                redisCacheHits::sum);
+        counter("gateway_cache_misses_total", "Misses of cache of completed GET responses", "tier=\"redis\"",
+                redisCacheMisses::sum);
+        gauge("gateway_cache_hit_ratio", "Share of hits among lookups of completed GET responses", "tier=\"redis\"",
+                () -> ratio(redisCacheHits.sum(), redisCacheMisses.sum()));
+    }
+
+    /**
+     * @param route path of context that received request
+     * @param method HTTP method of request
+     * @return histogram of latency of requests to gateway
+     */
+    public LatencyHistogram request(String route, String method) {
+        ConcurrentHashMap<String, LatencyHistogram> byMethod = requests.get(route);
+        if(byMethod == null) {
+            byMethod = requests.computeIfAbsent(route, key -> new ConcurrentHashMap<>());
+        }
+        LatencyHistogram histogram = byMethod.get(method);
+        if(histogram == null) {
+            histogram = byMethod.computeIfAbsent(method, key -> register("gateway_request_duration_seconds",
+                    "Latency of requests to gateway until response headers are sent",
+                    "route=\"" + escape(route) + "\",method=\"" + escape(method) + "\""));
+        }
+        return histogram;
+    }
+
+    /**
+     * @param address address of service instance
+     * @param instanceStats statistics of instance, its calls in flight are registered with first lookup
+     * @return histogram of latency of calls to service instance
+     */
+    public LatencyHistogram upstream(String address, InstanceStats instanceStats) {
+        LatencyHistogram histogram = upstreams.get(address);
+        if(histogram == null) {
+            histogram = upstreams.computeIfAbsent(address, key -> {
+                String labels = "upstream=\"" + escape(key) + "\"";
+                gauge("gateway_upstream_in_flight", "Calls to service instance without response yet", labels,
+                        instanceStats::inFlight);
+                return register("gateway_upstream_duration_seconds", "Latency of calls to service instances", labels);
+            });
+        }
+        return histogram;
+    }
+
+    /**
+     * @param command name of Redis command
+     * @return histogram of latency of Redis command
+     */
+    public LatencyHistogram redisCommand(String command) {
+        LatencyHistogram histogram = redisCommands.get(command);
+        if(histogram == null) {
+            histogram = redisCommands.computeIfAbsent(command, key -> register("gateway_redis_duration_seconds",
+                    "Latency of Redis commands", "command=\"" + escape(key) + "\""));
+        }
+        return histogram;
+    }
+
+    /**
+     * register lookup of cached response in Redis
+     * @param hit true if response was found
+     */
+    public void redisCacheLookup(boolean hit) {
+        (hit ? redisCacheHits : redisCacheMisses).increment();
+    }
+
+    /**
+     * register request received by gateway
+     */
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * register request answered by gateway
+     */
+    public void requestFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * register gauge read at moment of scrape
+     * @param name name of metric
+     * @param help description of metric
+     * @param labels preformatted labels of series, empty if there are none
+     * @param value supplier of value
+     */
+    public void gauge(String name, String help, String labels, DoubleSupplier value) {
+        families.computeIfAbsent(name, key -> new Family(help, "gauge")).series.put(labels, value);
+    }
+
+    /**
+     * register counter kept outside of registry and read at moment of scrape
+     * @param name name of metric
+     * @param help description of metric
+     * @param labels preformatted labels of series, empty if there are none
+     * @param value supplier of value
+     */
+    public void counter(String name, String help, String labels, DoubleSupplier value) {
+        families.computeIfAbsent(name, key -> new Family(help, "counter")).series.put(labels, value);
+    }
+
+    /**
+     * @param hits amount of hits
+     * @param misses amount of misses
+     * @return share of hits, 0 if there were no lookups
+     */
+    public static double ratio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return all metrics in Prometheus text format
+     */
+    public String scrape() {
+        StringBuilder output = new StringBuilder(4096);
+        families.forEach((name, family) -> {
+            output.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            output.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            family.series.forEach((labels, series) -> {
+                if(series instanceof LatencyHistogram) {
+                    writeHistogram(output, name, labels, (LatencyHistogram) series);
+                } else {
+                    writeSample(output, name, labels, ((DoubleSupplier) series).getAsDouble());
+                }
+            });
+        });
+        return output.toString();
+    }
+
+    /**
+     * register histogram
+     * @param name name of metric
+     * @param help description of metric
+     * @param labels preformatted labels of series
+     * @return new histogram
+     */
+    private LatencyHistogram register(String name, String help, String labels) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        families.computeIfAbsent(name, key -> new Family(help, "summary")).series.put(labels, histogram);
+        return histogram;
+    }
+
+    /**
+     * write histogram as summary with quantiles, sum and count
+     */
+    private static void writeHistogram(StringBuilder output, String name, String labels, LatencyHistogram histogram) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for(double quantile : QUANTILES) {
+            writeSample(output, name, labels + separator + "quantile=\"" + quantile + "\"",
+                    histogram.quantileNanos(quantile) / 1e9);
+        }
+        writeSample(output, name + "_sum", labels, histogram.sumNanos() / 1e9);
+        writeSample(output, name + "_count", labels, histogram.count());
+    }
+
+    /**
+     * write one sample
+     */
+    private static void writeSample(StringBuilder output, String name, String labels, double value) {
+        output.append(name);
+        if(!labels.isEmpty()) {
+            output.append('{').append(labels).append('}');
+        }
+        output.append(' ');
+        if(value == Math.rint(value) && Math.abs(value) < 1e15) {
+            output.append((long) value);
+        } else {
+            output.append(value);
+        }
+        output.append('\n');
+    }
+
+    /**
+     * @param value value of label
+     * @return value with escaped backslashes, quotes and line breaks
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,142 @@
+package Metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with log-linear buckets in the manner of HdrHistogram: values below 64 ns have
+ * own buckets, every next power of two is split into 32 buckets, so relative error is about 3%. Recording
+ * is one atomic increment of fixed array and does not allocate or lock
+ */
+public class LatencyHistogram {
+    //  amount of bits of value kept exactly in bucket index
+    private static final int SUB_BUCKET_BITS = 6;
+
+    //  amount of buckets with exact values and amount of buckets in each next power of two
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    //  values above this are counted in the last bucket, 2^40 ns is about 18 minutes
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    //  counts of values by bucket
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+
+    //  amount and sum of all recorded values
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    //  the last quantile computed by cachedQuantileNanos, null before the first one
+    private volatile CachedQuantile cachedQuantile;
+
+    /**
+     * record one value
+     * @param nanos latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+    }
+
+    /**
+     * @return amount of recorded values
+     */
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * @return sum of recorded values in nanoseconds
+     */
+    public long sumNanos() {
+        return sum.get();
+    }
+
+    /**
+     * @param quantile quantile between 0 and 1
+     * @return upper bound of bucket holding value at given quantile in nanoseconds, 0 if nothing is recorded
+     */
+    public long quantileNanos(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[counts.length()];
+        for(int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if(total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for(int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if(seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * quantile recomputed only after given amount of new values, so readers asking for it on every call do
+     * not scan and copy all buckets each time
+     * @param quantile quantile between 0 and 1
+     * @param refreshSamples amount of new values after which quantile is computed again
+     * @return upper bound of bucket holding value at given quantile in nanoseconds, 0 if nothing is recorded
+     */
+    public long cachedQuantileNanos(double quantile, long refreshSamples) {
+        CachedQuantile cached = cachedQuantile;
+        long current = count.get();
+        if(cached == null || cached.quantile != quantile || current - cached.count >= refreshSamples) {
+            //  racing readers may both compute it, the last one stays, which is as good as any
+            cached = new CachedQuantile(quantile, current, quantileNanos(quantile));
+            cachedQuantile = cached;
+        }
+        return cached.nanos;
+    }
+
+    /**
+     * @param value value not greater than max one
+     * @return index of bucket of value
+     */
+    private static int index(long value) {
+        if(value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        //  shift leaving top bits of value in range [32, 64)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+    }
+
+    /**
+     * @param index index of bucket
+     * @return the greatest value counted in bucket
+     */
+    private static long upperBound(int index) {
+        if(index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Quantile with amount of values it was computed from
+     */
+    private static final class CachedQuantile {
+        final double quantile;
+        final long count;
+        final long nanos;
+
+        CachedQuantile(double quantile, long count, long nanos) {
+            this.quantile = quantile;
+            this.count = count;
+            this.nanos = nanos;
+        }
+    }
+}
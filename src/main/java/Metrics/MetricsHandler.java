@@ -0,0 +1,35 @@
+package Metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Handler of /metrics context, answers with all metrics of the gateway in Prometheus text format
+ */
+public class MetricsHandler implements HttpHandler {
+    //  registry of metrics
+    private final GatewayMetrics metrics;
+
+    public MetricsHandler(GatewayMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * send current values of metrics to scraper
+     * @param httpExchange REST service connector
+     * @throws IOException i/o exception
+     */
+    @Override
+    public void handle(HttpExchange httpExchange) throws IOException {
+        byte[] responseBytes = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+        httpExchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        httpExchange.sendResponseHeaders(200, responseBytes.length);
+        try (OutputStream outputStream = httpExchange.getResponseBody()) {
+            outputStream.write(responseBytes);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package Metrics;
+
+import Http.ForwardingExchange;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Exchange that measures time from receiving of request until response headers are sent, whatever thread
+ * sends them, and keeps count of requests in flight
+ */
+public class TimedExchange extends ForwardingExchange {
+    //  registry that receives latency of request
+    private final GatewayMetrics metrics;
+
+    //  time when request was received
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * start measuring request
+     * @param exchange received exchange
+     * @param metrics registry that receives latency of request
+     */
+    public TimedExchange(HttpExchange exchange, GatewayMetrics metrics) {
+        super(exchange);
+        this.metrics = metrics;
+        metrics.requestStarted();
+    }
+
+    /**
+     * record latency of request
+     */
+    @Override
+    protected void onResponse(int responseCode) {
+        metrics.requestFinished();
+        metrics.request(getHttpContext().getPath(), getRequestMethod()).record(System.nanoTime() - startNanos);
+    }
+}
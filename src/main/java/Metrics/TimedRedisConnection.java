@@ -0,0 +1,148 @@
+package Metrics;
+
+import Http.RedisCommands;
+import com.lambdaworks.redis.KeyScanCursor;
+import com.lambdaworks.redis.RedisAsyncConnection;
+import com.lambdaworks.redis.RedisFuture;
+import com.lambdaworks.redis.ScanArgs;
+import com.lambdaworks.redis.ScanCursor;
+import com.lambdaworks.redis.ScriptOutputType;
+
+import java.util.List;
+
+/**
+ * Wrapper of async Redis connection that records latency of every command from its sending until its
+ * reply, so commands are timed in one place whatever code sends them. Each command is delegated explicitly,
+ * timing costs one clock read and one listener of future
+ * @param <V> type of values
+ */
+public final class TimedRedisConnection<V> implements RedisCommands<V> {
+    private final RedisAsyncConnection<String, V> connection;
+    private final GatewayMetrics metrics;
+
+    private TimedRedisConnection(RedisAsyncConnection<String, V> connection, GatewayMetrics metrics) {
+        this.connection = connection;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param connection connection to wrap
+     * @param metrics registry that receives latencies of commands
+     * @param <V> type of values
+     * @return commands recording latency of each command by its name
+     */
+    public static <V> RedisCommands<V> wrap(RedisAsyncConnection<String, V> connection, GatewayMetrics metrics) {
+        return new TimedRedisConnection<>(connection, metrics);
+    }
+
+    @Override
+    public RedisFuture<V> get(String key) {
+        long startNanos = System.nanoTime();
+        return timed("get", startNanos, connection.get(key));
+    }
+
+    @Override
+    public RedisFuture<List<V>> mget(String... keys) {
+        long startNanos = System.nanoTime();
+        return timed("mget", startNanos, connection.mget(keys));
+    }
+
+    @Override
+    public RedisFuture<String> set(String key, V value) {
+        long startNanos = System.nanoTime();
+        return timed("set", startNanos, connection.set(key, value));
+    }
+
+    @Override
+    public RedisFuture<String> setex(String key, long seconds, V value) {
+        long startNanos = System.nanoTime();
+        return timed("setex", startNanos, connection.setex(key, seconds, value));
+    }
+
+    @Override
+    public RedisFuture<Long> del(String... keys) {
+        long startNanos = System.nanoTime();
+        return timed("del", startNanos, connection.del(keys));
+    }
+
+    @Override
+    public RedisFuture<Boolean> expire(String key, long seconds) {
+        long startNanos = System.nanoTime();
+        return timed("expire", startNanos, connection.expire(key, seconds));
+    }
+
+    @Override
+    public RedisFuture<Long> pttl(String key) {
+        long startNanos = System.nanoTime();
+        return timed("pttl", startNanos, connection.pttl(key));
+    }
+
+    @Override
+    public RedisFuture<Long> incrby(String key, long amount) {
+        long startNanos = System.nanoTime();
+        return timed("incrby", startNanos, connection.incrby(key, amount));
+    }
+
+    @Override
+    public RedisFuture<Long> decrby(String key, long amount) {
+        long startNanos = System.nanoTime();
+        return timed("decrby", startNanos, connection.decrby(key, amount));
+    }
+
+    @Override
+    public RedisFuture<Long> publish(String channel, V message) {
+        long startNanos = System.nanoTime();
+        return timed("publish", startNanos, connection.publish(channel, message));
+    }
+
+    @Override
+    public RedisFuture<Long> zadd(String key, double score, V member) {
+        long startNanos = System.nanoTime();
+        return timed("zadd", startNanos, connection.zadd(key, score, member));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public RedisFuture<Long> zrem(String key, V member) {
+        long startNanos = System.nanoTime();
+        return timed("zrem", startNanos, connection.zrem(key, member));
+    }
+
+    @Override
+    public RedisFuture<List<V>> zrangebyscore(String key, String min, String max, long offset, long count) {
+        long startNanos = System.nanoTime();
+        return timed("zrangebyscore", startNanos, connection.zrangebyscore(key, min, max, offset, count));
+    }
+
+    @Override
+    public RedisFuture<Long> zcard(String key) {
+        long startNanos = System.nanoTime();
+        return timed("zcard", startNanos, connection.zcard(key));
+    }
+
+    @Override
+    public RedisFuture<KeyScanCursor<String>> scan(ScanCursor cursor, ScanArgs args) {
+        long startNanos = System.nanoTime();
+        return timed("scan", startNanos, connection.scan(cursor, args));
+    }
+
+    @Override
+    public <T> RedisFuture<T> eval(String script, ScriptOutputType type, String[] keys, V[] values) {
+        long startNanos = System.nanoTime();
+        return timed("eval", startNanos, connection.<T>eval(script, type, keys, values));
+    }
+
+    /**
+     * record latency of command when its reply arrives
+     * @param command name of command
+     * @param startNanos time of sending of command
+     * @param future reply of command
+     * @param <T> type of reply
+     * @return the same future
+     */
+    private <T> RedisFuture<T> timed(String command, long startNanos, RedisFuture<T> future) {
+        LatencyHistogram histogram = metrics.redisCommand(command);
+        future.addListener(() -> histogram.record(System.nanoTime() - startNanos), Runnable::run);
+        return future;
+    }
+}
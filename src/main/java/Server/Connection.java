@@ -0,0 +1,384 @@
+package Server;
+
+import Http.BufferPool;
+import Logging.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Client connection of NIO front end. Input is collected in pooled buffer only while it holds bytes of
+ * unfinished request, so idle keep-alive connections hold no buffers. Output is queued by any thread and
+ * written by event loop of connection
+ */
+final class Connection {
+    //  failures of connections
+    private static final Log LOG = Log.get("nio");
+
+    //  server and event loop owning connection
+    final NioHttpServer server;
+    final EventLoop loop;
+    final SocketChannel channel;
+    final InetSocketAddress localAddress;
+    final InetSocketAddress remoteAddress;
+    private SelectionKey key;
+
+    //  protocol of connection, replaced when connection switches to HTTP/2; only event loop uses it
+    Protocol protocol;
+
+    //  unhandled input between start and end, only event loop uses it
+    byte[] input;
+    int inputStart;
+    int inputEnd;
+
+    //  buffers waiting to be written and amount of their bytes, guarded by this. Responses hold their bytes
+    // themselves until they may be written, so only bytes that can drain to socket are counted here
+    final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    long pendingBytes;
+
+    //  flag showing that connection is closed when output is written and no request waits, guarded by this
+    boolean closeAfterWrite;
+
+    private volatile boolean closed;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private boolean reading = true;
+    private boolean writing;
+    private long lastActivityNanos = System.nanoTime();
+
+    //  moment since which socket takes no output while some is waiting, 0 if output is moving or empty
+    private long stalledSinceNanos;
+
+    Connection(NioHttpServer server, EventLoop loop, SocketChannel channel) throws IOException {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+        this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+        this.protocol = new Http1Protocol(server, this);
+    }
+
+    /**
+     * register connection in selector of its event loop
+     * @param key selection key of connection
+     */
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * read available bytes and let protocol handle them
+     * @param readBuffer buffer of event loop shared by its connections
+     * @throws IOException i/o error
+     */
+    void read(ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+        int read = channel.read(readBuffer);
+        if(read < 0) {
+            //  client will send nothing more, connection is closed when pending responses are written
+            setReading(false);
+            synchronized (this) {
+                closeAfterWrite = true;
+            }
+            requestFlush();
+            return;
+        }
+        if(read == 0) {
+            return;
+        }
+        lastActivityNanos = System.nanoTime();
+        readBuffer.flip();
+        append(readBuffer);
+        protocol.onInput(this);
+        releaseInputIfEmpty();
+    }
+
+    /**
+     * @return amount of unhandled input bytes
+     */
+    int available() {
+        return inputEnd - inputStart;
+    }
+
+    /**
+     * mark input bytes as handled
+     * @param amount amount of bytes
+     */
+    void consume(int amount) {
+        inputStart += amount;
+    }
+
+    /**
+     * drop all unhandled input
+     */
+    void discardInput() {
+        inputStart = inputEnd;
+    }
+
+    /**
+     * queue bytes for writing, caller must hold lock of connection if order with other writes matters
+     * @param bytes bytes to write
+     */
+    synchronized void enqueue(byte[] bytes) {
+        if(closed || bytes.length == 0) {
+            return;
+        }
+        outbound.add(ByteBuffer.wrap(bytes));
+        pendingBytes += bytes.length;
+    }
+
+    /**
+     * write queued output on event loop
+     */
+    void requestFlush() {
+        if(flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    /**
+     * move ready responses to output and write as much as socket takes, runs on event loop
+     */
+    void flush() {
+        flushScheduled.set(false);
+        if(closed) {
+            return;
+        }
+        try {
+            protocol.onFlush(this);
+            boolean drained;
+            boolean close;
+            boolean wrote = false;
+            synchronized (this) {
+                ByteBuffer[] buffers = new ByteBuffer[Math.min(outbound.size(), 64)];
+                while(!outbound.isEmpty()) {
+                    int count = 0;
+                    for(ByteBuffer buffer : outbound) {
+                        if(count == buffers.length) {
+                            break;
+                        }
+                        buffers[count++] = buffer;
+                    }
+                    long written = channel.write(buffers, 0, count);
+                    pendingBytes -= written;
+                    while(!outbound.isEmpty() && !outbound.peek().hasRemaining()) {
+                        outbound.poll();
+                    }
+                    if(written == 0) {
+                        break;
+                    }
+                    if(written > 0) {
+                        lastActivityNanos = System.nanoTime();
+                        wrote = true;
+                    }
+                }
+                drained = outbound.isEmpty();
+                close = drained && closeAfterWrite;
+                notifyAll();
+            }
+            if(drained || wrote) {
+                stalledSinceNanos = 0;
+            } else if(stalledSinceNanos == 0) {
+                stalledSinceNanos = System.nanoTime();
+            }
+            setWriting(!drained);
+            if(close && protocol.isIdle()) {
+                close();
+            }
+        } catch (IOException e) {
+            LOG.debug("connection {} failed: {}", remoteAddress, e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * wait while output of connection and bytes held by response are over limit, so slow client does not fill
+     * memory of gateway. Bytes of other responses that wait for earlier responses or for window of peer are not
+     * counted, so writer never waits for response that cannot move. Event loop never waits
+     * @param responseBytes bytes held by response of writer, read under lock of connection
+     * @return false if nothing was written for write timeout, response must then be given up
+     */
+    boolean awaitWritable(LongSupplier responseBytes) {
+        if(Thread.currentThread() == loop.thread) {
+            return true;
+        }
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(server.settings.writeTimeoutMillis);
+        synchronized (this) {
+            long waiting = pendingBytes + responseBytes.getAsLong();
+            long progressNanos = System.nanoTime();
+            while(waiting > server.settings.maxPendingBytes && !closed) {
+                long leftNanos = progressNanos + timeoutNanos - System.nanoTime();
+                if(leftNanos <= 0) {
+                    return false;
+                }
+                try {
+                    wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(leftNanos)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return true;
+                }
+                long left = pendingBytes + responseBytes.getAsLong();
+                if(left < waiting) {
+                    progressNanos = System.nanoTime();
+                }
+                waiting = left;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * start or stop reading of connection, runs on event loop
+     * @param reading true to read
+     */
+    void setReading(boolean reading) {
+        if(this.reading != reading) {
+            this.reading = reading;
+            updateInterest();
+        }
+    }
+
+    /**
+     * @return true if connection is read
+     */
+    boolean isReading() {
+        return reading;
+    }
+
+    /**
+     * wait or stop waiting for socket to take more output, runs on event loop
+     * @param writing true to wait for socket
+     */
+    private void setWriting(boolean writing) {
+        if(this.writing != writing) {
+            this.writing = writing;
+            updateInterest();
+        }
+    }
+
+    /**
+     * update operations of selection key
+     */
+    private void updateInterest() {
+        if(key != null && key.isValid()) {
+            key.interestOps((reading ? SelectionKey.OP_READ : 0) | (writing ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+    /**
+     * close connection that was idle for too long or whose client takes no output, runs on event loop
+     * @param nowNanos current time
+     */
+    void checkIdle(long nowNanos) {
+        if(closed) {
+            return;
+        }
+        boolean writing;
+        synchronized (this) {
+            writing = !outbound.isEmpty();
+        }
+        if(writing) {
+            if(stalledSinceNanos != 0
+                    && nowNanos - stalledSinceNanos >= TimeUnit.MILLISECONDS.toNanos(server.settings.writeTimeoutMillis)) {
+                LOG.debug("connection {} took no output for {} ms", remoteAddress, server.settings.writeTimeoutMillis);
+                close();
+            }
+            return;
+        }
+        if(nowNanos - lastActivityNanos >= TimeUnit.MILLISECONDS.toNanos(server.settings.idleTimeoutMillis)
+                && protocol.isIdle()) {
+            protocol.onIdleTimeout(this);
+        }
+    }
+
+    /**
+     * @return true if connection is closed
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * close connection from any thread
+     */
+    void closeLater() {
+        loop.execute(this::close);
+    }
+
+    /**
+     * close connection and give up its requests, runs on event loop
+     */
+    void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        synchronized (this) {
+            outbound.clear();
+            pendingBytes = 0;
+            notifyAll();
+        }
+        protocol.onClose();
+        if(key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.debug("connection {} was not closed cleanly: {}", remoteAddress, e.getMessage());
+        }
+        if(input != null && input.length == BufferPool.BUFFER_SIZE) {
+            BufferPool.release(input);
+        }
+        input = null;
+        server.connectionClosed(this);
+    }
+
+    /**
+     * append read bytes to input, taking buffer from pool when input is empty
+     * @param bytes read bytes
+     */
+    private void append(ByteBuffer bytes) {
+        int amount = bytes.remaining();
+        if(input == null) {
+            input = BufferPool.acquire();
+            inputStart = 0;
+            inputEnd = 0;
+        }
+        if(input.length - inputEnd < amount) {
+            //  move unhandled bytes to start, and grow buffer only if it is still too small
+            int unhandled = inputEnd - inputStart;
+            byte[] target = unhandled + amount <= input.length ? input
+                    : new byte[Math.max(input.length * 2, unhandled + amount)];
+            System.arraycopy(input, inputStart, target, 0, unhandled);
+            if(target != input && input.length == BufferPool.BUFFER_SIZE) {
+                BufferPool.release(input);
+            }
+            input = target;
+            inputStart = 0;
+            inputEnd = unhandled;
+        }
+        bytes.get(input, inputEnd, amount);
+        inputEnd += amount;
+    }
+
+    /**
+     * return input buffer to pool when all its bytes are handled
+     */
+    void releaseInputIfEmpty() {
+        if(input != null && inputStart == inputEnd) {
+            if(input.length == BufferPool.BUFFER_SIZE) {
+                BufferPool.release(input);
+            }
+            input = null;
+            inputStart = 0;
+            inputEnd = 0;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package Server;
+
+import Logging.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector thread of NIO front end: reads and writes its connections and runs tasks given by other threads
+ */
+final class EventLoop implements Runnable {
+    //  failures of event loop
+    private static final Log LOG = Log.get("nio");
+
+    //  interval of checking idle connections
+    private static final long IDLE_CHECK_NANOS = 1_000_000_000L;
+
+    private final NioHttpServer server;
+    private final Selector selector;
+    final Thread thread;
+
+    //  tasks of other threads: registration of connections and flushing of responses
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    //  buffer for reading of all connections of loop, bytes are moved to connection at once
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    private volatile boolean running = true;
+    private long lastIdleCheckNanos = System.nanoTime();
+
+    EventLoop(NioHttpServer server, int number) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, "nio-worker-" + number);
+    }
+
+    /**
+     * start thread of loop
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * run task on event loop
+     * @param task task
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if(Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * take accepted connection into loop
+     * @param channel accepted channel in non-blocking mode
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                Connection connection = new Connection(server, this, channel);
+                connection.attach(channel.register(selector, SelectionKey.OP_READ, connection));
+                server.connectionOpened(connection);
+            } catch (IOException e) {
+                LOG.debug("connection was not registered: {}", e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    //  channel is already broken
+                }
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while(running) {
+            try {
+                if(tasks.isEmpty()) {
+                    selector.select(1000);
+                } else {
+                    selector.selectNow();
+                }
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while(selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    handle(key, (Connection) key.attachment());
+                }
+                runTasks();
+                checkIdle();
+            } catch (IOException | RuntimeException e) {
+                LOG.error("event loop failed", e);
+            }
+        }
+        for(SelectionKey key : selector.keys().toArray(new SelectionKey[0])) {
+            ((Connection) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.debug("selector was not closed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * read or write ready connection
+     */
+    private void handle(SelectionKey key, Connection connection) {
+        try {
+            if(key.isValid() && key.isReadable()) {
+                connection.read(readBuffer);
+            }
+            if(key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("connection {} failed: {}", connection.remoteAddress, e.toString());
+            connection.close();
+        }
+    }
+
+    /**
+     * run tasks given before this round, tasks given by them wait for the next round
+     */
+    private void runTasks() {
+        int count = tasks.size();
+        Runnable task;
+        while(count-- > 0 && (task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.error("task of event loop failed", e);
+            }
+        }
+    }
+
+    /**
+     * close connections idle for longer than timeout
+     */
+    private void checkIdle() {
+        long now = System.nanoTime();
+        if(now - lastIdleCheckNanos < IDLE_CHECK_NANOS) {
+            return;
+        }
+        lastIdleCheckNanos = now;
+        for(SelectionKey key : selector.keys().toArray(new SelectionKey[0])) {
+            if(key.isValid()) {
+                ((Connection) key.attachment()).checkIdle(now);
+            }
+        }
+    }
+
+    /**
+     * stop loop, closing its connections
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,40 @@
+package Server;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Implementations of http server accepting requests of clients
+ */
+public enum FrontEndType {
+    //  server of JDK: thread per selector with blocking exchanges, fallback of gateway
+    JDK,
+
+    //  non-blocking server with event loops, keep-alive, pipelining and h2c
+    NIO;
+
+    /**
+     * find front end by its name, ignoring case
+     * @param name name of front end, like "jdk" or "nio"
+     * @return front end type
+     */
+    public static FrontEndType fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+
+    /**
+     * create server of this type
+     * @param address address to listen on
+     * @param backlog max amount of connections waiting for accept, 0 for default of system
+     * @return bound server, not yet started
+     * @throws IOException if address cannot be bound
+     */
+    public HttpServer create(InetSocketAddress address, int backlog) throws IOException {
+        if(this == NIO) {
+            return new NioHttpServer(address, backlog, NioSettings.fromSystemProperties());
+        }
+        return HttpServer.create(address, backlog);
+    }
+}
@@ -0,0 +1,372 @@
+package Server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * HPACK header compression of HTTP/2 (RFC 7541). Decoder keeps dynamic table of connection and reads Huffman
+ * coded strings; encoder writes literals without indexing, so it needs no state and peer table size is free
+ */
+final class Hpack {
+    //  static table, index 1 is the first entry
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"}, {":path", "/index.html"},
+            {":scheme", "http"}, {":scheme", "https"}, {":status", "200"}, {":status", "204"}, {":status", "206"},
+            {":status", "304"}, {":status", "400"}, {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""},
+            {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""}, {"authorization", ""},
+            {"cache-control", ""}, {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""},
+            {"content-length", ""}, {"content-location", ""}, {"content-range", ""}, {"content-type", ""},
+            {"cookie", ""}, {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""},
+            {"if-match", ""}, {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""},
+            {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""}, {"location", ""},
+            {"max-forwards", ""}, {"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""},
+            {"referer", ""}, {"refresh", ""}, {"retry-after", ""}, {"server", ""}, {"set-cookie", ""},
+            {"strict-transport-security", ""}, {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""},
+            {"via", ""}, {"www-authenticate", ""}
+    };
+
+    //  index of :status in static table, used as name of status written by encoder
+    private static final int STATUS_INDEX = 8;
+
+    //  Huffman codes of symbols 0-255 and of EOS (256), aligned to the right, with their lengths in bits
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7, 0xfffffe8, 0xffffea,
+            0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec, 0xfffffed, 0xfffffee, 0xfffffef,
+            0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3, 0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7,
+            0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb, 0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa, 0x3fa,
+            0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18, 0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d, 0x1e, 0x1f,
+            0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc, 0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62, 0x63, 0x64,
+            0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72, 0xfc, 0x73, 0xfd,
+            0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22, 0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26, 0x27, 0x6, 0x74,
+            0x75, 0x28, 0x29, 0x2a, 0x7, 0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78, 0x79, 0x7a, 0x7b, 0x7ffe,
+            0x7fc, 0x3ffd, 0x1ffd, 0xffffffc, 0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5,
+            0x7fffd9, 0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf, 0xffffec,
+            0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3, 0x7fffe4, 0x1fffdc, 0x3fffd8,
+            0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef, 0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc,
+            0x7fffe8, 0x7fffe9, 0x1fffde, 0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb,
+            0x7fffec, 0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef, 0xfffea,
+            0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1, 0x3ffffe0, 0x3ffffe1, 0xfffeb,
+            0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec, 0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf,
+            0x3ffffe5, 0xfffff1, 0x1ffffed, 0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7,
+            0x7ffffe2, 0xfffff2, 0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4,
+            0x7ffffe5, 0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3, 0x3fffea,
+            0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4, 0x3ffffeb, 0x7ffffe6,
+            0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea, 0x7ffffeb, 0xffffffe, 0x7ffffec,
+            0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee, 0x3fffffff
+    };
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 30, 28, 28, 28,
+            28, 28, 28, 28, 28, 28, 6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6,
+            6, 6, 7, 8, 15, 6, 12, 10, 13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 8,
+            7, 8, 13, 19, 13, 14, 6, 15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7, 7, 7,
+            7, 15, 11, 14, 13, 28, 20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24, 24, 22, 23,
+            24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24, 22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22,
+            23, 23, 21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23, 26, 26, 20, 19, 22, 23, 22, 25,
+            26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27, 20, 24,
+            20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23, 26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27,
+            27, 27, 27, 26, 30
+    };
+
+    //  decoding tree of Huffman codes: children of node i are at 2i and 2i + 1 of array, leaves keep ~symbol
+    private static final int[] HUFFMAN_TREE = huffmanTree();
+
+    /**
+     * header field decoded from header block
+     */
+    static final class Field {
+        final String name;
+        final String value;
+
+        Field(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Decoder of header blocks of one connection, used only by its event loop
+     */
+    static final class Decoder {
+        //  dynamic table, the newest entry first
+        private final ArrayDeque<Field> dynamicTable = new ArrayDeque<>();
+
+        //  size of dynamic table as counted by RFC 7541 and its limits
+        private int size;
+        private int maxSize;
+        private final int maxAllowedSize;
+
+        //  max size of decoded header list, counted like size of table
+        private final int maxListSize;
+
+        /**
+         * @param maxAllowedSize size of dynamic table announced to peer in SETTINGS_HEADER_TABLE_SIZE
+         * @param maxListSize size of header list announced to peer in SETTINGS_MAX_HEADER_LIST_SIZE
+         */
+        Decoder(int maxAllowedSize, int maxListSize) {
+            this.maxSize = maxAllowedSize;
+            this.maxAllowedSize = maxAllowedSize;
+            this.maxListSize = maxListSize;
+        }
+
+        /**
+         * decode complete header block. Block over size of header list is still decoded to its end, so dynamic
+         * table stays in sync with peer, but its fields are no longer collected once the list is over size, so
+         * small block repeating large indexed field cannot fill memory
+         * @param block bytes of header block
+         * @param length amount of bytes of block
+         * @return fields in order of block, null if their list is over max size
+         * @throws IOException if block is malformed, connection must then be closed with COMPRESSION_ERROR
+         */
+        List<Field> decode(byte[] block, int length) throws IOException {
+            List<Field> fields = new ArrayList<>();
+            long listSize = 0;
+            int[] position = {0};
+            while(position[0] < length) {
+                int first = block[position[0]] & 0xff;
+                Field field;
+                if((first & 0x80) != 0) {
+                    //  indexed field
+                    field = field(readInteger(block, length, position, 7));
+                } else if((first & 0x40) != 0) {
+                    //  literal with incremental indexing
+                    field = literal(block, length, position, 6);
+                    add(field);
+                } else if((first & 0x20) != 0) {
+                    //  dynamic table size update
+                    int newSize = readInteger(block, length, position, 5);
+                    if(newSize > maxAllowedSize) {
+                        throw new IOException("dynamic table size update over allowed size");
+                    }
+                    maxSize = newSize;
+                    evict();
+                    continue;
+                } else {
+                    //  literal without indexing or never indexed
+                    field = literal(block, length, position, 4);
+                }
+                listSize += fieldSize(field);
+                if(listSize <= maxListSize) {
+                    fields.add(field);
+                }
+            }
+            return listSize > maxListSize ? null : fields;
+        }
+
+        /**
+         * read literal field whose name is indexed or literal
+         */
+        private Field literal(byte[] block, int length, int[] position, int prefixBits) throws IOException {
+            int nameIndex = readInteger(block, length, position, prefixBits);
+            String name = nameIndex == 0 ? readString(block, length, position) : field(nameIndex).name;
+            return new Field(name, readString(block, length, position));
+        }
+
+        /**
+         * @param index index of field in static and dynamic table
+         * @return field
+         * @throws IOException if there is no such index
+         */
+        private Field field(int index) throws IOException {
+            if(index >= 1 && index <= STATIC_TABLE.length) {
+                return new Field(STATIC_TABLE[index - 1][0], STATIC_TABLE[index - 1][1]);
+            }
+            int dynamicIndex = index - STATIC_TABLE.length - 1;
+            if(index <= 0 || dynamicIndex >= dynamicTable.size()) {
+                throw new IOException("header index out of table: " + index);
+            }
+            Iterator<Field> iterator = dynamicTable.iterator();
+            for(int i = 0; i < dynamicIndex; i++) {
+                iterator.next();
+            }
+            return iterator.next();
+        }
+
+        /**
+         * add field to dynamic table, evicting the oldest fields over size
+         */
+        private void add(Field field) {
+            int fieldSize = fieldSize(field);
+            if(fieldSize > maxSize) {
+                dynamicTable.clear();
+                size = 0;
+                return;
+            }
+            dynamicTable.addFirst(field);
+            size += fieldSize;
+            evict();
+        }
+
+        /**
+         * evict the oldest fields until table fits its size
+         */
+        private void evict() {
+            while(size > maxSize) {
+                size -= fieldSize(dynamicTable.removeLast());
+            }
+        }
+
+        /**
+         * @return size of field counted by RFC 7541: lengths of name and value plus 32
+         */
+        private static int fieldSize(Field field) {
+            return field.name.length() + field.value.length() + 32;
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * encode response headers as literals without indexing
+     * @param status status of response
+     * @param fields names and values of headers, names in lower case, one pair after another
+     * @return header block
+     */
+    static byte[] encode(int status, List<String> fields) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(64 + fields.size() * 16);
+        writeInteger(block, 0x00, 4, STATUS_INDEX);
+        writeString(block, String.valueOf(status));
+        for(int i = 0; i + 1 < fields.size(); i += 2) {
+            writeInteger(block, 0x00, 4, 0);
+            writeString(block, fields.get(i));
+            writeString(block, fields.get(i + 1));
+        }
+        return block.toByteArray();
+    }
+
+    /**
+     * read integer with prefix of given amount of bits
+     */
+    private static int readInteger(byte[] block, int length, int[] position, int prefixBits) throws IOException {
+        int max = (1 << prefixBits) - 1;
+        int value = block[position[0]++] & max;
+        if(value < max) {
+            return value;
+        }
+        int shift = 0;
+        while(true) {
+            if(position[0] >= length || shift > 28) {
+                throw new IOException("malformed integer of header block");
+            }
+            int next = block[position[0]++] & 0xff;
+            value += (next & 0x7f) << shift;
+            if(value < 0) {
+                throw new IOException("integer of header block overflows");
+            }
+            if((next & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    /**
+     * read string literal, plain or Huffman coded
+     */
+    private static String readString(byte[] block, int length, int[] position) throws IOException {
+        if(position[0] >= length) {
+            throw new IOException("header block ends before string");
+        }
+        boolean huffman = (block[position[0]] & 0x80) != 0;
+        int stringLength = readInteger(block, length, position, 7);
+        if(stringLength > length - position[0]) {
+            throw new IOException("string is longer than header block");
+        }
+        int start = position[0];
+        position[0] += stringLength;
+        return huffman ? decodeHuffman(block, start, stringLength)
+                : new String(block, start, stringLength, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * decode Huffman coded string, padding must be shorter than 8 bits and consist of ones
+     */
+    private static String decodeHuffman(byte[] bytes, int offset, int length) throws IOException {
+        StringBuilder decoded = new StringBuilder(length * 8 / 5);
+        int node = 1;
+        int depth = 0;
+        boolean padding = true;
+        for(int i = offset; i < offset + length; i++) {
+            for(int bit = 7; bit >= 0; bit--) {
+                int one = (bytes[i] >> bit) & 1;
+                node = HUFFMAN_TREE[2 * node + one];
+                depth++;
+                padding &= one == 1;
+                if(node == 0) {
+                    throw new IOException("invalid Huffman code");
+                }
+                if(node < 0) {
+                    int symbol = ~node;
+                    if(symbol == 256) {
+                        throw new IOException("EOS in Huffman coded string");
+                    }
+                    decoded.append((char) symbol);
+                    node = 1;
+                    depth = 0;
+                    padding = true;
+                }
+            }
+        }
+        if(depth > 7 || !padding) {
+            throw new IOException("invalid padding of Huffman coded string");
+        }
+        return decoded.toString();
+    }
+
+    /**
+     * build decoding tree of Huffman codes
+     * @return tree where children of node i are at 2i and 2i + 1, 0 marks missing node, negative value ~symbol
+     */
+    private static int[] huffmanTree() {
+        int[] tree = new int[2 * 2 * 257 + 2];
+        int nodes = 2;
+        for(int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+            int node = 1;
+            for(int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+                int child = 2 * node + ((HUFFMAN_CODES[symbol] >>> bit) & 1);
+                if(bit == 0) {
+                    tree[child] = ~symbol;
+                } else {
+                    if(tree[child] == 0) {
+                        tree[child] = nodes++;
+                    }
+                    node = tree[child];
+                }
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * write integer with prefix of given amount of bits
+     */
+    private static void writeInteger(ByteArrayOutputStream block, int firstBits, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if(value < max) {
+            block.write(firstBits | value);
+            return;
+        }
+        block.write(firstBits | max);
+        value -= max;
+        while(value >= 0x80) {
+            block.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        block.write(value);
+    }
+
+    /**
+     * write string literal without Huffman coding
+     */
+    private static void writeString(ByteArrayOutputStream block, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        writeInteger(block, 0x00, 7, bytes.length);
+        block.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,679 @@
+package Server;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP/1.1 with keep-alive and pipelining. Pipelined requests are handled at once, each response is
+ * collected separately and written in order of requests. Connection switches to HTTP/2 on prior knowledge
+ * preface or on upgrade to h2c
+ */
+final class Http1Protocol implements Protocol {
+    private static final byte[] CONTINUE = ascii("HTTP/1.1 100 Continue\r\n\r\n");
+    private static final byte[] SWITCHING = ascii("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n");
+    private static final byte[] LAST_CHUNK = ascii("0\r\n\r\n");
+    private static final byte[] EMPTY = new byte[0];
+
+    //  max length of line with size of chunk
+    private static final int MAX_CHUNK_LINE = 1024;
+
+    //  states of reading chunked body
+    private static final int CHUNK_SIZE = 0;
+    private static final int CHUNK_DATA = 1;
+    private static final int CHUNK_END = 2;
+    private static final int TRAILER = 3;
+
+    private final NioHttpServer server;
+    private final Connection connection;
+
+    //  requests handled at once, in order of their responses, guarded by connection
+    private final ArrayDeque<Response> inFlight = new ArrayDeque<>();
+
+    //  request whose body is being read, only event loop uses it
+    private Request current;
+
+    //  flag showing that no more requests of connection are read
+    private boolean closing;
+
+    //  flag showing that connection had request, HTTP/2 preface is accepted only at start of connection
+    private boolean used;
+
+    /**
+     * request line and headers of request with state of reading its body
+     */
+    private static final class Request {
+        String method;
+        String target;
+        String version;
+        final Headers headers = new Headers();
+        long contentLength;
+        boolean chunked;
+        boolean keepAlive;
+        boolean expectContinue;
+        boolean upgrade;
+        ByteArrayOutputStream chunkedBody;
+        int chunkState;
+        long chunkRemaining;
+    }
+
+    Http1Protocol(NioHttpServer server, Connection connection) {
+        this.server = server;
+        this.connection = connection;
+    }
+
+    @Override
+    public void onInput(Connection connection) throws IOException {
+        while(!closing && (current != null || connection.available() > 0)) {
+            if(current == null) {
+                synchronized (connection) {
+                    if(inFlight.size() >= server.settings.maxPipelined) {
+                        //  reading resumes when responses of earlier requests are written
+                        connection.setReading(false);
+                        return;
+                    }
+                }
+                if(!used && server.settings.h2c) {
+                    int matched = matchedPreface();
+                    if(matched == Http2Protocol.PREFACE.length) {
+                        switchToHttp2(null, null);
+                        return;
+                    }
+                    if(matched == connection.available()) {
+                        //  bytes so far may be start of preface
+                        return;
+                    }
+                }
+                if(!readHead()) {
+                    return;
+                }
+            }
+            byte[] body = readBody();
+            if(body == null) {
+                return;
+            }
+            Request request = current;
+            current = null;
+            used = true;
+            URI uri;
+            try {
+                uri = new URI(request.target);
+            } catch (Exception e) {
+                reject(400, "malformed request target");
+                return;
+            }
+            if(request.upgrade) {
+                switchToHttp2(request, body);
+                return;
+            }
+            dispatch(request, uri, body);
+        }
+        if(closing) {
+            connection.discardInput();
+        }
+    }
+
+    /**
+     * @return amount of leading input bytes matching HTTP/2 preface
+     */
+    private int matchedPreface() {
+        int count = Math.min(connection.available(), Http2Protocol.PREFACE.length);
+        for(int i = 0; i < count; i++) {
+            if(connection.input[connection.inputStart + i] != Http2Protocol.PREFACE[i]) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * parse request line and headers when they are read completely
+     * @return true if request head was parsed
+     */
+    private boolean readHead() throws IOException {
+        byte[] input = connection.input;
+        //  empty lines before request line are ignored
+        while(connection.available() >= 2 && input[connection.inputStart] == '\r'
+                && input[connection.inputStart + 1] == '\n') {
+            connection.consume(2);
+        }
+        int start = connection.inputStart;
+        int end = indexOf(input, start, connection.inputEnd, true);
+        if(end < 0) {
+            if(connection.available() > server.settings.maxHeaderBytes) {
+                reject(431, "request header fields too large");
+            }
+            return false;
+        }
+        if(end - start > server.settings.maxHeaderBytes) {
+            reject(431, "request header fields too large");
+            return false;
+        }
+        String head = new String(input, start, end - start, StandardCharsets.ISO_8859_1);
+        connection.consume(end + 4 - start);
+
+        Request request = new Request();
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if(requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            reject(400, "malformed request line");
+            return false;
+        }
+        request.method = requestLine[0];
+        request.target = requestLine[1];
+        request.version = requestLine[2];
+        for(int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if(colon <= 0) {
+                reject(400, "malformed header");
+                return false;
+            }
+            request.headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+        }
+
+        String connectionHeader = String.join(",", headerValues(request.headers, "Connection")).toLowerCase();
+        request.keepAlive = "HTTP/1.1".equals(request.version) ? !hasToken(connectionHeader, "close")
+                : hasToken(connectionHeader, "keep-alive");
+        //  framing of body is checked strictly, any doubt about where request ends would let request smuggled
+        // in body of another one reach handler
+        List<String> codings = listValues(request.headers, "Transfer-Encoding");
+        List<String> lengths = listValues(request.headers, "Content-Length");
+        if(!codings.isEmpty() && !lengths.isEmpty()) {
+            reject(400, "both Transfer-Encoding and Content-Length are given");
+            return false;
+        }
+        if(!codings.isEmpty() && !"chunked".equals(codings.get(codings.size() - 1))) {
+            reject(400, "chunked is not the final transfer coding");
+            return false;
+        }
+        if(codings.size() > 1) {
+            reject(501, "transfer codings other than chunked are not supported");
+            return false;
+        }
+        request.chunked = !codings.isEmpty();
+        if(!request.chunked) {
+            String length = lengths.isEmpty() ? null : lengths.get(0);
+            if(!lengths.stream().allMatch(value -> value.equals(length))) {
+                reject(400, "conflicting Content-Length values");
+                return false;
+            }
+            try {
+                request.contentLength = length == null ? 0 : Long.parseLong(length);
+            } catch (NumberFormatException e) {
+                reject(400, "malformed Content-Length");
+                return false;
+            }
+            if(request.contentLength < 0) {
+                reject(400, "malformed Content-Length");
+                return false;
+            }
+            if(request.contentLength > server.settings.maxRequestBytes) {
+                reject(413, "request body too large");
+                return false;
+            }
+        } else {
+            request.chunkedBody = new ByteArrayOutputStream();
+        }
+        request.expectContinue = "100-continue".equalsIgnoreCase(request.headers.getFirst("Expect"));
+        synchronized (connection) {
+            request.upgrade = server.settings.h2c && inFlight.isEmpty() && hasToken(connectionHeader, "upgrade")
+                    && "h2c".equalsIgnoreCase(request.headers.getFirst("Upgrade"))
+                    && request.headers.getFirst("HTTP2-Settings") != null;
+            if(request.expectContinue && inFlight.isEmpty()
+                    && (request.chunked || connection.available() < request.contentLength)) {
+                //  client waits for permission before sending body
+                connection.enqueue(CONTINUE);
+                connection.requestFlush();
+            }
+        }
+        current = request;
+        return true;
+    }
+
+    /**
+     * read body of current request
+     * @return body, null if it is not read completely
+     */
+    private byte[] readBody() throws IOException {
+        Request request = current;
+        if(!request.chunked) {
+            if(connection.available() < request.contentLength) {
+                return null;
+            }
+            int length = (int) request.contentLength;
+            if(length == 0) {
+                return EMPTY;
+            }
+            byte[] body = new byte[length];
+            System.arraycopy(connection.input, connection.inputStart, body, 0, length);
+            connection.consume(length);
+            return body;
+        }
+        byte[] input = connection.input;
+        while(true) {
+            switch(request.chunkState) {
+                case CHUNK_SIZE:
+                case TRAILER: {
+                    int end = indexOf(input, connection.inputStart, connection.inputEnd, false);
+                    if(end < 0) {
+                        if(connection.available() > MAX_CHUNK_LINE) {
+                            reject(400, "malformed chunk");
+                        }
+                        return null;
+                    }
+                    String line = new String(input, connection.inputStart, end - connection.inputStart,
+                            StandardCharsets.ISO_8859_1);
+                    connection.consume(end + 2 - connection.inputStart);
+                    if(request.chunkState == TRAILER) {
+                        if(line.isEmpty()) {
+                            return request.chunkedBody.toByteArray();
+                        }
+                        break;
+                    }
+                    int extension = line.indexOf(';');
+                    try {
+                        request.chunkRemaining = Long.parseLong((extension < 0 ? line : line.substring(0, extension))
+                                .trim(), 16);
+                    } catch (NumberFormatException e) {
+                        reject(400, "malformed chunk");
+                        return null;
+                    }
+                    if(request.chunkRemaining < 0 || request.chunkedBody.size() + request.chunkRemaining
+                            > server.settings.maxRequestBytes) {
+                        reject(413, "request body too large");
+                        return null;
+                    }
+                    request.chunkState = request.chunkRemaining == 0 ? TRAILER : CHUNK_DATA;
+                    break;
+                }
+                case CHUNK_DATA: {
+                    int amount = (int) Math.min(connection.available(), request.chunkRemaining);
+                    request.chunkedBody.write(input, connection.inputStart, amount);
+                    connection.consume(amount);
+                    request.chunkRemaining -= amount;
+                    if(request.chunkRemaining > 0) {
+                        return null;
+                    }
+                    request.chunkState = CHUNK_END;
+                    break;
+                }
+                default: {
+                    if(connection.available() < 2) {
+                        return null;
+                    }
+                    if(input[connection.inputStart] != '\r' || input[connection.inputStart + 1] != '\n') {
+                        reject(400, "malformed chunk");
+                        return null;
+                    }
+                    connection.consume(2);
+                    request.chunkState = CHUNK_SIZE;
+                }
+            }
+        }
+    }
+
+    /**
+     * pass request to its context
+     */
+    private void dispatch(Request request, URI uri, byte[] body) {
+        Response response = new Response(request.keepAlive, "HTTP/1.0".equals(request.version));
+        synchronized (connection) {
+            inFlight.add(response);
+        }
+        if(!request.keepAlive) {
+            closing = true;
+        }
+        NioContext context = server.findContext(uri.getPath());
+        NioExchange exchange = new NioExchange(context, request.method, uri, request.version, request.headers, body,
+                connection.localAddress, connection.remoteAddress, response);
+        if(context == null) {
+            try {
+                exchange.sendResponseHeaders(404, -1);
+            } catch (IOException e) {
+                exchange.fail();
+            }
+            return;
+        }
+        server.dispatch(exchange);
+    }
+
+    /**
+     * switch connection to HTTP/2, upgrade request becomes its stream 1
+     * @param request upgrade request, null for prior knowledge
+     * @param body body of upgrade request
+     */
+    private void switchToHttp2(Request request, byte[] body) throws IOException {
+        Http2Protocol http2 = new Http2Protocol(server, connection);
+        connection.protocol = http2;
+        server.upgraded(connection);
+        if(request != null) {
+            connection.enqueue(SWITCHING);
+            byte[] settings;
+            try {
+                settings = Base64.getUrlDecoder().decode(request.headers.getFirst("HTTP2-Settings").trim());
+            } catch (IllegalArgumentException e) {
+                settings = EMPTY;
+            }
+            http2.start(settings);
+            request.headers.remove("Connection");
+            request.headers.remove("Upgrade");
+            request.headers.remove("HTTP2-Settings");
+            http2.upgradeStream(request.method, request.target, request.headers, body);
+        } else {
+            http2.start(null);
+        }
+        connection.requestFlush();
+        http2.onInput(connection);
+    }
+
+    /**
+     * answer malformed request after responses of earlier requests and close connection
+     * @param status status of error
+     * @param message text of error
+     */
+    private void reject(int status, String message) throws IOException {
+        closing = true;
+        current = null;
+        connection.discardInput();
+        Response response = new Response(false, false);
+        synchronized (connection) {
+            inFlight.add(response);
+        }
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        Headers headers = new Headers();
+        headers.set("Content-Type", "text/plain; charset=utf-8");
+        response.start(status, headers, body.length);
+        response.data(body, 0, body.length, true);
+    }
+
+    @Override
+    public void onFlush(Connection connection) throws IOException {
+        boolean resume;
+        synchronized (connection) {
+            Response head;
+            while((head = inFlight.peek()) != null) {
+                //  bytes of head response can be written now, so they become pending bytes of connection
+                ByteBuffer buffer;
+                while((buffer = head.pending.poll()) != null) {
+                    connection.outbound.add(buffer);
+                    connection.pendingBytes += buffer.remaining();
+                }
+                head.pendingBytes = 0;
+                if(!head.finished) {
+                    break;
+                }
+                inFlight.poll();
+                if(head.closeConnection) {
+                    //  responses of later requests are never written
+                    closing = true;
+                    connection.closeAfterWrite = true;
+                    for(Response dropped : inFlight) {
+                        dropped.discard();
+                    }
+                    inFlight.clear();
+                    break;
+                }
+            }
+            resume = !closing && inFlight.size() < server.settings.maxPipelined;
+        }
+        if(resume && !connection.isReading() && !connection.isClosed()) {
+            connection.setReading(true);
+            if(connection.input != null) {
+                onInput(connection);
+                connection.releaseInputIfEmpty();
+            }
+        }
+    }
+
+    @Override
+    public boolean isIdle() {
+        synchronized (connection) {
+            return inFlight.isEmpty();
+        }
+    }
+
+    @Override
+    public void onIdleTimeout(Connection connection) {
+        connection.close();
+    }
+
+    @Override
+    public void onClose() {
+        synchronized (connection) {
+            for(Response response : inFlight) {
+                response.discard();
+            }
+            inFlight.clear();
+        }
+    }
+
+    /**
+     * Response of one request, collected until responses of earlier requests are written
+     */
+    private final class Response implements ResponseSink {
+        //  bytes waiting for responses of earlier requests and their amount, guarded by connection
+        final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        long pendingBytes;
+        boolean finished;
+        boolean closeConnection;
+        private boolean discarded;
+
+        private final boolean keepAlive;
+        private final boolean http10;
+        private boolean chunked;
+
+        Response(boolean keepAlive, boolean http10) {
+            this.keepAlive = keepAlive;
+            this.http10 = http10;
+        }
+
+        @Override
+        public void start(int status, Headers headers, long length) throws IOException {
+            boolean close = !keepAlive || hasToken(String.join(",", headerValues(headers, "Connection")).toLowerCase(),
+                    "close");
+            if(length == 0) {
+                //  HTTP/1.0 has no chunks, body of unknown length ends with connection
+                if(http10) {
+                    close = true;
+                } else {
+                    chunked = true;
+                }
+            }
+            StringBuilder head = new StringBuilder(256);
+            head.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+            if(!headers.containsKey("Date")) {
+                head.append("Date: ").append(DateTimeFormatter.RFC_1123_DATE_TIME
+                        .format(ZonedDateTime.now(ZoneOffset.UTC))).append("\r\n");
+            }
+            if(length > 0) {
+                head.append("Content-Length: ").append(length).append("\r\n");
+            } else if(length == -1 && status >= 200 && status != 204 && status != 304) {
+                head.append("Content-Length: 0\r\n");
+            }
+            if(chunked) {
+                head.append("Transfer-Encoding: chunked\r\n");
+            }
+            if(close) {
+                head.append("Connection: close\r\n");
+            } else if(http10) {
+                head.append("Connection: keep-alive\r\n");
+            }
+            for(Map.Entry<String, List<String>> header : headers.entrySet()) {
+                String name = header.getKey();
+                if(name.equalsIgnoreCase("Content-length") || name.equalsIgnoreCase("Transfer-encoding")
+                        || name.equalsIgnoreCase("Connection")) {
+                    continue;
+                }
+                for(String value : header.getValue()) {
+                    head.append(name).append(": ").append(value).append("\r\n");
+                }
+            }
+            head.append("\r\n");
+            synchronized (connection) {
+                closeConnection = close;
+            }
+            enqueue(ascii(head.toString()), length == -1);
+        }
+
+        @Override
+        public void data(byte[] bytes, int offset, int length, boolean last) throws IOException {
+            byte[] frame;
+            if(chunked) {
+                ByteArrayOutputStream chunk = new ByteArrayOutputStream(length + 16);
+                if(length > 0) {
+                    chunk.write(ascii(Integer.toHexString(length) + "\r\n"));
+                    chunk.write(bytes, offset, length);
+                    chunk.write('\r');
+                    chunk.write('\n');
+                }
+                if(last) {
+                    chunk.write(LAST_CHUNK);
+                }
+                frame = chunk.toByteArray();
+            } else {
+                frame = new byte[length];
+                System.arraycopy(bytes, offset, frame, 0, length);
+            }
+            enqueue(frame, last);
+            if(!last && !connection.awaitWritable(() -> pendingBytes)) {
+                //  client takes no output, so response cannot be completed and connection is of no use
+                connection.closeLater();
+                throw new IOException("response was not written in time");
+            }
+        }
+
+        @Override
+        public void abort() {
+            synchronized (connection) {
+                finished = true;
+                closeConnection = true;
+            }
+            connection.requestFlush();
+        }
+
+        /**
+         * add bytes of response, they are written when responses of earlier requests are written
+         */
+        private void enqueue(byte[] bytes, boolean last) throws IOException {
+            synchronized (connection) {
+                if(discarded || connection.isClosed()) {
+                    throw new IOException("connection is closed");
+                }
+                if(bytes.length > 0) {
+                    pending.add(ByteBuffer.wrap(bytes));
+                    pendingBytes += bytes.length;
+                }
+                if(last) {
+                    finished = true;
+                }
+            }
+            connection.requestFlush();
+        }
+
+        /**
+         * drop response that is never written, caller holds lock of connection
+         */
+        void discard() {
+            discarded = true;
+            pending.clear();
+            pendingBytes = 0;
+        }
+    }
+
+    /**
+     * find end of line or end of head
+     * @param head true to find empty line ending head
+     * @return index of CR, -1 if there is none
+     */
+    private static int indexOf(byte[] input, int start, int end, boolean head) {
+        int needed = head ? 4 : 2;
+        for(int i = start; i + needed <= end; i++) {
+            if(input[i] == '\r' && input[i + 1] == '\n' && (!head || input[i + 2] == '\r' && input[i + 3] == '\n')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return values of header, empty list if it is missing
+     */
+    private static List<String> headerValues(Headers headers, String name) {
+        List<String> values = headers.get(name);
+        return values == null ? List.of() : values;
+    }
+
+    /**
+     * @return elements of comma separated lists in all values of header, trimmed and in lower case
+     */
+    private static List<String> listValues(Headers headers, String name) {
+        List<String> elements = new ArrayList<>();
+        for(String value : headerValues(headers, name)) {
+            for(String element : value.split(",")) {
+                if(!element.isBlank()) {
+                    elements.add(element.trim().toLowerCase());
+                }
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * @return true if comma separated list in lower case contains token
+     */
+    private static boolean hasToken(String list, String token) {
+        for(String value : list.split(",")) {
+            if(value.trim().equals(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return reason phrase of status
+     */
+    private static String reason(int status) {
+        switch(status) {
+            case 100: return "Continue";
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 408: return "Request Timeout";
+            case 413: return "Payload Too Large";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 502: return "Bad Gateway";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            default: return "Status";
+        }
+    }
+}
@@ -0,0 +1,856 @@
+package Server;
+
+import Logging.Log;
+import com.sun.net.httpserver.Headers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HTTP/2 without TLS (h2c). Streams of connection are handled at once, responses are written as frames in
+ * order they are produced, respecting flow-control windows of peer. Server push is not used
+ */
+final class Http2Protocol implements Protocol {
+    //  failures of HTTP/2 connections
+    private static final Log LOG = Log.get("nio");
+
+    //  connection preface sent by client
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    //  frame types
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    //  frame flags
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int PADDED = 0x8;
+    private static final int PRIORITY_FLAG = 0x20;
+
+    //  error codes
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int INTERNAL_ERROR = 0x2;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int STREAM_CLOSED = 0x5;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int CANCEL = 0x8;
+    private static final int COMPRESSION_ERROR = 0x9;
+    private static final int ENHANCE_YOUR_CALM = 0xb;
+
+    //  settings
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    //  defaults of RFC 7540, frames larger than default are never accepted
+    private static final int DEFAULT_WINDOW = 65_535;
+    private static final int DEFAULT_MAX_FRAME = 16_384;
+    private static final int MAX_WINDOW = Integer.MAX_VALUE;
+    private static final int HEADER_TABLE_SIZE = 4096;
+
+    //  headers that are specific to HTTP/1.1 connection and must not be sent over HTTP/2
+    private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection",
+            "transfer-encoding", "upgrade", "content-length");
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final NioHttpServer server;
+    private final Connection connection;
+    private final Hpack.Decoder decoder;
+
+    //  receive window of each stream announced in SETTINGS_INITIAL_WINDOW_SIZE. Stream carries one request, so
+    // window is never given back and body of request cannot outgrow it
+    private final int streamReceiveWindow;
+
+    //  state of reading, only event loop uses it
+    private boolean prefaceReceived;
+    private int lastStreamId;
+    private ByteArrayOutputStream headerBlock;
+    private int headerBlockStream;
+    private boolean headerBlockEndsStream;
+
+    //  open streams and state of sending, guarded by connection
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    private long connectionSendWindow = DEFAULT_WINDOW;
+    private int peerInitialWindow = DEFAULT_WINDOW;
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME;
+
+    //  receive window of connection, guarded by connection. Bytes of request bodies are given back only when
+    // their streams are done, so window bounds request bytes held by all streams of connection
+    private long receiveWindow = DEFAULT_WINDOW;
+
+    //  flag showing that peer or server ended connection, and that it ended with error
+    private boolean goingAway;
+    private boolean failed;
+
+    Http2Protocol(NioHttpServer server, Connection connection) {
+        this.server = server;
+        this.connection = connection;
+        this.decoder = new Hpack.Decoder(HEADER_TABLE_SIZE, server.settings.maxHeaderBytes);
+        this.streamReceiveWindow = Math.min(server.settings.maxRequestBytes, server.settings.maxBufferedBytes);
+    }
+
+    /**
+     * send SETTINGS of server and window of connection, as first frames of connection
+     * @param upgradeSettings payload of HTTP2-Settings of upgrade request, null for prior knowledge
+     */
+    void start(byte[] upgradeSettings) {
+        byte[] settings = new byte[24];
+        putSetting(settings, 0, SETTINGS_MAX_CONCURRENT_STREAMS, server.settings.maxConcurrentStreams);
+        putSetting(settings, 6, SETTINGS_HEADER_TABLE_SIZE, HEADER_TABLE_SIZE);
+        putSetting(settings, 12, SETTINGS_INITIAL_WINDOW_SIZE, streamReceiveWindow);
+        putSetting(settings, 18, SETTINGS_MAX_HEADER_LIST_SIZE, server.settings.maxHeaderBytes);
+        synchronized (connection) {
+            writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+            giveBackWindow(server.settings.maxBufferedBytes - DEFAULT_WINDOW);
+            if(upgradeSettings != null && upgradeSettings.length % 6 == 0) {
+                applySettings(upgradeSettings, 0, upgradeSettings.length);
+            }
+        }
+    }
+
+    /**
+     * make upgrade request stream 1, its request is already complete
+     */
+    void upgradeStream(String method, String target, Headers headers, byte[] body) {
+        Stream stream = new Stream(1);
+        stream.method = method;
+        stream.path = target;
+        stream.headers = headers;
+        stream.requestEnded = true;
+        stream.body.write(body, 0, body.length);
+        lastStreamId = 1;
+        synchronized (connection) {
+            streams.put(1, stream);
+        }
+        dispatch(stream);
+    }
+
+    @Override
+    public void onInput(Connection connection) throws IOException {
+        if(!prefaceReceived) {
+            int count = Math.min(connection.available(), PREFACE.length);
+            for(int i = 0; i < count; i++) {
+                if(connection.input[connection.inputStart + i] != PREFACE[i]) {
+                    throw new IOException("malformed HTTP/2 preface");
+                }
+            }
+            if(count < PREFACE.length) {
+                return;
+            }
+            connection.consume(PREFACE.length);
+            prefaceReceived = true;
+        }
+        while(!failed && connection.available() >= 9) {
+            byte[] input = connection.input;
+            int start = connection.inputStart;
+            int length = (input[start] & 0xff) << 16 | (input[start + 1] & 0xff) << 8 | input[start + 2] & 0xff;
+            int type = input[start + 3] & 0xff;
+            int flags = input[start + 4] & 0xff;
+            int streamId = readInt(input, start + 5) & 0x7fffffff;
+            if(length > DEFAULT_MAX_FRAME) {
+                connectionError(FRAME_SIZE_ERROR, "frame too large");
+                break;
+            }
+            if(connection.available() < 9 + length) {
+                return;
+            }
+            if(headerBlock != null && (type != CONTINUATION || streamId != headerBlockStream)) {
+                connectionError(PROTOCOL_ERROR, "header block interrupted");
+                break;
+            }
+            onFrame(type, flags, streamId, input, start + 9, length);
+            connection.consume(9 + length);
+        }
+        if(failed) {
+            connection.discardInput();
+        }
+    }
+
+    /**
+     * handle one complete frame, payload is valid only until return
+     */
+    private void onFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) {
+        switch(type) {
+            case DATA:
+                onData(flags, streamId, payload, offset, length);
+                break;
+            case HEADERS:
+                onHeaders(flags, streamId, payload, offset, length);
+                break;
+            case CONTINUATION:
+                if(headerBlock == null) {
+                    connectionError(PROTOCOL_ERROR, "unexpected CONTINUATION");
+                    return;
+                }
+                if(headerBlock.size() + length > server.settings.maxHeaderBytes) {
+                    //  block cannot be skipped without losing sync of dynamic table with peer
+                    connectionError(ENHANCE_YOUR_CALM, "header block too large");
+                    return;
+                }
+                headerBlock.write(payload, offset, length);
+                if((flags & END_HEADERS) != 0) {
+                    onHeaderBlock();
+                }
+                break;
+            case RST_STREAM:
+                if(streamId == 0 || length != 4) {
+                    connectionError(streamId == 0 ? PROTOCOL_ERROR : FRAME_SIZE_ERROR, "malformed RST_STREAM");
+                    return;
+                }
+                synchronized (connection) {
+                    Stream stream = streams.remove(streamId);
+                    if(stream != null) {
+                        stream.reset();
+                    }
+                }
+                break;
+            case SETTINGS:
+                if(streamId != 0 || length % 6 != 0 || (flags & ACK) != 0 && length != 0) {
+                    connectionError(streamId != 0 ? PROTOCOL_ERROR : FRAME_SIZE_ERROR, "malformed SETTINGS");
+                    return;
+                }
+                if((flags & ACK) == 0) {
+                    synchronized (connection) {
+                        if(applySettings(payload, offset, length)) {
+                            writeFrame(SETTINGS, ACK, 0, EMPTY, 0, 0);
+                        }
+                    }
+                    connection.requestFlush();
+                }
+                break;
+            case PING:
+                if(streamId != 0 || length != 8) {
+                    connectionError(streamId != 0 ? PROTOCOL_ERROR : FRAME_SIZE_ERROR, "malformed PING");
+                    return;
+                }
+                if((flags & ACK) == 0) {
+                    synchronized (connection) {
+                        writeFrame(PING, ACK, 0, payload, offset, 8);
+                    }
+                    connection.requestFlush();
+                }
+                break;
+            case GOAWAY:
+                synchronized (connection) {
+                    goingAway = true;
+                    connection.closeAfterWrite = true;
+                }
+                connection.requestFlush();
+                break;
+            case WINDOW_UPDATE:
+                onWindowUpdate(streamId, payload, offset, length);
+                break;
+            case PUSH_PROMISE:
+                connectionError(PROTOCOL_ERROR, "client sent PUSH_PROMISE");
+                break;
+            case PRIORITY:
+            default:
+                //  priorities are not used, unknown frames are ignored
+                break;
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, byte[] payload, int offset, int length) {
+        if(streamId == 0 || streamId % 2 == 0) {
+            connectionError(PROTOCOL_ERROR, "HEADERS on invalid stream");
+            return;
+        }
+        int position = offset;
+        int end = offset + length;
+        if((flags & PADDED) != 0) {
+            if(length < 1) {
+                connectionError(PROTOCOL_ERROR, "malformed padding");
+                return;
+            }
+            end -= payload[position++] & 0xff;
+        }
+        if((flags & PRIORITY_FLAG) != 0) {
+            position += 5;
+        }
+        if(end < position) {
+            connectionError(PROTOCOL_ERROR, "malformed HEADERS");
+            return;
+        }
+        if(end - position > server.settings.maxHeaderBytes) {
+            connectionError(ENHANCE_YOUR_CALM, "header block too large");
+            return;
+        }
+        headerBlock = new ByteArrayOutputStream(end - position);
+        headerBlock.write(payload, position, end - position);
+        headerBlockStream = streamId;
+        headerBlockEndsStream = (flags & END_STREAM) != 0;
+        if((flags & END_HEADERS) != 0) {
+            onHeaderBlock();
+        }
+    }
+
+    /**
+     * handle complete header block: start of new stream or trailers of open one
+     */
+    private void onHeaderBlock() {
+        int streamId = headerBlockStream;
+        boolean endStream = headerBlockEndsStream;
+        byte[] block = headerBlock.toByteArray();
+        headerBlock = null;
+        List<Hpack.Field> fields;
+        try {
+            //  block is decoded even for refused stream, so dynamic table stays in sync with peer
+            fields = decoder.decode(block, block.length);
+        } catch (IOException e) {
+            connectionError(COMPRESSION_ERROR, e.getMessage());
+            return;
+        }
+        Stream stream;
+        synchronized (connection) {
+            stream = streams.get(streamId);
+        }
+        if(stream != null) {
+            //  trailers end request, their fields are not passed to handler, so their size does not matter
+            if(!endStream || stream.requestEnded) {
+                resetStream(stream.id, PROTOCOL_ERROR);
+                return;
+            }
+            stream.requestEnded = true;
+            dispatch(stream);
+            return;
+        }
+        if(streamId <= lastStreamId) {
+            resetStream(streamId, STREAM_CLOSED);
+            return;
+        }
+        lastStreamId = streamId;
+        if(goingAway) {
+            return;
+        }
+        if(fields == null) {
+            rejectHeaderList(streamId, endStream);
+            return;
+        }
+        stream = new Stream(streamId);
+        String authority = null;
+        for(Hpack.Field field : fields) {
+            switch(field.name) {
+                case ":method":
+                    stream.method = field.value;
+                    break;
+                case ":path":
+                    stream.path = field.value;
+                    break;
+                case ":authority":
+                    authority = field.value;
+                    break;
+                case ":scheme":
+                    break;
+                default:
+                    if(field.name.startsWith(":")) {
+                        resetStream(streamId, PROTOCOL_ERROR);
+                        return;
+                    }
+                    stream.headers.add(field.name, field.value);
+            }
+        }
+        if(stream.method == null || stream.path == null) {
+            resetStream(streamId, PROTOCOL_ERROR);
+            return;
+        }
+        if(authority != null && !stream.headers.containsKey("Host")) {
+            stream.headers.add("Host", authority);
+        }
+        synchronized (connection) {
+            if(streams.size() >= server.settings.maxConcurrentStreams) {
+                writeRstStream(streamId, REFUSED_STREAM);
+                connection.requestFlush();
+                return;
+            }
+            stream.sendWindow = peerInitialWindow;
+            streams.put(streamId, stream);
+        }
+        if(endStream) {
+            stream.requestEnded = true;
+            dispatch(stream);
+        }
+    }
+
+    private void onData(int flags, int streamId, byte[] payload, int offset, int length) {
+        if(streamId == 0) {
+            connectionError(PROTOCOL_ERROR, "DATA on stream 0");
+            return;
+        }
+        int position = offset;
+        int end = offset + length;
+        if((flags & PADDED) != 0) {
+            if(length < 1 || (payload[position] & 0xff) >= length) {
+                connectionError(PROTOCOL_ERROR, "malformed padding");
+                return;
+            }
+            end -= payload[position++] & 0xff;
+        }
+        Stream stream;
+        synchronized (connection) {
+            //  whole frame counts against window of connection, but only bytes of body held by stream keep it
+            // taken until stream is done; padding and frames of closed streams give it back at once
+            receiveWindow -= length;
+            if(receiveWindow < 0) {
+                connectionError(FLOW_CONTROL_ERROR, "DATA over window of connection");
+                return;
+            }
+            stream = streams.get(streamId);
+            int held = stream == null || stream.requestEnded ? 0 : end - position;
+            if(stream != null) {
+                stream.heldBytes += held;
+            }
+            giveBackWindow(length - held);
+        }
+        if(stream == null || stream.requestEnded) {
+            resetStream(streamId, STREAM_CLOSED);
+            return;
+        }
+        stream.received += length;
+        if(stream.received > streamReceiveWindow) {
+            resetStream(streamId, FLOW_CONTROL_ERROR);
+            return;
+        }
+        if(stream.body.size() + end - position > server.settings.maxRequestBytes) {
+            resetStream(streamId, CANCEL);
+            return;
+        }
+        stream.body.write(payload, position, end - position);
+        if((flags & END_STREAM) != 0) {
+            stream.requestEnded = true;
+            dispatch(stream);
+        }
+        connection.requestFlush();
+    }
+
+    private void onWindowUpdate(int streamId, byte[] payload, int offset, int length) {
+        if(length != 4) {
+            connectionError(FRAME_SIZE_ERROR, "malformed WINDOW_UPDATE");
+            return;
+        }
+        int increment = readInt(payload, offset) & 0x7fffffff;
+        synchronized (connection) {
+            if(streamId == 0) {
+                if(increment == 0 || connectionSendWindow + increment > MAX_WINDOW) {
+                    connectionError(increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR, "invalid WINDOW_UPDATE");
+                    return;
+                }
+                connectionSendWindow += increment;
+                for(Stream stream : new ArrayList<>(streams.values())) {
+                    stream.pump();
+                }
+            } else {
+                Stream stream = streams.get(streamId);
+                if(stream == null) {
+                    return;
+                }
+                if(increment == 0 || stream.sendWindow + increment > MAX_WINDOW) {
+                    writeRstStream(streamId, increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR);
+                    streams.remove(streamId);
+                    stream.reset();
+                } else {
+                    stream.sendWindow += increment;
+                    stream.pump();
+                }
+            }
+        }
+        connection.requestFlush();
+    }
+
+    /**
+     * apply settings of peer, caller holds lock of connection
+     * @return false if settings are invalid and connection is failed
+     */
+    private boolean applySettings(byte[] payload, int offset, int length) {
+        for(int position = offset; position < offset + length; position += 6) {
+            int id = (payload[position] & 0xff) << 8 | payload[position + 1] & 0xff;
+            long value = readInt(payload, position + 2) & 0xffffffffL;
+            if(id == SETTINGS_INITIAL_WINDOW_SIZE) {
+                if(value > MAX_WINDOW) {
+                    connectionError(FLOW_CONTROL_ERROR, "invalid SETTINGS_INITIAL_WINDOW_SIZE");
+                    return false;
+                }
+                //  windows of open streams change by difference of initial windows
+                int delta = (int) value - peerInitialWindow;
+                peerInitialWindow = (int) value;
+                for(Stream stream : streams.values()) {
+                    stream.sendWindow += delta;
+                }
+            } else if(id == SETTINGS_MAX_FRAME_SIZE) {
+                if(value < DEFAULT_MAX_FRAME || value > 16_777_215) {
+                    connectionError(PROTOCOL_ERROR, "invalid SETTINGS_MAX_FRAME_SIZE");
+                    return false;
+                }
+                peerMaxFrameSize = (int) value;
+            }
+        }
+        for(Stream stream : new ArrayList<>(streams.values())) {
+            stream.pump();
+        }
+        return true;
+    }
+
+    /**
+     * answer request whose header list is over size with 431, like HTTP/1.1 does, and reset its stream if client
+     * still sends body. Stream is never opened, so its body is not held
+     */
+    private void rejectHeaderList(int streamId, boolean requestEnded) {
+        byte[] block = Hpack.encode(431, List.of());
+        synchronized (connection) {
+            writeFrame(HEADERS, END_HEADERS | END_STREAM, streamId, block, 0, block.length);
+            if(!requestEnded) {
+                writeRstStream(streamId, NO_ERROR);
+            }
+        }
+        connection.requestFlush();
+    }
+
+    /**
+     * pass complete request of stream to its context
+     */
+    private void dispatch(Stream stream) {
+        URI uri;
+        try {
+            uri = new URI(stream.path);
+        } catch (Exception e) {
+            resetStream(stream.id, PROTOCOL_ERROR);
+            return;
+        }
+        byte[] body = stream.body.toByteArray();
+        stream.body = null;
+        NioContext context = server.findContext(uri.getPath());
+        NioExchange exchange = new NioExchange(context, stream.method, uri, "HTTP/2.0", stream.headers, body,
+                connection.localAddress, connection.remoteAddress, stream);
+        if(context == null) {
+            try {
+                exchange.sendResponseHeaders(404, -1);
+            } catch (IOException e) {
+                exchange.fail();
+            }
+            return;
+        }
+        server.dispatch(exchange);
+    }
+
+    /**
+     * reset stream from event loop
+     */
+    private void resetStream(int streamId, int errorCode) {
+        synchronized (connection) {
+            Stream stream = streams.remove(streamId);
+            if(stream != null) {
+                stream.reset();
+            }
+            writeRstStream(streamId, errorCode);
+        }
+        connection.requestFlush();
+    }
+
+    /**
+     * send GOAWAY with error and close connection when it is written
+     */
+    private void connectionError(int errorCode, String message) {
+        LOG.debug("HTTP/2 connection {} failed: {}", connection.remoteAddress, message);
+        synchronized (connection) {
+            failed = true;
+            writeGoAway(errorCode);
+            connection.closeAfterWrite = true;
+        }
+        connection.setReading(false);
+        connection.requestFlush();
+    }
+
+    @Override
+    public void onFlush(Connection connection) {
+        //  frames are queued on connection as soon as they are produced
+    }
+
+    @Override
+    public boolean isIdle() {
+        synchronized (connection) {
+            return failed || streams.isEmpty();
+        }
+    }
+
+    @Override
+    public void onIdleTimeout(Connection connection) {
+        synchronized (connection) {
+            goingAway = true;
+            writeGoAway(NO_ERROR);
+            connection.closeAfterWrite = true;
+        }
+        connection.requestFlush();
+    }
+
+    @Override
+    public void onClose() {
+        synchronized (connection) {
+            for(Stream stream : streams.values()) {
+                stream.reset();
+            }
+            streams.clear();
+        }
+    }
+
+    /**
+     * queue frame, caller holds lock of connection
+     */
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) {
+        byte[] frame = new byte[9 + length];
+        frame[0] = (byte) (length >>> 16);
+        frame[1] = (byte) (length >>> 8);
+        frame[2] = (byte) length;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        putInt(frame, 5, streamId);
+        System.arraycopy(payload, offset, frame, 9, length);
+        connection.enqueue(frame);
+    }
+
+    private void writeRstStream(int streamId, int errorCode) {
+        byte[] payload = new byte[4];
+        putInt(payload, 0, errorCode);
+        writeFrame(RST_STREAM, 0, streamId, payload, 0, 4);
+    }
+
+    /**
+     * give window of connection back to peer, caller holds lock of connection
+     * @param increment amount of bytes
+     */
+    private void giveBackWindow(int increment) {
+        if(increment > 0 && !failed) {
+            receiveWindow += increment;
+            writeWindowUpdate(0, increment);
+        }
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) {
+        byte[] payload = new byte[4];
+        putInt(payload, 0, increment);
+        writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+    }
+
+    private void writeGoAway(int errorCode) {
+        byte[] payload = new byte[8];
+        putInt(payload, 0, lastStreamId);
+        putInt(payload, 4, errorCode);
+        writeFrame(GOAWAY, 0, 0, payload, 0, 8);
+    }
+
+    private static void putSetting(byte[] payload, int offset, int id, int value) {
+        payload[offset] = (byte) (id >>> 8);
+        payload[offset + 1] = (byte) id;
+        putInt(payload, offset + 2, value);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8
+                | bytes[offset + 3] & 0xff;
+    }
+
+    /**
+     * Stream of connection: request read by event loop and response written by handler. Body of response waits
+     * in stream while windows of peer are exhausted, and only its writer waits for it to be sent
+     */
+    private final class Stream implements ResponseSink {
+        final int id;
+
+        //  request, only event loop uses it before dispatch
+        String method;
+        String path;
+        Headers headers = new Headers();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        boolean requestEnded;
+
+        //  bytes of DATA frames received, only event loop uses it
+        long received;
+
+        //  bytes of request body taking window of connection until stream is done, guarded by connection
+        int heldBytes;
+
+        //  response, guarded by connection
+        long sendWindow;
+        private final ArrayDeque<byte[]> queued = new ArrayDeque<>();
+        private long queuedBytes;
+        private int queuedOffset;
+        private boolean endQueued;
+        private boolean responseEnded;
+        private boolean reset;
+
+        Stream(int id) {
+            this.id = id;
+            this.sendWindow = peerInitialWindow;
+        }
+
+        @Override
+        public void start(int status, Headers responseHeaders, long length) throws IOException {
+            List<String> fields = new ArrayList<>(responseHeaders.size() * 2 + 2);
+            for(Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+                String name = header.getKey().toLowerCase();
+                if(CONNECTION_HEADERS.contains(name)) {
+                    continue;
+                }
+                for(String value : header.getValue()) {
+                    fields.add(name);
+                    fields.add(value);
+                }
+            }
+            if(length > 0) {
+                fields.add("content-length");
+                fields.add(String.valueOf(length));
+            }
+            byte[] block = Hpack.encode(status, fields);
+            synchronized (connection) {
+                if(reset || connection.isClosed()) {
+                    throw new IOException("stream is reset");
+                }
+                //  header block is split into CONTINUATION frames, nothing else may be written in between
+                int first = Math.min(block.length, peerMaxFrameSize);
+                int flags = (length == -1 ? END_STREAM : 0) | (first == block.length ? END_HEADERS : 0);
+                writeFrame(HEADERS, flags, id, block, 0, first);
+                for(int position = first; position < block.length; position += peerMaxFrameSize) {
+                    int size = Math.min(block.length - position, peerMaxFrameSize);
+                    writeFrame(CONTINUATION, position + size == block.length ? END_HEADERS : 0, id, block,
+                            position, size);
+                }
+                if(length == -1) {
+                    responseEnded = true;
+                    closeIfDone();
+                }
+            }
+            connection.requestFlush();
+        }
+
+        @Override
+        public void data(byte[] bytes, int offset, int length, boolean last) throws IOException {
+            byte[] copy = new byte[length];
+            System.arraycopy(bytes, offset, copy, 0, length);
+            synchronized (connection) {
+                if(reset || connection.isClosed()) {
+                    throw new IOException("stream is reset");
+                }
+                if(length > 0) {
+                    queued.add(copy);
+                    queuedBytes += length;
+                }
+                if(last) {
+                    endQueued = true;
+                }
+                pump();
+            }
+            connection.requestFlush();
+            if(!last && !connection.awaitWritable(() -> queuedBytes)) {
+                //  peer gives no window or takes no output, other streams go on
+                abort();
+                throw new IOException("response was not written in time");
+            }
+        }
+
+        /**
+         * send queued body as far as windows allow, caller holds lock of connection
+         */
+        void pump() {
+            while(!reset && !responseEnded) {
+                byte[] head = queued.peek();
+                if(head == null) {
+                    if(endQueued) {
+                        writeFrame(DATA, END_STREAM, id, EMPTY, 0, 0);
+                        responseEnded = true;
+                        closeIfDone();
+                    }
+                    return;
+                }
+                int available = head.length - queuedOffset;
+                int size = (int) Math.min(Math.min(available, peerMaxFrameSize),
+                        Math.min(connectionSendWindow, sendWindow));
+                if(size <= 0) {
+                    return;
+                }
+                boolean end = endQueued && size == available && queued.size() == 1;
+                writeFrame(DATA, end ? END_STREAM : 0, id, head, queuedOffset, size);
+                queuedBytes -= size;
+                connectionSendWindow -= size;
+                sendWindow -= size;
+                queuedOffset += size;
+                if(queuedOffset == head.length) {
+                    queued.poll();
+                    queuedOffset = 0;
+                }
+                if(end) {
+                    responseEnded = true;
+                    closeIfDone();
+                }
+            }
+        }
+
+        @Override
+        public void abort() {
+            synchronized (connection) {
+                if(reset || responseEnded) {
+                    return;
+                }
+                writeRstStream(id, INTERNAL_ERROR);
+                streams.remove(id);
+                reset();
+            }
+            connection.requestFlush();
+        }
+
+        /**
+         * give up response, caller holds lock of connection
+         */
+        void reset() {
+            reset = true;
+            queued.clear();
+            queuedBytes = 0;
+            queuedOffset = 0;
+            releaseBody();
+        }
+
+        /**
+         * forget stream when both request and response are complete, caller holds lock of connection
+         */
+        private void closeIfDone() {
+            if(requestEnded && responseEnded) {
+                streams.remove(id);
+                releaseBody();
+            }
+        }
+
+        /**
+         * give back window of connection held by request body, caller holds lock of connection
+         */
+        private void releaseBody() {
+            giveBackWindow(heldBytes);
+            heldBytes = 0;
+        }
+    }
+}
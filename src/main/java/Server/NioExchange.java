@@ -0,0 +1,280 @@
+package Server;
+
+import Http.BufferPool;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exchange of NIO front end. Request is fully read before exchange is handled, response body is collected
+ * in pooled buffer and passed to protocol of connection when buffer is full, flushed or closed
+ */
+final class NioExchange extends HttpExchange {
+    //  request
+    private final NioContext context;
+    private final String method;
+    private final URI requestURI;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private InputStream requestBody;
+
+    //  addresses of connection
+    private final InetSocketAddress localAddress;
+    private final InetSocketAddress remoteAddress;
+
+    //  response
+    private final Headers responseHeaders = new Headers();
+    private final ResponseSink sink;
+    private volatile int responseCode = -1;
+    private final BodyStream body = new BodyStream();
+    private OutputStream responseBody = body;
+
+    //  attributes of this exchange
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    NioExchange(NioContext context, String method, URI requestURI, String protocol, Headers requestHeaders,
+                byte[] requestBody, InetSocketAddress localAddress, InetSocketAddress remoteAddress,
+                ResponseSink sink) {
+        this.context = context;
+        this.method = method;
+        this.requestURI = requestURI;
+        this.protocol = protocol;
+        this.requestHeaders = requestHeaders;
+        this.requestBody = new ByteArrayInputStream(requestBody);
+        this.localAddress = localAddress;
+        this.remoteAddress = remoteAddress;
+        this.sink = sink;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if(responseCode != -1) {
+            throw new IOException("headers already sent");
+        }
+        responseCode = rCode;
+
+        //  responses to HEAD and responses that cannot have body end with headers
+        boolean noBody = responseLength == -1 || "HEAD".equals(method) || rCode == 204 || rCode == 304;
+        sink.start(rCode, responseHeaders, noBody ? -1 : responseLength);
+        body.begin(noBody ? -1 : responseLength);
+    }
+
+    @Override
+    public void close() {
+        try {
+            requestBody.close();
+            if(responseCode == -1) {
+                //  exchange closed without response, like JDK server the connection is dropped
+                responseCode = 0;
+                sink.abort();
+                return;
+            }
+            responseBody.close();
+        } catch (IOException e) {
+            sink.abort();
+        }
+    }
+
+    /**
+     * answer request that handler failed to answer
+     */
+    void fail() {
+        if(responseCode == -1) {
+            try {
+                sendResponseHeaders(500, -1);
+                return;
+            } catch (IOException e) {
+                //  connection is already broken
+            }
+        }
+        sink.abort();
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return requestURI;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return context;
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBody;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        synchronized (attributes) {
+            return attributes.get(name);
+        }
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        synchronized (attributes) {
+            if(value == null) {
+                attributes.remove(name);
+            } else {
+                attributes.put(name, value);
+            }
+        }
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if(i != null) {
+            requestBody = i;
+        }
+        if(o != null) {
+            responseBody = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    /**
+     * Response body collected in pooled buffer, length of body given to headers is checked
+     */
+    private final class BodyStream extends OutputStream {
+        //  buffer taken from pool on first write
+        private byte[] buffer;
+        private int count;
+
+        //  declared length: -1 for no body, 0 for unknown, and bytes still allowed by fixed length
+        private long length = -2;
+        private long remaining;
+
+        private boolean closed;
+
+        /**
+         * start body after headers are sent
+         * @param length declared length of body
+         */
+        synchronized void begin(long length) {
+            this.length = length;
+            this.remaining = length;
+            //  response without body is complete as soon as headers are sent
+            closed = length == -1;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int len) throws IOException {
+            if(length == -2) {
+                throw new IOException("response headers are not sent");
+            }
+            if(closed) {
+                throw new IOException("response body is closed");
+            }
+            if(length > 0) {
+                if(len > remaining) {
+                    throw new IOException("too many bytes for declared length of response");
+                }
+                remaining -= len;
+            }
+            if(buffer == null) {
+                buffer = BufferPool.acquire();
+            }
+            while(len > 0) {
+                int copied = Math.min(len, buffer.length - count);
+                System.arraycopy(bytes, offset, buffer, count, copied);
+                count += copied;
+                offset += copied;
+                len -= copied;
+                if(count == buffer.length) {
+                    sink.data(buffer, 0, count, false);
+                    count = 0;
+                }
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if(count > 0 && !closed) {
+                sink.data(buffer, 0, count, false);
+                count = 0;
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if(closed || length == -2) {
+                return;
+            }
+            closed = true;
+            try {
+                if(length > 0 && remaining > 0) {
+                    //  body is shorter than declared, client would wait for missing bytes forever
+                    sink.abort();
+                    return;
+                }
+                sink.data(buffer != null ? buffer : new byte[0], 0, count, true);
+            } finally {
+                if(buffer != null) {
+                    BufferPool.release(buffer);
+                    buffer = null;
+                }
+            }
+        }
+    }
+}
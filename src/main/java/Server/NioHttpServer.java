@@ -0,0 +1,304 @@
+package Server;
+
+import Logging.Log;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Non-blocking front end implementing HttpServer API, so handlers and filters of gateway run on it unchanged.
+ * One thread accepts connections and spreads them over event loops that read and write them; requests are
+ * handled on executor of server, or on event loop if there is none, like in JDK server. Connections are kept
+ * alive and may pipeline HTTP/1.1 requests or switch to HTTP/2 without TLS
+ */
+public class NioHttpServer extends HttpServer {
+    //  lifecycle and failures of front end
+    private static final Log LOG = Log.get("nio");
+
+    final NioSettings settings;
+
+    private ServerSocketChannel serverChannel;
+    private final List<NioContext> contexts = new CopyOnWriteArrayList<>();
+    private volatile Executor executor;
+    private EventLoop[] loops;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    //  open connections, connections speaking HTTP/2, handlers running and requests received
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger http2Connections = new AtomicInteger();
+    private final AtomicInteger activeHandlers = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+
+    /**
+     * create server, binding it if address is given
+     * @param address address to listen on, null to bind later
+     * @param backlog max amount of connections waiting for accept, 0 for default of system
+     * @param settings settings of front end
+     * @throws IOException if address cannot be bound
+     */
+    public NioHttpServer(InetSocketAddress address, int backlog, NioSettings settings) throws IOException {
+        this.settings = settings;
+        if(address != null) {
+            bind(address, backlog);
+        }
+    }
+
+    @Override
+    public void bind(InetSocketAddress address, int backlog) throws IOException {
+        if(serverChannel != null) {
+            throw new BindException("server already bound");
+        }
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.bind(address, backlog);
+        serverChannel = channel;
+    }
+
+    @Override
+    public synchronized void start() {
+        if(serverChannel == null || running || loops != null) {
+            throw new IllegalStateException("server is not bound or already started");
+        }
+        running = true;
+        loops = new EventLoop[settings.workers];
+        try {
+            for(int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(this, i);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("selector was not opened", e);
+        }
+        for(EventLoop loop : loops) {
+            loop.start();
+        }
+        acceptor = new Thread(this::acceptConnections, "nio-acceptor");
+        acceptor.start();
+        LOG.info("NIO front end started with {} event loops, h2c {}", loops.length,
+                settings.h2c ? "enabled" : "disabled");
+    }
+
+    /**
+     * accept connections in blocking mode and give them to event loops in turn
+     */
+    private void acceptConnections() {
+        int next = 0;
+        while(running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if(running) {
+                    //  like running out of file descriptors, retrying at once would only spin
+                    LOG.warn("connection was not accepted", e);
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setExecutor(Executor executor) {
+        if(running) {
+            throw new IllegalStateException("server already started");
+        }
+        this.executor = executor;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * stop accepting connections, wait up to delay for running handlers and close all connections
+     * @param delay max time to wait in seconds
+     */
+    @Override
+    public synchronized void stop(int delay) {
+        if(delay < 0) {
+            throw new IllegalArgumentException("negative delay");
+        }
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOG.debug("server channel was not closed: {}", e.getMessage());
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(delay);
+        while(activeHandlers.get() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if(loops != null) {
+            for(EventLoop loop : loops) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    @Override
+    public HttpContext createContext(String path, HttpHandler handler) {
+        if(path == null || !path.startsWith("/")) {
+            throw new IllegalArgumentException("invalid path: " + path);
+        }
+        synchronized (contexts) {
+            for(NioContext context : contexts) {
+                if(context.getPath().equals(path)) {
+                    throw new IllegalArgumentException("context already exists: " + path);
+                }
+            }
+            NioContext context = new NioContext(this, path, handler);
+            contexts.add(context);
+            return context;
+        }
+    }
+
+    @Override
+    public HttpContext createContext(String path) {
+        return createContext(path, null);
+    }
+
+    @Override
+    public void removeContext(String path) {
+        synchronized (contexts) {
+            if(!contexts.removeIf(context -> context.getPath().equals(path))) {
+                throw new IllegalArgumentException("no context for path: " + path);
+            }
+        }
+    }
+
+    @Override
+    public void removeContext(HttpContext context) {
+        if(!contexts.remove(context)) {
+            throw new IllegalArgumentException("context is not of this server");
+        }
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        try {
+            return serverChannel == null ? null : (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return amount of open connections
+     */
+    public int connections() {
+        return connections.get();
+    }
+
+    /**
+     * @return amount of open connections speaking HTTP/2
+     */
+    public int http2Connections() {
+        return http2Connections.get();
+    }
+
+    /**
+     * @return amount of requests received since start
+     */
+    public long requests() {
+        return requests.sum();
+    }
+
+    /**
+     * find context with the longest path that is prefix of request path
+     * @param path path of request
+     * @return context, null if there is none
+     */
+    NioContext findContext(String path) {
+        if(path == null) {
+            return null;
+        }
+        NioContext found = null;
+        for(NioContext context : contexts) {
+            if(path.startsWith(context.getPath()) && context.getHandler() != null
+                    && (found == null || context.getPath().length() > found.getPath().length())) {
+                found = context;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * run filters and handler of context for complete request
+     * @param exchange exchange of request
+     */
+    void dispatch(NioExchange exchange) {
+        requests.increment();
+        NioContext context = (NioContext) exchange.getHttpContext();
+        Runnable task = () -> {
+            activeHandlers.incrementAndGet();
+            try {
+                new Filter.Chain(context.getFilters(), context.getHandler()).doFilter(exchange);
+            } catch (Throwable e) {
+                LOG.error("request " + exchange.getRequestURI() + " was not handled", e);
+                exchange.fail();
+            } finally {
+                activeHandlers.decrementAndGet();
+            }
+        };
+        Executor current = executor;
+        if(current == null) {
+            task.run();
+            return;
+        }
+        try {
+            current.execute(task);
+        } catch (RejectedExecutionException e) {
+            try {
+                exchange.sendResponseHeaders(503, -1);
+            } catch (IOException ignored) {
+                exchange.fail();
+            }
+        }
+    }
+
+    void connectionOpened(Connection connection) {
+        connections.incrementAndGet();
+    }
+
+    void upgraded(Connection connection) {
+        http2Connections.incrementAndGet();
+    }
+
+    void connectionClosed(Connection connection) {
+        connections.decrementAndGet();
+        if(connection.protocol instanceof Http2Protocol) {
+            http2Connections.decrementAndGet();
+        }
+    }
+}
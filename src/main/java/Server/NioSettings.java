@@ -0,0 +1,65 @@
+package Server;
+
+/**
+ * Settings of NIO front end, read from -Dgateway.nio.* system properties
+ */
+public class NioSettings {
+    //  amount of selector threads reading and writing connections, accepting is done by separate thread
+    final int workers;
+
+    //  keep-alive connection without requests for this time is closed
+    final long idleTimeoutMillis;
+
+    //  max size of request line with headers and max size of request body
+    final int maxHeaderBytes;
+    final int maxRequestBytes;
+
+    //  max amount of pipelined HTTP/1.1 requests of one connection handled at once, reading waits after it
+    final int maxPipelined;
+
+    //  writers of responses wait while more bytes of their response wait to be written to socket, and the
+    // response is given up when they wait longer than write timeout without any progress
+    final int maxPendingBytes;
+    final long writeTimeoutMillis;
+
+    //  flag showing that HTTP/2 without TLS is accepted, by prior knowledge or by upgrade from HTTP/1.1
+    final boolean h2c;
+
+    //  max amount of HTTP/2 streams of one connection open at once
+    final int maxConcurrentStreams;
+
+    //  receive window of HTTP/2 connection, that is max amount of request bytes its streams hold at once
+    final int maxBufferedBytes;
+
+    public NioSettings(int workers, long idleTimeoutMillis, int maxHeaderBytes, int maxRequestBytes,
+                       int maxPipelined, int maxPendingBytes, long writeTimeoutMillis, boolean h2c,
+                       int maxConcurrentStreams, int maxBufferedBytes) {
+        this.workers = Math.max(1, workers);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxHeaderBytes = maxHeaderBytes;
+        this.maxRequestBytes = maxRequestBytes;
+        this.maxPipelined = Math.max(1, maxPipelined);
+        this.maxPendingBytes = maxPendingBytes;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.h2c = h2c;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.maxBufferedBytes = Math.max(65_535, maxBufferedBytes);
+    }
+
+    /**
+     * @return settings taken from system properties, with defaults for missing ones
+     */
+    public static NioSettings fromSystemProperties() {
+        return new NioSettings(
+                Integer.getInteger("gateway.nio.workers", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                Long.getLong("gateway.nio.idleTimeoutMillis", 30_000),
+                Integer.getInteger("gateway.nio.maxHeaderBytes", 64 * 1024),
+                Integer.getInteger("gateway.nio.maxRequestBytes", 16 * 1024 * 1024),
+                Integer.getInteger("gateway.nio.maxPipelined", 16),
+                Integer.getInteger("gateway.nio.maxPendingBytes", 1024 * 1024),
+                Long.getLong("gateway.nio.writeTimeoutMillis", 30_000),
+                Boolean.parseBoolean(System.getProperty("gateway.nio.h2c", "true")),
+                Integer.getInteger("gateway.nio.maxConcurrentStreams", 128),
+                Integer.getInteger("gateway.nio.maxBufferedBytes", 16 * 1024 * 1024));
+    }
+}
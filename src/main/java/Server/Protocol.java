@@ -0,0 +1,38 @@
+package Server;
+
+import java.io.IOException;
+
+/**
+ * Protocol spoken over connection, HTTP/1.1 or HTTP/2. All methods are called by event loop of connection
+ */
+interface Protocol {
+    /**
+     * handle bytes read from connection, bytes that cannot be handled yet are left in input of connection
+     * @param connection connection with new input
+     * @throws IOException if connection must be closed at once
+     */
+    void onInput(Connection connection) throws IOException;
+
+    /**
+     * move responses that are ready into output of connection before it is written
+     * @param connection connection being flushed
+     * @throws IOException if connection must be closed at once
+     */
+    void onFlush(Connection connection) throws IOException;
+
+    /**
+     * @return true if no request of connection waits for response
+     */
+    boolean isIdle();
+
+    /**
+     * close connection that was idle for too long
+     * @param connection idle connection
+     */
+    void onIdleTimeout(Connection connection);
+
+    /**
+     * give up all requests of closed connection
+     */
+    void onClose();
+}
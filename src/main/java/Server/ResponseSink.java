@@ -0,0 +1,34 @@
+package Server;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.IOException;
+
+/**
+ * Protocol side of one exchange: writes response of request to its connection in framing of protocol
+ */
+interface ResponseSink {
+    /**
+     * start response
+     * @param status status of response
+     * @param headers headers set by handler
+     * @param length length of body: -1 if there is none, 0 if it is unknown, otherwise exact length
+     * @throws IOException if connection is closed
+     */
+    void start(int status, Headers headers, long length) throws IOException;
+
+    /**
+     * send part of body, bytes are copied before return
+     * @param bytes buffer with body bytes
+     * @param offset offset of bytes in buffer
+     * @param length amount of bytes
+     * @param last true if it is the end of body
+     * @throws IOException if connection is closed
+     */
+    void data(byte[] bytes, int offset, int length, boolean last) throws IOException;
+
+    /**
+     * give up response that cannot be completed, connection or stream is reset
+     */
+    void abort();
+}
@@ -0,0 +1,90 @@
+package Upstream;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moment after which client no longer waits for response. It is taken from header of client request as
+ * relative time in milliseconds, so clocks of client, gateway and services do not need to agree, and is passed
+ * to services in the same header with time that is left
+ */
+public final class Deadline {
+    //  header carrying milliseconds left until deadline
+    public static final String HEADER = "Request-Timeout-Millis";
+
+    //  request without deadline
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    //  moment of deadline by System.nanoTime(), Long.MAX_VALUE if there is none
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    /**
+     * @param millis time from now until deadline
+     * @return deadline
+     */
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * @param headerValue value of deadline header of client request, null if there is none
+     * @param defaultMillis deadline of requests without header, 0 for no deadline
+     * @param maxMillis longest deadline client can ask for, 0 for no limit
+     * @return deadline of request, malformed header is treated as missing one
+     */
+    public static Deadline fromHeader(String headerValue, long defaultMillis, long maxMillis) {
+        long millis = defaultMillis;
+        if(headerValue != null) {
+            try {
+                millis = Math.max(0, Long.parseLong(headerValue.trim()));
+            } catch (NumberFormatException e) {
+                millis = defaultMillis;
+            }
+        } else if(millis <= 0) {
+            return NONE;
+        }
+        if(maxMillis > 0) {
+            millis = Math.min(millis, maxMillis);
+        }
+        return after(millis);
+    }
+
+    /**
+     * @return true if request has deadline
+     */
+    public boolean isSet() {
+        return expiresAtNanos != Long.MAX_VALUE;
+    }
+
+    /**
+     * @return true if deadline has passed
+     */
+    public boolean isExpired() {
+        return isSet() && remainingNanos() <= 0;
+    }
+
+    /**
+     * @return nanoseconds left until deadline, Long.MAX_VALUE if there is no deadline
+     */
+    public long remainingNanos() {
+        return isSet() ? expiresAtNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return whole milliseconds left until deadline, 0 if it has passed, Long.MAX_VALUE if there is no deadline
+     */
+    public long remainingMillis() {
+        return isSet() ? Math.max(0, TimeUnit.NANOSECONDS.toMillis(remainingNanos())) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @param limitMillis timeout used when deadline is further away
+     * @return timeout of call that ends no later than deadline, at least 1 millisecond
+     */
+    public long timeoutMillis(long limitMillis) {
+        return Math.max(1, Math.min(limitMillis, remainingMillis()));
+    }
+}
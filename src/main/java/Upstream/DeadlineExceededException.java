@@ -0,0 +1,17 @@
+package Upstream;
+
+import java.io.IOException;
+
+/**
+ * Call to service was not finished before deadline of client request
+ */
+public class DeadlineExceededException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param cause failure of the last attempt, null if no attempt was made
+     */
+    public DeadlineExceededException(Throwable cause) {
+        super("deadline of request has passed", cause);
+    }
+}
@@ -0,0 +1,59 @@
+package Upstream;
+
+/**
+ * Budget of extra attempts of one function: every call adds share of token, every retry or hedge takes whole
+ * token, and small reserve is added with time so functions with little traffic can still retry. When service
+ * fails all calls, extra attempts are limited to that share of traffic instead of multiplying it
+ */
+class RetryBudget {
+    private final double ratio;
+    private final double reservePerNano;
+    private final double capacity;
+
+    //  tokens at moment of last refill
+    private double tokens;
+    private long refilledAtNanos;
+
+    /**
+     * @param ratio share of token added by each call
+     * @param minPerSecond tokens added each second regardless of calls
+     * @param capacity max amount of tokens, that is max burst of extra attempts
+     */
+    RetryBudget(double ratio, double minPerSecond, double capacity) {
+        this.ratio = ratio;
+        this.reservePerNano = minPerSecond / 1e9;
+        this.capacity = Math.max(1, capacity);
+        this.tokens = this.capacity;
+        this.refilledAtNanos = System.nanoTime();
+    }
+
+    /**
+     * register call that earns its share of extra attempt
+     */
+    synchronized void deposit() {
+        refill(System.nanoTime());
+        tokens = Math.min(capacity, tokens + ratio);
+    }
+
+    /**
+     * take token for extra attempt if there is one
+     * @return true if extra attempt can be made
+     */
+    synchronized boolean tryWithdraw() {
+        refill(System.nanoTime());
+        if(tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * add reserve collected since last refill
+     * @param now current time
+     */
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilledAtNanos) * reservePerNano);
+        refilledAtNanos = now;
+    }
+}
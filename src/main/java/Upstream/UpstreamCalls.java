@@ -0,0 +1,368 @@
+package Upstream;
+
+import Metrics.LatencyHistogram;
+import org.apache.http.client.HttpResponseException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Idempotent calls to services with deadline of client request, bounded retries and hedging. Failed attempt is
+ * retried after backoff while deadline allows it, and non-blocking attempt slower than quantile of latency of
+ * instance gets second attempt in parallel, the first answer wins and the other attempt is cancelled. Retries
+ * and hedges of each function take tokens of its {@link RetryBudget}, so they cannot multiply load of failing
+ * service
+ */
+public class UpstreamCalls {
+    /**
+     * non-blocking attempt of call
+     * @param <T> type of result
+     */
+    public interface Attempt<T> {
+        CompletableFuture<T> start(Deadline deadline) throws IOException;
+    }
+
+    /**
+     * blocking attempt of call
+     * @param <T> type of result
+     */
+    public interface BlockingAttempt<T> {
+        T call(Deadline deadline) throws IOException;
+    }
+
+    //  amount of new latencies of instance after which its hedge delay is computed again
+    private static final long HEDGE_REFRESH_SAMPLES = 64;
+
+    private final UpstreamSettings settings;
+
+    //  budgets of extra attempts by name of function
+    private final ConcurrentHashMap<String, RetryBudget> budgets = new ConcurrentHashMap<>();
+
+    //  thread starting hedges and delayed retries of non-blocking calls
+    private final ScheduledExecutorService timer;
+
+    //  extra attempts made, hedges that answered first, extra attempts refused by budget and expired calls
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+    private final LongAdder deadlineExceeded = new LongAdder();
+
+    public UpstreamCalls(UpstreamSettings settings) {
+        this.settings = settings;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "upstream-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param headerValue value of deadline header of client request, null if there is none
+     * @return deadline of request limited by settings
+     */
+    public Deadline deadlineOf(String headerValue) {
+        return Deadline.fromHeader(headerValue, settings.defaultDeadlineMillis, settings.maxDeadlineMillis);
+    }
+
+    /**
+     * make idempotent call without blocking caller
+     * @param function name of function, owner of retry budget
+     * @param deadline deadline of client request
+     * @param latency latency of instance, its quantile is delay of hedge
+     * @param retryable check of failure of attempt, only such failures are retried
+     * @param attempt attempt of call, started once for each try
+     * @param <T> type of result
+     * @return future completed with result of the first successful attempt, cancelling it cancels all attempts
+     */
+    public <T> CompletableFuture<T> execute(String function, Deadline deadline, LatencyHistogram latency,
+                                            Predicate<Throwable> retryable, Attempt<T> attempt) {
+        Call<T> call = new Call<>(budgetOf(function), deadline, retryable, attempt);
+        call.launch(false);
+        if(settings.hedging && latency.count() >= settings.hedgeMinSamples) {
+            long delayNanos = Math.max(settings.hedgeMinDelayNanos,
+                    latency.cachedQuantileNanos(settings.hedgeQuantile, HEDGE_REFRESH_SAMPLES));
+            if(delayNanos < deadline.remainingNanos()) {
+                timer.schedule(call::hedge, delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        return call.result;
+    }
+
+    /**
+     * make idempotent call on thread of caller, failed attempts are retried without hedging
+     * @param function name of function, owner of retry budget
+     * @param deadline deadline of client request
+     * @param retryable check of failure of attempt, only such failures are retried
+     * @param attempt attempt of call
+     * @param <T> type of result
+     * @return result of the first successful attempt
+     * @throws IOException failure of the last attempt, {@link DeadlineExceededException} if deadline has passed
+     */
+    public <T> T executeBlocking(String function, Deadline deadline, Predicate<Throwable> retryable,
+                                 BlockingAttempt<T> attempt) throws IOException {
+        RetryBudget budget = budgetOf(function);
+        budget.deposit();
+        for(int attempts = 1; ; attempts++) {
+            if(deadline.isExpired()) {
+                deadlineExceeded.increment();
+                throw new DeadlineExceededException(null);
+            }
+            try {
+                return attempt.call(deadline);
+            } catch (IOException e) {
+                if(deadline.isExpired()) {
+                    deadlineExceeded.increment();
+                    throw new DeadlineExceededException(e);
+                }
+                if(attempts >= settings.maxAttempts || !retryable.test(e)) {
+                    throw e;
+                }
+                if(!budget.tryWithdraw()) {
+                    budgetExhausted.increment();
+                    throw e;
+                }
+                retries.increment();
+                try {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(backoffNanos(attempts), deadline.remainingNanos()));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("retry was interrupted");
+                }
+            }
+        }
+    }
+
+    /**
+     * wait for call shared with other callers no longer than deadline of this caller, the shared call itself
+     * keeps running for callers that are still waiting
+     * @param shared future of shared call
+     * @param deadline deadline of client request of this caller
+     * @param <T> type of result
+     * @return future completed with result of shared call or with {@link DeadlineExceededException}
+     */
+    public <T> CompletableFuture<T> awaitWithin(CompletableFuture<T> shared, Deadline deadline) {
+        if(!deadline.isSet()) {
+            return shared;
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        shared.copy().orTimeout(deadline.remainingNanos(), TimeUnit.NANOSECONDS).whenComplete((value, throwable) -> {
+            if(throwable instanceof TimeoutException) {
+                deadlineExceeded.increment();
+                result.completeExceptionally(new DeadlineExceededException(null));
+            } else if(throwable != null) {
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * failures worth another attempt: errors of connection and timeouts of service, and 5xx responses
+     * @param throwable failure of attempt
+     * @return true if call can be retried
+     */
+    public static boolean isRetryable(Throwable throwable) {
+        Throwable cause = unwrap(throwable);
+        if(cause instanceof HttpResponseException) {
+            return ((HttpResponseException) cause).getStatusCode() >= 500;
+        }
+        return cause instanceof IOException && !(cause instanceof DeadlineExceededException);
+    }
+
+    /**
+     * @return extra attempts made after failures
+     */
+    public long retries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return hedges sent to slow instances
+     */
+    public long hedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return hedges that answered before the first attempt
+     */
+    public long hedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * @return retries and hedges not made because budget of function was empty
+     */
+    public long budgetExhausted() {
+        return budgetExhausted.sum();
+    }
+
+    /**
+     * @return calls that failed because deadline of client request has passed
+     */
+    public long deadlineExceeded() {
+        return deadlineExceeded.sum();
+    }
+
+    private RetryBudget budgetOf(String function) {
+        RetryBudget budget = budgets.get(function);
+        if(budget == null) {
+            budget = budgets.computeIfAbsent(function, key -> new RetryBudget(settings.budgetRatio,
+                    settings.budgetMinPerSecond, settings.budgetCapacity));
+        }
+        return budget;
+    }
+
+    /**
+     * @param attempts amount of attempts made so far
+     * @return random delay up to exponential backoff of next attempt
+     */
+    private long backoffNanos(int attempts) {
+        long ceiling = settings.backoffNanos << Math.min(attempts - 1, 10);
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+    }
+
+    /**
+     * one non-blocking call with its attempts in flight
+     * @param <T> type of result
+     */
+    private final class Call<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        private final RetryBudget budget;
+        private final Deadline deadline;
+        private final Predicate<Throwable> retryable;
+        private final Attempt<T> attempt;
+
+        //  attempts in flight, amount of started attempts not counting hedge and flag of sent hedge
+        private final List<CompletableFuture<T>> inFlight = new ArrayList<>(2);
+        private int attempts;
+        private boolean hedged;
+
+        Call(RetryBudget budget, Deadline deadline, Predicate<Throwable> retryable, Attempt<T> attempt) {
+            this.budget = budget;
+            this.deadline = deadline;
+            this.retryable = retryable;
+            this.attempt = attempt;
+            budget.deposit();
+
+            //  attempts that lost or are no longer needed are cancelled, which aborts their requests
+            result.whenComplete((value, throwable) -> {
+                List<CompletableFuture<T>> losers;
+                synchronized (this) {
+                    losers = new ArrayList<>(inFlight);
+                }
+                losers.forEach(loser -> loser.cancel(true));
+            });
+        }
+
+        /**
+         * start attempt unless call is already finished
+         * @param hedge true if attempt is hedge of attempt in flight
+         */
+        void launch(boolean hedge) {
+            if(deadline.isExpired()) {
+                fail(null);
+                return;
+            }
+            CompletableFuture<T> started;
+            synchronized (this) {
+                if(result.isDone()) {
+                    return;
+                }
+                if(!hedge) {
+                    attempts++;
+                }
+                try {
+                    started = attempt.start(deadline);
+                } catch (Exception e) {
+                    started = CompletableFuture.failedFuture(e);
+                }
+                inFlight.add(started);
+            }
+            CompletableFuture<T> current = started;
+            current.whenComplete((value, throwable) -> finished(current, hedge, value, throwable));
+        }
+
+        /**
+         * send hedge if the first attempt has not answered yet and budget allows it
+         */
+        void hedge() {
+            synchronized (this) {
+                if(result.isDone() || hedged || inFlight.isEmpty()) {
+                    return;
+                }
+                if(!budget.tryWithdraw()) {
+                    budgetExhausted.increment();
+                    return;
+                }
+                hedged = true;
+            }
+            hedges.increment();
+            launch(true);
+        }
+
+        private void finished(CompletableFuture<T> attemptFuture, boolean hedge, T value, Throwable throwable) {
+            synchronized (this) {
+                inFlight.remove(attemptFuture);
+                if(result.isDone()) {
+                    return;
+                }
+                if(throwable == null) {
+                    if(hedge) {
+                        hedgeWins.increment();
+                    }
+                    result.complete(value);
+                    return;
+                }
+
+                //  other attempt may still answer
+                if(!inFlight.isEmpty()) {
+                    return;
+                }
+            }
+
+            if(deadline.isExpired()) {
+                fail(throwable);
+                return;
+            }
+            if(attempts >= settings.maxAttempts || !retryable.test(throwable)) {
+                result.completeExceptionally(throwable);
+                return;
+            }
+            if(!budget.tryWithdraw()) {
+                budgetExhausted.increment();
+                result.completeExceptionally(throwable);
+                return;
+            }
+            retries.increment();
+            long delayNanos = Math.min(backoffNanos(attempts), deadline.remainingNanos());
+            timer.schedule(() -> launch(false), delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void fail(Throwable cause) {
+            if(result.completeExceptionally(new DeadlineExceededException(cause == null ? null : unwrap(cause)))) {
+                deadlineExceeded.increment();
+            }
+        }
+    }
+}
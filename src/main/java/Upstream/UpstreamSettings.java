@@ -0,0 +1,66 @@
+package Upstream;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of deadlines, retries and hedging of calls to services, read from -Dgateway.deadline.*,
+ * -Dgateway.retry.* and -Dgateway.hedge.* system properties
+ */
+public class UpstreamSettings {
+    //  deadline of requests without header and longest deadline client can ask for, 0 for none
+    final long defaultDeadlineMillis;
+    final long maxDeadlineMillis;
+
+    //  max amount of attempts of one call including the first one, 1 turns retries off
+    final int maxAttempts;
+
+    //  base of exponential backoff between attempts
+    final long backoffNanos;
+
+    //  share of token of retry budget added by each call, tokens added each second and max amount of tokens
+    final double budgetRatio;
+    final double budgetMinPerSecond;
+    final double budgetCapacity;
+
+    //  second attempt is sent when the first one is slower than this quantile of latency of instance
+    final boolean hedging;
+    final double hedgeQuantile;
+
+    //  shortest delay of hedge and amount of latency samples of instance needed before hedging
+    final long hedgeMinDelayNanos;
+    final long hedgeMinSamples;
+
+    public UpstreamSettings(long defaultDeadlineMillis, long maxDeadlineMillis, int maxAttempts, long backoffMillis,
+                            double budgetRatio, double budgetMinPerSecond, double budgetCapacity, boolean hedging,
+                            double hedgeQuantile, long hedgeMinDelayMillis, long hedgeMinSamples) {
+        this.defaultDeadlineMillis = defaultDeadlineMillis;
+        this.maxDeadlineMillis = maxDeadlineMillis;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffNanos = TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+        this.budgetRatio = budgetRatio;
+        this.budgetMinPerSecond = budgetMinPerSecond;
+        this.budgetCapacity = budgetCapacity;
+        this.hedging = hedging;
+        this.hedgeQuantile = hedgeQuantile;
+        this.hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeMinDelayMillis);
+        this.hedgeMinSamples = hedgeMinSamples;
+    }
+
+    /**
+     * @return settings taken from system properties, with defaults for missing ones
+     */
+    public static UpstreamSettings fromSystemProperties() {
+        return new UpstreamSettings(
+                Long.getLong("gateway.deadline.defaultMillis", 0),
+                Long.getLong("gateway.deadline.maxMillis", 60_000),
+                Integer.getInteger("gateway.retry.maxAttempts", 2),
+                Long.getLong("gateway.retry.backoffMillis", 25),
+                Double.parseDouble(System.getProperty("gateway.retry.budgetRatio", "0.1")),
+                Double.parseDouble(System.getProperty("gateway.retry.minPerSecond", "10")),
+                Double.parseDouble(System.getProperty("gateway.retry.budgetCapacity", "100")),
+                Boolean.getBoolean("gateway.hedge.enabled"),
+                Double.parseDouble(System.getProperty("gateway.hedge.quantile", "0.95")),
+                Long.getLong("gateway.hedge.minDelayMillis", 10),
+                Long.getLong("gateway.hedge.minSamples", 100));
+    }
+}